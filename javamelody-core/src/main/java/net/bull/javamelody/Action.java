@@ -93,6 +93,14 @@ enum Action { // NOPMD
 	 * Réinitialisation des hotspots.
 	 */
 	CLEAR_HOTSPOTS(""),
+	/**
+	 * Démarre une capture à haute résolution.
+	 */
+	START_HIGH_RESOLUTION_CAPTURE(""),
+	/**
+	 * Arrête la capture à haute résolution en cours.
+	 */
+	STOP_HIGH_RESOLUTION_CAPTURE(""),
 	/**
 	 * Purge les fichiers .rrd et .ser.gz obsolètes.
 	 */
@@ -243,6 +251,17 @@ enum Action { // NOPMD
 			collector.getSamplingProfiler().clear();
 			messageForReport = I18N.getString("hotspots_cleared");
 			break;
+		case START_HIGH_RESOLUTION_CAPTURE:
+			assert collector != null;
+			final HighResolutionCapture capture = collector.startHighResolutionCapture();
+			messageForReport = I18N.getFormattedString("high_resolution_capture_started", I18N
+					.createDateAndTimeFormat().format(capture.getEndDate()));
+			break;
+		case STOP_HIGH_RESOLUTION_CAPTURE:
+			assert collector != null;
+			collector.stopHighResolutionCapture();
+			messageForReport = I18N.getString("high_resolution_capture_stopped");
+			break;
 		case PURGE_OBSOLETE_FILES:
 			assert collector != null;
 			collector.deleteObsoleteFiles();
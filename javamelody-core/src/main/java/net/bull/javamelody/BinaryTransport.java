@@ -0,0 +1,403 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodage binaire compact et versionné des données échangées entre le serveur de collecte
+ * et les applications monitorées (format de transport "binary").
+ * <br/>Les compteurs, requêtes, erreurs et requêtes en cours sont écrits champ par champ
+ * (entiers de taille variable, dictionnaire des chaînes déjà écrites dans le flux
+ * pour ne transmettre qu'une fois chaque nom de requête, identifiant ou stack-trace),
+ * les autres objets (JavaInformations notamment) sont inclus en sérialisation java.
+ * <br/>Contrairement à la sérialisation java, la lecture peut passer au fil de l'eau les requêtes des compteurs
+ * à un {@link RequestHandler}, sans construire en mémoire la liste complète des requêtes (voir {@link StagedResponse}).
+ * @author Emeric Vernat
+ */
+final class BinaryTransport {
+	/**
+	 * Version du format, écrite en début de flux : à incrémenter si l'encodage change.
+	 */
+	static final int VERSION = 1;
+	private static final int MAGIC = 0x4A4D4201; // "JMB" puis 0x01
+	private static final int NULL_TAG = 0;
+	private static final int LIST_TAG = 1;
+	private static final int COUNTER_TAG = 2;
+	private static final int CONTEXT_TAG = 3;
+	private static final int STRING_TAG = 4;
+	private static final int SERIALIZED_TAG = 5;
+	private static final String CHARSET = "UTF-8";
+
+	private BinaryTransport() {
+		super();
+	}
+
+	/**
+	 * Flux d'écriture binaire, avec dictionnaire des chaînes et des compteurs déjà écrits.
+	 */
+	static final class Output {
+		private final DataOutputStream output;
+		private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		private final Map<Counter, Integer> counterIndexes = new IdentityHashMap<Counter, Integer>();
+
+		Output(OutputStream output) {
+			super();
+			assert output != null;
+			this.output = new DataOutputStream(output);
+		}
+
+		void writeBoolean(boolean value) throws IOException {
+			output.writeBoolean(value);
+		}
+
+		/**
+		 * Écrit un long en taille variable (zigzag puis 7 bits par octet).
+		 * @param value long
+		 * @throws IOException e
+		 */
+		void writeLong(long value) throws IOException {
+			writeUnsignedLong(value << 1 ^ value >> 63);
+		}
+
+		private void writeUnsignedLong(long value) throws IOException {
+			long remaining = value;
+			while ((remaining & ~0x7FL) != 0) {
+				output.writeByte((int) (remaining & 0x7F | 0x80));
+				remaining >>>= 7;
+			}
+			output.writeByte((int) remaining);
+		}
+
+		/**
+		 * Écrit une chaîne éventuellement nulle : seule la première occurrence d'une chaîne
+		 * est écrite en UTF-8, les suivantes sont des références dans le dictionnaire.
+		 * @param value String
+		 * @throws IOException e
+		 */
+		void writeString(String value) throws IOException {
+			if (value == null) {
+				writeUnsignedLong(0);
+				return;
+			}
+			final Integer index = stringIndexes.get(value);
+			if (index != null) {
+				writeUnsignedLong(index + 2L);
+				return;
+			}
+			stringIndexes.put(value, stringIndexes.size());
+			writeUnsignedLong(1);
+			final byte[] bytes = value.getBytes(CHARSET);
+			writeUnsignedLong(bytes.length);
+			output.write(bytes);
+		}
+
+		/**
+		 * Écrit un compteur, ou une référence à ce compteur s'il a déjà été écrit dans le flux.
+		 * @param counter Counter
+		 * @throws IOException e
+		 */
+		void writeCounter(Counter counter) throws IOException {
+			final Integer index = counterIndexes.get(counter);
+			if (index != null) {
+				writeUnsignedLong(index + 1L);
+				return;
+			}
+			counterIndexes.put(counter, counterIndexes.size());
+			writeUnsignedLong(0);
+			counter.writeBinary(this);
+		}
+
+		void writeLongs(long[] values) throws IOException {
+			if (values == null) {
+				writeUnsignedLong(0);
+				return;
+			}
+			writeUnsignedLong(values.length + 1L);
+			for (final long value : values) {
+				writeLong(value);
+			}
+		}
+
+		void writeLongsByString(Map<String, Long> map) throws IOException {
+			if (map == null) {
+				writeUnsignedLong(0);
+				return;
+			}
+			writeUnsignedLong(map.size() + 1L);
+			for (final Map.Entry<String, Long> entry : map.entrySet()) {
+				writeString(entry.getKey());
+				writeLong(entry.getValue());
+			}
+		}
+
+		void writeValue(Object value) throws IOException {
+			if (value == null) {
+				writeUnsignedLong(NULL_TAG);
+			} else if (value instanceof ArrayList) {
+				final List<?> list = (List<?>) value;
+				writeUnsignedLong(LIST_TAG);
+				writeUnsignedLong(list.size());
+				for (final Object element : list) {
+					writeValue(element);
+				}
+			} else if (value instanceof Counter) {
+				writeUnsignedLong(COUNTER_TAG);
+				writeCounter((Counter) value);
+			} else if (value instanceof CounterRequestContext
+					&& ((CounterRequestContext) value).getParentContext() == null) {
+				writeUnsignedLong(CONTEXT_TAG);
+				((CounterRequestContext) value).writeBinary(this);
+			} else if (value instanceof String) {
+				writeUnsignedLong(STRING_TAG);
+				writeString((String) value);
+			} else {
+				// autres objets (JavaInformations, CollectCursor, etc) en sérialisation java
+				writeUnsignedLong(SERIALIZED_TAG);
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final ObjectOutputStream out = new ObjectOutputStream(bytes);
+				try {
+					out.writeObject(value);
+				} finally {
+					out.close();
+				}
+				writeUnsignedLong(bytes.size());
+				bytes.writeTo(output);
+			}
+		}
+
+		void flush() throws IOException {
+			output.flush();
+		}
+	}
+
+	/**
+	 * Traitement des requêtes des compteurs au fil de la lecture, au lieu de les garder dans les compteurs lus.
+	 */
+	interface RequestHandler {
+		/**
+		 * @param counter Compteur en cours de lecture
+		 * @param request Requête lue de ce compteur
+		 * @return true si la requête a été traitée, false pour la garder dans le compteur lu
+		 */
+		boolean requestRead(Counter counter, CounterRequest request);
+	}
+
+	/**
+	 * Flux de lecture binaire, symétrique de {@link Output}.
+	 */
+	static final class Input {
+		private final DataInputStream input;
+		private final List<String> strings = new ArrayList<String>();
+		private final List<Counter> counters = new ArrayList<Counter>();
+		private final RequestHandler requestHandler;
+
+		Input(InputStream input, RequestHandler requestHandler) {
+			super();
+			assert input != null;
+			this.input = new DataInputStream(input);
+			this.requestHandler = requestHandler;
+		}
+
+		/**
+		 * @return Traitement des requêtes lues, ou null pour les garder dans les compteurs lus
+		 */
+		RequestHandler getRequestHandler() {
+			return requestHandler;
+		}
+
+		boolean readBoolean() throws IOException {
+			return input.readBoolean();
+		}
+
+		long readLong() throws IOException {
+			final long value = readUnsignedLong();
+			return value >>> 1 ^ -(value & 1);
+		}
+
+		int readInt() throws IOException {
+			return (int) readLong();
+		}
+
+		private long readUnsignedLong() throws IOException {
+			long result = 0;
+			int shift = 0;
+			while (shift < 64) {
+				final int b = input.readUnsignedByte();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+				shift += 7;
+			}
+			throw new IOException("Malformed binary transport data");
+		}
+
+		private int readSize() throws IOException {
+			final long size = readUnsignedLong();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Malformed binary transport data");
+			}
+			return (int) size;
+		}
+
+		String readString() throws IOException {
+			final int code = readSize();
+			if (code == 0) {
+				return null;
+			} else if (code == 1) {
+				final byte[] bytes = new byte[readSize()];
+				input.readFully(bytes);
+				final String value = new String(bytes, CHARSET);
+				strings.add(value);
+				return value;
+			}
+			final int index = code - 2;
+			if (index >= strings.size()) {
+				throw new IOException("Malformed binary transport data");
+			}
+			return strings.get(index);
+		}
+
+		Counter readCounter() throws IOException {
+			final int code = readSize();
+			if (code == 0) {
+				// l'index est réservé avant la lecture pour les références éventuelles
+				final int index = counters.size();
+				counters.add(null);
+				final Counter counter = Counter.readBinary(this);
+				counters.set(index, counter);
+				return counter;
+			}
+			final int index = code - 1;
+			if (index >= counters.size() || counters.get(index) == null) {
+				throw new IOException("Malformed binary transport data");
+			}
+			return counters.get(index);
+		}
+
+		long[] readLongs() throws IOException {
+			final int code = readSize();
+			if (code == 0) {
+				return null;
+			}
+			final long[] values = new long[code - 1];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = readLong();
+			}
+			return values;
+		}
+
+		Map<String, Long> readLongsByString() throws IOException {
+			final int code = readSize();
+			if (code == 0) {
+				return null;
+			}
+			final Map<String, Long> map = new LinkedHashMap<String, Long>();
+			for (int i = 1; i < code; i++) {
+				final String key = readString();
+				map.put(key, readLong());
+			}
+			return map;
+		}
+
+		Object readValue() throws IOException, ClassNotFoundException {
+			final int tag = readSize();
+			switch (tag) {
+			case NULL_TAG:
+				return null;
+			case LIST_TAG:
+				final int size = readSize();
+				final List<Object> list = new ArrayList<Object>(Math.min(size, 1024));
+				for (int i = 0; i < size; i++) {
+					list.add(readValue());
+				}
+				return list;
+			case COUNTER_TAG:
+				return readCounter();
+			case CONTEXT_TAG:
+				return CounterRequestContext.readBinary(this, null);
+			case STRING_TAG:
+				return readString();
+			case SERIALIZED_TAG:
+				final byte[] bytes = new byte[readSize()];
+				input.readFully(bytes);
+				final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+				try {
+					return in.readObject();
+				} finally {
+					in.close();
+				}
+			default:
+				throw new IOException("Unknown tag in binary transport data: " + tag);
+			}
+		}
+	}
+
+	static void write(Serializable serializable, OutputStream output) throws IOException {
+		final Output out = new Output(output);
+		out.output.writeInt(MAGIC);
+		out.output.writeByte(VERSION);
+		out.writeValue(serializable);
+		out.flush();
+	}
+
+	static Serializable read(InputStream input) throws IOException, ClassNotFoundException {
+		return read(input, null);
+	}
+
+	/**
+	 * Lit un flux en passant les requêtes des compteurs au handler au fil de la lecture :
+	 * la mémoire utilisée pour la lecture reste alors de l'ordre d'une requête quel que soit le nombre de requêtes.
+	 * @param input InputStream
+	 * @param requestHandler Traitement des requêtes lues, ou null pour les garder dans les compteurs lus
+	 * @return Serializable
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e
+	 */
+	static Serializable read(InputStream input, RequestHandler requestHandler) throws IOException,
+			ClassNotFoundException {
+		final Input in = new Input(input, requestHandler);
+		if (in.input.readInt() != MAGIC) {
+			throw new IOException("Not a binary transport stream");
+		}
+		final int version = in.input.readUnsignedByte();
+		if (version > VERSION) {
+			throw new IOException("Unsupported binary transport version: " + version
+					+ ", please upgrade javamelody on the collector server");
+		}
+		// c'est un Serializable que l'on a écrit
+		return (Serializable) in.readValue();
+	}
+}
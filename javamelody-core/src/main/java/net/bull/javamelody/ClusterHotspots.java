@@ -0,0 +1,180 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
+
+/**
+ * Hotspots d'une application fusionnés entre ses serveurs, dans le serveur de collecte.
+ * <br/>Les données de chaque serveur (méthodes et piles d'appels échantillonnées) remplacent
+ * les précédentes de ce serveur à chaque mise à jour et seules les différences sont reportées
+ * dans les totaux fusionnés, qui ne sont donc pas recalculés à chaque affichage.
+ * @author Emeric Vernat
+ */
+final class ClusterHotspots {
+	// délai après le dernier affichage au-delà duquel les hotspots ne sont plus mis à jour
+	private static final long UNUSED_DELAY_MILLIS = 30 * 60 * 1000L;
+
+	private final Map<String, Map<SampledMethod, Long>> methodCountsByNode = new HashMap<String, Map<SampledMethod, Long>>();
+	private final Map<String, Map<String, Long>> stackCountsByNode = new HashMap<String, Map<String, Long>>();
+	private final Map<SampledMethod, Long> methodCounts = new HashMap<SampledMethod, Long>();
+	private final Map<String, Long> stackCounts = new HashMap<String, Long>();
+	private volatile long lastAccessTime = System.currentTimeMillis();
+
+	/**
+	 * Note un affichage des hotspots.
+	 */
+	void touch() {
+		lastAccessTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return true si les hotspots n'ont pas été affichés depuis un moment
+	 */
+	boolean isUnused() {
+		return isUnusedAt(System.currentTimeMillis());
+	}
+
+	boolean isUnusedAt(long timeMillis) {
+		return timeMillis - lastAccessTime > UNUSED_DELAY_MILLIS;
+	}
+
+	/**
+	 * Remplace les hotspots d'un serveur.
+	 * @param node Url du serveur
+	 * @param hotspots Méthodes échantillonnées du serveur (null si non récupérées)
+	 * @param hotspotStacks Piles d'appels échantillonnées du serveur (null si non récupérées)
+	 */
+	synchronized void updateNode(String node, List<SampledMethod> hotspots,
+			List<SampledStack> hotspotStacks) {
+		assert node != null;
+		if (hotspots != null) {
+			final Map<SampledMethod, Long> counts = new HashMap<SampledMethod, Long>(
+					hotspots.size());
+			for (final SampledMethod method : hotspots) {
+				// SampledMethod implémente hashCode et equals
+				counts.put(method, method.getCount());
+			}
+			merge(methodCounts, methodCountsByNode.put(node, counts), counts);
+		}
+		if (hotspotStacks != null) {
+			final Map<String, Long> counts = new HashMap<String, Long>(hotspotStacks.size());
+			for (final SampledStack sampledStack : hotspotStacks) {
+				counts.put(sampledStack.getStack(), sampledStack.getCount());
+			}
+			merge(stackCounts, stackCountsByNode.put(node, counts), counts);
+		}
+	}
+
+	/**
+	 * Retire les hotspots des serveurs qui ne font plus partie de l'application.
+	 * @param nodes Urls des serveurs de l'application
+	 */
+	synchronized void retainNodes(Collection<String> nodes) {
+		final Set<String> removedNodes = new HashSet<String>(methodCountsByNode.keySet());
+		removedNodes.addAll(stackCountsByNode.keySet());
+		removedNodes.removeAll(nodes);
+		for (final String node : removedNodes) {
+			final Map<SampledMethod, Long> emptyMethodCounts = Collections.emptyMap();
+			merge(methodCounts, methodCountsByNode.remove(node), emptyMethodCounts);
+			final Map<String, Long> emptyStackCounts = Collections.emptyMap();
+			merge(stackCounts, stackCountsByNode.remove(node), emptyStackCounts);
+		}
+	}
+
+	private static <K> void merge(Map<K, Long> totals, Map<K, Long> previous, Map<K, Long> current) {
+		// seules les différences entre les données précédentes et actuelles du serveur sont ajoutées,
+		// une valeur plus petite qu'avant (redémarrage, action clear_hotspots) diminue donc le total
+		for (final Map.Entry<K, Long> entry : current.entrySet()) {
+			final Long previousCount = previous == null ? null : previous.get(entry.getKey());
+			final long delta = entry.getValue() - (previousCount == null ? 0 : previousCount);
+			if (delta != 0) {
+				add(totals, entry.getKey(), delta);
+			}
+		}
+		if (previous != null) {
+			for (final Map.Entry<K, Long> entry : previous.entrySet()) {
+				if (!current.containsKey(entry.getKey())) {
+					add(totals, entry.getKey(), -entry.getValue());
+				}
+			}
+		}
+	}
+
+	private static <K> void add(Map<K, Long> totals, K key, long delta) {
+		final Long total = totals.get(key);
+		final long newTotal = (total == null ? 0 : total) + delta;
+		if (newTotal > 0) {
+			totals.put(key, newTotal);
+		} else {
+			totals.remove(key);
+		}
+	}
+
+	synchronized List<SampledMethod> getHotspots() {
+		final List<SampledMethod> result = new ArrayList<SampledMethod>(methodCounts.size());
+		for (final Map.Entry<SampledMethod, Long> entry : methodCounts.entrySet()) {
+			final SampledMethod method = new SampledMethod(entry.getKey().getClassName(), entry
+					.getKey().getMethodName());
+			method.setCount(entry.getValue());
+			result.add(method);
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	synchronized List<SampledStack> getHotspotStacks() {
+		final List<SampledStack> result = new ArrayList<SampledStack>(stackCounts.size());
+		for (final Map.Entry<String, Long> entry : stackCounts.entrySet()) {
+			final SampledStack sampledStack = new SampledStack(entry.getKey());
+			sampledStack.setCount(entry.getValue());
+			result.add(sampledStack);
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	synchronized int getNodesCount() {
+		return methodCountsByNode.size();
+	}
+
+	synchronized void clear() {
+		methodCountsByNode.clear();
+		stackCountsByNode.clear();
+		methodCounts.clear();
+		stackCounts.clear();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "[nodes=" + getNodesCount() + ", methods="
+				+ methodCounts.size() + ", stacks=" + stackCounts.size() + ']';
+	}
+}
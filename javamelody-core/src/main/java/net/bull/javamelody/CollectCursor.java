@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Curseur de la collecte par différences entre une application monitorée et le serveur de collecte.
+ * <br/>Le serveur de collecte renvoie à chaque collecte le curseur reçu lors de la collecte précédente
+ * et l'application ne lui envoie alors que les hits et les erreurs survenus depuis ce curseur,
+ * sans vider ses compteurs : si une réponse est perdue, le serveur renvoie l'avant-dernier curseur
+ * et reçoit de nouveau les mêmes différences.
+ * <br/>En mode push, c'est l'application qui envoie le dernier curseur confirmé par le serveur de collecte.
+ * @author Emeric Vernat
+ */
+final class CollectCursor implements Serializable {
+	private static final long serialVersionUID = -2591233561337457452L;
+	private final String id;
+
+	/**
+	 * Etats des compteurs déjà envoyés au serveur de collecte, gardés dans l'application monitorée.
+	 * <br/>Quelques états suffisent : celui du dernier curseur confirmé et celui du curseur envoyé juste après,
+	 * qui ne sont jamais oubliés tant qu'un curseur plus récent n'est pas confirmé, et ceux des derniers
+	 * curseurs envoyés en attente de confirmation (si des réponses ou des envois ont été perdus).
+	 */
+	static final class Tracker {
+		private static final int MAX_SNAPSHOTS = 3;
+		// préfixe pour que les curseurs d'une exécution précédente de l'application soient inconnus
+		private final String prefix = Long.toString(System.currentTimeMillis(), 36) + '-';
+		private long sequence;
+		// états par curseur, du plus ancien au plus récent
+		private final Map<String, List<Counter>> snapshots = new LinkedHashMap<String, List<Counter>>();
+		// dernier curseur confirmé, dont l'état est toujours le plus ancien gardé
+		private String acknowledgedCursorId;
+
+		/**
+		 * Calcule les différences des compteurs depuis un curseur.
+		 * @param cursorId Identifiant du curseur reçu lors de la collecte précédente,
+		 * ou identifiant inconnu (première collecte ou redémarrage du serveur de collecte)
+		 * @param counters Clones des compteurs, qui ne doivent plus être modifiés par ailleurs
+		 * @return Compteurs ne contenant que les différences depuis ce curseur, suivis du nouveau curseur
+		 */
+		synchronized List<Serializable> getCountersSince(String cursorId, List<Counter> counters) {
+			List<Counter> previousCounters = null;
+			if (snapshots.containsKey(cursorId)) {
+				// le serveur de collecte a bien reçu ce curseur :
+				// les états plus anciens ne serviront plus
+				final Iterator<String> iterator = snapshots.keySet().iterator();
+				while (!iterator.next().equals(cursorId)) {
+					iterator.remove();
+				}
+				previousCounters = snapshots.get(cursorId);
+				acknowledgedCursorId = cursorId;
+			} else {
+				// curseur inconnu : première collecte, ou bien le serveur de collecte a pu redémarrer
+				// et comme avant on n'envoie que ce qui est nouveau depuis la dernière collecte
+				for (final List<Counter> snapshot : snapshots.values()) {
+					previousCounters = snapshot;
+				}
+			}
+			final List<Serializable> result = new ArrayList<Serializable>(counters.size() + 1);
+			for (final Counter counter : counters) {
+				final Counter previousCounter = getCounterByName(previousCounters,
+						counter.getName());
+				if (previousCounter == null) {
+					result.add(counter);
+				} else {
+					// les clones en paramètres sont gardés intacts pour la collecte suivante
+					final Counter delta = counter.clone();
+					delta.removeRequestsAndErrors(previousCounter);
+					result.add(delta);
+				}
+			}
+			sequence++;
+			final String newCursorId = prefix + sequence;
+			snapshots.put(newCursorId, counters);
+			if (snapshots.size() > MAX_SNAPSHOTS) {
+				// on oublie le plus ancien état non confirmé, mais jamais celui du curseur confirmé :
+				// si les envois échouent plusieurs fois de suite, les différences seront toujours
+				// calculées depuis ce curseur quand le serveur de collecte sera de nouveau disponible.
+				// Ni celui du curseur suivant : en mode push, le serveur de collecte n'accepte que
+				// le premier envoi depuis le curseur confirmé, et il confirmera ce curseur suivant
+				// même si les réponses aux envois suivants, refusés, ont été perdues
+				final Iterator<String> iterator = snapshots.keySet().iterator();
+				if (iterator.next().equals(acknowledgedCursorId)) {
+					iterator.next();
+					iterator.next();
+				}
+				iterator.remove();
+			}
+			result.add(new CollectCursor(newCursorId));
+			return result;
+		}
+
+		private static Counter getCounterByName(List<Counter> counters, String name) {
+			if (counters != null) {
+				for (final Counter counter : counters) {
+					if (counter.getName().equals(name)) {
+						return counter;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	CollectCursor(String id) {
+		super();
+		assert id != null;
+		this.id = id;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[id=" + getId() + ']';
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Planification des collectes des applications dans le serveur de collecte.
+ * <br/>Une seule collecte à la fois est exécutée par application : si la collecte précédente d'une
+ * application est encore en cours lors d'une période, cette période est sautée et les périodes sautées
+ * sont regroupées en une seule collecte lancée dès la fin de la collecte en cours. Ainsi une application
+ * lente n'accumule pas de collectes en attente et ne bloque pas les threads des autres applications.
+ * <br/>Le début de la collecte de chaque application est décalé d'un délai aléatoire fixe (au plus 20%
+ * de la période) pour ne pas appeler toutes les applications au même instant, et le nombre de threads
+ * de collecte s'adapte à la durée des dernières collectes, dans la limite du paramètre collect-threads.
+ * <br/>Le retard de collecte d'une application est le temps écoulé depuis la fin de sa dernière collecte
+ * au-delà de la période : il est signalé dans la page du serveur de collecte s'il dépasse une période.
+ * @author Emeric Vernat
+ */
+final class CollectScheduler {
+	private static final Logger LOGGER = Logger.getLogger("javamelody");
+	private static final int DEFAULT_MAX_THREADS = 10;
+	private static final double MAX_JITTER_RATIO = 0.2;
+	private static final Random RANDOM = new Random();
+
+	private final Timer timer;
+	private final long periodMillis;
+	private final int maxThreads;
+	private final ThreadPoolExecutor executorService;
+	private final Map<String, ApplicationState> statesByApplication = new ConcurrentHashMap<String, ApplicationState>();
+
+	/**
+	 * Etat de la planification des collectes d'une application.
+	 */
+	static final class ApplicationState {
+		private final long jitterMillis;
+		private final long firstScheduleMillis = System.currentTimeMillis();
+		private boolean running;
+		private boolean pending;
+		private long lastEndMillis = -1;
+		private long lastDurationMillis = -1;
+		private int collectCount;
+		private int skippedCount;
+		private int consecutiveSkippedCount;
+
+		ApplicationState(long jitterMillis) {
+			super();
+			this.jitterMillis = jitterMillis;
+		}
+
+		long getJitterMillis() {
+			return jitterMillis;
+		}
+
+		synchronized boolean isRunning() {
+			return running;
+		}
+
+		/**
+		 * @return Durée de la dernière collecte terminée en millisecondes, ou -1 si aucune
+		 */
+		synchronized long getLastDurationMillis() {
+			return lastDurationMillis;
+		}
+
+		synchronized int getCollectCount() {
+			return collectCount;
+		}
+
+		/**
+		 * @return Nombre de périodes sautées car la collecte précédente était encore en cours
+		 */
+		synchronized int getSkippedCount() {
+			return skippedCount;
+		}
+
+		synchronized long getLagMillis(long periodMillis) {
+			final long lastMillis = lastEndMillis != -1 ? lastEndMillis : firstScheduleMillis
+					+ jitterMillis;
+			return Math.max(System.currentTimeMillis() - lastMillis - periodMillis, 0);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public synchronized String toString() {
+			return getClass().getSimpleName() + "[running=" + running + ", pending=" + pending
+					+ ", jitter=" + jitterMillis + ", lastDuration=" + lastDurationMillis
+					+ ", collects=" + collectCount + ", skipped=" + skippedCount + ']';
+		}
+	}
+
+	CollectScheduler(Timer timer, long periodMillis) {
+		super();
+		assert timer != null;
+		assert periodMillis > 0;
+		this.timer = timer;
+		this.periodMillis = periodMillis;
+		this.maxThreads = getMaxThreads();
+		this.executorService = new ThreadPoolExecutor(maxThreads, maxThreads, 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "javamelody collect "
+								+ threadNumber.incrementAndGet());
+						// les threads ne doivent pas empêcher l'arrêt de la jvm
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// pas de allowCoreThreadTimeOut qui n'existe qu'en jdk 1.6 : les threads au-delà du nombre de threads
+		// ajusté par adjustPoolSize s'arrêtent au bout d'une minute d'inactivité, et il en reste au moins un
+	}
+
+	/**
+	 * Planifie la collecte d'une application pour cette période, sauf si sa collecte précédente
+	 * est encore en cours : la collecte sera alors relancée dès la fin de celle-ci.
+	 * @param application Nom de l'application
+	 * @param collect Collecte de l'application (sans erreur)
+	 */
+	void schedule(final String application, final Runnable collect) {
+		final ApplicationState state = getApplicationState(application);
+		synchronized (state) {
+			if (state.running) {
+				state.pending = true;
+				state.skippedCount++;
+				state.consecutiveSkippedCount++;
+				if (state.consecutiveSkippedCount == 1) {
+					LOGGER.warn("collect for the application " + application
+							+ " skipped, because the previous collect is still running");
+				}
+				return;
+			}
+			state.running = true;
+		}
+		final TimerTask task = new TimerTask() {
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				submit(application, state, collect);
+			}
+		};
+		timer.schedule(task, state.getJitterMillis());
+	}
+
+	void submit(final String application, final ApplicationState state, final Runnable collect) {
+		try {
+			executorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long start = System.currentTimeMillis();
+					try {
+						collect.run();
+					} finally {
+						collectDone(application, state, collect, start);
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// collectes arrêtées (stop) : l'exception ne doit pas annuler le timer partagé
+			// et l'application ne doit pas rester en cours de collecte
+			synchronized (state) {
+				state.running = false;
+				state.pending = false;
+			}
+			LOGGER.debug("collect for the application " + application
+					+ " not started, because the collects are stopped");
+		}
+	}
+
+	void collectDone(String application, ApplicationState state, Runnable collect, long start) {
+		final boolean pending;
+		synchronized (state) {
+			final long end = System.currentTimeMillis();
+			state.lastEndMillis = end;
+			state.lastDurationMillis = end - start;
+			state.collectCount++;
+			pending = state.pending;
+			state.pending = false;
+			state.consecutiveSkippedCount = 0;
+			state.running = pending;
+		}
+		if (pending) {
+			// les périodes sautées sont regroupées en une seule collecte, lancée tout de suite
+			LOGGER.info("collect for the application " + application
+					+ " started again, because of skipped collects");
+			submit(application, state, collect);
+		}
+	}
+
+	private ApplicationState getApplicationState(String application) {
+		ApplicationState state = statesByApplication.get(application);
+		if (state == null) {
+			synchronized (statesByApplication) {
+				state = statesByApplication.get(application);
+				if (state == null) {
+					final long jitterMillis = (long) (RANDOM.nextDouble() * periodMillis * MAX_JITTER_RATIO);
+					state = new ApplicationState(jitterMillis);
+					statesByApplication.put(application, state);
+				}
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Adapte le nombre de threads de collecte à la durée des dernières collectes :
+	 * il faut que les collectes de toutes les applications tiennent dans la moitié de la période.
+	 */
+	void adjustPoolSize() {
+		long sumDurationMillis = 0;
+		for (final ApplicationState state : statesByApplication.values()) {
+			final long lastDurationMillis = state.getLastDurationMillis();
+			if (lastDurationMillis == -1) {
+				// durée inconnue : un thread pour cette application
+				sumDurationMillis += periodMillis / 2;
+			} else {
+				sumDurationMillis += lastDurationMillis;
+			}
+		}
+		final int threads = (int) Math.min(Math.max(
+				(2 * sumDurationMillis + periodMillis - 1) / periodMillis, 1), maxThreads);
+		if (threads != executorService.getCorePoolSize()) {
+			LOGGER.debug("collect threads: " + threads);
+			executorService.setCorePoolSize(threads);
+		}
+	}
+
+	int getPoolSize() {
+		return executorService.getCorePoolSize();
+	}
+
+	/**
+	 * Oublie l'état d'une application qui n'est plus collectée.
+	 * @param application Nom de l'application
+	 */
+	void remove(String application) {
+		statesByApplication.remove(application);
+	}
+
+	ApplicationState getState(String application) {
+		return statesByApplication.get(application);
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return Retard de collecte de l'application en millisecondes (0 si à l'heure ou inconnue)
+	 */
+	long getCollectLagMillis(String application) {
+		final ApplicationState state = statesByApplication.get(application);
+		if (state == null) {
+			return 0;
+		}
+		return state.getLagMillis(periodMillis);
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return true si la collecte de l'application a au moins une période de retard
+	 */
+	boolean isCollectLate(String application) {
+		return getCollectLagMillis(application) >= periodMillis;
+	}
+
+	static int getMaxThreads() {
+		final String parameter = Parameters.getParameter(Parameter.COLLECT_THREADS);
+		if (parameter == null) {
+			return DEFAULT_MAX_THREADS;
+		}
+		final int threads = Integer.parseInt(parameter.trim());
+		if (threads <= 0) {
+			throw new IllegalStateException("The parameter collect-threads should be > 0");
+		}
+		return threads;
+	}
+
+	/**
+	 * Stoppe les threads de collecte, après les collectes en cours.
+	 */
+	void stop() {
+		executorService.shutdown();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[period=" + periodMillis + ", threads="
+				+ getPoolSize() + ", maxThreads=" + maxThreads + ", applications="
+				+ statesByApplication + ']';
+	}
+}
@@ -18,7 +18,6 @@
  */
 package net.bull.javamelody;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -34,6 +33,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import net.bull.javamelody.Counter.CounterRequestContextComparator;
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Collecteur de données sur les compteurs, avec son propre thread, pour remplir les courbes.
@@ -46,6 +46,9 @@ class Collector { // NOPMD
 	private final List<Counter> counters;
 	private final SamplingProfiler samplingProfiler;
 	private final Map<String, JRobin> requestJRobinsById = new ConcurrentHashMap<String, JRobin>();
+	// stockages consolidés des temps moyens des requêtes par nom de compteur,
+	// si le paramètre consolidated-request-graphs est actif
+	private final Map<String, RequestSeriesStorage> requestSeriesStoragesByCounterName = new HashMap<String, RequestSeriesStorage>();
 	// les instances jrobins des compteurs sont créées à l'initialisation
 	private final Map<String, JRobin> counterJRobins = new LinkedHashMap<String, JRobin>();
 	private final Map<String, JRobin> otherJRobins = new LinkedHashMap<String, JRobin>();
@@ -67,7 +70,12 @@ class Collector { // NOPMD
 	private long diskUsage;
 	private Date lastDateOfDeletedObsoleteFiles = new Date();
 	private boolean stopped;
+	private volatile boolean requestGraphsDisabled;
+	private volatile int maxRequestsCountLimit = Integer.MAX_VALUE;
+	private volatile HighResolutionCapture highResolutionCapture;
+	private final CollectCursor.Tracker collectCursorTracker = new CollectCursor.Tracker();
 	private final boolean noDatabase = Parameters.isNoDatabase();
+	private final boolean consolidatedRequestGraphs = Parameters.isConsolidatedRequestGraphs();
 
 	/**
 	 * Constructeur.
@@ -148,6 +156,53 @@ class Collector { // NOPMD
 		return samplingProfiler.getHotspots(1000);
 	}
 
+	List<SampledStack> getHotspotStacks() {
+		if (samplingProfiler == null) {
+			throw new IllegalStateException("Hotspots sampling is not enabled in this server");
+		}
+		return samplingProfiler.getHotspotStacks(1000);
+	}
+
+	/**
+	 * Démarre une capture à haute résolution, en remplaçant l'éventuelle capture précédente.
+	 * @return HighResolutionCapture
+	 */
+	HighResolutionCapture startHighResolutionCapture() {
+		final HighResolutionCapture capture = new HighResolutionCapture(this,
+				HighResolutionCapture.getIntervalSecondsParameter(),
+				HighResolutionCapture.getDurationMinutesParameter() * 60);
+		synchronized (this) {
+			stopHighResolutionCapture();
+			highResolutionCapture = capture;
+			capture.start();
+		}
+		return capture;
+	}
+
+	/**
+	 * Arrête l'éventuelle capture à haute résolution en cours (ses données restent affichables).
+	 */
+	void stopHighResolutionCapture() {
+		final HighResolutionCapture capture = highResolutionCapture;
+		if (capture != null) {
+			capture.stop();
+		}
+	}
+
+	/**
+	 * @return Dernière capture à haute résolution, en cours ou terminée (null si aucune)
+	 */
+	HighResolutionCapture getHighResolutionCapture() {
+		return highResolutionCapture;
+	}
+
+	/**
+	 * @return Etats des compteurs déjà envoyés au serveur de collecte, pour la collecte par différences
+	 */
+	CollectCursor.Tracker getCollectCursorTracker() {
+		return collectCursorTracker;
+	}
+
 	/**
 	 * @return La liste des counters de ce collector
 	 */
@@ -204,20 +259,51 @@ class Collector { // NOPMD
 		return estimatedMemorySize;
 	}
 
+	/**
+	 * @return Nombre de JRobin de requêtes en mémoire
+	 */
+	int getRequestJRobinsCount() {
+		return requestJRobinsById.size();
+	}
+
+	int getMaxRequestsCountLimit() {
+		return maxRequestsCountLimit;
+	}
+
+	/**
+	 * Définit une limite au nombre maximum de requêtes de chaque compteur et compteur du jour
+	 * (réduite dans le serveur de collecte pour respecter le budget mémoire d'une application).
+	 * @param maxRequestsCountLimit int
+	 */
+	void setMaxRequestsCountLimit(int maxRequestsCountLimit) {
+		assert maxRequestsCountLimit > 0;
+		this.maxRequestsCountLimit = maxRequestsCountLimit;
+	}
+
+	boolean isRequestGraphsDisabled() {
+		return requestGraphsDisabled;
+	}
+
+	/**
+	 * Désactive ou réactive les graphiques par requête (JRobin de requêtes) pour réduire la mémoire utilisée.
+	 * Les fichiers rrd existants sont conservés.
+	 * @param disabled boolean
+	 */
+	void setRequestGraphsDisabled(boolean disabled) {
+		synchronized (this) {
+			requestGraphsDisabled = disabled;
+			if (disabled) {
+				requestJRobinsById.clear();
+			}
+		}
+	}
+
 	long getDiskUsage() {
 		if (diskUsage == 0) {
 			// si diskUsage == 0, le serveur a été démarré ce jour et la taille totale des fichiers
 			// n'a pas encore été calculée lors de la purge des fichiers obsolètes,
-			// donc on la calcule ici
-			final File storageDir = Parameters.getStorageDirectory(application);
-			long sum = 0;
-			final File[] files = storageDir.listFiles();
-			if (files != null) {
-				for (final File file : files) {
-					sum += file.length();
-				}
-			}
-			diskUsage = sum;
+			// donc on la calcule ici à partir du manifeste du répertoire de stockage
+			diskUsage = StorageManifest.getInstance(application).getDiskUsage();
 		}
 		return diskUsage;
 	}
@@ -664,13 +750,19 @@ class Collector { // NOPMD
 		for (final CounterRequest newRequest : filteredRequests) {
 			collectCounterRequestData(dayCounter, newRequest, firstCollectDoneForCounter);
 		}
-		if (dayCounter.getRequestsCount() > dayCounter.getMaxRequestsCount()) {
+		if (dayCounter.getRequestsCount() > getMaxRequestsCount(dayCounter)) {
 			// issue 339: ne pas laisser dans dayCounter trop de requêtes si elles sont à chaque fois différentes
 			filterRequestsIfOverflow(dayCounter, dayCounter.getRequests());
 		}
 		if (dayCounter.isErrorCounter()) {
 			dayCounter.addErrors(getDeltaOfErrors(counter, dayCounter));
 		}
+		final RequestSeriesStorage requestSeriesStorage = requestSeriesStoragesByCounterName
+				.get(counter.getName());
+		if (requestSeriesStorage != null) {
+			// une seule écriture pour les temps moyens de toutes les requêtes du compteur
+			requestSeriesStorage.flush();
+		}
 		dayCounter.writeToFile();
 		if (!firstCollectDoneForCounter) {
 			firstCollectDoneByCounter.put(counter, Boolean.TRUE);
@@ -680,7 +772,7 @@ class Collector { // NOPMD
 
 	private List<CounterRequest> filterRequestsIfOverflow(Counter counter,
 			List<CounterRequest> requests) {
-		final int maxRequestsCount = counter.getMaxRequestsCount();
+		final int maxRequestsCount = getMaxRequestsCount(counter);
 		if (requests.size() <= maxRequestsCount) {
 			return requests;
 		}
@@ -708,16 +800,21 @@ class Collector { // NOPMD
 		return result;
 	}
 
+	private int getMaxRequestsCount(Counter counter) {
+		return Math.min(counter.getMaxRequestsCount(), maxRequestsCountLimit);
+	}
+
 	private void collectCounterRequestData(Counter dayCounter, CounterRequest newRequest,
 			boolean firstCollectDoneForCounter) throws IOException {
 		final String requestStorageId = newRequest.getId();
 		// on récupère les instances de jrobin même s'il n'y a pas pas de précédents totaux
 		final JRobin requestJRobin;
-		if (!dayCounter.isJspOrStrutsCounter()
+		if (!requestGraphsDisabled && !dayCounter.isJspOrStrutsCounter()
 				&& (!dayCounter.isErrorCounter() || dayCounter.isJobCounter())) {
 			// on ne crée pas de graphiques pour les "jsp", "error" et "job" car peu utiles
 			// et potentiellement lourd en usage disque et en mémoire utilisée
-			requestJRobin = getRequestJRobin(requestStorageId, newRequest.getName());
+			requestJRobin = getRequestJRobin(dayCounter.getName(), requestStorageId,
+					newRequest.getName());
 		} else {
 			requestJRobin = null;
 		}
@@ -733,7 +830,7 @@ class Collector { // NOPMD
 					// plus nécessaire: if (dayCounter.isErrorCounter()) requestJRobin.addValue(lastPeriodRequest.getHits());
 
 					// s'il n'y a pas eu de hits, alors la moyenne vaut -1 : elle n'a pas de sens
-					requestJRobin.addValue(lastPeriodRequest.getMean());
+					addRequestJRobinValues(requestJRobin, request, newRequest, lastPeriodRequest);
 				}
 				// agrégation de la requête sur le compteur pour le jour courant
 				dayCounter.addHits(lastPeriodRequest);
@@ -751,6 +848,28 @@ class Collector { // NOPMD
 		requestsById.put(requestStorageId, newRequest);
 	}
 
+	private static void addRequestJRobinValues(JRobin requestJRobin, CounterRequest request,
+			CounterRequest newRequest, CounterRequest lastPeriodRequest) throws IOException {
+		final double maximum;
+		if (newRequest.getMaximum() > request.getMaximum()) {
+			// nouveau maximum pendant la période: il est exact
+			maximum = newRequest.getMaximum();
+		} else if (lastPeriodRequest.getHistogramMaximum() >= 0) {
+			// sinon estimé par l'histogramme des durées de la période, sans dépasser le maximum précédent
+			maximum = Math.min(lastPeriodRequest.getHistogramMaximum(), request.getMaximum());
+		} else {
+			// requête d'une version précédente sans histogramme
+			maximum = Double.NaN;
+		}
+		final double percentile95;
+		if (Double.isNaN(maximum) || lastPeriodRequest.getDurationPercentile(95) < 0) {
+			percentile95 = Double.NaN;
+		} else {
+			percentile95 = Math.min(lastPeriodRequest.getDurationPercentile(95), maximum);
+		}
+		requestJRobin.addRequestValues(lastPeriodRequest.getMean(), maximum, percentile95);
+	}
+
 	private List<CounterError> getDeltaOfErrors(Counter counter, Counter dayCounter) {
 		final List<CounterError> errors = counter.getErrors();
 		if (errors.isEmpty()) {
@@ -791,8 +910,10 @@ class Collector { // NOPMD
 	void deleteObsoleteFiles() throws IOException {
 		final long rrdDiskUsage = CounterStorage.deleteObsoleteCounterFiles(getApplication());
 		final long serGzDiskUsage = JRobin.deleteObsoleteJRobinFiles(getApplication());
-		diskUsage = rrdDiskUsage + serGzDiskUsage;
+		final long seriesDiskUsage = RequestSeriesStorage.deleteObsoleteFiles(getApplication());
+		diskUsage = rrdDiskUsage + serGzDiskUsage + seriesDiskUsage;
 		// il manque la taille du fichier "last_shutdown.html", mais on n'est pas à ça près
+		StorageManifest.getInstance(getApplication()).save();
 		LOG.debug("Obsolete files deleted. JavaMelody disk usage: " + diskUsage / 1024 + " KB");
 	}
 
@@ -805,10 +926,23 @@ class Collector { // NOPMD
 		}
 	}
 
-	private JRobin getRequestJRobin(String requestId, String requestName) throws IOException {
+	private JRobin getRequestJRobin(String counterName, String requestId, String requestName)
+			throws IOException {
 		JRobin jrobin = requestJRobinsById.get(requestId);
 		if (jrobin == null) {
-			jrobin = JRobin.createInstance(getApplication(), requestId, requestName);
+			if (consolidatedRequestGraphs) {
+				RequestSeriesStorage requestSeriesStorage = requestSeriesStoragesByCounterName
+						.get(counterName);
+				if (requestSeriesStorage == null) {
+					requestSeriesStorage = new RequestSeriesStorage(getApplication(), counterName,
+							Parameters.getResolutionSeconds());
+					requestSeriesStoragesByCounterName.put(counterName, requestSeriesStorage);
+				}
+				jrobin = JRobin.createConsolidatedInstance(getApplication(), requestId,
+						requestName, requestSeriesStorage);
+			} else {
+				jrobin = JRobin.createInstance(getApplication(), requestId, requestName);
+			}
 			requestJRobinsById.put(requestId, jrobin);
 		}
 		return jrobin;
@@ -889,11 +1023,13 @@ class Collector { // NOPMD
 	}
 
 	void stop() {
+		stopHighResolutionCapture();
 		try {
 			// on persiste les compteurs pour les relire à l'initialisation et ne pas perdre les stats
 			for (final Counter counter : counters) {
 				counter.writeToFile();
 			}
+			StorageManifest.getInstance(application).save();
 		} catch (final IOException e) {
 			// persistance échouée, tant pis
 			LOG.warn("exception while writing counters data to files", e);
@@ -27,6 +27,7 @@ import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
+import static net.bull.javamelody.HttpParameters.FLAME_GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
@@ -36,8 +37,10 @@ import static net.bull.javamelody.HttpParameters.HTML_CONTENT_TYPE;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JOB_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
+import static net.bull.javamelody.HttpParameters.NODES_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
@@ -55,7 +58,9 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -66,6 +71,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 import org.apache.log4j.Logger;
 
@@ -205,12 +211,46 @@ class CollectorController {
 		} else if (CONNECTIONS_PART.equalsIgnoreCase(partParameter)) {
 			doMultiHtmlProxy(req, resp, application, CONNECTIONS_PART, "Connexions_jdbc_ouvertes",
 					"connexions_intro", "db.png");
+		} else if (NODES_PART.equalsIgnoreCase(partParameter)) {
+			noCache(resp);
+			doNodeSummaries(req, resp, application);
 		} else {
 			final List<JavaInformations> javaInformationsList = getJavaInformationsByApplication(application);
 			monitoringController.doReport(req, resp, javaInformationsList);
 		}
 	}
 
+	private void doNodeSummaries(HttpServletRequest req, HttpServletResponse resp,
+			String application) throws IOException {
+		final PrintWriter writer = createWriterFromOutputStream(resp);
+		final HtmlReport htmlReport = createHtmlReport(req, resp, writer, application);
+		htmlReport.writeNodeSummaries(collectorServer.getNodeSummaries(application));
+		writer.close();
+	}
+
+	/**
+	 * Transmet la requête au serveur de collecte qui collecte l'application et recopie sa réponse.
+	 * @param req HttpServletRequest
+	 * @param resp HttpServletResponse
+	 * @param application Code de l'application
+	 * @param shardUrl Url du serveur de collecte de l'application
+	 * @throws IOException e
+	 */
+	void doShardProxy(HttpServletRequest req, HttpServletResponse resp, String application,
+			String shardUrl) throws IOException {
+		final StringBuilder proxyUrl = new StringBuilder(shardUrl);
+		proxyUrl.append(shardUrl.indexOf('?') == -1 ? '?' : '&');
+		// l'application est toujours précisée, car le cookie de l'application n'est pas transmis
+		proxyUrl.append("application=").append(URLEncoder.encode(application, "UTF-8"));
+		if (req.getQueryString() != null) {
+			proxyUrl.append('&').append(req.getQueryString());
+		}
+		noCache(resp);
+		final Map<String, String> headers = Collections.singletonMap(
+				CollectorShards.FORWARDED_HEADER, collectorServer.getLocalShardUrl());
+		new LabradorRetriever(new URL(proxyUrl.toString()), headers).copyTo(req, resp);
+	}
+
 	private void doJmxValue(HttpServletRequest req, HttpServletResponse resp, String application,
 			String jmxValueParameter) throws IOException {
 		noCache(resp);
@@ -235,7 +275,7 @@ class CollectorController {
 		// (et non celui du serveur de collecte),
 		// on prend la 1ère url puisque le contenu de web.xml est censé être le même
 		// dans tout l'éventuel cluster
-		final URL url = getUrlsByApplication(application).get(0);
+		final URL url = getProxiedUrlsByApplication(application).get(0);
 		// on récupère le contenu du web.xml sur la webapp et on transfert ce contenu
 		final URL proxyUrl = new URL(url.toString() + '&' + PART_PARAMETER + '=' + partParameter);
 		new LabradorRetriever(proxyUrl).copyTo(req, resp);
@@ -244,6 +284,7 @@ class CollectorController {
 	private void doMultiHtmlProxy(HttpServletRequest req, HttpServletResponse resp,
 			String application, String partParameter, String titleKey, String introductionKey,
 			String iconName) throws IOException {
+		final List<URL> urls = getProxiedUrlsByApplication(application);
 		final PrintWriter writer = createWriterFromOutputStream(resp);
 		final HtmlReport htmlReport = createHtmlReport(req, resp, writer, application);
 		htmlReport.writeHtmlHeader();
@@ -262,7 +303,7 @@ class CollectorController {
 			writer.write(I18N.getString(introductionKey));
 		}
 		final String title = I18N.getString(titleKey);
-		for (final URL url : getUrlsByApplication(application)) {
+		for (final URL url : urls) {
 			final String htmlTitle = "<h3><img width='24' height='24' src='?resource=" + iconName
 					+ "' alt='" + title + "'/>&nbsp;" + title + " (" + getHostAndPort(url)
 					+ ")</h3>";
@@ -318,6 +359,9 @@ class CollectorController {
 			final List<CounterRequest> requestList = new CounterRequestAggregation(counter)
 					.getRequestsAggregatedOrFilteredByClassName(requestId);
 			return new ArrayList<CounterRequest>(requestList);
+		} else if (NODES_PART.equalsIgnoreCase(part)) {
+			// résumés des serveurs de l'application, use ?part=nodes&format=json for example
+			return new ArrayList<NodeSummary>(collectorServer.getNodeSummaries(application));
 		} else if (APPLICATIONS_PART.equalsIgnoreCase(part)) {
 			// list all applications, with last exceptions if not available,
 			// use ?part=applications&format=json for example
@@ -325,9 +369,13 @@ class CollectorController {
 			for (final String app : Parameters.getCollectorUrlsByApplications().keySet()) {
 				applications.put(app, null);
 			}
+			for (final String app : collectorServer.getPushedApplications()) {
+				applications.put(app, null);
+			}
 			applications.putAll(collectorServer.getLastCollectExceptionsByApplication());
 			return new HashMap<String, Throwable>(applications);
-		} else if (JROBINS_PART.equalsIgnoreCase(part) || OTHER_JROBINS_PART.equalsIgnoreCase(part)) {
+		} else if (JROBINS_PART.equalsIgnoreCase(part) || OTHER_JROBINS_PART.equalsIgnoreCase(part)
+				|| JROBINS_DATA_PART.equalsIgnoreCase(part)) {
 			// pour UI Swing
 			return serializableController.createSerializable(httpRequest, null, null);
 		}
@@ -353,6 +401,10 @@ class CollectorController {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return new ArrayList<SampledMethod>(collectorServer.collectHotspots(application));
+		} else if (FLAME_GRAPH_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			return new ArrayList<SampledStack>(collectorServer.collectHotspotStacks(application));
 		} else if (PROCESSES_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
@@ -453,7 +505,7 @@ class CollectorController {
 		final String threadIdParameter = req.getParameter(THREAD_ID_PARAMETER);
 		final String jobIdParameter = req.getParameter(JOB_ID_PARAMETER);
 		final String cacheIdParameter = req.getParameter(CACHE_ID_PARAMETER);
-		final List<URL> urls = getUrlsByApplication(application);
+		final List<URL> urls = getProxiedUrlsByApplication(application);
 		final List<URL> actionUrls = new ArrayList<URL>(urls.size());
 		for (final URL url : urls) {
 			final StringBuilder actionUrl = new StringBuilder(url.toString());
@@ -485,7 +537,7 @@ class CollectorController {
 			final Cookie cookie = httpCookieManager.getCookieByName(req, COOKIE_NAME);
 			if (cookie != null) {
 				application = cookie.getValue();
-				if (!collectorServer.isApplicationDataAvailable(application)) {
+				if (!isApplicationAvailable(application)) {
 					cookie.setMaxAge(-1);
 					resp.addCookie(cookie);
 					application = null;
@@ -495,7 +547,7 @@ class CollectorController {
 				// pas de cookie, on prend la première application si elle existe
 				application = collectorServer.getFirstApplication();
 			}
-		} else if (collectorServer.isApplicationDataAvailable(application)) {
+		} else if (isApplicationAvailable(application)) {
 			// un paramètre application est présent dans la requête: l'utilisateur a choisi une application,
 			// donc on fixe le cookie
 			httpCookieManager.addCookie(req, resp, COOKIE_NAME, String.valueOf(application));
@@ -503,6 +555,12 @@ class CollectorController {
 		return application;
 	}
 
+	private boolean isApplicationAvailable(String application) {
+		// une application collectée par un autre serveur de collecte est disponible par celui-ci
+		return collectorServer.isApplicationDataAvailable(application)
+				|| collectorServer.getShardUrl(application) != null;
+	}
+
 	private Collector getCollectorByApplication(String application) {
 		return collectorServer.getCollectorByApplication(application);
 	}
@@ -514,4 +572,14 @@ class CollectorController {
 	private static List<URL> getUrlsByApplication(String application) throws IOException {
 		return CollectorServer.getUrlsByApplication(application);
 	}
+
+	private static List<URL> getProxiedUrlsByApplication(String application) throws IOException {
+		final List<URL> urls = getUrlsByApplication(application);
+		if (urls.isEmpty()) {
+			// une application qui pousse ses données n'a pas d'url pour les pages et les actions à la demande
+			throw new IllegalStateException("The application " + application
+					+ " pushes its data to the collector server: this page or action is not available");
+		}
+		return urls;
+	}
 }
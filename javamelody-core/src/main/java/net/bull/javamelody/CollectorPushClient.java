@@ -0,0 +1,236 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
+import static net.bull.javamelody.HttpParameters.NODE_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PUSH_PARAMETER;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Envoi périodique des données d'une application monitorée au serveur de collecte (mode push),
+ * pour les serveurs qui ne peuvent pas être interrogés par le serveur de collecte
+ * (derrière un NAT ou dans un groupe de serveurs à mise à l'échelle automatique par exemple).
+ * <br/>Les données envoyées sont les différences des compteurs depuis le dernier curseur confirmé
+ * par le serveur de collecte (voir {@link CollectCursor}), compressées : si un envoi échoue
+ * ou si le serveur de collecte est surchargé, les différences seront envoyées lors de l'envoi suivant.
+ * @author Emeric Vernat
+ */
+final class CollectorPushClient {
+	/** Entête http du jeton partagé avec le serveur de collecte (paramètre push-token). */
+	static final String PUSH_TOKEN_HEADER = "X-JavaMelody-Push-Token";
+	private static final String NO_CURSOR = "0";
+	private static final String ENCODING = "UTF-8";
+	private static final int CONNECTION_TIMEOUT = 20000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private final Collector collector;
+	private final String collectorServerUrl;
+	private final String application;
+	private final String nodeId;
+	private String acknowledgedCursor = NO_CURSOR;
+	private long retryAfterTime;
+	private boolean lastPushFailed;
+
+	CollectorPushClient(Collector collector, String collectorServerUrl, String application,
+			String nodeId) {
+		super();
+		assert collector != null;
+		assert collectorServerUrl != null;
+		assert application != null;
+		assert nodeId != null;
+		this.collector = collector;
+		this.collectorServerUrl = collectorServerUrl.trim();
+		this.application = application;
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * @return Nom de l'application dans le serveur de collecte,
+	 * selon le paramètre collector-application ou le nom du contexte de la webapp
+	 */
+	static String getApplicationParameter() {
+		final String param = Parameters.getParameter(Parameter.COLLECTOR_APPLICATION);
+		if (param != null) {
+			return param.trim();
+		}
+		final String contextPath = Parameters.getContextPath(Parameters.getServletContext());
+		if (contextPath.length() <= 1) {
+			return "ROOT";
+		}
+		return contextPath.substring(1);
+	}
+
+	/**
+	 * @return Identifiant de ce serveur de l'application : pid, nom réseau de la machine et contexte
+	 */
+	static String getNodeIdParameter() {
+		return PID.getPID() + '@' + Parameters.getHostName()
+				+ Parameters.getContextPath(Parameters.getServletContext());
+	}
+
+	Collector getCollector() {
+		return collector;
+	}
+
+	String getApplication() {
+		return application;
+	}
+
+	String getNodeId() {
+		return nodeId;
+	}
+
+	String getAcknowledgedCursor() {
+		return acknowledgedCursor;
+	}
+
+	void pushWithoutErrors() {
+		if (System.currentTimeMillis() < retryAfterTime) {
+			// le serveur de collecte a demandé d'attendre, les données seront envoyées plus tard
+			return;
+		}
+		try {
+			final List<JavaInformations> javaInformationsList = Collections
+					.singletonList(new JavaInformations(Parameters.getServletContext(), true));
+			push(createPayload(javaInformationsList));
+			lastPushFailed = false;
+		} catch (final Throwable t) { // NOPMD
+			// le serveur de collecte est peut-être arrêté, les données seront envoyées plus tard
+			// (on ne le signale qu'une fois tant que les envois échouent)
+			if (lastPushFailed) {
+				LOG.debug("push of data to the collector server failed: " + t.toString());
+			} else {
+				LOG.warn("push of data to the collector server failed, data will be pushed later",
+						t);
+			}
+			lastPushFailed = true;
+		}
+	}
+
+	/**
+	 * Crée les données à envoyer : différences des compteurs depuis le dernier curseur confirmé,
+	 * informations système et nouveau curseur en dernier.
+	 * @param javaInformationsList Informations système
+	 * @return List
+	 */
+	List<Serializable> createPayload(List<JavaInformations> javaInformationsList) {
+		final List<Counter> counters = collector.getCounters();
+		final List<Counter> clones = new ArrayList<Counter>(counters.size());
+		for (final Counter counter : counters) {
+			clones.add(counter.clone());
+		}
+		final List<Serializable> payload = collector.getCollectCursorTracker().getCountersSince(
+				acknowledgedCursor, clones);
+		payload.addAll(payload.size() - 1, javaInformationsList);
+		return payload;
+	}
+
+	/**
+	 * Enregistre le curseur confirmé par le serveur de collecte, à partir duquel seront calculées
+	 * les différences du prochain envoi.
+	 * @param cursor Curseur
+	 */
+	void acknowledge(String cursor) {
+		assert cursor != null;
+		this.acknowledgedCursor = cursor;
+	}
+
+	private void push(List<Serializable> payload) throws IOException {
+		final long start = System.currentTimeMillis();
+		final HttpURLConnection connection = (HttpURLConnection) getPushUrl().openConnection();
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(CONNECTION_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		// pas de type de formulaire, pour que le serveur de collecte ne lise pas le corps comme tel
+		connection.setRequestProperty("Content-Type", TransportFormat.SERIALIZED.getMimeType());
+		final String pushToken = Parameters.getParameter(Parameter.PUSH_TOKEN);
+		if (pushToken != null) {
+			connection.setRequestProperty(PUSH_TOKEN_HEADER, pushToken);
+		}
+		final CompressionCodec compressionCodec = CompressionCodec.getConfiguredCodec();
+		connection.setRequestProperty("Content-Encoding", compressionCodec.getContentEncoding());
+		final OutputStream output = compressionCodec.createOutputStream(
+				connection.getOutputStream(), 8 * 1024);
+		try {
+			TransportFormat.SERIALIZED.writeSerializableTo((Serializable) payload, output);
+		} finally {
+			output.close();
+		}
+		final int responseCode = connection.getResponseCode();
+		if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+			// le serveur de collecte est surchargé : on attend avant de réessayer
+			final int retryAfterSeconds = connection.getHeaderFieldInt("Retry-After",
+					Parameters.getResolutionSeconds());
+			retryAfterTime = System.currentTimeMillis() + retryAfterSeconds * 1000L;
+			connection.disconnect();
+			LOG.debug("collector server busy, push of data delayed by " + retryAfterSeconds
+					+ 's');
+			return;
+		} else if (responseCode != HttpURLConnection.HTTP_OK) {
+			connection.disconnect();
+			throw new IOException("HTTP error " + responseCode + " from "
+					+ collectorServerUrl);
+		}
+		final InputStream input = CompressionCodec.createDetectingInputStream(connection
+				.getInputStream());
+		try {
+			final CollectCursor cursor = (CollectCursor) TransportFormat.SERIALIZED
+					.readSerializableFrom(input);
+			acknowledge(cursor.getId());
+		} catch (final ClassNotFoundException e) {
+			// ne peut arriver
+			throw new IllegalStateException(e);
+		} finally {
+			input.close();
+		}
+		LOG.debug("push of data to the collector server done in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	URL getPushUrl() throws IOException {
+		final StringBuilder sb = new StringBuilder(collectorServerUrl);
+		sb.append(collectorServerUrl.indexOf('?') == -1 ? '?' : '&');
+		sb.append(PUSH_PARAMETER).append('=').append(URLEncoder.encode(application, ENCODING));
+		sb.append('&').append(NODE_PARAMETER).append('=')
+				.append(URLEncoder.encode(nodeId, ENCODING));
+		sb.append('&').append(CURSOR_PARAMETER).append('=')
+				.append(URLEncoder.encode(acknowledgedCursor, ENCODING));
+		return new URL(sb.toString());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[application=" + getApplication() + ", nodeId="
+				+ getNodeId() + ", acknowledgedCursor=" + getAcknowledgedCursor() + ']';
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Réception dans le serveur de collecte des données envoyées par les applications monitorées
+ * en mode push (voir {@link CollectorPushClient}).
+ * <br/>Les serveurs d'une application sont enregistrés à leur premier envoi et oubliés s'ils n'envoient
+ * plus rien. Les envois sont mis dans une file d'attente par application, bornée en nombre et en octets pour ne pas saturer
+ * la mémoire (l'envoi est alors refusé et sera refait plus tard), puis fusionnés ensemble
+ * à chaque collecte du serveur de collecte.
+ * @author Emeric Vernat
+ */
+final class CollectorPushIngestion {
+	/**
+	 * Nombre maximum d'envois en attente de fusion par application.
+	 */
+	static final int MAX_QUEUED_PUSHES = 1000;
+	/**
+	 * Taille maximale en octets (après décompression) des envois en attente de fusion par application.
+	 */
+	static final long MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+	private static final String NO_CURSOR = "0";
+	// un serveur qui n'a rien envoyé depuis 5 collectes est considéré arrêté
+	private static final int NODE_EXPIRATION_PERIODS = 5;
+
+	private final Map<String, PushedApplication> applications = new ConcurrentHashMap<String, PushedApplication>();
+
+	/**
+	 * Serveur d'une application en mode push.
+	 */
+	private static final class PushedNode {
+		private String cursor;
+		private JavaInformations javaInformations;
+		private long lastPushTime;
+
+		PushedNode() {
+			super();
+		}
+	}
+
+	/**
+	 * Serveurs et file d'attente des envois d'une application.
+	 */
+	private static final class PushedApplication {
+		private final Map<String, PushedNode> nodesById = new LinkedHashMap<String, PushedNode>();
+		private final List<List<Serializable>> queue = new ArrayList<List<Serializable>>();
+		private long queuedBytes;
+		// verrou pour que les fusions d'une même application se fassent l'une après l'autre
+		private final Object mergeLock = new Object();
+
+		PushedApplication() {
+			super();
+		}
+	}
+
+	/**
+	 * Reçoit les données envoyées par un serveur d'une application.
+	 * @param application Nom de l'application
+	 * @param nodeId Identifiant du serveur
+	 * @param cursor Dernier curseur confirmé à ce serveur, à partir duquel les différences ont été calculées
+	 * @param payload Différences des compteurs, informations système et nouveau curseur
+	 * @param payloadSize Taille en octets de l'envoi, après décompression
+	 * @return Curseur confirmé au serveur pour son prochain envoi,
+	 * ou null si la file d'attente de l'application est pleine et que l'envoi doit être refait plus tard
+	 */
+	String push(String application, String nodeId, String cursor, List<Serializable> payload,
+			long payloadSize) {
+		assert application != null;
+		assert nodeId != null;
+		assert cursor != null;
+		assert payload != null;
+		CollectCursor newCursor = null;
+		JavaInformations javaInformations = null;
+		for (final Serializable serializable : payload) {
+			if (serializable instanceof CollectCursor) {
+				newCursor = (CollectCursor) serializable;
+			} else if (serializable instanceof JavaInformations) {
+				javaInformations = (JavaInformations) serializable;
+			}
+		}
+		if (newCursor == null) {
+			throw new IllegalArgumentException("cursor missing in pushed data");
+		}
+		final PushedApplication pushedApplication = getPushedApplication(application);
+		synchronized (pushedApplication) {
+			// un envoi seul est toujours accepté, même s'il dépasse la taille maximale de la file
+			if (pushedApplication.queue.size() >= MAX_QUEUED_PUSHES
+					|| !pushedApplication.queue.isEmpty()
+					&& pushedApplication.queuedBytes + payloadSize > MAX_QUEUED_BYTES) {
+				return null;
+			}
+			PushedNode node = pushedApplication.nodesById.get(nodeId);
+			if (node == null) {
+				node = new PushedNode();
+				pushedApplication.nodesById.put(nodeId, node);
+				LOG.info("node " + nodeId + " registered for the application " + application,
+						null);
+			}
+			// si le serveur ne connaît pas encore de curseur, c'est un premier envoi
+			// (ou le serveur de collecte ou ce serveur ont redémarré) et les données sont fusionnées ;
+			// sinon, si le curseur n'est pas le dernier confirmé, la réponse au dernier envoi
+			// a été perdue et ses données déjà fusionnées ne doivent pas l'être une deuxième fois :
+			// on confirme alors de nouveau le dernier curseur au serveur
+			if (node.cursor == null || NO_CURSOR.equals(cursor) || cursor.equals(node.cursor)) {
+				pushedApplication.queue.add(payload);
+				pushedApplication.queuedBytes += payloadSize;
+				node.cursor = newCursor.getId();
+			}
+			if (javaInformations != null) {
+				node.javaInformations = javaInformations;
+			}
+			node.lastPushTime = System.currentTimeMillis();
+			return node.cursor;
+		}
+	}
+
+	/**
+	 * Retire les envois en attente d'une application, pour les fusionner.
+	 * @param application Nom de l'application
+	 * @return Liste des envois, dans l'ordre de réception
+	 */
+	List<List<Serializable>> drain(String application) {
+		final PushedApplication pushedApplication = getPushedApplication(application);
+		synchronized (pushedApplication) {
+			final List<List<Serializable>> result = new ArrayList<List<Serializable>>(
+					pushedApplication.queue);
+			pushedApplication.queue.clear();
+			pushedApplication.queuedBytes = 0;
+			return result;
+		}
+	}
+
+	/**
+	 * Retourne les informations système des serveurs actifs d'une application,
+	 * après avoir oublié les serveurs qui n'envoient plus rien.
+	 * @param application Nom de l'application
+	 * @return Liste de JavaInformations
+	 */
+	List<JavaInformations> getJavaInformationsList(String application) {
+		final PushedApplication pushedApplication = getPushedApplication(application);
+		final long expirationTime = System.currentTimeMillis() - NODE_EXPIRATION_PERIODS
+				* Parameters.getResolutionSeconds() * 1000L;
+		synchronized (pushedApplication) {
+			final List<JavaInformations> result = new ArrayList<JavaInformations>(
+					pushedApplication.nodesById.size());
+			final Iterator<Map.Entry<String, PushedNode>> iterator = pushedApplication.nodesById
+					.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<String, PushedNode> entry = iterator.next();
+				final PushedNode node = entry.getValue();
+				if (node.lastPushTime < expirationTime) {
+					iterator.remove();
+					LOG.info("node " + entry.getKey() + " expired for the application "
+							+ application, null);
+				} else if (node.javaInformations != null) {
+					result.add(node.javaInformations);
+				}
+			}
+			return result;
+		}
+	}
+
+	Object getMergeLock(String application) {
+		return getPushedApplication(application).mergeLock;
+	}
+
+	List<String> getApplications() {
+		return new ArrayList<String>(applications.keySet());
+	}
+
+	int getNodesCount(String application) {
+		final PushedApplication pushedApplication = getPushedApplication(application);
+		synchronized (pushedApplication) {
+			return pushedApplication.nodesById.size();
+		}
+	}
+
+	int getQueueSize(String application) {
+		final PushedApplication pushedApplication = getPushedApplication(application);
+		synchronized (pushedApplication) {
+			return pushedApplication.queue.size();
+		}
+	}
+
+	private PushedApplication getPushedApplication(String application) {
+		PushedApplication pushedApplication = applications.get(application);
+		if (pushedApplication == null) {
+			synchronized (applications) {
+				pushedApplication = applications.get(application);
+				if (pushedApplication == null) {
+					pushedApplication = new PushedApplication();
+					applications.put(application, pushedApplication);
+				}
+			}
+		}
+		return pushedApplication;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[applications=" + applications.keySet() + ']';
+	}
+}
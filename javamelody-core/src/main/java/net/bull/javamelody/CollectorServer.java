@@ -19,18 +19,19 @@
 package net.bull.javamelody;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.net.URL;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 import org.apache.log4j.Logger;
 
@@ -41,16 +42,22 @@ import org.apache.log4j.Logger;
 class CollectorServer {
 	static final Logger LOGGER = Logger.getLogger("javamelody");
 
-	private static final int NB_COLLECT_THREADS = 10;
+	// clé de la vérification des autres serveurs de collecte dans CollectScheduler
+	private static final String SHARDS_CHECK_KEY = "javamelody.shards";
 
 	private final Map<String, Throwable> lastCollectExceptionsByApplication = new ConcurrentHashMap<String, Throwable>();
 	private final Map<String, RemoteCollector> remoteCollectorsByApplication = new ConcurrentHashMap<String, RemoteCollector>();
+	private final Map<String, MemoryBudget> memoryBudgetsByApplication = new ConcurrentHashMap<String, MemoryBudget>();
+	private final Map<String, Object> locksByApplication = new HashMap<String, Object>();
 
-	private final ExecutorService executorService = Executors
-			.newFixedThreadPool(NB_COLLECT_THREADS);
+	private final CollectorPushIngestion pushIngestion = new CollectorPushIngestion();
 
 	private final Timer timer;
 
+	private final CollectScheduler collectScheduler;
+
+	private final CollectorShards collectorShards;
+
 	/**
 	 * Constructeur.
 	 * @throws IOException e
@@ -70,6 +77,12 @@ class CollectorServer {
 			final int periodMillis = Parameters.getResolutionSeconds() * 1000;
 			LOGGER.info("resolution of the monitoring in seconds: "
 					+ Parameters.getResolutionSeconds());
+			this.collectScheduler = new CollectScheduler(timer, periodMillis);
+			this.collectorShards = CollectorShards.createFromParameters();
+			if (collectorShards.isEnabled()) {
+				LOGGER.info("collector shards: " + collectorShards.getShardUrls()
+						+ ", this collector server: " + collectorShards.getLocalShardUrl());
+			}
 			final TimerTask collectTask = new TimerTask() {
 				/** {@inheritDoc} */
 				@Override
@@ -105,49 +118,216 @@ class CollectorServer {
 			LOGGER.warn(e.getMessage(), e);
 			return;
 		}
+		// nombre de threads de collecte selon la durée des dernières collectes
+		collectScheduler.adjustPoolSize();
+		if (collectorShards.isEnabled()) {
+			// la disponibilité des autres serveurs de collecte est vérifiée pour la période suivante
+			collectScheduler.schedule(SHARDS_CHECK_KEY, new Runnable() {
+				@Override
+				public void run() {
+					checkShardsWithoutErrors();
+				}
+			});
+		}
 		for (final Map.Entry<String, List<URL>> entry : clone.entrySet()) {
 			final String application = entry.getKey();
 			final List<URL> urls = entry.getValue();
-			executorService.submit(new Runnable() {
+			if (!collectorShards.isLocal(application) && !isApplicationDataAvailable(application)) {
+				// application collectée par un autre serveur de collecte
+				continue;
+			}
+			// pas de nouvelle collecte pour une application tant que la précédente n'est pas finie
+			// (et une application attribuée à un autre serveur de collecte est libérée dans le même thread)
+			collectScheduler.schedule(application, new Runnable() {
 				@Override
 				public void run() {
 					collectForApplicationWithoutErrors(application, urls);
 				}
 			});
 		}
+		// les applications en mode push sont collectées en fusionnant les données reçues
+		for (final String application : pushIngestion.getApplications()) {
+			if (!clone.containsKey(application)) {
+				collectScheduler.schedule(application, new Runnable() {
+					@Override
+					public void run() {
+						collectPushedApplicationWithoutErrors(application);
+					}
+				});
+			}
+		}
 	}
 
-	String collectForApplicationForAction(String application, List<URL> urls) throws IOException {
-		return collectForApplication(new RemoteCollector(application, urls));
+	void checkShardsWithoutErrors() {
+		try {
+			collectorShards.checkShards();
+		} catch (final Throwable e) { // NOPMD
+			// il ne doit y avoir aucune erreur dans cette task
+			LOGGER.warn(e.toString(), e);
+		}
 	}
 
-	void collectForApplicationWithoutErrors(String application, List<URL> urls) {
+	/**
+	 * Libère une application à la demande d'un autre serveur de collecte qui va la collecter :
+	 * cette méthode attend la fin de la collecte en cours et l'enregistrement des données.
+	 * @param application Nom de l'application
+	 * @param shardUrl Url du serveur de collecte qui demande
+	 * @param remoteAddr Adresse ip d'où vient la demande
+	 * @return false si la demande ne vient pas d'un serveur de collecte du paramètre collector-shards
+	 */
+	boolean releaseApplicationForShard(String application, String shardUrl, String remoteAddr) {
+		// le serveur de collecte qui demande est disponible et l'application lui est peut-être attribuée
+		if (shardUrl == null || !collectorShards.shardAvailable(shardUrl, remoteAddr)) {
+			return false;
+		}
+		if (!collectorShards.isLocal(application)) {
+			releaseApplication(application);
+		}
+		return true;
+	}
+
+	private void releaseApplication(String application) {
+		synchronized (getApplicationLock(application)) {
+			final RemoteCollector remoteCollector = remoteCollectorsByApplication
+					.remove(application);
+			if (remoteCollector != null) {
+				LOGGER.info("the application " + application + " is now collected by "
+						+ collectorShards.getRemoteShardUrl(application));
+				// les compteurs sont enregistrés, pour être relus par l'autre serveur de collecte
+				// si le répertoire de stockage est partagé
+				remoteCollector.getCollector().stop();
+				collectScheduler.remove(application);
+				memoryBudgetsByApplication.remove(application);
+				lastCollectExceptionsByApplication.remove(application);
+			}
+		}
+	}
+
+	/**
+	 * Reçoit les données envoyées par un serveur d'une application en mode push.
+	 * @param application Nom de l'application
+	 * @param nodeId Identifiant du serveur
+	 * @param cursor Dernier curseur confirmé à ce serveur
+	 * @param payload Données envoyées
+	 * @param payloadSize Taille en octets des données envoyées, après décompression
+	 * @return Curseur à confirmer au serveur, ou null si l'envoi doit être refait plus tard
+	 * @throws IOException e
+	 */
+	String pushForApplication(String application, String nodeId, String cursor,
+			List<Serializable> payload, long payloadSize) throws IOException {
+		if (Parameters.getCollectorUrlsByApplications().containsKey(application)) {
+			throw new IllegalStateException("The application " + application
+					+ " is already collected with its urls");
+		}
+		return pushIngestion.push(application, nodeId, cursor, payload, payloadSize);
+	}
+
+	void collectPushedApplicationWithoutErrors(String application) {
 		try {
-			collectForApplication(application, urls);
-			final boolean becameAvailable = lastCollectExceptionsByApplication
-					.containsKey(application);
-			lastCollectExceptionsByApplication.remove(application);
-
-			if (becameAvailable) {
-				final String subject = "The application " + application
-						+ " is available again for the monitoring server";
-				notifyAdmins(subject, subject);
+			// une seule fusion à la fois par application
+			synchronized (pushIngestion.getMergeLock(application)) {
+				collectPushedApplication(application);
 			}
 		} catch (final Throwable e) { // NOPMD
-			// si erreur sur une webapp (indisponibilité par exemple), on continue avec les autres
-			// et il ne doit y avoir aucune erreur dans cette task
+			// il ne doit y avoir aucune erreur dans cette task
 			LOGGER.warn("exception while collecting data for application " + application);
 			LOGGER.warn(e.toString(), e);
-			final boolean becameUnavailable = !lastCollectExceptionsByApplication
-					.containsKey(application);
-			lastCollectExceptionsByApplication.put(application, e);
-
-			if (becameUnavailable) {
-				final String subject = "The application " + application
-						+ " is unavailable for the monitoring server";
-				final String message = subject + "\n\nCause:\n" + e.toString();
-				notifyAdmins(subject, message);
+		}
+	}
+
+	private void collectPushedApplication(String application) {
+		final long start = System.currentTimeMillis();
+		final List<List<Serializable>> payloads = pushIngestion.drain(application);
+		final List<JavaInformations> javaInformationsList = pushIngestion
+				.getJavaInformationsList(application);
+		final boolean remoteCollectorAvailable = isApplicationDataAvailable(application);
+		final RemoteCollector remoteCollector;
+		if (!remoteCollectorAvailable) {
+			if (payloads.isEmpty()) {
+				return;
 			}
+			remoteCollector = new RemoteCollector(application, Collections.<URL> emptyList());
+		} else {
+			remoteCollector = getRemoteCollectorByApplication(application);
+		}
+		remoteCollector.addPushedData(payloads, javaInformationsList);
+		remoteCollector.getCollector().collectWithoutErrors(javaInformationsList);
+		checkMemoryBudget(application, remoteCollector.getCollector());
+		LOGGER.info("collect for the application " + application + " done in "
+				+ (System.currentTimeMillis() - start) + "ms with " + payloads.size()
+				+ " pushes from " + javaInformationsList.size() + " nodes");
+		if (!remoteCollectorAvailable) {
+			addRemoteCollector(remoteCollector);
+		}
+	}
+
+	List<String> getPushedApplications() {
+		return pushIngestion.getApplications();
+	}
+
+	String collectForApplicationForAction(String application, List<URL> urls) throws IOException {
+		return collectForApplication(new RemoteCollector(application, urls));
+	}
+
+	void collectForApplicationWithoutErrors(String application, List<URL> urls) {
+		// la collecte et la libération d'une application pour un autre serveur de collecte sont exclusives
+		synchronized (getApplicationLock(application)) {
+			try {
+				if (!isCollectedHere(application)) {
+					return;
+				}
+				collectForApplication(application, urls);
+				final boolean becameAvailable = lastCollectExceptionsByApplication
+						.containsKey(application);
+				lastCollectExceptionsByApplication.remove(application);
+
+				if (becameAvailable) {
+					final String subject = "The application " + application
+							+ " is available again for the monitoring server";
+					notifyAdmins(subject, subject);
+				}
+			} catch (final Throwable e) { // NOPMD
+				// si erreur sur une webapp (indisponibilité par exemple), on continue avec les autres
+				// et il ne doit y avoir aucune erreur dans cette task
+				LOGGER.warn("exception while collecting data for application " + application);
+				LOGGER.warn(e.toString(), e);
+				final boolean becameUnavailable = !lastCollectExceptionsByApplication
+						.containsKey(application);
+				lastCollectExceptionsByApplication.put(application, e);
+
+				if (becameUnavailable) {
+					final String subject = "The application " + application
+							+ " is unavailable for the monitoring server";
+					final String message = subject + "\n\nCause:\n" + e.toString();
+					notifyAdmins(subject, message);
+				}
+			}
+		}
+	}
+
+	private boolean isCollectedHere(String application) {
+		if (!collectorShards.isLocal(application)) {
+			// application attribuée à un autre serveur de collecte depuis la planification
+			releaseApplication(application);
+			return false;
+		}
+		if (collectorShards.isEnabled() && !isApplicationDataAvailable(application)) {
+			// nouvelle application pour ce serveur de collecte : l'ancien serveur de collecte
+			// doit d'abord arrêter sa collecte et enregistrer ses données
+			collectorShards.requestRelease(application);
+			return collectorShards.isLocal(application);
+		}
+		return true;
+	}
+
+	private Object getApplicationLock(String application) {
+		synchronized (locksByApplication) {
+			Object lock = locksByApplication.get(application);
+			if (lock == null) {
+				lock = new Object();
+				locksByApplication.put(application, lock);
+			}
+			return lock;
 		}
 	}
 
@@ -166,18 +346,23 @@ class CollectorServer {
 			// on initialise les remoteCollectors au fur et à mesure
 			// puisqu'on ne peut pas forcément au démarrage
 			// car la webapp à monitorer peut être indisponible
-			remoteCollectorsByApplication.put(application, remoteCollector);
-
-			if (Parameters.getParameter(Parameter.MAIL_SESSION) != null
-					&& Parameters.getParameter(Parameter.ADMIN_EMAILS) != null) {
-				scheduleReportMailForCollectorServer(application);
-				LOGGER.info("Periodic report scheduled for the application " + application + " to "
-						+ Parameters.getParameter(Parameter.ADMIN_EMAILS));
-			}
+			addRemoteCollector(remoteCollector);
 		}
 		return messageForReport;
 	}
 
+	private void addRemoteCollector(RemoteCollector remoteCollector) {
+		final String application = remoteCollector.getApplication();
+		remoteCollectorsByApplication.put(application, remoteCollector);
+
+		if (Parameters.getParameter(Parameter.MAIL_SESSION) != null
+				&& Parameters.getParameter(Parameter.ADMIN_EMAILS) != null) {
+			scheduleReportMailForCollectorServer(application);
+			LOGGER.info("Periodic report scheduled for the application " + application + " to "
+					+ Parameters.getParameter(Parameter.ADMIN_EMAILS));
+		}
+	}
+
 	private String collectForApplication(RemoteCollector remoteCollector) throws IOException {
 		final String application = remoteCollector.getApplication();
 		final List<URL> urls = remoteCollector.getURLs();
@@ -191,8 +376,17 @@ class CollectorServer {
 				.getJavaInformationsList();
 		final Collector collector = remoteCollector.getCollector();
 		collector.collectWithoutErrors(javaInformationsList);
+		checkMemoryBudget(application, collector);
+		refreshClusterHotspots(remoteCollector);
 		LOGGER.info("collect for the application " + application + " done in "
-				+ (System.currentTimeMillis() - start) + "ms");
+				+ (System.currentTimeMillis() - start) + "ms with "
+				+ remoteCollector.getLastCollectDataLength() / 1024 + " KB read"
+				+ (remoteCollector.isDeltaCollectEnabled() ? " (delta collect)" : ""));
+		if (!remoteCollector.getLastFailedNodes().isEmpty()) {
+			// les autres serveurs de l'application ont été collectés
+			LOGGER.warn("collect for the application " + application
+					+ " done without the unavailable nodes " + remoteCollector.getLastFailedNodes());
+		}
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("counters " + application + " : " + collector.getCounters());
 			LOGGER.debug("javaInformations " + application + " : " + javaInformationsList);
@@ -204,15 +398,58 @@ class CollectorServer {
 		return messageForReport;
 	}
 
+	private void refreshClusterHotspots(RemoteCollector remoteCollector) {
+		try {
+			remoteCollector.refreshClusterHotspotsIfNeeded();
+		} catch (final IOException e) {
+			// les hotspots ne sont pas indispensables à la collecte
+			LOGGER.warn("hotspots not refreshed for the application "
+					+ remoteCollector.getApplication() + ": " + e.toString());
+		}
+	}
+
+	private void checkMemoryBudget(String application, Collector collector) {
+		MemoryBudget memoryBudget = memoryBudgetsByApplication.get(application);
+		if (memoryBudget == null) {
+			memoryBudget = MemoryBudget.createFromParameters(application);
+			memoryBudgetsByApplication.put(application, memoryBudget);
+		}
+		memoryBudget.check(collector);
+	}
+
+	/**
+	 * Retourne le budget mémoire d'une application, avec la mémoire utilisée estimée lors de sa dernière
+	 * collecte et la réduction éventuelle du détail des données.
+	 * @param application Code de l'application
+	 * @return MemoryBudget ou null si l'application n'a pas encore été collectée
+	 */
+	MemoryBudget getMemoryBudget(String application) {
+		return memoryBudgetsByApplication.get(application);
+	}
+
 	List<SessionInformations> collectSessionInformations(String application, String sessionId)
 			throws IOException {
 		return getRemoteCollectorByApplication(application).collectSessionInformations(sessionId);
 	}
 
+	/**
+	 * Retourne les résumés des données de chaque serveur d'une application, gardés en mémoire
+	 * lors des collectes pour comparer les serveurs sans les appeler.
+	 * @param application Code de l'application
+	 * @return Liste de NodeSummary dans l'ordre des urls de l'application
+	 */
+	List<NodeSummary> getNodeSummaries(String application) {
+		return getRemoteCollectorByApplication(application).getNodeSummaries();
+	}
+
 	List<SampledMethod> collectHotspots(String application) throws IOException {
 		return getRemoteCollectorByApplication(application).collectHotspots();
 	}
 
+	List<SampledStack> collectHotspotStacks(String application) throws IOException {
+		return getRemoteCollectorByApplication(application).collectHotspotStacks();
+	}
+
 	HeapHistogram collectHeapHistogram(String application) throws IOException {
 		return getRemoteCollectorByApplication(application).collectHeapHistogram();
 	}
@@ -279,6 +516,8 @@ class CollectorServer {
 	void removeCollectorApplication(String application) throws IOException {
 		Parameters.removeCollectorApplication(application);
 		remoteCollectorsByApplication.remove(application);
+		collectScheduler.remove(application);
+		memoryBudgetsByApplication.remove(application);
 	}
 
 	/**
@@ -353,6 +592,40 @@ class CollectorServer {
 		return Collections.unmodifiableMap(lastCollectExceptionsByApplication);
 	}
 
+	/**
+	 * Retourne l'url du serveur de collecte qui collecte une application, si ce n'est pas celui-ci
+	 * (paramètre collector-shards).
+	 * @param application Code de l'application
+	 * @return Url du serveur de collecte ou null si l'application est collectée par celui-ci
+	 */
+	String getShardUrl(String application) {
+		return collectorShards.getRemoteShardUrl(application);
+	}
+
+	String getLocalShardUrl() {
+		return collectorShards.getLocalShardUrl();
+	}
+
+	/**
+	 * Retourne le retard de collecte d'une application, c'est-à-dire le temps écoulé depuis la fin
+	 * de sa dernière collecte au-delà de la période de collecte.
+	 * @param application Code de l'application
+	 * @return Retard en millisecondes (0 si la collecte est à l'heure)
+	 */
+	long getCollectLagMillis(String application) {
+		return collectScheduler.getCollectLagMillis(application);
+	}
+
+	/**
+	 * Retourne true si la collecte d'une application a au moins une période de retard
+	 * (collecte en cours plus longue que la période par exemple).
+	 * @param application Code de l'application
+	 * @return boolean
+	 */
+	boolean isCollectLate(String application) {
+		return collectScheduler.isCollectLate(application);
+	}
+
 	private void notifyAdmins(String subject, String message) {
 		final String mailSession = Parameters.getParameter(Parameter.MAIL_SESSION);
 		final String adminEmails = Parameters.getParameter(Parameter.ADMIN_EMAILS);
@@ -383,6 +656,11 @@ class CollectorServer {
 				try {
 					// envoi du rapport
 					final Collector collector = getCollectorByApplication(application);
+					if (collector == null) {
+						// application enlevée ou collectée par un autre serveur de collecte,
+						// le rapport sera replanifié si l'application revient
+						return;
+					}
 					final List<JavaInformations> javaInformationsList = getJavaInformationsByApplication(application);
 					new MailReport().sendReportMail(collector, true, javaInformationsList, period);
 				} catch (final Throwable t) { // NOPMD
@@ -406,7 +684,8 @@ class CollectorServer {
 		// stoppe le timer
 		timer.cancel();
 		// stoppe les threads de collecte, en attendant qu'ils terminent les tâches en cours
-		executorService.shutdown();
+		collectScheduler.stop();
+		NodeFetchPool.stop();
 		for (final RemoteCollector remoteCollector : remoteCollectorsByApplication.values()) {
 			remoteCollector.getCollector().stop();
 		}
@@ -417,6 +696,11 @@ class CollectorServer {
 
 	static List<URL> getUrlsByApplication(String application) throws IOException {
 		assert application != null;
-		return Parameters.getCollectorUrlsByApplications().get(application);
+		final List<URL> urls = Parameters.getCollectorUrlsByApplications().get(application);
+		if (urls == null) {
+			// application en mode push, sans url
+			return Collections.emptyList();
+		}
+		return urls;
 	}
 }
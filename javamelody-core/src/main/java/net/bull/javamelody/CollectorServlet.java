@@ -18,9 +18,20 @@
  */
 package net.bull.javamelody; // NOPMD
 
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
+import static net.bull.javamelody.HttpParameters.DASHBOARD_PART;
+import static net.bull.javamelody.HttpParameters.NODE_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PUSH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.RELEASE_PARAMETER;
+import static net.bull.javamelody.HttpParameters.SHARD_PART;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.StreamCorruptedException;
+import java.security.MessageDigest;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletConfig;
@@ -81,14 +92,39 @@ public class CollectorServlet extends HttpServlet {
 			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden access");
 			return;
 		}
+		if (SHARD_PART.equalsIgnoreCase(req.getParameter(PART_PARAMETER))) {
+			// vérification de disponibilité ou demande de libération d'une application
+			// par un autre serveur de collecte
+			final String releasedApplication = req.getParameter(RELEASE_PARAMETER);
+			if (releasedApplication != null
+					&& !collectorServer.releaseApplicationForShard(releasedApplication,
+							req.getHeader(CollectorShards.FORWARDED_HEADER), req.getRemoteAddr())) {
+				resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden release");
+				return;
+			}
+			doShardPing(resp);
+			return;
+		}
 		final CollectorController collectorController = new CollectorController(collectorServer);
 		final String application = collectorController.getApplication(req, resp);
 		I18N.bindLocale(req.getLocale());
 		try {
+			if (DASHBOARD_PART.equalsIgnoreCase(req.getParameter(PART_PARAMETER))) {
+				// courbes de plusieurs applications en une seule réponse
+				new DashboardController(collectorServer).doDashboard(req, resp);
+				return;
+			}
 			if (application == null) {
 				CollectorController.writeOnlyAddApplication(resp);
 				return;
 			}
+			final String shardUrl = collectorServer.getShardUrl(application);
+			if (shardUrl != null && req.getHeader(CollectorShards.FORWARDED_HEADER) == null) {
+				// application collectée par un autre serveur de collecte : on lui transmet la requête
+				// (une requête déjà transmise ne l'est pas une 2ème fois, même si la répartition diffère)
+				collectorController.doShardProxy(req, resp, application, shardUrl);
+				return;
+			}
 			if (!collectorServer.isApplicationDataAvailable(application)) {
 				resp.sendError(
 						HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
@@ -118,6 +154,11 @@ public class CollectorServlet extends HttpServlet {
 			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden access");
 			return;
 		}
+		if (req.getParameter(PUSH_PARAMETER) != null) {
+			// envoi des données d'une application monitorée en mode push
+			doPush(req, resp);
+			return;
+		}
 		// post du formulaire d'ajout d'application à monitorer
 		final String appName = req.getParameter("appName");
 		final String appUrls = req.getParameter("appUrls");
@@ -154,6 +195,89 @@ public class CollectorServlet extends HttpServlet {
 		}
 	}
 
+	private void doPush(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		final String application = req.getParameter(PUSH_PARAMETER);
+		final String nodeId = req.getParameter(NODE_PARAMETER);
+		final String cursor = req.getParameter(CURSOR_PARAMETER);
+		if (!isPushTokenValid(req)) {
+			// mode push désactivé (pas de jeton défini) ou jeton invalide
+			LOGGER.info("Forbidden push from " + req.getRemoteAddr());
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden push");
+			return;
+		}
+		if (!isPushApplicationAllowed(application)) {
+			LOGGER.info("Forbidden push for the application " + application + " from "
+					+ req.getRemoteAddr());
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Application not allowed for push");
+			return;
+		}
+		if (nodeId == null || cursor == null) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing parameters");
+			return;
+		}
+		if (req.getContentLength() > PushPayloadReader.MAX_PAYLOAD_SIZE) {
+			resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Payload too large");
+			return;
+		}
+		final PushPayloadReader pushPayloadReader = new PushPayloadReader();
+		final List<Serializable> payload;
+		try {
+			payload = pushPayloadReader.read(req.getInputStream());
+		} catch (final IOException e) {
+			// flux trop grand, illisible ou contenant des classes non autorisées
+			LOGGER.warn("push refused for the application " + application + " from "
+					+ req.getRemoteAddr() + ": " + e.toString());
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid push");
+			return;
+		}
+		final String acknowledgedCursor;
+		try {
+			acknowledgedCursor = collectorServer.pushForApplication(application, nodeId, cursor,
+					payload, pushPayloadReader.getPayloadSize());
+		} catch (final IllegalStateException e) {
+			resp.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+			return;
+		}
+		if (acknowledgedCursor == null) {
+			// file d'attente pleine pour cette application : l'application monitorée réessaiera plus tard
+			LOGGER.info("pushes queue full for the application " + application);
+			resp.setHeader("Retry-After", String.valueOf(Parameters.getResolutionSeconds()));
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many pushes");
+			return;
+		}
+		resp.setContentType(TransportFormat.SERIALIZED.getMimeType());
+		TransportFormat.SERIALIZED.writeSerializableTo(new CollectCursor(acknowledgedCursor),
+				resp.getOutputStream());
+	}
+
+	private static boolean isPushTokenValid(HttpServletRequest req) throws IOException {
+		final String pushToken = Parameters.getParameter(Parameter.PUSH_TOKEN);
+		final String token = req.getHeader(CollectorPushClient.PUSH_TOKEN_HEADER);
+		if (pushToken == null || token == null) {
+			return false;
+		}
+		// comparaison en temps constant, pour ne pas renseigner sur le jeton
+		return MessageDigest.isEqual(pushToken.getBytes("UTF-8"), token.getBytes("UTF-8"));
+	}
+
+	private static boolean isPushApplicationAllowed(String application) {
+		final String pushApplications = Parameters.getParameter(Parameter.PUSH_APPLICATIONS);
+		if (pushApplications != null) {
+			for (final String pushApplication : pushApplications.split(",")) {
+				if (pushApplication.trim().equals(application)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void doShardPing(HttpServletResponse resp) throws IOException {
+		resp.setContentType(TransportFormat.SERIALIZED.getMimeType());
+		TransportFormat.SERIALIZED.writeSerializableTo(
+				String.valueOf(collectorServer.getLocalShardUrl()), resp.getOutputStream());
+	}
+
 	private void writeMessage(HttpServletRequest req, HttpServletResponse resp,
 			CollectorController collectorController, String message) throws IOException {
 		collectorController.writeMessage(req, resp, collectorController.getApplication(req, resp),
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Répartition des applications monitorées entre plusieurs serveurs de collecte (shards).
+ * <br/>Chaque application est attribuée à un serveur de collecte par hachage cohérent de son nom
+ * parmi les serveurs de collecte disponibles : quand un serveur de collecte s'arrête ou revient,
+ * seules les applications de ce serveur changent de serveur.
+ * <br/>La disponibilité des autres serveurs de collecte est vérifiée à chaque période de collecte
+ * et un serveur de collecte n'est retiré de l'anneau qu'après plusieurs échecs consécutifs.
+ * <br/>Avant de collecter une application qui lui est attribuée, un serveur de collecte demande aux autres
+ * de la libérer : l'ancien serveur arrête sa collecte et enregistre ses données avant de répondre,
+ * pour ne pas écraser ensuite les fichiers écrits par le nouveau serveur.
+ * @author Emeric Vernat
+ */
+final class CollectorShards {
+	/** Entête http des requêtes transmises par un autre serveur de collecte, pour ne pas les retransmettre. */
+	static final String FORWARDED_HEADER = "X-JavaMelody-Shard";
+	private static final Logger LOGGER = Logger.getLogger("javamelody");
+	// nombre de points par serveur de collecte sur l'anneau, pour une répartition homogène
+	private static final int VIRTUAL_NODES = 128;
+	// nombre d'échecs consécutifs de vérification pour retirer un serveur de collecte de l'anneau
+	static final int MAX_FAILED_PINGS = 3;
+
+	private final List<String> shardUrls;
+	private final String localShardUrl;
+	private volatile Set<String> liveShardUrls;
+	private volatile HashRing ring;
+	private final Map<String, Integer> failedPingsByShard = new HashMap<String, Integer>();
+
+	/**
+	 * Anneau de hachage cohérent.
+	 */
+	static final class HashRing {
+		private final SortedMap<Long, String> shardsByHash = new TreeMap<Long, String>();
+
+		HashRing(Collection<String> shards) {
+			super();
+			for (final String shard : shards) {
+				for (int i = 0; i < VIRTUAL_NODES; i++) {
+					shardsByHash.put(hash(shard + '#' + i), shard);
+				}
+			}
+		}
+
+		/**
+		 * @param key Nom de l'application
+		 * @return Serveur de collecte de cette clé, ou null si l'anneau est vide
+		 */
+		String getShard(String key) {
+			if (shardsByHash.isEmpty()) {
+				return null;
+			}
+			final SortedMap<Long, String> tailMap = shardsByHash.tailMap(hash(key));
+			if (tailMap.isEmpty()) {
+				return shardsByHash.get(shardsByHash.firstKey());
+			}
+			return tailMap.get(tailMap.firstKey());
+		}
+
+		static long hash(String key) {
+			final byte[] digest;
+			try {
+				// MD5 pour une bonne dispersion, la sécurité n'a pas d'importance ici
+				digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+			} catch (final NoSuchAlgorithmException e) {
+				// ne peut arriver car MD5 est un algorithme disponible par défaut dans le JDK
+				throw new IllegalStateException(e);
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			long result = 0;
+			for (int i = 0; i < 8; i++) {
+				result = result << 8 | digest[i] & 0xFF;
+			}
+			return result;
+		}
+	}
+
+	CollectorShards(List<String> shardUrls, String localShardUrl) {
+		super();
+		assert shardUrls != null;
+		if (!shardUrls.isEmpty() && !shardUrls.contains(localShardUrl)) {
+			throw new IllegalStateException("The parameter collector-shard-url should be one of "
+					+ shardUrls);
+		}
+		this.shardUrls = Collections.unmodifiableList(new ArrayList<String>(shardUrls));
+		this.localShardUrl = localShardUrl;
+		// au démarrage, les autres serveurs de collecte sont supposés disponibles
+		setLiveShardUrls(shardUrls);
+	}
+
+	/**
+	 * @return Répartition selon les paramètres collector-shards et collector-shard-url,
+	 * sans répartition si ces paramètres ne sont pas définis
+	 */
+	static CollectorShards createFromParameters() {
+		final String shards = Parameters.getParameter(Parameter.COLLECTOR_SHARDS);
+		if (shards == null || shards.trim().length() == 0) {
+			return new CollectorShards(Collections.<String> emptyList(), null);
+		}
+		final List<String> shardUrls = new ArrayList<String>();
+		for (final String shard : shards.split(",")) {
+			if (shard.trim().length() > 0) {
+				shardUrls.add(shard.trim());
+			}
+		}
+		final String localShardUrl = Parameters.getParameter(Parameter.COLLECTOR_SHARD_URL);
+		if (localShardUrl == null) {
+			throw new IllegalStateException(
+					"The parameter collector-shard-url should be defined with collector-shards");
+		}
+		return new CollectorShards(shardUrls, localShardUrl.trim());
+	}
+
+	boolean isEnabled() {
+		return !shardUrls.isEmpty();
+	}
+
+	String getLocalShardUrl() {
+		return localShardUrl;
+	}
+
+	List<String> getShardUrls() {
+		return shardUrls;
+	}
+
+	Set<String> getLiveShardUrls() {
+		return liveShardUrls;
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return true si l'application est collectée par ce serveur de collecte
+	 */
+	boolean isLocal(String application) {
+		if (!isEnabled()) {
+			return true;
+		}
+		final String shard = ring.getShard(application);
+		return shard == null || shard.equals(localShardUrl);
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return Url du serveur de collecte de l'application, ou null si c'est ce serveur de collecte
+	 */
+	String getRemoteShardUrl(String application) {
+		if (isLocal(application)) {
+			return null;
+		}
+		return ring.getShard(application);
+	}
+
+	/**
+	 * Vérifie la disponibilité des autres serveurs de collecte et répartit à nouveau les applications
+	 * si un serveur de collecte s'est arrêté ou est revenu.
+	 */
+	void checkShards() {
+		if (!isEnabled()) {
+			return;
+		}
+		final Set<String> available = callOtherShards(null);
+		synchronized (this) {
+			final Set<String> live = new LinkedHashSet<String>();
+			live.add(localShardUrl);
+			for (final String shardUrl : shardUrls) {
+				if (available.contains(shardUrl)) {
+					failedPingsByShard.remove(shardUrl);
+					live.add(shardUrl);
+				} else if (!shardUrl.equals(localShardUrl)) {
+					final Integer previousFailedPings = failedPingsByShard.get(shardUrl);
+					final int failedPings = previousFailedPings == null ? 1
+							: previousFailedPings + 1;
+					failedPingsByShard.put(shardUrl, failedPings);
+					// un échec isolé (pause du gc, timeout ponctuel) ne retire pas le serveur de l'anneau
+					if (failedPings < MAX_FAILED_PINGS && liveShardUrls.contains(shardUrl)) {
+						live.add(shardUrl);
+					}
+				}
+			}
+			setLiveShardUrls(live);
+		}
+	}
+
+	/**
+	 * Demande aux autres serveurs de collecte de libérer une application, avant de la collecter :
+	 * un serveur de collecte qui la collectait répond après avoir arrêté sa collecte et enregistré ses données.
+	 * Un serveur de collecte indisponible est ignoré.
+	 * @param application Nom de l'application
+	 */
+	void requestRelease(String application) {
+		if (!isEnabled()) {
+			return;
+		}
+		for (final String shardUrl : callOtherShards(application)) {
+			shardAvailable(shardUrl);
+		}
+	}
+
+	/**
+	 * Enregistre qu'un autre serveur de collecte est disponible, car il vient de faire une demande.
+	 * <br/>L'entête de la demande pouvant être envoyé par n'importe qui, la demande doit venir
+	 * de l'hôte de ce serveur de collecte (les serveurs de collecte s'appellent directement).
+	 * @param shardUrl Url du serveur de collecte, selon l'entête de la demande
+	 * @param remoteAddr Adresse ip d'où vient la demande
+	 * @return false si l'url n'est pas celle d'un serveur de collecte du paramètre collector-shards
+	 * ou si la demande ne vient pas de l'hôte de ce serveur de collecte
+	 */
+	boolean shardAvailable(String shardUrl, String remoteAddr) {
+		if (!shardUrls.contains(shardUrl) || !isShardAddress(shardUrl, remoteAddr)) {
+			return false;
+		}
+		return shardAvailable(shardUrl);
+	}
+
+	static boolean isShardAddress(String shardUrl, String remoteAddr) {
+		if (remoteAddr == null) {
+			return false;
+		}
+		try {
+			// l'adresse ip de la demande est lue sans résolution dns
+			final InetAddress remoteAddress = InetAddress.getByName(remoteAddr);
+			for (final InetAddress address : InetAddress.getAllByName(new URL(shardUrl)
+					.getHost())) {
+				if (address.equals(remoteAddress)) {
+					return true;
+				}
+			}
+		} catch (final IOException e) {
+			LOGGER.debug("collector shard address not resolved: " + e.toString());
+		}
+		return false;
+	}
+
+	synchronized boolean shardAvailable(String shardUrl) {
+		if (!shardUrls.contains(shardUrl)) {
+			return false;
+		}
+		failedPingsByShard.remove(shardUrl);
+		if (!liveShardUrls.contains(shardUrl)) {
+			final Set<String> live = new LinkedHashSet<String>(liveShardUrls);
+			live.add(shardUrl);
+			setLiveShardUrls(live);
+		}
+		return true;
+	}
+
+	private Set<String> callOtherShards(String releasedApplication) {
+		final List<LabradorRetriever> labradorRetrievers = new ArrayList<LabradorRetriever>();
+		final List<String> calledShardUrls = new ArrayList<String>();
+		final Map<String, String> headers = Collections.singletonMap(FORWARDED_HEADER,
+				localShardUrl);
+		for (final String shardUrl : shardUrls) {
+			if (!shardUrl.equals(localShardUrl)) {
+				try {
+					final String url;
+					if (releasedApplication == null) {
+						url = getPingUrl(shardUrl);
+					} else {
+						url = getReleaseUrl(shardUrl, releasedApplication);
+					}
+					labradorRetrievers.add(new LabradorRetriever(new URL(url), headers));
+					calledShardUrls.add(shardUrl);
+				} catch (final IOException e) {
+					LOGGER.warn(e.toString(), e);
+				}
+			}
+		}
+		final Set<String> available = Collections.synchronizedSet(new HashSet<String>());
+		try {
+			// appels en parallèle, un serveur de collecte indisponible est ignoré
+			NodeFetchPool.fetch(labradorRetrievers, new NodeFetchPool.NodeResultHandler<Object>() {
+				@Override
+				public void nodeFetched(int nodeIndex, Object result, long dataLength) {
+					available.add(calledShardUrls.get(nodeIndex));
+				}
+			});
+		} catch (final IOException e) {
+			// aucun autre serveur de collecte disponible
+			LOGGER.debug("no other collector shard available: " + e.toString());
+		}
+		return available;
+	}
+
+	static String getPingUrl(String shardUrl) {
+		return shardUrl + (shardUrl.indexOf('?') == -1 ? '?' : '&')
+				+ HttpParameters.PART_PARAMETER + '=' + HttpParameters.SHARD_PART;
+	}
+
+	static String getReleaseUrl(String shardUrl, String application) throws IOException {
+		return getPingUrl(shardUrl) + '&' + HttpParameters.RELEASE_PARAMETER + '='
+				+ URLEncoder.encode(application, "UTF-8");
+	}
+
+	/**
+	 * Définit les serveurs de collecte disponibles, dans l'ordre du paramètre collector-shards.
+	 * @param live Urls des serveurs de collecte disponibles
+	 */
+	synchronized void setLiveShardUrls(Collection<String> live) {
+		final Set<String> newLiveShardUrls = new LinkedHashSet<String>();
+		for (final String shardUrl : shardUrls) {
+			if (live.contains(shardUrl)) {
+				newLiveShardUrls.add(shardUrl);
+			}
+		}
+		final Set<String> previous = liveShardUrls;
+		if (!newLiveShardUrls.equals(previous)) {
+			if (previous != null) {
+				LOGGER.info("collector shards available: " + newLiveShardUrls + " (before: "
+						+ previous + ')');
+			}
+			this.ring = new HashRing(newLiveShardUrls);
+			this.liveShardUrls = Collections.unmodifiableSet(newLiveShardUrls);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[local=" + localShardUrl + ", shards=" + shardUrls
+				+ ", live=" + liveShardUrls + ']';
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Énumération des algorithmes de compression utilisables pour les fichiers des compteurs
+ * et pour le transport http entre le serveur de collecte et les applications monitorées.
+ * <br/>À la lecture d'un fichier, l'algorithme est détecté d'après la signature des données,
+ * donc les fichiers existants restent lisibles quel que soit le paramétrage.
+ * @author Emeric Vernat
+ */
+enum CompressionCodec {
+	/**
+	 * GZIP (deflate), avec le niveau de compression du paramètre compression-level.
+	 */
+	GZIP("gzip"),
+	/**
+	 * Algorithme rapide de la famille LZ, en java pur (voir {@link LzOutputStream}).
+	 */
+	LZ("x-javamelody-lz");
+
+	private static final int GZIP_MAGIC = 0x1F8B;
+
+	private final String contentEncoding;
+
+	private CompressionCodec(String contentEncoding) {
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * @return Valeur de l'entête http "Content-Encoding" pour cet algorithme
+	 */
+	String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	OutputStream createOutputStream(OutputStream output, int bufferSize) throws IOException {
+		switch (this) {
+		case GZIP:
+			final int level = getDeflateLevel();
+			if (level == Deflater.DEFAULT_COMPRESSION) {
+				return new GZIPOutputStream(output, bufferSize);
+			}
+			return new GZIPOutputStream(output, bufferSize) {
+				{
+					def.setLevel(level);
+				}
+			};
+		case LZ:
+			return new LzOutputStream(output);
+		default:
+			throw new IllegalStateException(toString());
+		}
+	}
+
+	InputStream createInputStream(InputStream input) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPInputStream(input);
+		case LZ:
+			return new LzInputStream(input);
+		default:
+			throw new IllegalStateException(toString());
+		}
+	}
+
+	/**
+	 * Retourne un InputStream décompressant le flux selon l'algorithme détecté d'après la signature
+	 * des données (gzip ou lz), ou le flux lui-même s'il n'est pas compressé.
+	 * @param input InputStream
+	 * @return InputStream
+	 * @throws IOException e
+	 */
+	static InputStream createDetectingInputStream(InputStream input) throws IOException {
+		final InputStream bufferedInput;
+		if (input.markSupported()) {
+			bufferedInput = input;
+		} else {
+			bufferedInput = new BufferedInputStream(input);
+		}
+		final byte[] magic = new byte[LzOutputStream.MAGIC.length];
+		bufferedInput.mark(magic.length);
+		int length = 0;
+		while (length < magic.length) {
+			final int read = bufferedInput.read(magic, length, magic.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+		}
+		bufferedInput.reset();
+		if (length >= 2 && ((magic[0] & 0xFF) << 8 | magic[1] & 0xFF) == GZIP_MAGIC) {
+			return GZIP.createInputStream(bufferedInput);
+		} else if (length == magic.length && magic[0] == LzOutputStream.MAGIC[0]
+				&& magic[1] == LzOutputStream.MAGIC[1] && magic[2] == LzOutputStream.MAGIC[2]
+				&& magic[3] == LzOutputStream.MAGIC[3]) {
+			return LZ.createInputStream(bufferedInput);
+		}
+		return bufferedInput;
+	}
+
+	/**
+	 * @param contentEncoding Valeur d'un entête http "Content-Encoding"
+	 * @return L'algorithme correspondant ou null si le flux n'est pas compressé ou si l'algorithme est inconnu
+	 */
+	static CompressionCodec valueOfContentEncoding(String contentEncoding) {
+		if (contentEncoding != null) {
+			for (final CompressionCodec codec : values()) {
+				if (codec.getContentEncoding().equals(contentEncoding)) {
+					return codec;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Choisit l'algorithme de compression d'une réponse http selon les entêtes "Accept-Encoding"
+	 * de la requête: lz si le client (serveur de collecte) l'accepte, gzip sinon.
+	 * @param httpRequest HttpServletRequest
+	 * @return CompressionCodec ou null si la compression n'est pas supportée par le client
+	 */
+	static CompressionCodec valueOfAcceptEncoding(HttpServletRequest httpRequest) {
+		final List<String> acceptEncodings = Collections.list(httpRequest
+				.getHeaders("Accept-Encoding"));
+		boolean gzipSupported = false;
+		for (final String name : acceptEncodings) {
+			if (name.contains(LZ.getContentEncoding())) {
+				return LZ;
+			} else if (name.contains(GZIP.getContentEncoding())) {
+				gzipSupported = true;
+			}
+		}
+		if (gzipSupported) {
+			return GZIP;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Valeur de l'entête http "Accept-Encoding" envoyée par le serveur de collecte
+	 */
+	static String getAcceptEncoding() {
+		if (getConfiguredCodec() == LZ) {
+			return LZ.getContentEncoding() + ", " + GZIP.getContentEncoding();
+		}
+		return GZIP.getContentEncoding();
+	}
+
+	/**
+	 * @return L'algorithme de compression du paramètre compression-codec (gzip par défaut)
+	 */
+	static CompressionCodec getConfiguredCodec() {
+		final String param = Parameters.getParameter(Parameter.COMPRESSION_CODEC);
+		if (param == null) {
+			return GZIP;
+		}
+		return valueOf(param.toUpperCase(Locale.ENGLISH).trim());
+	}
+
+	static int getDeflateLevel() {
+		final String param = Parameters.getParameter(Parameter.COMPRESSION_LEVEL);
+		if (param == null) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+		// lance une NumberFormatException si ce n'est pas un nombre
+		final int result = Integer.parseInt(param.trim());
+		if (result < Deflater.BEST_SPEED || result > Deflater.BEST_COMPRESSION) {
+			throw new IllegalStateException(
+					"Le paramètre compression-level doit être entre 1 et 9 (1 pour le plus rapide)");
+		}
+		return result;
+	}
+}
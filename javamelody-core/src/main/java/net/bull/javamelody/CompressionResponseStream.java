@@ -21,7 +21,6 @@ package net.bull.javamelody;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -33,6 +32,7 @@ import javax.servlet.http.HttpServletResponse;
 class CompressionResponseStream extends ServletOutputStream {
 	private final int compressionThreshold;
 	private final HttpServletResponse response;
+	private final CompressionCodec compressionCodec;
 	private OutputStream stream;
 
 	/**
@@ -41,11 +41,24 @@ class CompressionResponseStream extends ServletOutputStream {
 	 * @param compressionThreshold int
 	 */
 	CompressionResponseStream(HttpServletResponse response, int compressionThreshold) {
+		this(response, compressionThreshold, CompressionCodec.GZIP);
+	}
+
+	/**
+	 * Construit un servlet output stream associé avec la réponse spécifiée.
+	 * @param response HttpServletResponse
+	 * @param compressionThreshold int
+	 * @param compressionCodec Algorithme de compression
+	 */
+	CompressionResponseStream(HttpServletResponse response, int compressionThreshold,
+			CompressionCodec compressionCodec) {
 		super();
 		assert response != null;
 		assert compressionThreshold >= 0;
+		assert compressionCodec != null;
 		this.response = response;
 		this.compressionThreshold = compressionThreshold;
+		this.compressionCodec = compressionCodec;
 		this.stream = new ByteArrayOutputStream(compressionThreshold);
 	}
 
@@ -75,27 +88,27 @@ class CompressionResponseStream extends ServletOutputStream {
 			final ByteArrayOutputStream baos = (ByteArrayOutputStream) stream;
 			if (baos.size() + length > compressionThreshold) {
 				// files too large to keep in memory are sent to the client
-				flushToGZIP();
+				flushToCompressedStream();
 			}
 		}
 	}
 
-	private void flushToGZIP() throws IOException {
+	private void flushToCompressedStream() throws IOException {
 		if (stream instanceof ByteArrayOutputStream) {
 			// indication de compression,
 			// on utilise setHeader et non addHeader pour être compatible avec PJL compression filter
 			// en particulier dans le plugin grails vis à vis de l'autre plugin grails UiPerformance
-			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("Content-Encoding", compressionCodec.getContentEncoding());
 			response.setHeader("Vary", "Accept-Encoding");
 
-			// make new gzip stream using the response output stream (content-encoding is in constructor)
-			final GZIPOutputStream gzipstream = new GZIPOutputStream(response.getOutputStream(),
-					compressionThreshold);
+			// make new compressed stream using the response output stream (content-encoding is in constructor)
+			final OutputStream compressedStream = compressionCodec.createOutputStream(
+					response.getOutputStream(), compressionThreshold);
 			// get existing bytes
 			final byte[] bytes = ((ByteArrayOutputStream) stream).toByteArray();
-			gzipstream.write(bytes);
-			// we are no longer buffering, send content via gzipstream
-			stream = gzipstream;
+			compressedStream.write(bytes);
+			// we are no longer buffering, send content via compressedStream
+			stream = compressedStream;
 		}
 	}
 
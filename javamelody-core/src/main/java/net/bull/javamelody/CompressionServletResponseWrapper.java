@@ -29,6 +29,7 @@ import javax.servlet.http.HttpServletResponse;
  */
 class CompressionServletResponseWrapper extends FilterServletResponseWrapper {
 	private final int compressionThreshold;
+	private final CompressionCodec compressionCodec;
 
 	/**
 	 * Constructeur qui crée un adapteur de ServletResponse wrappant la response spécifiée.
@@ -36,16 +37,29 @@ class CompressionServletResponseWrapper extends FilterServletResponseWrapper {
 	 * @param compressionThreshold int
 	 */
 	CompressionServletResponseWrapper(HttpServletResponse response, int compressionThreshold) {
+		this(response, compressionThreshold, CompressionCodec.GZIP);
+	}
+
+	/**
+	 * Constructeur qui crée un adapteur de ServletResponse wrappant la response spécifiée.
+	 * @param response HttpServletResponse
+	 * @param compressionThreshold int
+	 * @param compressionCodec Algorithme de compression
+	 */
+	CompressionServletResponseWrapper(HttpServletResponse response, int compressionThreshold,
+			CompressionCodec compressionCodec) {
 		super(response);
 		assert compressionThreshold >= 0;
+		assert compressionCodec != null;
 		this.compressionThreshold = compressionThreshold;
+		this.compressionCodec = compressionCodec;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public ServletOutputStream createOutputStream() {
 		return new CompressionResponseStream((HttpServletResponse) getResponse(),
-				compressionThreshold);
+				compressionThreshold, compressionCodec);
 	}
 
 	/**
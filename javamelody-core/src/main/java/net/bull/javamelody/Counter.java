@@ -112,6 +112,14 @@ class Counter implements Cloneable, Serializable { // NOPMD
 	private final transient ThreadLocal<CounterRequestContext> contextThreadLocal;
 	private transient Pattern requestTransformPattern;
 
+	/**
+	 * Interface de parcours des requêtes d'un counter sans copie (voir visitRequests).
+	 */
+	interface RequestVisitor {
+		void visit(String requestId, String requestName, long hits, long durationsSum,
+				long systemErrors);
+	}
+
 	/**
 	 * Comparateur pour ordonner les requêtes par sommes des durées.
 	 */
@@ -609,12 +617,7 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		// Rq: cette méthode est thread-safe comme les autres méthodes dans cette classe,
 		// bien que cela ne soit à priori pas nécessaire telle qu'elle est utilisée dans CollectorServlet
 		for (final CounterRequest newRequest : newCounter.getRequests()) {
-			if (newRequest.getHits() > 0) {
-				final CounterRequest request = getCounterRequestInternal(newRequest.getName());
-				synchronized (request) {
-					request.addHits(newRequest);
-				}
-			}
+			addRequestHits(newRequest);
 		}
 
 		int size = requests.size();
@@ -643,6 +646,20 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	/**
+	 * Ajoute les hits d'une requête qui n'est pas partagée (clone ou requête lue d'un flux)
+	 * à la requête de même nom de ce compteur.
+	 * @param newRequest CounterRequest
+	 */
+	void addRequestHits(CounterRequest newRequest) {
+		if (newRequest.getHits() > 0) {
+			final CounterRequest request = getCounterRequestInternal(newRequest.getName());
+			synchronized (request) {
+				request.addHits(newRequest);
+			}
+		}
+	}
+
 	void addHits(CounterRequest counterRequest) {
 		if (counterRequest.getHits() > 0) {
 			// clone pour être thread-safe ici
@@ -678,6 +695,41 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	/**
+	 * Enlève de ce compteur les hits et les erreurs déjà présents dans un état précédent de ce compteur,
+	 * pour ne garder que ce qui a changé depuis (collecte par différences du serveur de collecte).
+	 * <br/>Cette méthode est destinée à un clone qui n'est plus utilisé par ailleurs.
+	 * @param previousCounter Clone précédent de ce compteur
+	 */
+	void removeRequestsAndErrors(Counter previousCounter) {
+		assert getName().equals(previousCounter.getName());
+		// les clones partagent l'instance de la date de début, qui est remplacée quand le compteur est vidé
+		if (getStartDate() != previousCounter.getStartDate()) { // NOPMD
+			// le compteur a été vidé depuis l'état précédent, donc tout est nouveau
+			return;
+		}
+		for (final CounterRequest request : requests.values()) {
+			final CounterRequest previousRequest = previousCounter.requests.get(request
+					.getName());
+			if (previousRequest != null) {
+				if (request.getHits() == previousRequest.getHits()) {
+					requests.remove(request.getName());
+				} else if (request.getHits() > previousRequest.getHits()) {
+					request.removeHits(previousRequest);
+				}
+				// sinon la requête a été purgée puis recréée depuis, donc tout est nouveau
+			}
+		}
+		if (isErrorCounter() && !previousCounter.errors.isEmpty()) {
+			final long lastErrorTime = previousCounter.errors.getLast().getTime();
+			synchronized (errors) {
+				while (!errors.isEmpty() && errors.getFirst().getTime() <= lastErrorTime) {
+					errors.removeFirst();
+				}
+			}
+		}
+	}
+
 	void removeRequest(String requestName) {
 		assert requestName != null;
 		requests.remove(requestName);
@@ -714,7 +766,9 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		if (request == null) {
 			request = new CounterRequest(requestName, getName());
 			// putIfAbsent a l'avantage d'être garanti atomique, même si ce n'est pas indispensable
-			final CounterRequest precedentRequest = requests.putIfAbsent(requestName, request);
+			// la clé est le nom partagé par le dictionnaire et non la chaîne reçue en paramètre
+			final CounterRequest precedentRequest = requests.putIfAbsent(request.getName(),
+					request);
 			if (precedentRequest != null) {
 				request = precedentRequest;
 			}
@@ -730,6 +784,26 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		return requests.size();
 	}
 
+	/**
+	 * Parcourt les requêtes de ce counter sans les copier ni les cloner, contrairement à getRequests(),
+	 * pour un export qui doit allouer peu de mémoire même avec beaucoup de requêtes.
+	 * @param visitor RequestVisitor appelé avec les valeurs lues de manière synchronisée pour chaque requête
+	 */
+	void visitRequests(RequestVisitor visitor) {
+		for (final CounterRequest request : requests.values()) {
+			final long hits;
+			final long durationsSum;
+			final long systemErrors;
+			// on synchronize sur request en cas d'ajout en parallèle d'un hit sur cette request
+			synchronized (request) {
+				hits = request.getHits();
+				durationsSum = request.getDurationsSum();
+				systemErrors = request.getSystemErrors();
+			}
+			visitor.visit(request.getId(), request.getName(), hits, durationsSum, systemErrors);
+		}
+	}
+
 	/**
 	 * @return Liste des requêtes non triées,
 	 * 	la liste et ses objets peuvent être utilisés sans synchronized et sans crainte d'accès concurrents.
@@ -862,6 +936,76 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		return clone;
 	}
 
+	/**
+	 * Écrit ce counter au format de transport binaire.
+	 * @param output BinaryTransport.Output
+	 * @throws IOException e
+	 */
+	void writeBinary(BinaryTransport.Output output) throws IOException {
+		output.writeString(getName());
+		output.writeString(getStorageName());
+		output.writeString(getIconName());
+		output.writeString(getChildCounterName());
+		output.writeString(getApplication());
+		output.writeBoolean(isDisplayed());
+		output.writeLong(getStartDate().getTime());
+		output.writeLong(getMaxRequestsCount());
+		output.writeLong(estimatedMemorySize);
+		// comme pour clone, rootCurrentContextsByThreadId n'est pas écrit
+		final List<CounterRequest> requestList = new ArrayList<CounterRequest>(requests.values());
+		output.writeLong(requestList.size());
+		for (final CounterRequest request : requestList) {
+			request.writeBinary(output);
+		}
+		if (errors != null) {
+			final List<CounterError> errorList = getErrors();
+			output.writeLong(errorList.size());
+			for (final CounterError error : errorList) {
+				error.writeBinary(output);
+			}
+		}
+	}
+
+	/**
+	 * Lit un counter écrit par {@link #writeBinary(BinaryTransport.Output)}.
+	 * @param input BinaryTransport.Input
+	 * @return Counter
+	 * @throws IOException e
+	 */
+	static Counter readBinary(BinaryTransport.Input input) throws IOException {
+		final String name = input.readString();
+		final String storageName = input.readString();
+		final String iconName = input.readString();
+		final String childCounterName = input.readString();
+		if (name == null || storageName == null) {
+			throw new IOException("Malformed binary transport data");
+		}
+		final Counter counter = new Counter(name, storageName, iconName, childCounterName,
+				new ThreadLocal<CounterRequestContext>());
+		counter.application = input.readString();
+		counter.displayed = input.readBoolean();
+		counter.startDate = new Date(input.readLong());
+		counter.maxRequestsCount = input.readInt();
+		counter.estimatedMemorySize = input.readLong();
+		// dans le serveur de collecte, les requêtes d'une réponse entièrement reçue sont fusionnées
+		// au fil de la lecture dans le compteur de l'application, sans être conservées dans ce counter
+		final BinaryTransport.RequestHandler requestHandler = input.getRequestHandler();
+		final int requestsCount = input.readInt();
+		for (int i = 0; i < requestsCount; i++) {
+			final CounterRequest request = CounterRequest.readBinary(input);
+			if (requestHandler == null || !requestHandler.requestRead(counter, request)) {
+				counter.requests.put(request.getName(), request);
+			}
+		}
+		if (counter.errors != null) {
+			final int errorsCount = input.readInt();
+			for (int i = 0; i < errorsCount; i++) {
+				counter.errors.add(CounterError.readBinary(input));
+			}
+		}
+		return counter;
+	}
+
 	/**
 	 * Enregistre le counter.
 	 * @throws IOException e
@@ -898,6 +1042,19 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	// après lecture par sérialisation java, les clés de la map sont des chaînes lues avec le compteur :
+	// elles sont remplacées par les noms des requêtes, partagés par le dictionnaire (voir StringDictionary)
+	private Object readResolve() {
+		// (requests peut être null lors de la lecture par XStream d'un compteur sans requêtes)
+		if (requests != null) {
+			for (final CounterRequest request : new ArrayList<CounterRequest>(requests.values())) {
+				requests.remove(request.getName());
+				requests.put(request.getName(), request);
+			}
+		}
+		return this;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -18,6 +18,7 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 
@@ -34,17 +35,19 @@ class CounterError implements Serializable {
 	@SuppressWarnings("all")
 	private static final ThreadLocal<HttpServletRequest> HTTP_SERVLET_REQUEST_CONTEXT = new ThreadLocal<HttpServletRequest>();
 	private final long time;
-	private final String remoteUser;
-	private final String httpRequest;
-	private final String message;
-	private final String stackTrace;
+	// ces champs ne sont pas final pour être remplacés sur place par les instances du dictionnaire
+	// dans readResolve, sans copie de l'erreur
+	private String remoteUser;
+	private String httpRequest;
+	private String message;
+	private String stackTrace;
 
 	CounterError(String message, String stackTrace) {
 		super();
 		assert message != null;
 		this.time = System.currentTimeMillis();
-		this.message = message;
-		this.stackTrace = stackTrace;
+		this.message = StringDictionary.intern(message);
+		this.stackTrace = StringDictionary.intern(stackTrace);
 		final HttpServletRequest currentRequest = getCurrentRequest();
 		if (currentRequest == null) {
 			this.remoteUser = null;
@@ -55,14 +58,28 @@ class CounterError implements Serializable {
 			// com.pixelpark.seraph.SSOAuthenticator.getUser (cf issue 24).
 			unbindRequest();
 			try {
-				this.httpRequest = (String) currentRequest.getAttribute(REQUEST_KEY);
-				this.remoteUser = currentRequest.getRemoteUser();
+				this.httpRequest = StringDictionary.intern((String) currentRequest
+						.getAttribute(REQUEST_KEY));
+				this.remoteUser = StringDictionary.intern(currentRequest.getRemoteUser());
 			} finally {
 				bindRequest(currentRequest);
 			}
 		}
 	}
 
+	// constructeur privé pour la lecture au format de transport binaire
+	private CounterError(BinaryTransport.Input input) throws IOException {
+		super();
+		this.time = input.readLong();
+		this.remoteUser = StringDictionary.intern(input.readString());
+		this.httpRequest = StringDictionary.intern(input.readString());
+		this.message = StringDictionary.intern(input.readString());
+		this.stackTrace = StringDictionary.intern(input.readString());
+		if (message == null) {
+			throw new IOException("Malformed binary transport data");
+		}
+	}
+
 	/**
 	 * Définit la requête http (peut être nulle) pour le thread courant.
 	 * @param request HttpServletRequest
@@ -112,6 +129,32 @@ class CounterError implements Serializable {
 		return stackTrace;
 	}
 
+	/**
+	 * Écrit cette erreur au format de transport binaire.
+	 * @param output BinaryTransport.Output
+	 * @throws IOException e
+	 */
+	void writeBinary(BinaryTransport.Output output) throws IOException {
+		output.writeLong(time);
+		output.writeString(remoteUser);
+		output.writeString(httpRequest);
+		output.writeString(message);
+		output.writeString(stackTrace);
+	}
+
+	static CounterError readBinary(BinaryTransport.Input input) throws IOException {
+		return new CounterError(input);
+	}
+
+	// partage des chaînes après lecture par sérialisation java (fichiers ou serveur de collecte)
+	private Object readResolve() {
+		this.remoteUser = StringDictionary.intern(remoteUser);
+		this.httpRequest = StringDictionary.intern(httpRequest);
+		this.message = StringDictionary.intern(message);
+		this.stackTrace = StringDictionary.intern(stackTrace);
+		return this;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -18,6 +18,7 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -35,9 +36,14 @@ import java.util.Map;
  * @author Emeric Vernat
  */
 class CounterRequest implements Cloneable, Serializable {
+	// nombre d'intervalles de l'histogramme des durées: 0 ms, puis de 2^(i-1) à 2^i - 1 ms
+	// (jusqu'à 2^30 ms soit plus de 12 jours, le dernier intervalle contenant les durées supérieures)
+	static final int DURATIONS_HISTOGRAM_LENGTH = 32;
 	private static final long serialVersionUID = -4301825473892026959L;
-	private final String name;
-	private final String id;
+	// name et id ne sont pas final pour être remplacés sur place par les instances du dictionnaire
+	// dans readResolve, sans copie de la requête
+	private String name;
+	private String id;
 	// tous ces champs de type long sont initialisés à 0,
 	// il peut être supposé que le type long est suffisant
 	// sans dépassement de capacité (max : 2^63-1 soit un peu moins de 10^19)
@@ -54,6 +60,9 @@ class CounterRequest implements Cloneable, Serializable {
 	private String stackTrace;
 	@SuppressWarnings("all")
 	private Map<String, Long> childRequestsExecutionsByRequestId;
+	// histogramme des durées par puissances de 2, pour estimer le maximum et les centiles
+	// d'une période par différence entre deux collectes (null si pas encore de hit ou ancienne version)
+	private long[] durationsHistogram;
 
 	/**
 	 * Interface du contexte d'une requête en cours.
@@ -84,8 +93,30 @@ class CounterRequest implements Cloneable, Serializable {
 		super();
 		assert name != null;
 		assert counterName != null;
-		this.name = name;
-		this.id = buildId(name, counterName);
+		this.name = StringDictionary.intern(name);
+		this.id = StringDictionary.intern(buildId(name, counterName));
+	}
+
+	// constructeur privé pour la lecture au format de transport binaire
+	private CounterRequest(BinaryTransport.Input input) throws IOException {
+		super();
+		this.name = StringDictionary.intern(input.readString());
+		this.id = StringDictionary.intern(input.readString());
+		if (name == null || id == null) {
+			throw new IOException("Malformed binary transport data");
+		}
+		this.hits = input.readLong();
+		this.durationsSum = input.readLong();
+		this.durationsSquareSum = input.readLong();
+		this.maximum = input.readLong();
+		this.cpuTimeSum = input.readLong();
+		this.systemErrors = input.readLong();
+		this.responseSizesSum = input.readLong();
+		this.childHits = input.readLong();
+		this.childDurationsSum = input.readLong();
+		this.stackTrace = input.readString();
+		this.childRequestsExecutionsByRequestId = input.readLongsByString();
+		this.durationsHistogram = input.readLongs();
 	}
 
 	/**
@@ -161,6 +192,89 @@ class CounterRequest implements Cloneable, Serializable {
 		return maximum;
 	}
 
+	/**
+	 * @return Maximum des temps d'exécution estimé par l'histogramme des durées
+	 * (borne haute du plus grand intervalle non vide), ou -1 si pas d'histogramme
+	 */
+	long getHistogramMaximum() {
+		if (durationsHistogram != null) {
+			for (int i = durationsHistogram.length - 1; i >= 0; i--) {
+				if (durationsHistogram[i] > 0) {
+					return getBucketUpperBound(i);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param percentile Centile entre 1 et 100 (95 par exemple)
+	 * @return Centile des temps d'exécution estimé par l'histogramme des durées
+	 * (interpolation dans l'intervalle), ou -1 si pas d'histogramme
+	 */
+	long getDurationPercentile(int percentile) {
+		assert percentile > 0 && percentile <= 100;
+		if (durationsHistogram == null) {
+			return -1;
+		}
+		long count = 0;
+		for (final long bucketCount : durationsHistogram) {
+			count += bucketCount;
+		}
+		if (count == 0) {
+			return -1;
+		}
+		final long rank = (count * percentile + 99) / 100;
+		long cumulated = 0;
+		for (int i = 0; i < durationsHistogram.length; i++) {
+			final long bucketCount = durationsHistogram[i];
+			if (bucketCount > 0 && cumulated + bucketCount >= rank) {
+				final long lowerBound = i == 0 ? 0 : getHistogramUpperBound(i - 1) + 1;
+				final long upperBound = getBucketUpperBound(i);
+				return lowerBound + (upperBound - lowerBound) * (rank - cumulated) / bucketCount;
+			}
+			cumulated += bucketCount;
+		}
+		return getBucketUpperBound(durationsHistogram.length - 1);
+	}
+
+	private long getBucketUpperBound(int index) {
+		if (index == DURATIONS_HISTOGRAM_LENGTH - 1) {
+			// le dernier intervalle n'a pas de borne haute : le maximum connu est utilisé s'il est supérieur
+			return Math.max(getHistogramUpperBound(index), maximum);
+		}
+		return getHistogramUpperBound(index);
+	}
+
+	private void ensureDurationsHistogram() {
+		if (durationsHistogram == null) {
+			durationsHistogram = new long[DURATIONS_HISTOGRAM_LENGTH];
+		} else if (durationsHistogram.length < DURATIONS_HISTOGRAM_LENGTH) {
+			// histogramme plus court lu d'une version précédente
+			final long[] histogram = new long[DURATIONS_HISTOGRAM_LENGTH];
+			System.arraycopy(durationsHistogram, 0, histogram, 0, durationsHistogram.length);
+			durationsHistogram = histogram;
+		}
+	}
+
+	long[] getDurationsHistogram() {
+		if (durationsHistogram == null) {
+			return null;
+		}
+		return durationsHistogram.clone();
+	}
+
+	private static int getHistogramIndex(long duration) {
+		if (duration <= 0) {
+			return 0;
+		}
+		return Math.min(64 - Long.numberOfLeadingZeros(duration), DURATIONS_HISTOGRAM_LENGTH - 1);
+	}
+
+	private static long getHistogramUpperBound(int index) {
+		return (1L << index) - 1;
+	}
+
 	/**
 	 * @return Somme temps cpu pour l'exécution de cette requête
 	 */
@@ -178,6 +292,13 @@ class CounterRequest implements Cloneable, Serializable {
 		return -1;
 	}
 
+	/**
+	 * @return Nombre d'erreurs systèmes dans l'exécution de cette requête
+	 */
+	long getSystemErrors() {
+		return systemErrors;
+	}
+
 	/**
 	 * @return Pourcentage des erreurs systèmes dans l'exécution de cette requête
 	 */
@@ -264,6 +385,8 @@ class CounterRequest implements Cloneable, Serializable {
 		if (duration > maximum) {
 			maximum = duration;
 		}
+		ensureDurationsHistogram();
+		durationsHistogram[getHistogramIndex(duration)]++;
 		cpuTimeSum += cpuTime;
 		if (systemError) {
 			systemErrors++;
@@ -316,6 +439,16 @@ class CounterRequest implements Cloneable, Serializable {
 				stackTrace = request.stackTrace;
 			}
 			addChildRequests(request.childRequestsExecutionsByRequestId);
+			addDurationsHistogram(request.durationsHistogram);
+		}
+	}
+
+	private void addDurationsHistogram(long[] histogram) {
+		if (histogram != null) {
+			ensureDurationsHistogram();
+			for (int i = 0; i < Math.min(histogram.length, durationsHistogram.length); i++) {
+				durationsHistogram[i] += histogram[i];
+			}
 		}
 	}
 
@@ -341,6 +474,17 @@ class CounterRequest implements Cloneable, Serializable {
 			childDurationsSum -= request.childDurationsSum;
 
 			removeChildHits(request);
+			removeDurationsHistogram(request.durationsHistogram);
+		}
+	}
+
+	private void removeDurationsHistogram(long[] histogram) {
+		// si la requête enlevée n'a pas d'histogramme, les hits de cet histogramme
+		// sont tous postérieurs et il n'y a rien à enlever
+		if (histogram != null && durationsHistogram != null) {
+			for (int i = 0; i < Math.min(histogram.length, durationsHistogram.length); i++) {
+				durationsHistogram[i] = Math.max(durationsHistogram[i] - histogram[i], 0);
+			}
 		}
 	}
 
@@ -376,6 +520,9 @@ class CounterRequest implements Cloneable, Serializable {
 				// getChildRequestsExecutionsByRequestId fait déjà un clone de la map
 				clone.childRequestsExecutionsByRequestId = getChildRequestsExecutionsByRequestId();
 			}
+			if (durationsHistogram != null) {
+				clone.durationsHistogram = durationsHistogram.clone();
+			}
 			return clone;
 		} catch (final CloneNotSupportedException e) {
 			// ne peut arriver puisque CounterRequest implémente Cloneable
@@ -383,6 +530,40 @@ class CounterRequest implements Cloneable, Serializable {
 		}
 	}
 
+	/**
+	 * Écrit cette requête au format de transport binaire
+	 * (l'id est transmis pour ne pas le recalculer à la lecture).
+	 * @param output BinaryTransport.Output
+	 * @throws IOException e
+	 */
+	void writeBinary(BinaryTransport.Output output) throws IOException {
+		output.writeString(name);
+		output.writeString(id);
+		output.writeLong(hits);
+		output.writeLong(durationsSum);
+		output.writeLong(durationsSquareSum);
+		output.writeLong(maximum);
+		output.writeLong(cpuTimeSum);
+		output.writeLong(systemErrors);
+		output.writeLong(responseSizesSum);
+		output.writeLong(childHits);
+		output.writeLong(childDurationsSum);
+		output.writeString(stackTrace);
+		output.writeLongsByString(childRequestsExecutionsByRequestId);
+		output.writeLongs(durationsHistogram);
+	}
+
+	static CounterRequest readBinary(BinaryTransport.Input input) throws IOException {
+		return new CounterRequest(input);
+	}
+
+	// partage des chaînes après lecture par sérialisation java (fichiers ou serveur de collecte)
+	private Object readResolve() {
+		this.name = StringDictionary.intern(name);
+		this.id = StringDictionary.intern(id);
+		return this;
+	}
+
 	// retourne l'id supposé unique de la requête pour le stockage
 	private static String buildId(String name, String counterName) {
 		final MessageDigest messageDigest = getMessageDigestInstance();
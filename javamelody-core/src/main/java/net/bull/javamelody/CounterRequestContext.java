@@ -18,6 +18,7 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -307,6 +308,61 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 		return clone;
 	}
 
+	/**
+	 * Écrit ce contexte et ses contextes fils au format de transport binaire
+	 * (le parentCounter n'est écrit qu'une fois par flux).
+	 * @param output BinaryTransport.Output
+	 * @throws IOException e
+	 */
+	void writeBinary(BinaryTransport.Output output) throws IOException {
+		output.writeCounter(getParentCounter());
+		output.writeString(getRequestName());
+		output.writeString(getCompleteRequestName());
+		output.writeString(getRemoteUser());
+		output.writeLong(getThreadId());
+		output.writeLong(startTime);
+		output.writeLong(startCpuTime);
+		output.writeLong(getChildHits());
+		output.writeLong(getChildDurationsSum());
+		output.writeLongsByString(childRequestsExecutionsByRequestId);
+		final CounterRequestContext childContext = getCurrentChildContext();
+		output.writeBoolean(childContext != null);
+		if (childContext != null) {
+			childContext.writeBinary(output);
+		}
+	}
+
+	/**
+	 * Lit un contexte écrit par {@link #writeBinary(BinaryTransport.Output)}.
+	 * @param input BinaryTransport.Input
+	 * @param parentContext Contexte parent déjà lu, ou null pour un contexte root
+	 * @return CounterRequestContext
+	 * @throws IOException e
+	 */
+	static CounterRequestContext readBinary(BinaryTransport.Input input,
+			CounterRequestContext parentContext) throws IOException {
+		final Counter parentCounter = input.readCounter();
+		final String requestName = input.readString();
+		final String completeRequestName = input.readString();
+		if (requestName == null || completeRequestName == null) {
+			throw new IOException("Malformed binary transport data");
+		}
+		final String remoteUser = input.readString();
+		final long threadId = input.readLong();
+		final long startTime = input.readLong();
+		final long startCpuTime = input.readLong();
+		final CounterRequestContext context = new CounterRequestContext(parentCounter,
+				parentContext, requestName, completeRequestName, remoteUser, threadId, startTime,
+				startCpuTime);
+		context.childHits = input.readInt();
+		context.childDurationsSum = input.readInt();
+		context.childRequestsExecutionsByRequestId = input.readLongsByString();
+		if (input.readBoolean()) {
+			context.currentChildContext = readBinary(input, context);
+		}
+		return context;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
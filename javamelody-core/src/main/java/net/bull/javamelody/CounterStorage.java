@@ -23,16 +23,10 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Classe chargée de l'enregistrement et de la lecture d'un counter.
@@ -71,23 +65,30 @@ class CounterStorage {
 		if (!directory.mkdirs() && !directory.exists()) {
 			throw new IOException("JavaMelody directory can't be created: " + directory.getPath());
 		}
+		final int dataLength;
 		final FileOutputStream out = new FileOutputStream(file);
 		try {
+			// gzip par défaut, ou lz plus rapide selon le paramètre compression-codec
 			final CounterResponseStream counterOutput = new CounterResponseStream(
-					new GZIPOutputStream(new BufferedOutputStream(out)));
+					CompressionCodec.getConfiguredCodec().createOutputStream(
+							new BufferedOutputStream(out), 512));
 			final ObjectOutputStream output = new ObjectOutputStream(counterOutput);
 			try {
 				output.writeObject(counter);
 			} finally {
-				// ce close libère les ressources du ObjectOutputStream et du GZIPOutputStream
+				// ce close libère les ressources du ObjectOutputStream et du flux compressé
 				output.close();
 			}
-			// retourne la taille sérialisée non compressée,
-			// qui est une estimation pessimiste de l'occupation mémoire
-			return counterOutput.getDataLength();
+			dataLength = counterOutput.getDataLength();
 		} finally {
 			out.close();
 		}
+		// le manifeste n'est mis à jour que si l'écriture a réussi
+		StorageManifest.getInstance(counter.getApplication()).fileUpdated(file,
+				System.currentTimeMillis(), -1);
+		// retourne la taille sérialisée non compressée,
+		// qui est une estimation pessimiste de l'occupation mémoire
+		return dataLength;
 	}
 
 	/**
@@ -103,13 +104,15 @@ class CounterStorage {
 		if (file.exists()) {
 			final FileInputStream in = new FileInputStream(file);
 			try {
-				final ObjectInputStream input = new ObjectInputStream(new GZIPInputStream(
-						new BufferedInputStream(in)));
+				// l'algorithme de compression est détecté d'après le contenu du fichier,
+				// pour pouvoir relire les fichiers gzip quel que soit le paramètre compression-codec
+				final ObjectInputStream input = new ObjectInputStream(
+						CompressionCodec.createDetectingInputStream(new BufferedInputStream(in)));
 				try {
 					// on retourne l'instance du counter lue
 					return (Counter) input.readObject();
 				} finally {
-					// ce close libère les ressources du ObjectInputStream et du GZIPInputStream
+					// ce close libère les ressources du ObjectInputStream et du flux compressé
 					input.close();
 				}
 			} catch (final ClassNotFoundException e) {
@@ -138,15 +141,22 @@ class CounterStorage {
 		final Calendar nowMinusOneYearAndADay = Calendar.getInstance();
 		nowMinusOneYearAndADay.add(Calendar.YEAR, -1);
 		nowMinusOneYearAndADay.add(Calendar.DAY_OF_YEAR, -1);
-		// filtre pour ne garder que les fichiers d'extension .ser.gz et pour éviter d'instancier des File inutiles
+		// le manifeste du répertoire de stockage évite de lire les attributs de tous les fichiers
+		final StorageManifest storageManifest = StorageManifest.getInstance(application);
+		final File storageDir = Parameters.getStorageDirectory(application);
 		long diskUsage = 0;
-		for (final File file : listSerGzFiles(application)) {
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.COUNTER)) {
 			boolean deleted = false;
-			if (file.lastModified() < nowMinusOneYearAndADay.getTimeInMillis()) {
-				deleted = file.delete();
+			if (entry.getLastUpdate() < nowMinusOneYearAndADay.getTimeInMillis()) {
+				final File file = new File(storageDir, entry.getName());
+				deleted = file.delete() || !file.exists();
+				if (deleted) {
+					storageManifest.fileDeleted(file);
+				}
 			}
 			if (!deleted) {
-				diskUsage += file.length();
+				diskUsage += entry.getSize();
 			}
 		}
 
@@ -154,23 +164,6 @@ class CounterStorage {
 		return diskUsage;
 	}
 
-	private static List<File> listSerGzFiles(String application) {
-		final File storageDir = Parameters.getStorageDirectory(application);
-		// filtre pour ne garder que les fichiers d'extension .rrd et pour éviter d'instancier des File inutiles
-		final FilenameFilter filenameFilter = new FilenameFilter() {
-			/** {@inheritDoc} */
-			@Override
-			public boolean accept(File dir, String fileName) {
-				return fileName.endsWith(".ser.gz");
-			}
-		};
-		final File[] files = storageDir.listFiles(filenameFilter);
-		if (files == null) {
-			return Collections.emptyList();
-		}
-		return Arrays.asList(files);
-	}
-
 	// cette méthode est utilisée dans l'ihm Swing
 	static void disableStorage() {
 		storageDisabled = true;
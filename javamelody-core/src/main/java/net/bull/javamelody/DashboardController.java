@@ -0,0 +1,352 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static net.bull.javamelody.HttpParameters.APPLICATIONS_PARAMETER;
+import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PERIOD_PARAMETER;
+import static net.bull.javamelody.HttpParameters.WIDTH_PARAMETER;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Contrôleur du tableau de bord du serveur de collecte (part=dashboard) : données ou images de plusieurs
+ * courbes pour plusieurs applications, en une seule réponse json écrite au fur et à mesure.
+ * <br/>Les rendus sont faits en parallèle dans le pool de {@link GraphRenderingPool} et réutilisent
+ * le cache {@link GraphImageCache}, qui contient aussi les données json des courbes jusqu'à la collecte suivante.
+ * @author Emeric Vernat
+ */
+final class DashboardController {
+	/**
+	 * Courbes par défaut : cpu, temps moyens et erreurs http.
+	 */
+	static final List<String> DEFAULT_GRAPHS = Arrays.asList("cpu", "httpMeanTimes",
+			"httpSystemErrors");
+	private static final String ENCODING = "UTF-8";
+	private static final int MAX_GRAPH_SIZE = 1600;
+
+	private final CollectorServer collectorServer;
+
+	DashboardController(CollectorServer collectorServer) {
+		super();
+		assert collectorServer != null;
+		this.collectorServer = collectorServer;
+	}
+
+	void doDashboard(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+			throws IOException {
+		final List<String> applications = getApplications(httpRequest
+				.getParameter(APPLICATIONS_PARAMETER));
+		final List<String> graphs = split(httpRequest.getParameter(GRAPH_PARAMETER));
+		final Range range;
+		if (httpRequest.getParameter(PERIOD_PARAMETER) == null) {
+			range = Period.JOUR.getRange();
+		} else {
+			range = Range.parse(httpRequest.getParameter(PERIOD_PARAMETER));
+		}
+		final int width;
+		final int height;
+		if (httpRequest.getParameter(WIDTH_PARAMETER) != null
+				&& httpRequest.getParameter(HEIGHT_PARAMETER) != null) {
+			// images png des courbes, sinon données des courbes
+			try {
+				width = parseGraphSize(httpRequest.getParameter(WIDTH_PARAMETER));
+				height = parseGraphSize(httpRequest.getParameter(HEIGHT_PARAMETER));
+			} catch (final NumberFormatException e) {
+				// réponse d'erreur avant le début de l'écriture de la réponse json
+				httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST,
+						"Invalid width or height");
+				return;
+			}
+		} else {
+			width = 0;
+			height = 0;
+		}
+		// tous les rendus sont lancés avant l'écriture de la réponse
+		final Map<String, Map<String, Future<byte[]>>> futures = submitAll(applications,
+				graphs.isEmpty() ? DEFAULT_GRAPHS : graphs, range, width, height);
+
+		MonitoringController.noCache(httpResponse);
+		httpResponse.setContentType("application/json; charset=UTF-8");
+		if (MonitoringController.isCompressionSupported(httpRequest)) {
+			final CompressionServletResponseWrapper wrappedResponse = new CompressionServletResponseWrapper(
+					httpResponse, 4096);
+			try {
+				writeDashboard(wrappedResponse.getOutputStream(), futures, range, width, height);
+			} finally {
+				wrappedResponse.finishResponse();
+			}
+		} else {
+			writeDashboard(httpResponse.getOutputStream(), futures, range, width, height);
+		}
+	}
+
+	/**
+	 * @param parameter Largeur ou hauteur en paramètre
+	 * @return Taille entre 1 et 1600
+	 * @throws NumberFormatException si ce n'est pas un nombre
+	 */
+	static int parseGraphSize(String parameter) {
+		final int size = Integer.parseInt(parameter.trim());
+		return Math.max(Math.min(size, MAX_GRAPH_SIZE), 1);
+	}
+
+	private List<String> getApplications(String applicationsParameter) throws IOException {
+		if (applicationsParameter != null) {
+			return split(applicationsParameter);
+		}
+		// par défaut, toutes les applications collectées par ce serveur de collecte
+		final Set<String> applications = new LinkedHashSet<String>(Parameters
+				.getCollectorUrlsByApplications().keySet());
+		applications.addAll(collectorServer.getPushedApplications());
+		final List<String> result = new ArrayList<String>(applications.size());
+		for (final String application : applications) {
+			if (collectorServer.isApplicationDataAvailable(application)) {
+				result.add(application);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> split(String parameter) {
+		final List<String> result = new ArrayList<String>();
+		if (parameter != null) {
+			for (final String value : parameter.split(",")) {
+				if (value.trim().length() > 0) {
+					result.add(value.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	Map<String, Map<String, Future<byte[]>>> submitAll(List<String> applications,
+			List<String> graphs, Range range, int width, int height) {
+		final Map<String, Map<String, Future<byte[]>>> result = new LinkedHashMap<String, Map<String, Future<byte[]>>>();
+		for (final String application : applications) {
+			final Collector collector = collectorServer.getCollectorByApplication(application);
+			if (collector == null) {
+				// application inconnue ou collectée par un autre serveur de collecte
+				result.put(application, null);
+				continue;
+			}
+			final Map<String, Future<byte[]>> futuresByGraph = new LinkedHashMap<String, Future<byte[]>>();
+			for (final String graph : graphs) {
+				final JRobin jrobin = collector.getJRobin(graph);
+				if (jrobin == null) {
+					futuresByGraph.put(graph, null);
+				} else {
+					futuresByGraph.put(graph, submit(jrobin, range, width, height));
+				}
+			}
+			result.put(application, futuresByGraph);
+		}
+		return result;
+	}
+
+	private static Future<byte[]> submit(final JRobin jrobin, final Range range, final int width,
+			final int height) {
+		return GraphRenderingPool.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				if (width > 0) {
+					// l'image est dans le cache si elle a déjà été demandée depuis la dernière collecte
+					final byte[] image = jrobin.graph(range, width, height);
+					return toJson(jrobin.getLabel(), image);
+				}
+				// les données json sont mises en cache comme les images, sans taille
+				final String key = jrobin.getCacheKey(range, 0, 0);
+				return GraphImageCache.getInstance().getImage(key, new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return toJson(jrobin.getTimeSeries(range));
+					}
+				});
+			}
+		});
+	}
+
+	private static void writeDashboard(OutputStream outputStream,
+			Map<String, Map<String, Future<byte[]>>> futures, Range range, int width, int height)
+			throws IOException {
+		final OutputStream output = new BufferedOutputStream(outputStream);
+		final long deadline = System.currentTimeMillis() + GraphRenderingPool.getTimeBudgetMillis();
+		write(output, "{\"period\":" + quote(range.getValue()) + ",\"applications\":{");
+		boolean firstApplication = true;
+		for (final Map.Entry<String, Map<String, Future<byte[]>>> entry : futures.entrySet()) {
+			if (!firstApplication) {
+				write(output, ",");
+			}
+			firstApplication = false;
+			write(output, quote(entry.getKey()) + ':');
+			final Map<String, Future<byte[]>> futuresByGraph = entry.getValue();
+			if (futuresByGraph == null) {
+				write(output, "null");
+				continue;
+			}
+			write(output, "{");
+			boolean firstGraph = true;
+			for (final Map.Entry<String, Future<byte[]>> graphEntry : futuresByGraph.entrySet()) {
+				if (!firstGraph) {
+					write(output, ",");
+				}
+				firstGraph = false;
+				write(output, quote(graphEntry.getKey()) + ':');
+				writeGraph(output, graphEntry.getValue(), deadline, width, height);
+			}
+			write(output, "}");
+			// les courbes de chaque application sont envoyées dès qu'elles sont prêtes
+			output.flush();
+		}
+		write(output, "}}");
+		output.flush();
+	}
+
+	private static void writeGraph(OutputStream output, Future<byte[]> future, long deadline,
+			int width, int height) throws IOException {
+		if (future == null) {
+			// courbe inconnue pour cette application
+			write(output, "null");
+			return;
+		}
+		final long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+		try {
+			output.write(future.get(remaining, TimeUnit.MILLISECONDS));
+		} catch (final TimeoutException e) {
+			// le rendu continue et le résultat sera dans le cache pour la prochaine requête
+			if (width > 0) {
+				write(output, new String(toJson(null, GraphRenderingPool.createPlaceholderImage(
+						width, height)), ENCODING));
+			} else {
+				write(output, "null");
+			}
+		} catch (final InterruptedException e) {
+			// le thread reste marqué comme interrompu pour l'appelant
+			Thread.currentThread().interrupt();
+			throw createIOException(e);
+		} catch (final ExecutionException e) {
+			// une courbe en erreur n'empêche pas d'envoyer les autres
+			write(output, "{\"error\":" + quote(String.valueOf(e.getCause())) + '}');
+		}
+	}
+
+	static byte[] toJson(String label, byte[] image) throws IOException {
+		final StringBuilder sb = new StringBuilder(image.length * 4 / 3 + 64);
+		sb.append("{\"label\":").append(quote(label)).append(",\"image\":\"");
+		sb.append(Base64Coder.encode(image)).append("\"}");
+		return sb.toString().getBytes(ENCODING);
+	}
+
+	static byte[] toJson(JRobinTimeSeries timeSeries) throws IOException {
+		final StringBuilder sb = new StringBuilder(64 + timeSeries.size() * 24);
+		sb.append("{\"label\":").append(quote(timeSeries.getLabel()));
+		sb.append(",\"startTime\":").append(timeSeries.getStartTime());
+		sb.append(",\"step\":").append(timeSeries.getStep());
+		sb.append(",\"averages\":");
+		appendValues(sb, timeSeries.getAverages());
+		sb.append(",\"maximums\":");
+		appendValues(sb, timeSeries.getMaximums());
+		sb.append('}');
+		return sb.toString().getBytes(ENCODING);
+	}
+
+	private static void appendValues(StringBuilder sb, double[] values) {
+		sb.append('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			final double value = values[i];
+			// NaN (valeur inconnue) et infini n'existent pas en json
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				sb.append("null");
+			} else {
+				sb.append(value);
+			}
+		}
+		sb.append(']');
+	}
+
+	static String quote(String text) {
+		if (text == null) {
+			return "null";
+		}
+		final StringBuilder sb = new StringBuilder(text.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < ' ') {
+					final String hex = Integer.toHexString(c);
+					sb.append("\\u").append("0000", hex.length(), 4).append(hex);
+				} else {
+					sb.append(c);
+				}
+				break;
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	private static void write(OutputStream output, String text) throws IOException {
+		output.write(text.getBytes(ENCODING));
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+}
@@ -30,6 +30,8 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
+
 /**
  * Contexte du filtre http pour initialisation et destruction.
  * @author Emeric Vernat
@@ -103,6 +105,8 @@ class FilterContext {
 
 			initCollect();
 
+			initPush();
+
 			initOk = true;
 		} finally {
 			if (!initOk) {
@@ -221,6 +225,11 @@ class FilterContext {
 		} catch (final IOException e) {
 			LOG.warn(e.toString(), e);
 		}
+		try {
+			RrdPoolStatistics.getInstance().registerMBean(collector.getApplication());
+		} catch (final JMException e) {
+			LOG.warn(e.toString(), e);
+		}
 		final int resolutionSeconds = Parameters.getResolutionSeconds();
 		final int periodMillis = resolutionSeconds * 1000;
 		// on schedule la tâche de fond
@@ -241,6 +250,28 @@ class FilterContext {
 		}
 	}
 
+	private void initPush() {
+		final String collectorServerUrl = Parameters.getParameter(Parameter.COLLECTOR_SERVER_URL);
+		if (collectorServerUrl == null) {
+			return;
+		}
+		// mode push : on envoie périodiquement les données au serveur de collecte
+		final CollectorPushClient pushClient = new CollectorPushClient(collector,
+				collectorServerUrl, CollectorPushClient.getApplicationParameter(),
+				CollectorPushClient.getNodeIdParameter());
+		final TimerTask pushTimerTask = new TimerTask() {
+			@Override
+			public void run() {
+				// il ne doit pas y avoir d'erreur dans cette task
+				pushClient.pushWithoutErrors();
+			}
+		};
+		final int periodMillis = Parameters.getResolutionSeconds() * 1000;
+		timer.schedule(pushTimerTask, periodMillis, periodMillis);
+		LOG.debug("push of data to the collector server scheduled every "
+				+ Parameters.getResolutionSeconds() + "s for " + pushClient);
+	}
+
 	private SamplingProfiler initSamplingProfiler() {
 		if (JavaInformations.STACK_TRACES_ENABLED
 				&& Parameters.getParameter(Parameter.SAMPLING_SECONDS) != null) {
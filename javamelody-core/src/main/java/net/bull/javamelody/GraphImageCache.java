@@ -0,0 +1,216 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache borné des images png des graphiques, avec éviction des moins récemment utilisées selon la taille mémoire.
+ * <br/>La clé contient la date de dernière mise à jour des données du graphique : une image reste donc valide
+ * jusqu'à la collecte suivante, et plusieurs affichages simultanés du même graphique ne coûtent qu'un seul rendu.
+ * @author Emeric Vernat
+ */
+final class GraphImageCache {
+	private static final int DEFAULT_MAX_SIZE_KB = 4 * 1024;
+	private static GraphImageCache instance;
+
+	private final long maxSize;
+	// LinkedHashMap en ordre d'accès pour l'éviction des images les moins récemment utilisées
+	private final Map<String, byte[]> imagesByKey = new LinkedHashMap<String, byte[]>(16, 0.75f,
+			true);
+	private final Map<String, FutureTask<byte[]>> pendingRendersByKey = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	GraphImageCache(long maxSize) {
+		super();
+		assert maxSize >= 0;
+		this.maxSize = maxSize;
+	}
+
+	static synchronized GraphImageCache getInstance() {
+		if (instance == null) {
+			instance = new GraphImageCache(getMaxSizeFromParameter());
+		}
+		return instance;
+	}
+
+	private static long getMaxSizeFromParameter() {
+		final String parameter = Parameters.getParameter(Parameter.GRAPH_CACHE_MAX_SIZE);
+		if (parameter == null) {
+			return DEFAULT_MAX_SIZE_KB * 1024L;
+		}
+		final long maxSizeKb = Long.parseLong(parameter.trim());
+		if (maxSizeKb < 0) {
+			throw new IllegalStateException(
+					"The parameter graph-cache-max-size should be a positive number or 0");
+		}
+		return maxSizeKb * 1024;
+	}
+
+	static String buildKey(String application, String graphName, Range range, int width,
+			int height, Locale locale, long lastUpdateTime, long endTime) {
+		return application + '|' + graphName + '|' + range.getValue() + '|' + width + 'x' + height + '|' + locale
+				+ '|' + lastUpdateTime + '|' + endTime;
+	}
+
+	/**
+	 * Retourne l'image en cache pour cette clé, ou effectue le rendu une seule fois
+	 * même si plusieurs threads demandent la même image en même temps.
+	 * @param key Clé construite par {@link #buildKey}
+	 * @param renderer Rendu de l'image si elle n'est pas en cache
+	 * @return byte[]
+	 * @throws IOException e
+	 */
+	byte[] getImage(String key, Callable<byte[]> renderer) throws IOException {
+		if (maxSize == 0) {
+			return call(renderer);
+		}
+		synchronized (this) {
+			final byte[] image = imagesByKey.get(key);
+			if (image != null) {
+				hits++;
+				return image;
+			}
+			misses++;
+		}
+		final FutureTask<byte[]> newTask = new FutureTask<byte[]>(renderer);
+		FutureTask<byte[]> task;
+		synchronized (pendingRendersByKey) {
+			task = pendingRendersByKey.get(key);
+			if (task == null) {
+				task = newTask;
+				pendingRendersByKey.put(key, task);
+			}
+		}
+		if (task == newTask) {
+			try {
+				task.run();
+				final byte[] image = get(task);
+				put(key, image);
+				return image;
+			} finally {
+				pendingRendersByKey.remove(key);
+			}
+		}
+		// rendu déjà en cours dans un autre thread pour la même image
+		return get(task);
+	}
+
+	private synchronized void put(String key, byte[] image) {
+		if (image.length > maxSize) {
+			return;
+		}
+		final byte[] previous = imagesByKey.put(key, image);
+		if (previous != null) {
+			size -= previous.length;
+		}
+		size += image.length;
+		final Iterator<byte[]> iterator = imagesByKey.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			size -= iterator.next().length;
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	synchronized void clear() {
+		imagesByKey.clear();
+		size = 0;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	synchronized long getSize() {
+		return size;
+	}
+
+	synchronized int getImageCount() {
+		return imagesByKey.size();
+	}
+
+	long getMaxSize() {
+		return maxSize;
+	}
+
+	private static byte[] call(Callable<byte[]> renderer) throws IOException {
+		try {
+			return renderer.call();
+		} catch (final IOException e) {
+			throw e;
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw createIOException(e);
+		}
+	}
+
+	private static byte[] get(FutureTask<byte[]> task) throws IOException {
+		try {
+			return task.get();
+		} catch (final InterruptedException e) {
+			throw createIOException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw createIOException(e);
+		}
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "[images=" + getImageCount() + ", size=" + getSize()
+				+ ", maxSize=" + getMaxSize() + ", hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + getEvictions() + ']';
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Rendu en parallèle des graphiques dans un pool de threads borné, avec un temps maximum par requête.
+ * <br/>Les graphiques dont le rendu n'est pas terminé dans le temps imparti sont remplacés par une image
+ * d'attente, et leur rendu continue pour alimenter le cache des images ({@link GraphImageCache}).
+ * @author Emeric Vernat
+ */
+final class GraphRenderingPool {
+	private static final long DEFAULT_TIME_BUDGET_MILLIS = 5000;
+	private static final int THREAD_COUNT = Math.max(2,
+			Math.min(Runtime.getRuntime().availableProcessors(), 8));
+	private static ExecutorService executorService;
+
+	private GraphRenderingPool() {
+		super();
+	}
+
+	/**
+	 * Rendu des graphiques, dans l'ordre de la collection.
+	 * @param jrobins Graphiques
+	 * @param range Période
+	 * @param width Largeur
+	 * @param height Hauteur
+	 * @return Map des images par nom de graphique
+	 * @throws IOException e
+	 */
+	static Map<String, byte[]> renderGraphs(Collection<JRobin> jrobins, Range range, int width,
+			int height) throws IOException {
+		final Map<String, Future<byte[]>> futuresByName = submitGraphs(jrobins, range, width,
+				height);
+		final long deadline = System.currentTimeMillis() + getTimeBudgetMillis();
+		final Map<String, byte[]> images = new LinkedHashMap<String, byte[]>(futuresByName.size());
+		byte[] placeholder = null;
+		for (final Map.Entry<String, Future<byte[]>> entry : futuresByName.entrySet()) {
+			final long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+			byte[] image;
+			try {
+				image = entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+			} catch (final TimeoutException e) {
+				// le rendu continue et l'image sera dans le cache pour la prochaine requête
+				if (placeholder == null) {
+					placeholder = createPlaceholderImage(width, height);
+				}
+				image = placeholder;
+				LOG.debug("graph rendering time budget exceeded for " + entry.getKey());
+			} catch (final InterruptedException e) {
+				throw createIOException(e);
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw createIOException(e);
+			}
+			images.put(entry.getKey(), image);
+		}
+		return images;
+	}
+
+	/**
+	 * Lance le rendu des graphiques sans attendre le résultat, pour que les images soient déjà dans le cache
+	 * lorsque le navigateur les demandera après avoir reçu la page html.
+	 * @param jrobins Graphiques
+	 * @param range Période
+	 * @param width Largeur
+	 * @param height Hauteur
+	 */
+	static void prerenderGraphs(Collection<JRobin> jrobins, Range range, int width, int height) {
+		if (GraphImageCache.getInstance().getMaxSize() > 0) {
+			submitGraphs(jrobins, range, width, height);
+		}
+	}
+
+	private static Map<String, Future<byte[]>> submitGraphs(Collection<JRobin> jrobins,
+			final Range range, final int width, final int height) {
+		final Map<String, Future<byte[]>> futuresByName = new LinkedHashMap<String, Future<byte[]>>(
+				jrobins.size());
+		for (final JRobin jrobin : jrobins) {
+			futuresByName.put(jrobin.getName(), submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return jrobin.graph(range, width, height);
+				}
+			}));
+		}
+		return futuresByName;
+	}
+
+	/**
+	 * Lance une tâche de rendu (image ou données d'un graphique) dans le pool,
+	 * avec la locale du thread appelant.
+	 * @param task Tâche
+	 * @param <T> Type du résultat
+	 * @return Future
+	 */
+	static <T> Future<T> submit(final Callable<T> task) {
+		// la locale est liée au thread de la requête http
+		final Locale locale = I18N.getCurrentLocale();
+		return getExecutorService().submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception { // NOPMD
+				I18N.bindLocale(locale);
+				try {
+					return task.call();
+				} finally {
+					I18N.unbindLocale();
+				}
+			}
+		});
+	}
+
+	static byte[] createPlaceholderImage(int width, int height) throws IOException {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setColor(Color.WHITE);
+			graphics.fillRect(0, 0, width, height);
+			graphics.setColor(Color.LIGHT_GRAY);
+			graphics.drawRect(0, 0, width - 1, height - 1);
+			graphics.drawString("...", width / 2 - 6, height / 2 + 4);
+		} finally {
+			graphics.dispose();
+		}
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", output);
+		return output.toByteArray();
+	}
+
+	static long getTimeBudgetMillis() {
+		final String parameter = Parameters.getParameter(Parameter.GRAPH_RENDERING_TIME_BUDGET);
+		if (parameter == null) {
+			return DEFAULT_TIME_BUDGET_MILLIS;
+		}
+		final long timeBudget = Long.parseLong(parameter.trim());
+		if (timeBudget <= 0) {
+			throw new IllegalStateException(
+					"The parameter graph-rendering-time-budget should be > 0");
+		}
+		return timeBudget;
+	}
+
+	private static synchronized ExecutorService getExecutorService() {
+		if (executorService == null) {
+			executorService = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "javamelody graph rendering "
+							+ threadNumber.incrementAndGet());
+					// les threads ne doivent pas empêcher l'arrêt de la jvm
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executorService;
+	}
+
+	static synchronized void stop() {
+		if (executorService != null) {
+			executorService.shutdown();
+			executorService = null;
+		}
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.bull.javamelody.Counter.RequestVisitor;
+
+import org.jrobin.core.RrdException;
+import org.jrobin.data.LinearInterpolator;
+import org.jrobin.graph.RrdGraph;
+import org.jrobin.graph.RrdGraphDef;
+
+/**
+ * Capture à haute résolution, déclenchée à la demande pour une durée limitée (lors d'un incident par exemple) :
+ * les débits et temps moyens des compteurs ainsi que les principales mesures de la JVM sont relevés
+ * toutes les quelques secondes dans un tampon circulaire en mémoire, affichable en courbes "live".
+ * <br/>Les fichiers rrd et leur résolution (paramètre resolution-seconds) ne sont pas concernés.
+ * @author Emeric Vernat
+ */
+final class HighResolutionCapture {
+	private static final int DEFAULT_SECONDS = 5;
+	private static final int DEFAULT_MINUTES = 15;
+	private static final String USED_MEMORY = "usedMemory";
+	private static final String CPU = "cpu";
+	private static final String GC = "gc";
+	private static final String THREAD_COUNT = "threadCount";
+	private static final String ACTIVE_THREADS = "activeThreads";
+	private static final String ACTIVE_CONNECTIONS = "activeConnections";
+	private static final String HITS_RATE_SUFFIX = "HitsRate";
+	private static final String MEAN_TIMES_SUFFIX = "MeanTimes";
+
+	/**
+	 * Totaux des hits et des durées d'un compteur, calculés sans copier ses requêtes.
+	 */
+	private static final class CounterTotals implements RequestVisitor {
+		private long hits;
+		private long durationsSum;
+
+		CounterTotals() {
+			super();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(String requestId, String requestName, long requestHits,
+				long requestDurationsSum, long requestSystemErrors) {
+			hits += requestHits;
+			durationsSum += requestDurationsSum;
+		}
+	}
+
+	private final Collector collector;
+	private final List<Counter> counters = new ArrayList<Counter>();
+	private final int intervalSeconds;
+	private final Date startDate = new Date();
+	private final Date endDate;
+	// tampon circulaire : temps en secondes et valeurs par nom de courbe
+	private final long[] times;
+	private final Map<String, double[]> valuesByGraphName = new LinkedHashMap<String, double[]>();
+	private int position;
+	private int sampleCount;
+	// dernières valeurs cumulées, pour calculer les valeurs sur chaque intervalle
+	private long lastTimeMillis = -1;
+	private long lastCpuTimeMillis = -1;
+	private long lastGcTimeMillis = -1;
+	private final Map<Counter, long[]> lastHitsAndDurationsByCounter = new LinkedHashMap<Counter, long[]>();
+	private Timer timer;
+	private volatile boolean running;
+
+	HighResolutionCapture(Collector collector, int intervalSeconds, int durationSeconds) {
+		super();
+		assert collector != null;
+		assert intervalSeconds > 0;
+		assert durationSeconds >= intervalSeconds;
+		this.collector = collector;
+		this.intervalSeconds = intervalSeconds;
+		this.endDate = new Date(startDate.getTime() + durationSeconds * 1000L);
+		final int capacity = durationSeconds / intervalSeconds + 1;
+		this.times = new long[capacity];
+		final List<String> graphNames = new ArrayList<String>();
+		graphNames.add(USED_MEMORY);
+		graphNames.add(CPU);
+		graphNames.add(GC);
+		graphNames.add(THREAD_COUNT);
+		graphNames.add(ACTIVE_THREADS);
+		if (!Parameters.isNoDatabase()) {
+			graphNames.add(ACTIVE_CONNECTIONS);
+		}
+		for (final Counter counter : collector.getCounters()) {
+			if (counter.isDisplayed() && !counter.isErrorCounter()
+					&& !counter.isJspOrStrutsCounter()) {
+				counters.add(counter);
+				graphNames.add(counter.getName() + HITS_RATE_SUFFIX);
+				graphNames.add(counter.getName() + MEAN_TIMES_SUFFIX);
+			}
+		}
+		for (final String graphName : graphNames) {
+			valuesByGraphName.put(graphName, new double[capacity]);
+		}
+	}
+
+	static int getIntervalSecondsParameter() {
+		final String parameter = Parameters.getParameter(Parameter.HIGH_RESOLUTION_SECONDS);
+		if (parameter == null) {
+			return DEFAULT_SECONDS;
+		}
+		final int seconds = Integer.parseInt(parameter.trim());
+		if (seconds <= 0) {
+			throw new IllegalStateException("The parameter high-resolution-seconds should be > 0");
+		}
+		return seconds;
+	}
+
+	static int getDurationMinutesParameter() {
+		final String parameter = Parameters.getParameter(Parameter.HIGH_RESOLUTION_MINUTES);
+		if (parameter == null) {
+			return DEFAULT_MINUTES;
+		}
+		final int minutes = Integer.parseInt(parameter.trim());
+		if (minutes <= 0) {
+			throw new IllegalStateException("The parameter high-resolution-minutes should be > 0");
+		}
+		return minutes;
+	}
+
+	void start() {
+		assert timer == null;
+		running = true;
+		// timer dédié en daemon, annulé à la fin de la capture
+		timer = new Timer("javamelody high resolution capture "
+				+ collector.getApplication().replace(' ', '_'), true);
+		final TimerTask task = new TimerTask() {
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				if (System.currentTimeMillis() > endDate.getTime()) {
+					stop();
+					return;
+				}
+				try {
+					sample();
+				} catch (final Throwable t) { // NOPMD
+					LOG.warn("exception while sampling high resolution data", t);
+				}
+			}
+		};
+		timer.scheduleAtFixedRate(task, 0, intervalSeconds * 1000L);
+		LOG.debug("high resolution capture started for " + collector.getApplication()
+				+ " until " + endDate);
+	}
+
+	void stop() {
+		if (running) {
+			running = false;
+			timer.cancel();
+			LOG.debug("high resolution capture stopped for " + collector.getApplication());
+		}
+	}
+
+	synchronized void sample() {
+		final long timeMillis = System.currentTimeMillis();
+		final long time = timeMillis / 1000;
+		if (sampleCount > 0 && times[(position + times.length - 1) % times.length] >= time) {
+			// pas 2 mesures dans la même seconde (en cas de retard du timer par exemple)
+			return;
+		}
+		final Map<String, Double> values = new LinkedHashMap<String, Double>();
+		final Runtime runtime = Runtime.getRuntime();
+		values.put(USED_MEMORY, (double) (runtime.totalMemory() - runtime.freeMemory()));
+		final long cpuTimeMillis = JavaInformations.buildProcessCpuTimeMillis();
+		final long gcTimeMillis = MemoryInformations.buildGarbageCollectionTimeMillis();
+		final long elapsedMillis = timeMillis - lastTimeMillis;
+		if (lastTimeMillis >= 0 && elapsedMillis > 0) {
+			if (cpuTimeMillis >= 0) {
+				// comme pour la courbe "cpu", ramené au nombre de coeurs et plafonné à 100
+				values.put(CPU, Math.min(100d * (cpuTimeMillis - lastCpuTimeMillis)
+						/ elapsedMillis / runtime.availableProcessors(), 100d));
+			}
+			values.put(GC, Math.min(100d * (gcTimeMillis - lastGcTimeMillis) / elapsedMillis,
+					100d));
+		}
+		values.put(THREAD_COUNT, (double) ManagementFactory.getThreadMXBean().getThreadCount());
+		values.put(ACTIVE_THREADS, (double) JdbcWrapper.getActiveThreadCount());
+		values.put(ACTIVE_CONNECTIONS, (double) JdbcWrapper.getActiveConnectionCount());
+		for (final Counter counter : counters) {
+			// pas de counter.getRequests() qui clonerait toutes les requêtes à chaque mesure
+			final CounterTotals counterTotals = new CounterTotals();
+			counter.visitRequests(counterTotals);
+			final long hits = counterTotals.hits;
+			final long durationsSum = counterTotals.durationsSum;
+			final long[] lastHitsAndDurations = lastHitsAndDurationsByCounter.get(counter);
+			// si les hits ont diminué, le compteur a été réinitialisé entre temps
+			if (lastHitsAndDurations != null && elapsedMillis > 0
+					&& hits >= lastHitsAndDurations[0]) {
+				final long periodHits = hits - lastHitsAndDurations[0];
+				// comme pour les courbes des compteurs, le débit est en hits par minute
+				values.put(counter.getName() + HITS_RATE_SUFFIX, periodHits * 60d * 1000
+						/ elapsedMillis);
+				if (periodHits > 0) {
+					values.put(counter.getName() + MEAN_TIMES_SUFFIX,
+							(double) (durationsSum - lastHitsAndDurations[1]) / periodHits);
+				}
+			}
+			lastHitsAndDurationsByCounter.put(counter, new long[] { hits, durationsSum });
+		}
+		lastTimeMillis = timeMillis;
+		lastCpuTimeMillis = cpuTimeMillis;
+		lastGcTimeMillis = gcTimeMillis;
+
+		times[position] = time;
+		for (final Map.Entry<String, double[]> entry : valuesByGraphName.entrySet()) {
+			final Double value = values.get(entry.getKey());
+			entry.getValue()[position] = value != null ? value : Double.NaN;
+		}
+		position = (position + 1) % times.length;
+		sampleCount = Math.min(sampleCount + 1, times.length);
+	}
+
+	boolean isRunning() {
+		return running;
+	}
+
+	Date getStartDate() {
+		return startDate;
+	}
+
+	Date getEndDate() {
+		return endDate;
+	}
+
+	int getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+	synchronized int getSampleCount() {
+		return sampleCount;
+	}
+
+	List<String> getGraphNames() {
+		return Collections.unmodifiableList(new ArrayList<String>(valuesByGraphName.keySet()));
+	}
+
+	/**
+	 * Retourne les valeurs mesurées d'une courbe dans l'ordre chronologique.
+	 * @param graphName Nom de la courbe
+	 * @return JRobinTimeSeries (moyennes et maximums égaux), ou null si courbe inconnue
+	 */
+	synchronized JRobinTimeSeries getTimeSeries(String graphName) {
+		final double[] values = valuesByGraphName.get(graphName);
+		if (values == null) {
+			return null;
+		}
+		final double[] sampleValues = getChronologicalValues(values);
+		final long startTime = sampleCount > 0 ? getChronologicalTimes()[0] : startDate
+				.getTime() / 1000;
+		return new JRobinTimeSeries(graphName, I18N.getString(graphName), startTime,
+				intervalSeconds, sampleValues, sampleValues.clone());
+	}
+
+	private long[] getChronologicalTimes() {
+		final long[] result = new long[sampleCount];
+		final int first = (position + times.length - sampleCount) % times.length;
+		for (int i = 0; i < sampleCount; i++) {
+			result[i] = times[(first + i) % times.length];
+		}
+		return result;
+	}
+
+	private double[] getChronologicalValues(double[] values) {
+		final double[] result = new double[sampleCount];
+		final int first = (position + times.length - sampleCount) % times.length;
+		for (int i = 0; i < sampleCount; i++) {
+			result[i] = values[(first + i) % times.length];
+		}
+		return result;
+	}
+
+	/**
+	 * Retourne l'image png d'une courbe, depuis le début de la capture.
+	 * @param graphName Nom de la courbe
+	 * @param width Largeur
+	 * @param height Hauteur
+	 * @return byte[]
+	 * @throws IOException e
+	 */
+	byte[] graph(String graphName, int width, int height) throws IOException {
+		long[] sampleTimes;
+		double[] sampleValues;
+		synchronized (this) {
+			final double[] values = valuesByGraphName.get(graphName);
+			if (values == null) {
+				throw new IllegalArgumentException(graphName);
+			}
+			sampleTimes = getChronologicalTimes();
+			sampleValues = getChronologicalValues(values);
+		}
+		if (sampleTimes.length < 2) {
+			// il faut au moins 2 points pour une courbe : courbe vide au début de la capture
+			final long time = startDate.getTime() / 1000;
+			sampleTimes = new long[] { time, time + intervalSeconds };
+			sampleValues = new double[] { Double.NaN, Double.NaN };
+		}
+		try {
+			final String graphLabel = I18N.getString(graphName);
+			final RrdGraphDef graphDef = new RrdGraphDef();
+			graphDef.setStartTime(sampleTimes[0]);
+			graphDef.setEndTime(sampleTimes[sampleTimes.length - 1]);
+			graphDef.setTitle(graphLabel + " - " + I18N.getString("haute_resolution"));
+			graphDef.setWidth(width);
+			graphDef.setHeight(height);
+			graphDef.setMinValue(0);
+			graphDef.datasource(graphName, new LinearInterpolator(sampleTimes, sampleValues));
+			final String moyenneLabel = I18N.getString("Moyenne");
+			final String maximumLabel = I18N.getString("Maximum");
+			graphDef.area(graphName, new GradientPaint(0, 0, Color.RED.brighter().brighter(), 0,
+					height, Color.GREEN, false), graphLabel);
+			graphDef.gprint(graphName, "AVERAGE", moyenneLabel + ": %9.0f %S\\r");
+			graphDef.gprint(graphName, "MAX", maximumLabel + ": %9.0f %S\\r");
+			graphDef.setImageFormat("png");
+			graphDef.setFilename("-");
+			return new RrdGraph(graphDef).getRrdGraphInfo().getBytes();
+		} catch (final RrdException e) {
+			// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+			final IOException ex = new IOException(e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[application=" + collector.getApplication()
+				+ ", intervalSeconds=" + intervalSeconds + ", endDate=" + endDate + ", running="
+				+ running + ']';
+	}
+}
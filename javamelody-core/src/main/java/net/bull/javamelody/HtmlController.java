@@ -23,10 +23,12 @@ import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
+import static net.bull.javamelody.HttpParameters.FLAME_GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
+import static net.bull.javamelody.HttpParameters.HIGH_RESOLUTION_PART;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.HTML_BODY_FORMAT;
 import static net.bull.javamelody.HttpParameters.HTML_CHARSET;
@@ -57,6 +59,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Contrôleur au sens MVC de l'ihm de monitoring pour la partie html.
@@ -135,6 +138,9 @@ class HtmlController {
 			final String counterName = httpRequest.getParameter(COUNTER_PARAMETER);
 			final String requestId = httpRequest.getParameter(GRAPH_PARAMETER);
 			htmlReport.writeCounterSummaryPerClass(counterName, requestId);
+		} else if (HIGH_RESOLUTION_PART.equalsIgnoreCase(part)) {
+			htmlReport.writeHighResolutionCapture(collector.getHighResolutionCapture(),
+					messageForReport, HIGH_RESOLUTION_PART);
 		} else {
 			doHtmlPartForSystemActions(httpRequest, part, htmlReport);
 		}
@@ -146,6 +152,8 @@ class HtmlController {
 			doSessions(htmlReport, httpRequest.getParameter(SESSION_ID_PARAMETER));
 		} else if (HOTSPOTS_PART.equalsIgnoreCase(part)) {
 			doHotspots(htmlReport);
+		} else if (FLAME_GRAPH_PART.equalsIgnoreCase(part)) {
+			doFlameGraph(htmlReport);
 		} else if (HEAP_HISTO_PART.equalsIgnoreCase(part)) {
 			doHeapHisto(htmlReport);
 		} else if (PROCESSES_PART.equalsIgnoreCase(part)) {
@@ -202,6 +210,20 @@ class HtmlController {
 		}
 	}
 
+	private void doFlameGraph(HtmlReport htmlReport) throws IOException {
+		// par sécurité
+		Action.checkSystemActionsEnabled();
+		if (!isFromCollectorServer()) {
+			final List<SampledStack> hotspotStacks = collector.getHotspotStacks();
+			htmlReport.writeFlameGraph(hotspotStacks);
+		} else {
+			// piles d'appels fusionnées de tous les serveurs de l'application
+			final List<SampledStack> hotspotStacks = collectorServer
+					.collectHotspotStacks(getApplication());
+			htmlReport.writeFlameGraph(hotspotStacks);
+		}
+	}
+
 	private void doCurrentRequests(HtmlReport htmlReport) throws IOException {
 		htmlReport.writeAllCurrentRequestsAsPart();
 	}
@@ -22,8 +22,10 @@ import java.io.IOException;
 import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -206,6 +208,11 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		if (collectorServer != null) {
 			writeln("<div align='center' class='noPrint'><a href='?part=currentRequests'>");
 			writeln("<img src='?resource=hourglass.png' width='20' height='20' alt=\"#Voir_requetes_en_cours#\" /> #Voir_requetes_en_cours#</a>");
+			if (javaInformationsList.size() > 1) {
+				// comparaison des serveurs de l'application, à partir des résumés gardés en mémoire
+				writeln("&nbsp;&nbsp;&nbsp;&nbsp;<a href='?part=nodes'>");
+				writeln("<img src='?resource=systeminfo.png' width='20' height='20' alt=\"#Comparaison_serveurs#\" /> #Comparaison_serveurs#</a>");
+			}
 			writeln(END_DIV);
 			writeln("<br/>");
 		}
@@ -322,6 +329,12 @@ class HtmlCoreReport extends HtmlAbstractReport {
 	private void writeGraphs() throws IOException {
 		writeGraphs(collector.getCounterJRobins());
 		final Collection<JRobin> otherJRobins = collector.getOtherJRobins();
+		if (collectorServer == null) {
+			// la capture à haute résolution n'est possible que sur l'application elle-même
+			writeln("<div align='right' class='noPrint'>");
+			writeln("<a href='?part=highResolution'>#high_resolution_capture#</a>");
+			writeln(END_DIV);
+		}
 		if (!otherJRobins.isEmpty()) {
 			writeln("<div align='right'>");
 			writeShowHideLink("detailsGraphs", "#Autres_courbes#");
@@ -333,6 +346,15 @@ class HtmlCoreReport extends HtmlAbstractReport {
 	}
 
 	private void writeGraphs(Collection<JRobin> jrobins) throws IOException {
+		final List<JRobin> displayedJRobins = new ArrayList<JRobin>(jrobins.size());
+		for (final JRobin jrobin : jrobins) {
+			if (collector.isJRobinDisplayed(jrobin)) {
+				displayedJRobins.add(jrobin);
+			}
+		}
+		// les images sont demandées par le navigateur après la page html,
+		// donc on lance leur rendu en parallèle dès maintenant pour les trouver dans le cache
+		GraphRenderingPool.prerenderGraphs(displayedJRobins, range, 200, JRobin.SMALL_HEIGHT);
 		int i = 0;
 		for (final JRobin jrobin : jrobins) {
 			if (collector.isJRobinDisplayed(jrobin)) {
@@ -677,10 +699,13 @@ class HtmlCoreReport extends HtmlAbstractReport {
 	private void writeApplicationsLinks() throws IOException {
 		assert collectorServer != null;
 		writeln("<div align='center'>");
-		final Collection<String> applications = Parameters.getCollectorUrlsByApplications()
-				.keySet();
+		final Collection<String> applications = new LinkedHashSet<String>(Parameters
+				.getCollectorUrlsByApplications().keySet());
+		// applications en mode push
+		applications.addAll(collectorServer.getPushedApplications());
 		if (applications.size() > 1
-				|| !collectorServer.getLastCollectExceptionsByApplication().isEmpty()) {
+				|| !collectorServer.getLastCollectExceptionsByApplication().isEmpty()
+				|| collectorServer.isCollectLate(collector.getApplication())) {
 			if (applications.size() > 10) {
 				writeln("<table summary='applications'><tr><td>");
 				writeShowHideLink("chooseApplication", "#Choix_application#");
@@ -711,10 +736,18 @@ class HtmlCoreReport extends HtmlAbstractReport {
 			final Throwable lastCollectException = lastCollectExceptionsByApplication
 					.get(application);
 			writeln("<a href='?application=" + application + "' class='tooltip'>");
-			if (lastCollectException == null) {
+			if (lastCollectException == null && collectorServer.isCollectLate(application)) {
+				// collecte en retard, par exemple car la collecte précédente est encore en cours
+				final long lagSeconds = collectorServer.getCollectLagMillis(application) / 1000;
+				writeln("<img src='?resource=bullets/yellow.png' alt='#Application_en_retard#'/>");
+				writeln("<em style='text-align: left; font-size: 10pt;'>");
+				writeln("#Application_en_retard#: " + lagSeconds + " s");
+				writeln("</em>");
+			} else if (lastCollectException == null) {
 				writeln("<img src='?resource=bullets/green.png' alt='#Application_disponible#'/>");
 				writeln("<em style='text-align: left; font-size: 10pt;'>");
 				writeln("#Application_disponible#");
+				writeMemoryBudget(collectorServer.getMemoryBudget(application));
 				writeln("</em>");
 			} else {
 				writeln("<img src='?resource=bullets/red.png' alt='#Application_indisponible#'/>");
@@ -734,6 +767,22 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		}
 	}
 
+	private void writeMemoryBudget(MemoryBudget memoryBudget) throws IOException {
+		if (memoryBudget == null) {
+			return;
+		}
+		final long memorySizeMb = memoryBudget.getMemorySize() / 1024 / 1024;
+		if (memoryBudget.getBudget() > 0) {
+			writeln("<br/>#Memoire_application#: " + memorySizeMb + " / "
+					+ memoryBudget.getBudget() / 1024 / 1024 + " #Mo#");
+		} else {
+			writeln("<br/>#Memoire_application#: " + memorySizeMb + " #Mo#");
+		}
+		if (memoryBudget.getDegradation() != MemoryBudget.Degradation.NONE) {
+			writeln("<br/>#Details_reduits#: " + memoryBudget.getDegradation());
+		}
+	}
+
 	void writeRefreshAndPeriodLinks(String graphName, String part) throws IOException {
 		writeln("<div class='noPrint'>");
 		final String separator = "&nbsp;&nbsp;&nbsp;&nbsp;";
@@ -798,24 +847,74 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		if (Parameters.JAVAMELODY_VERSION != null) {
 			writeln("<br/><br/>JavaMelody " + Parameters.JAVAMELODY_VERSION);
 		}
+		writeln("<br/>");
 		if (collectorServer == null) {
-			writeln("<br/>");
 			writeShowHideLink("debuggingLogs", "Debugging logs");
-			writeln("<br/><br/>");
-			writeln("<div id='debuggingLogs' style='display: none;'>");
-			final List<String> debuggingLogs = LOG.getDebuggingLogs();
-			if (debuggingLogs.size() >= LOG.MAX_DEBUGGING_LOGS_COUNT) {
-				writeln("<div class='severe'>Only the last " + LOG.MAX_DEBUGGING_LOGS_COUNT
-						+ " messages are displayed</div>");
-			}
-			for (final String msg : debuggingLogs) {
-				writeDirectly(htmlEncodeButNotSpace(msg).replaceAll("[\t]",
-						"&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;"));
-				writeln("<br/>");
-			}
-			writeln(END_DIV);
+		} else {
+			// pas de logs de debugging dans le serveur de collecte, mais ses statistiques internes
+			writeShowHideLink("debuggingLogs", "Statistics");
+		}
+		writeln("<br/><br/>");
+		writeln("<div id='debuggingLogs' style='display: none;'>");
+		writeInternalStatistics();
+		if (collectorServer == null) {
+			writeln("<br/>");
+			writeDebuggingLogs();
 		}
 		writeln(END_DIV);
+		writeln(END_DIV);
+	}
+
+	private void writeInternalStatistics() throws IOException {
+		final GraphImageCache graphImageCache = GraphImageCache.getInstance();
+		writeln("Graph images cache: " + graphImageCache.getImageCount() + " images, "
+				+ graphImageCache.getSize() / 1024 + " KB, " + graphImageCache.getHits()
+				+ " hits, " + graphImageCache.getMisses() + " misses, "
+				+ graphImageCache.getEvictions() + " evictions<br/>");
+		final RrdNioSyncScheduler rrdNioSyncScheduler = RrdNioSyncScheduler.getInstance();
+		writeln("RRD files sync: " + rrdNioSyncScheduler.getDirtyCount() + " dirty files, "
+				+ rrdNioSyncScheduler.getSyncCount() + " syncs, mean "
+				+ rrdNioSyncScheduler.getMeanSyncMillis() + " ms, max "
+				+ rrdNioSyncScheduler.getMaxSyncMillis() + " ms<br/>");
+		final RrdPoolStatistics rrdPoolStatistics = RrdPoolStatistics.getInstance();
+		writeln("RRD pool: " + rrdPoolStatistics.getOpenFileCount() + " open files / "
+				+ rrdPoolStatistics.getPoolCapacity() + " capacity, "
+				+ rrdPoolStatistics.getOpenCount() + " opens, "
+				+ rrdPoolStatistics.getReopenCount() + " reopens, "
+				+ rrdPoolStatistics.getCapacityHitCount() + " capacity hits<br/>");
+		for (final String latency : rrdPoolStatistics.getLatencies()) {
+			writeln("RRD " + latency + "<br/>");
+		}
+		final HttpConnectionPool httpConnectionPool = HttpConnectionPool.getInstance();
+		if (httpConnectionPool.getRequestCount() > 0) {
+			// appels http du serveur de collecte vers les applications monitorées
+			writeln("HTTP connections: " + httpConnectionPool.getRequestCount() + " requests, "
+					+ httpConnectionPool.getHttpsRequestCount() + " https requests, "
+					+ httpConnectionPool.getHttpsConnectionCount() + " https connections, "
+					+ httpConnectionPool.getHttpsReusedConnectionCount() + " reused, "
+					+ httpConnectionPool.getHandshakeCount() + " TLS handshakes, "
+					+ httpConnectionPool.getHostLimitWaitCount() + " host limit waits, "
+					+ httpConnectionPool.getClosedConnectionCount()
+					+ " not drained<br/>");
+		}
+		final StringDictionary stringDictionary = StringDictionary.getInstance();
+		writeln("String dictionary: " + stringDictionary.getSize() + " strings, "
+				+ stringDictionary.getLookupCount() + " lookups, "
+				+ stringDictionary.getHitCount() + " shared, "
+				+ stringDictionary.getSavedBytes() / 1024 + " KB saved<br/>");
+	}
+
+	private void writeDebuggingLogs() throws IOException {
+		final List<String> debuggingLogs = LOG.getDebuggingLogs();
+		if (debuggingLogs.size() >= LOG.MAX_DEBUGGING_LOGS_COUNT) {
+			writeln("<div class='severe'>Only the last " + LOG.MAX_DEBUGGING_LOGS_COUNT
+					+ " messages are displayed</div>");
+		}
+		for (final String msg : debuggingLogs) {
+			writeDirectly(htmlEncodeButNotSpace(msg).replaceAll("[\t]",
+					"&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;"));
+			writeln("<br/>");
+		}
 	}
 
 	private void writePoweredBy() throws IOException {
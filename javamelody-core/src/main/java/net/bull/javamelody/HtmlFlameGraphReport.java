@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.bull.javamelody.SamplingProfiler.SampledStack;
+
+/**
+ * Partie du rapport html pour le flame graph des piles d'appels échantillonnées par le sampling,
+ * les appelants en haut et les méthodes appelées en dessous, la largeur étant proportionnelle
+ * au nombre d'échantillons.
+ * @author Emeric Vernat
+ */
+class HtmlFlameGraphReport extends HtmlAbstractReport {
+	/**
+	 * Pourcentage minimum des échantillons pour afficher une méthode (en dessous, elle est trop étroite).
+	 */
+	private static final double MIN_PERCENT = 0.5;
+	private final Frame root = new Frame("all");
+	private final DecimalFormat percentFormat = I18N.createPercentFormat();
+	private final DecimalFormat integerFormat = I18N.createIntegerFormat();
+
+	/**
+	 * Méthode dans l'arbre des piles d'appels.
+	 */
+	private static final class Frame {
+		private final String name;
+		private final Map<String, Frame> children = new TreeMap<String, Frame>();
+		private long count;
+
+		Frame(String name) {
+			super();
+			this.name = name;
+		}
+
+		Frame getChild(String childName) {
+			Frame child = children.get(childName);
+			if (child == null) {
+				child = new Frame(childName);
+				children.put(childName, child);
+			}
+			return child;
+		}
+	}
+
+	HtmlFlameGraphReport(List<SampledStack> hotspotStacks, Writer writer) {
+		super(writer);
+		assert hotspotStacks != null;
+
+		for (final SampledStack sampledStack : hotspotStacks) {
+			final long count = sampledStack.getCount();
+			Frame frame = root;
+			frame.count += count;
+			for (final String frameName : sampledStack.getFrames()) {
+				frame = frame.getChild(frameName);
+				frame.count += count;
+			}
+		}
+	}
+
+	@Override
+	void toHtml() throws IOException {
+		writeLinks();
+		writeln("<br/>");
+
+		writeTitle("clock.png", getString("Flame_graph"));
+		if (root.count == 0) {
+			writeln("#Aucun_echantillon#");
+			return;
+		}
+		writeln("<div class='flameGraph'>");
+		writeFrame(root, 100);
+		writeln("</div>");
+	}
+
+	private void writeFrame(Frame frame, double widthPercent) throws IOException {
+		final double percent = 100d * frame.count / root.count;
+		final String title = frame.name + " (" + integerFormat.format(frame.count) + ", "
+				+ percentFormat.format(percent) + " %)";
+		write("<div class='flameFrame' style='width:");
+		write(String.valueOf(Math.floor(widthPercent * 100) / 100));
+		write("%'><div class='flameLabel' style='background-color:");
+		write(getColor(frame.name));
+		write("' title='");
+		writeDirectly(htmlEncodeButNotSpace(title));
+		write("'>");
+		writeDirectly(htmlEncodeButNotSpace(getShortName(frame.name)));
+		writeln("</div>");
+		boolean childWritten = false;
+		for (final Frame child : frame.children.values()) {
+			if (100d * child.count / root.count >= MIN_PERCENT) {
+				if (!childWritten) {
+					write("<div class='flameChildren'>");
+					childWritten = true;
+				}
+				writeFrame(child, 100d * child.count / frame.count);
+			}
+		}
+		if (childWritten) {
+			writeln("</div>");
+		}
+		writeln("</div>");
+	}
+
+	private static String getShortName(String frameName) {
+		// nom de classe sans package et méthode, le nom complet est dans le title
+		final int methodIndex = frameName.lastIndexOf('.');
+		if (methodIndex == -1) {
+			return frameName;
+		}
+		final int classIndex = frameName.lastIndexOf('.', methodIndex - 1);
+		return frameName.substring(classIndex + 1);
+	}
+
+	private static String getColor(String frameName) {
+		// couleurs chaudes, stables pour une même méthode d'un affichage à l'autre
+		final int hash = frameName.hashCode() & Integer.MAX_VALUE;
+		final int red = 205 + hash % 50;
+		final int green = 80 + hash / 50 % 150;
+		final int blue = 30 + hash / 7500 % 40;
+		return "rgb(" + red + ',' + green + ',' + blue + ')';
+	}
+
+	void writeLinks() throws IOException {
+		writeln("<div class='noPrint'>");
+		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
+		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+		writeln("<a href='?part=flameGraph'><img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+		writeln("<a href='?part=hotspots'><img src='?resource=clock.png' width='16' height='16' alt='#hotspots#'/> #hotspots#</a>");
+		writeln("</div>");
+	}
+}
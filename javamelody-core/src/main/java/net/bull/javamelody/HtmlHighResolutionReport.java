@@ -0,0 +1,110 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+
+/**
+ * Partie du rapport html pour la capture à haute résolution.
+ * @author Emeric Vernat
+ */
+class HtmlHighResolutionReport extends HtmlAbstractReport {
+	private static final String SCRIPT_BEGIN = "<script type='text/javascript'>";
+	private static final String SCRIPT_END = "</script>";
+	private static final String SEPARATOR = "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;";
+	private static final int GRAPH_WIDTH = 400;
+	private static final int GRAPH_HEIGHT = 100;
+	private final HighResolutionCapture capture;
+
+	HtmlHighResolutionReport(HighResolutionCapture capture, Writer writer) {
+		super(writer);
+		this.capture = capture;
+	}
+
+	@Override
+	void toHtml() throws IOException {
+		writeLinks();
+		writeln("<br/>");
+
+		writeTitle("systemmonitor.png", getString("high_resolution_capture"));
+		if (capture == null) {
+			writeln("#aucune_capture_haute_resolution#");
+			return;
+		}
+		final DateFormat dateFormat = I18N.createDateAndTimeFormat();
+		final String status;
+		if (capture.isRunning()) {
+			status = getFormattedString("high_resolution_capture_running",
+					capture.getIntervalSeconds(), dateFormat.format(capture.getEndDate()));
+		} else {
+			status = getFormattedString("high_resolution_capture_ended",
+					capture.getIntervalSeconds(), dateFormat.format(capture.getEndDate()));
+		}
+		writeDirectly(htmlEncode(status));
+		writeln("<br/><br/><div align='center'>");
+		int i = 0;
+		for (final String graphName : capture.getGraphNames()) {
+			final String label = htmlEncode(getString(graphName));
+			writeln("<img class='highResolution' src='?part=highResolution&amp;width="
+					+ GRAPH_WIDTH + "&amp;height=" + GRAPH_HEIGHT + "&amp;graph=" + graphName
+					+ "' alt=\"" + label + "\" title=\"" + label + "\"/>");
+			i++;
+			if (i % 2 == 0) {
+				writeln("<br/>");
+			}
+		}
+		writeln("</div>");
+		if (capture.isRunning()) {
+			writeRefreshScript();
+		}
+	}
+
+	private void writeRefreshScript() throws IOException {
+		// les courbes sont rechargées à chaque nouvelle mesure, sans recharger la page
+		writeln(SCRIPT_BEGIN);
+		writeln("setInterval(function() {");
+		writeln("  var images = document.getElementsByTagName('img');");
+		writeln("  for (var i = 0; i < images.length; i++) {");
+		writeln("    if (images[i].className == 'highResolution') {");
+		writeln("      images[i].src = images[i].src.replace(/&t=.*$/, '') + '&t=' + new Date().getTime();");
+		writeln("    }");
+		writeln("  }");
+		writeln("}, " + capture.getIntervalSeconds() * 1000 + ");");
+		writeln(SCRIPT_END);
+	}
+
+	void writeLinks() throws IOException {
+		writeln("<div class='noPrint'>");
+		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
+		writeln(SEPARATOR);
+		writeln("<a href='?part=highResolution'><img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln(SEPARATOR);
+		writeln("<a href='?part=highResolution&amp;action=start_high_resolution_capture' onclick=\"javascript:return confirm('"
+				+ getStringForJavascript("confirm_start_high_resolution_capture") + "');\">");
+		writeln("<img width='16' height='16' src='?resource=systemmonitor.png' alt='#start_high_resolution_capture#' /> #start_high_resolution_capture#</a>");
+		if (capture != null && capture.isRunning()) {
+			writeln(SEPARATOR);
+			writeln("<a href='?part=highResolution&amp;action=stop_high_resolution_capture'>");
+			writeln("<img width='16' height='16' src='?resource=stop.png' alt='#stop_high_resolution_capture#' /> #stop_high_resolution_capture#</a>");
+		}
+		writeln("</div>");
+	}
+}
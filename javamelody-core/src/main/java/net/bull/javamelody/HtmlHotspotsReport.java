@@ -85,6 +85,8 @@ class HtmlHotspotsReport extends HtmlAbstractReport {
 		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
 		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
 		writeln("<a href='?part=hotspots'><img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+		writeln("<a href='?part=flameGraph'><img src='?resource=clock.png' width='16' height='16' alt='#Flame_graph#'/> #Flame_graph#</a>");
 		if (isPdfEnabled()) {
 			writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
 			write("<a href='?part=hotspots&amp;format=pdf' title='#afficher_PDF#'>");
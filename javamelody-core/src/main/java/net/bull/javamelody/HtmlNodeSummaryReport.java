@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.List;
+
+import net.bull.javamelody.NodeSummary.CounterSummary;
+
+/**
+ * Partie du rapport html pour la comparaison des serveurs d'une application dans le serveur de collecte.
+ * @author Emeric Vernat
+ */
+class HtmlNodeSummaryReport extends HtmlAbstractReport {
+	private final List<NodeSummary> nodeSummaries;
+	private final List<Counter> counters;
+	private final DecimalFormat integerFormat = I18N.createIntegerFormat();
+	private final DecimalFormat systemErrorFormat = I18N.createPercentFormat();
+
+	HtmlNodeSummaryReport(List<NodeSummary> nodeSummaries, List<Counter> counters, Writer writer) {
+		super(writer);
+		assert nodeSummaries != null;
+		assert counters != null;
+		this.nodeSummaries = nodeSummaries;
+		this.counters = counters;
+	}
+
+	@Override
+	void toHtml() throws IOException {
+		writeLinks();
+		writeln("<br/>");
+
+		writeTitle("systeminfo.png", getString("Comparaison_serveurs"));
+		writeln("<br/>");
+		boolean empty = true;
+		for (final Counter counter : counters) {
+			if (hasCounterSummary(counter.getName())) {
+				writeCounter(counter);
+				empty = false;
+			}
+		}
+		if (empty) {
+			writeln("#Aucune_requete#");
+		}
+	}
+
+	private boolean hasCounterSummary(String counterName) {
+		for (final NodeSummary nodeSummary : nodeSummaries) {
+			if (nodeSummary.getCounterSummary(counterName) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeCounter(Counter counter) throws IOException {
+		final String counterName = counter.getName();
+		final String counterLabel = getString(counterName + "Label");
+		write("<h3><img width='24' height='24' src='?resource=" + counter.getIconName() + "' alt='"
+				+ counterName + "'/>");
+		writeln(getFormattedString("Statistiques_compteur", counterLabel) + "</h3>");
+		final HtmlTable table = new HtmlTable();
+		table.beginTable(counterLabel);
+		write("<th>#Serveur#</th>");
+		write("<th class='sorttable_numeric'>#Hits#</th>");
+		write("<th class='sorttable_numeric'>#Temps_moyen#</th>");
+		write("<th class='sorttable_numeric'>#erreur_systeme#</th>");
+		write("<th class='sorttable_numeric'>#Hits_derniere_collecte#</th>");
+		write("<th class='sorttable_numeric'>#Temps_moyen_derniere_collecte#</th>");
+		for (final NodeSummary nodeSummary : nodeSummaries) {
+			final CounterSummary counterSummary = nodeSummary.getCounterSummary(counterName);
+			if (counterSummary != null) {
+				table.nextRow();
+				writeCounterSummary(nodeSummary, counterSummary);
+			}
+		}
+		table.endTable();
+		writeln("<div align='right' class='noPrint'>");
+		writeShowHideLink("nodes" + counterName, "#Requetes_plus_longues#");
+		writeln("</div>");
+		writeln("<div id='nodes" + counterName + "' style='display: none;'>");
+		for (final NodeSummary nodeSummary : nodeSummaries) {
+			final CounterSummary counterSummary = nodeSummary.getCounterSummary(counterName);
+			if (counterSummary != null) {
+				writeln("<b>" + htmlEncode(nodeSummary.getNode()) + "</b>");
+				writeTopRequests(counterSummary);
+				writeln("<br/>");
+			}
+		}
+		writeln("</div>");
+	}
+
+	private void writeCounterSummary(NodeSummary nodeSummary, CounterSummary counterSummary)
+			throws IOException {
+		final String nextColumn = "</td><td align='right'>";
+		write("<td>");
+		if (nodeSummary.isOutlier(nodeSummaries, counterSummary.getCounterName())) {
+			write("<img src='?resource=bullets/red.png' alt='#Serveur_anormal#' title='#Serveur_anormal#'/> <b>");
+			writeDirectly(htmlEncode(nodeSummary.getNode()));
+			write("</b>");
+		} else {
+			writeDirectly(htmlEncode(nodeSummary.getNode()));
+		}
+		write(nextColumn);
+		write(integerFormat.format(counterSummary.getHits()));
+		write(nextColumn);
+		write(integerFormat.format(counterSummary.getMean()));
+		write(nextColumn);
+		write(systemErrorFormat.format(counterSummary.getSystemErrorPercentage()));
+		write(nextColumn);
+		write(integerFormat.format(counterSummary.getLastCollectHits()));
+		write(nextColumn);
+		if (counterSummary.getLastCollectHits() > 0) {
+			write(integerFormat.format(counterSummary.getLastCollectMean()));
+		}
+		write("</td>");
+	}
+
+	private void writeTopRequests(CounterSummary counterSummary) throws IOException {
+		final HtmlTable table = new HtmlTable();
+		table.beginTable(getString("Requetes_plus_longues"));
+		write("<th>#Requete#</th>");
+		write("<th class='sorttable_numeric'>#Hits#</th>");
+		write("<th class='sorttable_numeric'>#Temps_moyen#</th>");
+		write("<th class='sorttable_numeric'>#erreur_systeme#</th>");
+		final String nextColumn = "</td><td align='right'>";
+		for (final CounterRequest request : counterSummary.getTopRequests()) {
+			table.nextRow();
+			write("<td>");
+			writeDirectly(htmlEncode(request.getName()));
+			write(nextColumn);
+			write(integerFormat.format(request.getHits()));
+			write(nextColumn);
+			write(integerFormat.format(request.getMean()));
+			write(nextColumn);
+			write(systemErrorFormat.format(request.getSystemErrorPercentage()));
+			write("</td>");
+		}
+		table.endTable();
+	}
+
+	void writeLinks() throws IOException {
+		writeln("<div class='noPrint'>");
+		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
+		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+		writeln("<a href='?part=nodes'><img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln("</div>");
+	}
+}
@@ -30,6 +30,7 @@ import java.util.Map;
 
 import net.bull.javamelody.HtmlCounterReport.HtmlCounterRequestGraphReport;
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Rapport html.
@@ -266,6 +267,26 @@ class HtmlReport extends HtmlAbstractReport {
 		writeHtmlFooter();
 	}
 
+	void writeFlameGraph(List<SampledStack> hotspotStacks) throws IOException {
+		writeHtmlHeader();
+		new HtmlFlameGraphReport(hotspotStacks, getWriter()).toHtml();
+		writeHtmlFooter();
+	}
+
+	void writeNodeSummaries(List<NodeSummary> nodeSummaries) throws IOException {
+		writeHtmlHeader();
+		new HtmlNodeSummaryReport(nodeSummaries, collector.getCounters(), getWriter()).toHtml();
+		writeHtmlFooter();
+	}
+
+	void writeHighResolutionCapture(HighResolutionCapture capture, String message,
+			String highResolutionPart) throws IOException {
+		writeHtmlHeader();
+		writeMessageIfNotNull(message, highResolutionPart);
+		new HtmlHighResolutionReport(capture, getWriter()).toHtml();
+		writeHtmlFooter();
+	}
+
 	void writeHeapHistogram(HeapHistogram heapHistogram, String message, String heapHistoPart)
 			throws IOException {
 		assert heapHistogram != null;
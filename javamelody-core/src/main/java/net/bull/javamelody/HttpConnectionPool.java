@@ -0,0 +1,342 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Couche de connexions http des appels du serveur de collecte vers les applications monitorées
+ * (voir {@link LabradorRetriever}).
+ * <br/>Les connexions sont maintenues ouvertes et réutilisées (keep-alive du jdk) : la réponse est lue
+ * jusqu'au bout avant fermeture du flux et la connexion n'est jamais déconnectée, le nombre d'appels simultanés par serveur
+ * est limité pour ne pas dépasser le nombre de connexions gardées par serveur (http.maxConnections,
+ * 5 par défaut dans le jdk), les timeouts sont paramétrables et l'entête d'authentification est calculée
+ * une seule fois par url.
+ * <br/>Les statistiques (appels, connexions https ouvertes et réutilisées, handshakes TLS, attentes
+ * de la limite par serveur) sont affichées dans la page de monitoring du serveur de collecte.
+ * @author Emeric Vernat
+ */
+final class HttpConnectionPool {
+	private static final int DEFAULT_CONNECT_TIMEOUT = 20000;
+	private static final int DEFAULT_READ_TIMEOUT = 60000;
+	private static final int DEFAULT_CONNECTIONS_PER_HOST = 5;
+	// au-delà, la fin d'une réponse non lue n'est pas lue pour garder la connexion : elle est fermée
+	private static final int MAX_DRAINED_BYTES = 64 * 1024;
+	private static final HttpConnectionPool INSTANCE = new HttpConnectionPool();
+
+	private final Map<String, Semaphore> semaphoresByHost = new ConcurrentHashMap<String, Semaphore>();
+	private final Map<String, String> authorizationsByUserInfo = new ConcurrentHashMap<String, String>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong httpsRequestCount = new AtomicLong();
+	private final AtomicLong httpsConnectionCount = new AtomicLong();
+	private final AtomicLong handshakeCount = new AtomicLong();
+	private final AtomicLong hostLimitWaitCount = new AtomicLong();
+	private final AtomicLong closedConnectionCount = new AtomicLong();
+	private CountingSSLSocketFactory sslSocketFactory;
+
+	/**
+	 * SSLSocketFactory comptant les connexions https ouvertes et les handshakes TLS.
+	 * <br/>Une seule instance est utilisée par SSLSocketFactory par défaut,
+	 * car le cache keep-alive du jdk ne réutilise une connexion https qu'avec la même SSLSocketFactory.
+	 */
+	private final class CountingSSLSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory delegate;
+		private final HandshakeCompletedListener handshakeListener = new HandshakeCompletedListener() {
+			@Override
+			public void handshakeCompleted(HandshakeCompletedEvent event) {
+				handshakeCount.incrementAndGet();
+			}
+		};
+
+		CountingSSLSocketFactory(SSLSocketFactory delegate) {
+			super();
+			this.delegate = delegate;
+		}
+
+		SSLSocketFactory getDelegate() {
+			return delegate;
+		}
+
+		private Socket count(Socket socket) {
+			httpsConnectionCount.incrementAndGet();
+			if (socket instanceof SSLSocket) {
+				((SSLSocket) socket).addHandshakeCompletedListener(handshakeListener);
+			}
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return count(delegate.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+				throws IOException {
+			return count(delegate.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return count(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+				throws IOException {
+			return count(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return count(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+				int localPort) throws IOException {
+			return count(delegate.createSocket(address, port, localAddress, localPort));
+		}
+	}
+
+	private HttpConnectionPool() {
+		super();
+	}
+
+	static HttpConnectionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Réserve une connexion vers le serveur de l'url, en attendant si la limite par serveur est atteinte.
+	 * @param url URL
+	 * @throws IOException Si aucune connexion ne s'est libérée avant le timeout de connexion
+	 */
+	void acquire(URL url) throws IOException {
+		final Semaphore semaphore = getSemaphore(url);
+		if (!semaphore.tryAcquire()) {
+			hostLimitWaitCount.incrementAndGet();
+			try {
+				if (!semaphore.tryAcquire(getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+					throw new IOException("Too many concurrent connections to "
+							+ RemoteCollector.getHostAndPort(url));
+				}
+			} catch (final InterruptedException e) {
+				throw createIOException(e);
+			}
+		}
+	}
+
+	void release(URL url) {
+		getSemaphore(url).release();
+	}
+
+	private Semaphore getSemaphore(URL url) {
+		final String host = url.getProtocol() + "://" + RemoteCollector.getHostAndPort(url);
+		Semaphore semaphore = semaphoresByHost.get(host);
+		if (semaphore == null) {
+			synchronized (semaphoresByHost) {
+				semaphore = semaphoresByHost.get(host);
+				if (semaphore == null) {
+					semaphore = new Semaphore(getConnectionsPerHost());
+					semaphoresByHost.put(host, semaphore);
+				}
+			}
+		}
+		return semaphore;
+	}
+
+	/**
+	 * Ouvre une connexion (réutilisée si possible) pour l'url.
+	 * @param url URL
+	 * @return URLConnection non connectée
+	 * @throws IOException e
+	 */
+	URLConnection openConnection(URL url) throws IOException {
+		final URLConnection connection = url.openConnection();
+		requestCount.incrementAndGet();
+		// Rq: setUseCaches concerne le cache des réponses et non pas la réutilisation des connexions
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(getConnectTimeout());
+		connection.setReadTimeout(getReadTimeout());
+		if (connection instanceof HttpsURLConnection) {
+			httpsRequestCount.incrementAndGet();
+			final HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+			httpsConnection.setSSLSocketFactory(getSSLSocketFactory(httpsConnection
+					.getSSLSocketFactory()));
+		}
+		if (url.getUserInfo() != null) {
+			connection.setRequestProperty("Authorization", getAuthorization(url.getUserInfo()));
+		}
+		return connection;
+	}
+
+	private synchronized SSLSocketFactory getSSLSocketFactory(SSLSocketFactory defaultFactory) {
+		if (sslSocketFactory == null || sslSocketFactory.getDelegate() != defaultFactory) {
+			// la SSLSocketFactory par défaut peut être changée par l'application
+			sslSocketFactory = new CountingSSLSocketFactory(defaultFactory);
+		}
+		return sslSocketFactory;
+	}
+
+	private String getAuthorization(String userInfo) {
+		String authorization = authorizationsByUserInfo.get(userInfo);
+		if (authorization == null) {
+			authorization = "Basic " + Base64Coder.encodeString(userInfo);
+			authorizationsByUserInfo.put(userInfo, authorization);
+		}
+		return authorization;
+	}
+
+	/**
+	 * Lit jusqu'au bout puis ferme un flux de réponse, pour que la connexion soit gardée par le jdk
+	 * et réutilisée par l'appel suivant vers le même serveur.
+	 * <br/>Si le reste de la réponse est trop grand, il n'est pas lu et la connexion sera fermée.
+	 * @param input Flux de réponse ou flux d'erreur d'une connexion
+	 * @throws IOException e
+	 */
+	void drainAndClose(InputStream input) throws IOException {
+		try {
+			final byte[] buffer = new byte[4 * 1024];
+			int remaining = MAX_DRAINED_BYTES;
+			int length = input.read(buffer);
+			while (length != -1) {
+				remaining -= length;
+				if (remaining < 0) {
+					closedConnectionCount.incrementAndGet();
+					break;
+				}
+				length = input.read(buffer);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+
+	static int getConnectTimeout() {
+		return getTimeout(Parameter.HTTP_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+	}
+
+	static int getReadTimeout() {
+		return getTimeout(Parameter.HTTP_READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	}
+
+	private static int getTimeout(Parameter parameter, int defaultTimeout) {
+		final String value = Parameters.getParameter(parameter);
+		if (value == null) {
+			return defaultTimeout;
+		}
+		final int timeout = Integer.parseInt(value.trim());
+		if (timeout < 0) {
+			throw new IllegalStateException("The parameter " + parameter.getCode()
+					+ " should be >= 0");
+		}
+		return timeout;
+	}
+
+	static int getConnectionsPerHost() {
+		final String value = Parameters.getParameter(Parameter.HTTP_CONNECTIONS_PER_HOST);
+		if (value == null) {
+			return DEFAULT_CONNECTIONS_PER_HOST;
+		}
+		final int connectionsPerHost = Integer.parseInt(value.trim());
+		if (connectionsPerHost <= 0) {
+			throw new IllegalStateException(
+					"The parameter http-connections-per-host should be > 0");
+		}
+		return connectionsPerHost;
+	}
+
+	long getRequestCount() {
+		return requestCount.get();
+	}
+
+	long getHttpsRequestCount() {
+		return httpsRequestCount.get();
+	}
+
+	/**
+	 * @return Nombre de connexions https ouvertes (les autres appels https ont réutilisé une connexion)
+	 */
+	long getHttpsConnectionCount() {
+		return httpsConnectionCount.get();
+	}
+
+	long getHttpsReusedConnectionCount() {
+		return Math.max(getHttpsRequestCount() - getHttpsConnectionCount(), 0);
+	}
+
+	long getHandshakeCount() {
+		return handshakeCount.get();
+	}
+
+	long getHostLimitWaitCount() {
+		return hostLimitWaitCount.get();
+	}
+
+	/**
+	 * @return Nombre de connexions fermées au lieu d'être gardées, car la réponse n'a pas été lue jusqu'au bout
+	 */
+	long getClosedConnectionCount() {
+		return closedConnectionCount.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[requests=" + getRequestCount() + ", httpsRequests="
+				+ getHttpsRequestCount() + ", httpsConnections=" + getHttpsConnectionCount()
+				+ ", handshakes=" + getHandshakeCount() + ", hostLimitWaits="
+				+ getHostLimitWaitCount() + ", closedConnections=" + getClosedConnectionCount()
+				+ ']';
+	}
+}
@@ -35,10 +35,15 @@ final class HttpParameters {
 	static final String JOB_ID_PARAMETER = "jobId";
 	static final String CACHE_ID_PARAMETER = "cacheId";
 	static final String COLLECTOR_PARAMETER = "collector";
+	static final String CURSOR_PARAMETER = "cursor";
+	static final String PUSH_PARAMETER = "push";
+	static final String NODE_PARAMETER = "node";
+	static final String RELEASE_PARAMETER = "release";
 	static final String REQUEST_PARAMETER = "request";
 	static final String PATH_PARAMETER = "path";
 	static final String COUNTER_PARAMETER = "counter";
 	static final String GRAPH_PARAMETER = "graph";
+	static final String APPLICATIONS_PARAMETER = "applications";
 	static final String RESOURCE_PARAMETER = "resource";
 	static final String FORMAT_PARAMETER = "format";
 	static final String HTML_BODY_FORMAT = "htmlbody";
@@ -67,8 +72,15 @@ final class HttpParameters {
 	static final String RUNTIME_DEPENDENCIES_PART = "runtimeDependencies";
 	static final String JROBINS_PART = "jrobins";
 	static final String OTHER_JROBINS_PART = "otherJRobins";
+	static final String JROBINS_DATA_PART = "jrobinsData";
 	static final String EXPLAIN_PLAN_PART = "explainPlan";
+	static final String HIGH_RESOLUTION_PART = "highResolution";
 	static final String APPLICATIONS_PART = "applications";
+	static final String SHARD_PART = "shard";
+	static final String NODES_PART = "nodes";
+	static final String PROMETHEUS_PART = "prometheus";
+	static final String FLAME_GRAPH_PART = "flameGraph";
+	static final String DASHBOARD_PART = "dashboard";
 
 	/**
 	 * Constructeur privé: pas d'instance.
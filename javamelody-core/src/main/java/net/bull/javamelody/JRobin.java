@@ -24,22 +24,27 @@ import java.awt.GradientPaint;
 import java.awt.Paint;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
+import java.util.concurrent.Callable;
 
+import javax.management.JMException;
+
+import net.bull.javamelody.RrdPoolStatistics.Operation;
+
+import org.jrobin.core.DsDef;
+import org.jrobin.core.FetchData;
 import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDbPool;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
+import org.jrobin.core.RrdToolkit;
 import org.jrobin.core.Sample;
 import org.jrobin.core.Util;
+import org.jrobin.data.Plottable;
 import org.jrobin.graph.RrdGraph;
 import org.jrobin.graph.RrdGraphDef;
 
@@ -57,6 +62,13 @@ final class JRobin {
 			Color.GREEN, false);
 	private static final int HOUR = 60 * 60;
 	private static final int DAY = 24 * HOUR;
+	private static final RrdOffHeapStorage OFF_HEAP_STORAGE = new RrdOffHeapStorage();
+	// datasources des fichiers rrd des requêtes, en plus de celle des temps moyens
+	private static final String MAXIMUM_DATASOURCE = "max";
+	private static final String PERCENTILE_95_DATASOURCE = "p95";
+	// suffixes des séries des maximums et 95e centiles dans le stockage consolidé des requêtes
+	private static final String MAXIMUM_SERIES_SUFFIX = ".max";
+	private static final String PERCENTILE_95_SERIES_SUFFIX = ".p95";
 
 	// pool of open RRD files
 	private final RrdDbPool rrdPool = getRrdDbPool();
@@ -65,9 +77,15 @@ final class JRobin {
 	private final String rrdFileName;
 	private final int step;
 	private final String requestName;
-
-	private JRobin(String application, String name, File rrdFile, int step, String requestName)
-			throws RrdException, IOException {
+	private final StorageManifest storageManifest;
+	// requestSeriesStorage n'est pas null si les temps moyens de cette requête sont stockés
+	// dans le fichier consolidé de son compteur au lieu d'un fichier rrd
+	private final RequestSeriesStorage requestSeriesStorage;
+	// date de la dernière valeur ajoutée en secondes, pour la validité des images en cache
+	private volatile long lastUpdateTime;
+
+	private JRobin(String application, String name, File rrdFile, int step, String requestName,
+			RequestSeriesStorage requestSeriesStorage) throws RrdException, IOException {
 		super();
 		assert application != null;
 		assert name != null;
@@ -80,11 +98,32 @@ final class JRobin {
 		this.rrdFileName = rrdFile.getPath();
 		this.step = step;
 		this.requestName = requestName;
+		this.storageManifest = StorageManifest.getInstance(application);
+		this.requestSeriesStorage = requestSeriesStorage;
 
-		init();
+		if (requestSeriesStorage == null) {
+			init();
+		}
 	}
 
 	static void stop() {
+		GraphRenderingPool.stop();
+		// les fichiers rrd modifiés sont synchronisés sur disque avant l'arrêt
+		RrdNioSyncScheduler.getInstance().stop();
+		RrdNioSyncScheduler.getInstance().syncAll();
+		if (isOffHeapStorage()) {
+			// et les données en mémoire sont sauvegardées
+			try {
+				OFF_HEAP_STORAGE.saveSnapshots();
+			} catch (final IOException e) {
+				LOG.warn("exception while saving rrd snapshot", e);
+			}
+		}
+		try {
+			RrdPoolStatistics.getInstance().unregisterMBean();
+		} catch (final JMException e) {
+			LOG.warn(e.toString(), e);
+		}
 		if (RrdNioBackend.getFileSyncTimer() != null) {
 			RrdNioBackend.getFileSyncTimer().cancel();
 		}
@@ -92,12 +131,20 @@ final class JRobin {
 
 	/**
 	 * JavaMelody uses a custom RrdNioBackendFactory,
-	 * in order to use its own and cancelable file sync timer.
+	 * in order to use its own and cancelable file sync timer,
+	 * and which keeps RRD data in memory if the parameter memory-rrd-storage is true
+	 * (the default factory of JRobin can't be changed after the first RRD is created).
 	 * @param timer Timer
 	 * @throws IOException e
 	 */
 	static void initBackendFactory(Timer timer) throws IOException {
 		RrdNioBackend.setFileSyncTimer(timer);
+		if (Parameters.isMemoryRrdStorage()) {
+			RrdNioBackendFactory.setOffHeapStorage(OFF_HEAP_STORAGE);
+			OFF_HEAP_STORAGE.scheduleSnapshots(timer);
+		} else {
+			RrdNioBackendFactory.setOffHeapStorage(null);
+		}
 
 		try {
 			if (!RrdBackendFactory.getDefaultFactory().getFactoryName()
@@ -109,18 +156,99 @@ final class JRobin {
 		}
 	}
 
+	private static boolean isOffHeapStorage() {
+		return RrdNioBackendFactory.getOffHeapStorage() != null;
+	}
+
+	private static boolean rrdFileExists(File rrdFile) {
+		if (isOffHeapStorage()) {
+			return OFF_HEAP_STORAGE.exists(rrdFile.getPath());
+		}
+		// cf issue 41: rrdFile could have been created with length 0 if out of disk space
+		// (fix IOException: Read failed, file xxx.rrd not mapped for I/O)
+		return rrdFile.exists() && rrdFile.length() > 0;
+	}
+
+	private static boolean deleteRrdFile(File rrdFile) {
+		if (isOffHeapStorage()) {
+			try {
+				return OFF_HEAP_STORAGE.delete(rrdFile.getPath());
+			} catch (final IOException e) {
+				return false;
+			}
+		}
+		return rrdFile.delete();
+	}
+
 	static JRobin createInstance(String application, String name, String requestName)
 			throws IOException {
 		final File dir = Parameters.getStorageDirectory(application);
 		final File rrdFile = new File(dir, name + ".rrd");
 		final int step = Parameters.getResolutionSeconds();
 		try {
-			return new JRobin(application, name, rrdFile, step, requestName);
+			return new JRobin(application, name, rrdFile, step, requestName, null);
 		} catch (final RrdException e) {
 			throw createIOException(e);
 		}
 	}
 
+	/**
+	 * Crée une instance pour une requête dont les temps moyens sont stockés dans le fichier consolidé
+	 * de son compteur, en migrant si besoin le fichier rrd existant de la requête.
+	 * @param application Code de l'application
+	 * @param name Identifiant de la requête
+	 * @param requestName Nom de la requête
+	 * @param requestSeriesStorage Stockage consolidé du compteur
+	 * @return JRobin
+	 * @throws IOException e
+	 */
+	static JRobin createConsolidatedInstance(String application, String name, String requestName,
+			RequestSeriesStorage requestSeriesStorage) throws IOException {
+		assert requestSeriesStorage != null;
+		final File dir = Parameters.getStorageDirectory(application);
+		final File rrdFile = new File(dir, name + ".rrd");
+		if (rrdFileExists(rrdFile)) {
+			migrateToRequestSeries(application, name, rrdFile, requestSeriesStorage);
+		}
+		try {
+			return new JRobin(application, name, rrdFile, requestSeriesStorage.getStep(),
+					requestName, requestSeriesStorage);
+		} catch (final RrdException e) {
+			throw createIOException(e);
+		}
+	}
+
+	private static void migrateToRequestSeries(String application, String name, File rrdFile,
+			RequestSeriesStorage requestSeriesStorage) throws IOException {
+		final RrdDbPool rrdPool = getRrdDbPool();
+		try {
+			final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFile.getPath());
+			try {
+				// on reprend tout l'historique du fichier rrd, chaque période avec la meilleure résolution
+				// disponible: le dernier jour, la dernière semaine, le dernier mois et enfin les 2 dernières années
+				final long end = rrdDb.getLastUpdateTime();
+				final long[][] ranges = { { end - DAY, end, 1 },
+						{ end - 7 * DAY, end - DAY - 1, HOUR },
+						{ end - 31 * DAY, end - 7 * DAY - 1, 6 * HOUR },
+						{ end - 2 * 12 * 15 * 8 * 6 * HOUR, end - 31 * DAY - 1, 8 * 6 * HOUR }, };
+				for (final long[] range : ranges) {
+					final FetchData fetchData = rrdDb.createFetchRequest("AVERAGE", range[0],
+							range[1], range[2]).fetchData();
+					requestSeriesStorage.importSeries(name, fetchData.getTimestamps(),
+							fetchData.getValues(0));
+				}
+			} finally {
+				releaseRrdDb(rrdPool, rrdDb);
+			}
+		} catch (final RrdException e) {
+			// fichier corrompu: il n'y a rien à migrer
+			LOG.debug("A JRobin file could not be migrated: " + rrdFile.getPath(), e);
+		}
+		if (deleteRrdFile(rrdFile)) {
+			StorageManifest.getInstance(application).fileDeleted(rrdFile);
+		}
+	}
+
 	private void init() throws IOException, RrdException {
 		final File rrdFile = new File(rrdFileName);
 		final File rrdDirectory = rrdFile.getParentFile();
@@ -128,9 +256,7 @@ final class JRobin {
 			throw new IOException("JavaMelody directory can't be created: "
 					+ rrdDirectory.getPath());
 		}
-		// cf issue 41: rrdFile could have been created with length 0 if out of disk space
-		// (fix IOException: Read failed, file xxx.rrd not mapped for I/O)
-		if (!rrdFile.exists() || rrdFile.length() == 0) {
+		if (!rrdFileExists(rrdFile)) {
 			// create RRD file since it does not exist (or is empty)
 			final RrdDef rrdDef = new RrdDef(rrdFileName, step);
 			// "startTime" décalé de "step" pour éviter que addValue appelée juste
@@ -142,6 +268,12 @@ final class JRobin {
 			// max time before "unknown value"
 			final int heartbeat = step * 2;
 			rrdDef.addDatasource(getDataSourceName(), dsType, heartbeat, 0, Double.NaN);
+			if (isRequestJRobin()) {
+				// maximum et 95e centile des temps d'exécution par période, consolidés dans les
+				// mêmes archives AVERAGE et MAX que les temps moyens
+				rrdDef.addDatasource(MAXIMUM_DATASOURCE, dsType, heartbeat, 0, Double.NaN);
+				rrdDef.addDatasource(PERCENTILE_95_DATASOURCE, dsType, heartbeat, 0, Double.NaN);
+			}
 			// several archives
 			final String average = "AVERAGE";
 			final String max = "MAX";
@@ -158,8 +290,42 @@ final class JRobin {
 			rrdDef.addArchive(average, 0.25, 8 * 6 * HOUR / step, 2 * 12 * 15);
 			rrdDef.addArchive(max, 0.25, 8 * 6 * HOUR / step, 2 * 12 * 15);
 			// create RRD file in the pool
-			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdDef);
-			rrdPool.release(rrdDb);
+			final RrdDb rrdDb = requestRrdDb(rrdPool, rrdDef);
+			releaseRrdDb(rrdPool, rrdDb);
+			storageManifest.fileUpdated(rrdFile, System.currentTimeMillis(), -1);
+		} else if (isRequestJRobin() && !isOffHeapStorage()) {
+			try {
+				addTailDatasources(rrdFile);
+			} catch (final IOException e) {
+				LOG.debug("JRobin datasources could not be added to: " + rrdFileName, e);
+			} catch (final RrdException e) {
+				// fichier corrompu par exemple: il sera réinitialisé au prochain ajout de valeur
+				LOG.debug("JRobin datasources could not be added to: " + rrdFileName, e);
+			}
+		}
+	}
+
+	private boolean isRequestJRobin() {
+		return requestName != null;
+	}
+
+	private void addTailDatasources(File rrdFile) throws IOException, RrdException {
+		final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFileName);
+		final boolean tailDatasourcesFound;
+		try {
+			tailDatasourcesFound = rrdDb.getDsCount() > 1;
+		} finally {
+			releaseRrdDb(rrdPool, rrdDb);
+		}
+		if (!tailDatasourcesFound) {
+			// fichier rrd d'une version précédente: les datasources sont ajoutées
+			// (les données existantes sont conservées)
+			final int heartbeat = step * 2;
+			RrdToolkit.addDatasource(rrdFileName, new DsDef(MAXIMUM_DATASOURCE, "GAUGE",
+					heartbeat, 0, Double.NaN), false);
+			RrdToolkit.addDatasource(rrdFileName, new DsDef(PERCENTILE_95_DATASOURCE, "GAUGE",
+					heartbeat, 0, Double.NaN), false);
+			storageManifest.fileUpdated(rrdFile, System.currentTimeMillis(), -1);
 		}
 	}
 
@@ -172,7 +338,30 @@ final class JRobin {
 		}
 	}
 
-	byte[] graph(Range range, int width, int height) throws IOException {
+	byte[] graph(final Range range, final int width, final int height) throws IOException {
+		final String key = getCacheKey(range, width, height);
+		return GraphImageCache.getInstance().getImage(key, new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return renderGraph(range, width, height);
+			}
+		});
+	}
+
+	/**
+	 * Clé de ce graphique dans le cache {@link GraphImageCache}.
+	 * @param range Période
+	 * @param width Largeur
+	 * @param height Hauteur
+	 * @return String
+	 */
+	String getCacheKey(Range range, int width, int height) {
+		// l'image ne change qu'avec les données ou avec la fin de la période affichée (arrondie au pas)
+		return GraphImageCache.buildKey(application, getName(), range, width, height,
+				I18N.getCurrentLocale(), lastUpdateTime, getEndTime(range) / step);
+	}
+
+	private byte[] renderGraph(Range range, int width, int height) throws IOException {
 		try {
 			// Rq : il pourrait être envisagé de récupérer les données dans les fichiers rrd ou autre stockage
 			// puis de faire des courbes en sparklines html (sauvegardées dans la page html)
@@ -186,7 +375,11 @@ final class JRobin {
 				graphDef.setLargeFont(new Font(Font.MONOSPACED, Font.BOLD, 12));
 			}
 
-			initGraphSource(graphDef, height);
+			if (requestSeriesStorage == null) {
+				initGraphSource(graphDef, height);
+			} else {
+				initConsolidatedGraphSource(graphDef, range, height);
+			}
 
 			initGraphPeriodAndSize(range, width, height, graphDef);
 
@@ -196,25 +389,98 @@ final class JRobin {
 			// et pour éviter des erreurs d'accès concurrents sur les fichiers
 			// entre différentes générations de graphs et aussi avec l'écriture des données
 			graphDef.setPoolUsed(true);
-			return new RrdGraph(graphDef).getRrdGraphInfo().getBytes();
+			final long start = System.nanoTime();
+			try {
+				return new RrdGraph(graphDef).getRrdGraphInfo().getBytes();
+			} finally {
+				RrdPoolStatistics.getInstance().record(Operation.GRAPH, System.nanoTime() - start);
+			}
 		} catch (final RrdException e) {
 			throw createIOException(e);
 		}
 	}
 
-	private void initGraphPeriodAndSize(Range range, int width, int height, RrdGraphDef graphDef) {
+	/**
+	 * Retourne les moyennes et maximums de la période, lus directement dans les archives
+	 * AVERAGE et MAX (ou dans le stockage consolidé des requêtes), sans rendu d'image.
+	 * @param range Période
+	 * @return JRobinTimeSeries
+	 * @throws IOException e
+	 */
+	JRobinTimeSeries getTimeSeries(Range range) throws IOException {
+		final long endTime = getEndTime(range);
+		final long startTime = getStartTime(range, endTime);
+		if (requestSeriesStorage != null) {
+			return getConsolidatedTimeSeries(startTime, endTime);
+		}
+		try {
+			final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFileName);
+			try {
+				// JRobin choisit les archives de meilleure résolution couvrant toute la période,
+				// et les archives AVERAGE et MAX ont les mêmes résolutions
+				final long start = System.nanoTime();
+				final FetchData averageData = rrdDb.createFetchRequest("AVERAGE", startTime,
+						endTime).fetchData();
+				final FetchData maxData = rrdDb.createFetchRequest("MAX", startTime, endTime)
+						.fetchData();
+				RrdPoolStatistics.getInstance().record(Operation.FETCH, System.nanoTime() - start);
+				final double[] averages = averageData.getValues(0);
+				final double[] maximums = maxData.getValues(0);
+				if (averages.length != maximums.length) {
+					throw new IllegalStateException("AVERAGE and MAX archives do not match in "
+							+ rrdFileName);
+				}
+				return new JRobinTimeSeries(getName(), getLabel(),
+						averageData.getFirstTimestamp(), averageData.getStep(), averages, maximums);
+			} finally {
+				releaseRrdDb(rrdPool, rrdDb);
+			}
+		} catch (final RrdException e) {
+			throw createIOException(e);
+		}
+	}
+
+	private JRobinTimeSeries getConsolidatedTimeSeries(long startTime, long endTime)
+			throws IOException {
+		final RequestSeriesStorage.Series series = requestSeriesStorage.getSeries(getName(),
+				startTime, endTime);
+		// consolidation selon la durée, comme pour les courbes
+		final long bucketSeconds = requestSeriesStorage.getBucketSeconds(endTime - startTime);
+		final Plottable average = series.toPlottable(bucketSeconds, false);
+		final Plottable max = series.toPlottable(bucketSeconds, true);
+		final long firstTime = startTime - startTime % bucketSeconds;
+		final int size = (int) ((endTime - firstTime) / bucketSeconds) + 1;
+		final double[] averages = new double[size];
+		final double[] maximums = new double[size];
+		for (int i = 0; i < size; i++) {
+			final long time = firstTime + i * bucketSeconds;
+			averages[i] = average.getValue(time);
+			maximums[i] = max.getValue(time);
+		}
+		return new JRobinTimeSeries(getName(), getLabel(), firstTime, bucketSeconds, averages,
+				maximums);
+	}
+
+	private static long getEndTime(Range range) {
 		// ending timestamp is the (current) timestamp in seconds
-		// starting timestamp will be adjusted for each graph
-		final long endTime;
-		final long startTime;
 		if (range.getPeriod() == null) {
 			// si endDate à la date du jour, alors on ne dépasse pas l'heure courante
-			endTime = Math.min(range.getEndDate().getTime() / 1000, Util.getTime());
-			startTime = range.getStartDate().getTime() / 1000;
-		} else {
-			endTime = Util.getTime();
-			startTime = endTime - range.getPeriod().getDurationSeconds();
+			return Math.min(range.getEndDate().getTime() / 1000, Util.getTime());
+		}
+		return Util.getTime();
+	}
+
+	private static long getStartTime(Range range, long endTime) {
+		// starting timestamp will be adjusted for each graph
+		if (range.getPeriod() == null) {
+			return range.getStartDate().getTime() / 1000;
 		}
+		return endTime - range.getPeriod().getDurationSeconds();
+	}
+
+	private void initGraphPeriodAndSize(Range range, int width, int height, RrdGraphDef graphDef) {
+		final long endTime = getEndTime(range);
+		final long startTime = getStartTime(range, endTime);
 		final String label = getLabel();
 		final String titleStart;
 		if (label.length() > 31 && width <= 200) {
@@ -264,12 +530,68 @@ final class JRobin {
 		//				RrdGraphConstants.DEFAULT_BACK_COLOR));
 	}
 
-	private void initGraphSource(RrdGraphDef graphDef, int height) {
+	private void initGraphSource(RrdGraphDef graphDef, int height) throws IOException,
+			RrdException {
 		final String average = "average";
 		final String max = "max";
 		final String dataSourceName = getDataSourceName();
 		graphDef.datasource(average, rrdFileName, dataSourceName, "AVERAGE");
-		graphDef.datasource(max, rrdFileName, dataSourceName, "MAX");
+		if (isRequestJRobin() && hasTailDatasources()) {
+			final String maxOfMeans = "maxOfMeans";
+			final String maximum = "maximum";
+			final String percentile95 = "percentile95";
+			graphDef.datasource(maxOfMeans, rrdFileName, dataSourceName, "MAX");
+			graphDef.datasource(maximum, rrdFileName, MAXIMUM_DATASOURCE, "MAX");
+			graphDef.datasource(percentile95, rrdFileName, PERCENTILE_95_DATASOURCE, "MAX");
+			// avant l'ajout des datasources, le maximum est celui des temps moyens comme auparavant
+			graphDef.datasource(max, maximum + ",UN," + maxOfMeans + ',' + maximum + ",IF");
+			initGraphLines(graphDef, height, average, max);
+			initPercentile95Line(graphDef, percentile95);
+		} else {
+			graphDef.datasource(max, rrdFileName, dataSourceName, "MAX");
+			initGraphLines(graphDef, height, average, max);
+		}
+	}
+
+	private boolean hasTailDatasources() throws IOException, RrdException {
+		final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFileName);
+		try {
+			return rrdDb.getDsCount() > 1;
+		} finally {
+			releaseRrdDb(rrdPool, rrdDb);
+		}
+	}
+
+	private void initConsolidatedGraphSource(RrdGraphDef graphDef, Range range, int height)
+			throws IOException {
+		final String average = "average";
+		final String max = "max";
+		final long endTime = getEndTime(range);
+		final long startTime = getStartTime(range, endTime);
+		final RequestSeriesStorage.Series series = requestSeriesStorage.getSeries(getName(),
+				startTime, endTime);
+		// consolidation selon la durée, comme avec les archives AVERAGE et MAX des fichiers rrd
+		final long bucketSeconds = requestSeriesStorage.getBucketSeconds(endTime - startTime);
+		graphDef.datasource(average, series.toPlottable(bucketSeconds, false));
+		final RequestSeriesStorage.Series maximumSeries = requestSeriesStorage.getSeries(
+				getName() + MAXIMUM_SERIES_SUFFIX, startTime, endTime);
+		if (maximumSeries.size() == 0) {
+			// pas encore de maximums: maximum des temps moyens comme auparavant
+			graphDef.datasource(max, series.toPlottable(bucketSeconds, true));
+			initGraphLines(graphDef, height, average, max);
+		} else {
+			final String percentile95 = "percentile95";
+			final RequestSeriesStorage.Series percentile95Series = requestSeriesStorage
+					.getSeries(getName() + PERCENTILE_95_SERIES_SUFFIX, startTime, endTime);
+			graphDef.datasource(max, maximumSeries.toPlottable(bucketSeconds, true));
+			graphDef.datasource(percentile95, percentile95Series.toPlottable(bucketSeconds, true));
+			initGraphLines(graphDef, height, average, max);
+			initPercentile95Line(graphDef, percentile95);
+		}
+	}
+
+	private static void initGraphLines(RrdGraphDef graphDef, int height, String average,
+			String max) {
 		graphDef.setMinValue(0);
 		final String moyenneLabel = I18N.getString("Moyenne");
 		final String maximumLabel = I18N.getString("Maximum");
@@ -281,6 +603,12 @@ final class JRobin {
 		// graphDef.comment("JRobin :: RRDTool Choice for the Java World");
 	}
 
+	private static void initPercentile95Line(RrdGraphDef graphDef, String percentile95) {
+		final String percentile95Label = I18N.getString("Centile_95");
+		graphDef.line(percentile95, Color.ORANGE, percentile95Label);
+		graphDef.gprint(percentile95, "MAX", percentile95Label + ": %9.0f %S\\r");
+	}
+
 	private static Paint getPaint(int height) {
 		// si on avait la moyenne globale/glissante des valeurs et l'écart type
 		// on pourrait mettre vert si < moyenne + 1 écart type puis orange puis rouge si > moyenne + 2 écarts types,
@@ -294,10 +622,41 @@ final class JRobin {
 	}
 
 	void addValue(double value) throws IOException {
+		addValues(value, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Ajoute les valeurs d'une requête pour la dernière période.
+	 * @param mean Temps moyen
+	 * @param maximum Temps maximum, ou NaN si inconnu
+	 * @param percentile95 95e centile des temps, ou NaN si inconnu
+	 * @throws IOException e
+	 */
+	void addRequestValues(double mean, double maximum, double percentile95) throws IOException {
+		assert isRequestJRobin();
+		addValues(mean, maximum, percentile95);
+	}
+
+	private void addValues(double value, double maximum, double percentile95) throws IOException {
+		if (requestSeriesStorage != null) {
+			// la valeur sera écrite avec celles des autres requêtes du compteur à la fin de la collecte
+			requestSeriesStorage.addValue(getName(), value);
+			if (!Double.isNaN(maximum)) {
+				requestSeriesStorage.addValue(getName() + MAXIMUM_SERIES_SUFFIX, maximum);
+				requestSeriesStorage.addValue(getName() + PERCENTILE_95_SERIES_SUFFIX,
+						percentile95);
+			}
+			lastUpdateTime = Util.getTime();
+			return;
+		}
 		try {
 			// request RRD database reference from the pool
-			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdFileName);
+			final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFileName);
+			final RrdPoolStatistics statistics = RrdPoolStatistics.getInstance();
+			// le verrou est aussi pris par JRobin pour les lectures des rendus de courbes
+			final long lockStart = System.nanoTime();
 			synchronized (rrdDb) {
+				statistics.record(Operation.LOCK_WAIT, System.nanoTime() - lockStart);
 				try {
 					// create sample with the current timestamp
 					final Sample sample = rrdDb.createSample();
@@ -307,12 +666,21 @@ final class JRobin {
 					if (sample.getTime() > rrdDb.getLastUpdateTime()) {
 						// set value for load datasource
 						sample.setValue(getDataSourceName(), value);
+						if (isRequestJRobin() && rrdDb.getDsCount() > 1) {
+							sample.setValue(MAXIMUM_DATASOURCE, maximum);
+							sample.setValue(PERCENTILE_95_DATASOURCE, percentile95);
+						}
 						// update database
+						final long start = System.nanoTime();
 						sample.update();
+						statistics.record(Operation.UPDATE, System.nanoTime() - start);
+						lastUpdateTime = sample.getTime();
+						// la taille d'un fichier rrd ne change pas, donc pas d'entrée/sortie ici
+						storageManifest.fileTouched(new File(rrdFileName), sample.getTime() * 1000);
 					}
 				} finally {
 					// release RRD database reference
-					rrdPool.release(rrdDb);
+					releaseRrdDb(rrdPool, rrdDb);
 				}
 			}
 		} catch (final FileNotFoundException e) {
@@ -321,7 +689,7 @@ final class JRobin {
 				LOG.debug("A JRobin file was deleted and created again: "
 						+ new File(rrdFileName).getPath());
 				resetFile();
-				addValue(value);
+				addValues(value, maximum, percentile95);
 			}
 		} catch (final RrdException e) {
 			if (e.getMessage() != null && e.getMessage().startsWith("Invalid file header")) {
@@ -331,21 +699,27 @@ final class JRobin {
 				LOG.debug("A JRobin file was found corrupted and was reset: "
 						+ new File(rrdFileName).getPath());
 				resetFile();
-				addValue(value);
+				addValues(value, maximum, percentile95);
 			}
 			throw createIOException(e);
 		}
 	}
 
 	double getLastValue() throws IOException {
+		if (requestSeriesStorage != null) {
+			return requestSeriesStorage.getLastValue(getName());
+		}
 		try {
 			// request RRD database reference from the pool
-			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdFileName);
+			final RrdDb rrdDb = requestRrdDb(rrdPool, rrdFileName);
 			try {
-				return rrdDb.getLastDatasourceValue(getDataSourceName());
+				final long start = System.nanoTime();
+				final double lastValue = rrdDb.getLastDatasourceValue(getDataSourceName());
+				RrdPoolStatistics.getInstance().record(Operation.FETCH, System.nanoTime() - start);
+				return lastValue;
 			} finally {
 				// release RRD database reference
-				rrdPool.release(rrdDb);
+				releaseRrdDb(rrdPool, rrdDb);
 			}
 		} catch (final RrdException e) {
 			throw createIOException(e);
@@ -353,7 +727,18 @@ final class JRobin {
 	}
 
 	boolean deleteFile() {
-		return new File(rrdFileName).delete();
+		if (requestSeriesStorage != null) {
+			requestSeriesStorage.removeRequest(getName());
+			requestSeriesStorage.removeRequest(getName() + MAXIMUM_SERIES_SUFFIX);
+			requestSeriesStorage.removeRequest(getName() + PERCENTILE_95_SERIES_SUFFIX);
+			return true;
+		}
+		final File file = new File(rrdFileName);
+		final boolean deleted = deleteRrdFile(file);
+		if (deleted) {
+			storageManifest.fileDeleted(file);
+		}
+		return deleted;
 	}
 
 	private String getApplication() {
@@ -397,21 +782,50 @@ final class JRobin {
 		final long timestamp = Util.getTimestamp(nowMinusThreeMonthsAndADay);
 		final RrdDbPool rrdPool = getRrdDbPool();
 		final int counterRequestIdLength = new CounterRequest("", "").getId().length();
+		// le manifeste du répertoire de stockage contient la date de dernière mise à jour
+		// de chaque fichier rrd, donc seuls les fichiers candidats à la suppression sont ouverts
+		final StorageManifest storageManifest = StorageManifest.getInstance(application);
+		final File storageDir = Parameters.getStorageDirectory(application);
+		if (isOffHeapStorage()) {
+			// les données en mémoire ne sont pas dans le manifeste, mais leur lecture est sans entrée/sortie
+			for (final String fileName : OFF_HEAP_STORAGE.getFileNames(storageDir)) {
+				if (fileName.length() > counterRequestIdLength) {
+					final File file = new File(storageDir, fileName);
+					try {
+						final RrdDb rrdDb = requestRrdDb(rrdPool, file.getPath());
+						final long lastUpdateTime = rrdDb.getLastUpdateTime();
+						releaseRrdDb(rrdPool, rrdDb);
+						if (lastUpdateTime < timestamp) {
+							deleteRrdFile(file);
+						}
+					} catch (final RrdException e) {
+						continue;
+					}
+				}
+			}
+		}
 		long diskUsage = 0;
-		for (final File file : listRrdFiles(application)) {
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.JROBIN)) {
 			// on ne supprime que les fichiers rrd de requêtes (les autres sont peu nombreux)
-			if (file.getName().length() > counterRequestIdLength
-					&& file.lastModified() < nowMinusThreeMonthsAndADay.getTimeInMillis()) {
+			if (entry.getName().length() > counterRequestIdLength
+					&& entry.getLastUpdate() < nowMinusThreeMonthsAndADay.getTimeInMillis()) {
+				final File file = new File(storageDir, entry.getName());
 				try {
-					final RrdDb rrdDb = rrdPool.requestRrdDb(file.getPath());
-					final boolean obsolete = rrdDb.getLastUpdateTime() < timestamp;
-					rrdPool.release(rrdDb);
+					final RrdDb rrdDb = requestRrdDb(rrdPool, file.getPath());
+					final long lastUpdateTime = rrdDb.getLastUpdateTime();
+					releaseRrdDb(rrdPool, rrdDb);
 					boolean deleted = false;
-					if (obsolete) {
+					if (lastUpdateTime < timestamp) {
 						deleted = file.delete();
 					}
-					if (!deleted) {
-						diskUsage += file.length();
+					if (deleted) {
+						storageManifest.fileDeleted(file);
+					} else {
+						// la date du fichier était ancienne mais pas celle des données:
+						// on la retient pour ne pas rouvrir ce fichier à la prochaine purge
+						storageManifest.fileTouched(file, lastUpdateTime * 1000);
+						diskUsage += entry.getSize();
 					}
 				} catch (final IOException e) {
 					continue;
@@ -419,7 +833,7 @@ final class JRobin {
 					continue;
 				}
 			} else {
-				diskUsage += file.length();
+				diskUsage += entry.getSize();
 			}
 		}
 
@@ -427,21 +841,38 @@ final class JRobin {
 		return diskUsage;
 	}
 
-	private static List<File> listRrdFiles(String application) {
-		final File storageDir = Parameters.getStorageDirectory(application);
-		// filtre pour ne garder que les fichiers d'extension .rrd et pour éviter d'instancier des File inutiles
-		final FilenameFilter filenameFilter = new FilenameFilter() {
-			/** {@inheritDoc} */
-			@Override
-			public boolean accept(File dir, String fileName) {
-				return fileName.endsWith(".rrd");
-			}
-		};
-		final File[] files = storageDir.listFiles(filenameFilter);
-		if (files == null) {
-			return Collections.emptyList();
+	private static RrdDb requestRrdDb(RrdDbPool rrdPool, String path) throws IOException,
+			RrdException {
+		final RrdPoolStatistics statistics = RrdPoolStatistics.getInstance();
+		statistics.checkCapacity(rrdPool);
+		final long start = System.nanoTime();
+		try {
+			return rrdPool.requestRrdDb(path);
+		} finally {
+			statistics.record(Operation.REQUEST, System.nanoTime() - start);
+		}
+	}
+
+	private static RrdDb requestRrdDb(RrdDbPool rrdPool, RrdDef rrdDef) throws IOException,
+			RrdException {
+		final RrdPoolStatistics statistics = RrdPoolStatistics.getInstance();
+		statistics.checkCapacity(rrdPool);
+		final long start = System.nanoTime();
+		try {
+			return rrdPool.requestRrdDb(rrdDef);
+		} finally {
+			statistics.record(Operation.REQUEST, System.nanoTime() - start);
+		}
+	}
+
+	private static void releaseRrdDb(RrdDbPool rrdPool, RrdDb rrdDb) throws IOException,
+			RrdException {
+		final long start = System.nanoTime();
+		try {
+			rrdPool.release(rrdDb);
+		} finally {
+			RrdPoolStatistics.getInstance().record(Operation.RELEASE, System.nanoTime() - start);
 		}
-		return Arrays.asList(files);
 	}
 
 	private static RrdDbPool getRrdDbPool() throws IOException {
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+
+/**
+ * Données d'une courbe pour une période: moyennes et maximums consolidés à intervalles réguliers,
+ * lues directement dans les archives AVERAGE et MAX du fichier rrd, sans rendu d'image.
+ * <br/>Un client (ihm swing, tableau de bord) peut ainsi dessiner la courbe lui-même,
+ * pour un coût bien moindre que celui du rendu d'une image png.
+ * @author Emeric Vernat
+ */
+class JRobinTimeSeries implements Serializable {
+	private static final long serialVersionUID = -2873457462410716839L;
+
+	private final String name;
+	private final String label;
+	private final long startTime;
+	private final long step;
+	private final double[] averages;
+	private final double[] maximums;
+
+	JRobinTimeSeries(String name, String label, long startTime, long step, double[] averages,
+			double[] maximums) {
+		super();
+		assert name != null;
+		assert step > 0;
+		assert averages.length == maximums.length;
+		this.name = name;
+		this.label = label;
+		this.startTime = startTime;
+		this.step = step;
+		this.averages = averages;
+		this.maximums = maximums;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return Date du premier point en secondes
+	 */
+	long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Intervalle entre deux points en secondes
+	 */
+	long getStep() {
+		return step;
+	}
+
+	int size() {
+		return averages.length;
+	}
+
+	/**
+	 * @param index Index du point
+	 * @return Date du point en secondes
+	 */
+	long getTime(int index) {
+		return startTime + index * step;
+	}
+
+	/**
+	 * @return Moyennes (NaN si valeur inconnue)
+	 */
+	double[] getAverages() {
+		return averages.clone();
+	}
+
+	/**
+	 * @return Maximums (NaN si valeur inconnue)
+	 */
+	double[] getMaximums() {
+		return maximums.clone();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[name=" + getName() + ", startTime="
+				+ getStartTime() + ", step=" + getStep() + ", size=" + size() + ']';
+	}
+}
@@ -212,7 +212,7 @@ class JavaInformations implements Serializable { // NOPMD
 		return pomXmlExists;
 	}
 
-	private static long buildProcessCpuTimeMillis() {
+	static long buildProcessCpuTimeMillis() {
 		final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
 		if (isSunOsMBean(operatingSystem)) {
 			// nano-secondes converties en milli-secondes
@@ -27,7 +27,6 @@ import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -43,14 +42,11 @@ class LabradorRetriever {
 	@SuppressWarnings("all")
 	private static final Logger LOGGER = Logger.getLogger("javamelody");
 
-	/** Timeout des connections serveur en millisecondes (0 : pas de timeout). */
-	private static final int CONNECTION_TIMEOUT = 20000;
-
-	/** Timeout de lecture des connections serveur en millisecondes (0 : pas de timeout). */
-	private static final int READ_TIMEOUT = 60000;
-
 	private final URL url;
 	private final Map<String, String> headers;
+	private int dataLength = -1;
+	private boolean staging;
+	private StagedResponse stagedResponse;
 
 	// Rq: les configurations suivantes sont celles par défaut, on ne les change pas
 	//	    static { HttpURLConnection.setFollowRedirects(true);
@@ -59,6 +55,7 @@ class LabradorRetriever {
 	private static class CounterInputStream extends InputStream {
 		private final InputStream inputStream;
 		private int dataLength;
+		private boolean closed;
 
 		CounterInputStream(InputStream inputStream) {
 			super();
@@ -108,7 +105,11 @@ class LabradorRetriever {
 
 		@Override
 		public void close() throws IOException {
-			inputStream.close();
+			if (!closed) {
+				closed = true;
+				// la fin éventuelle de la réponse est lue pour que la connexion soit réutilisée
+				HttpConnectionPool.getInstance().drainAndClose(inputStream);
+			}
 		}
 
 		@Override
@@ -134,15 +135,20 @@ class LabradorRetriever {
 			return this.<T> createMockResultOfCall();
 		}
 		final long start = System.currentTimeMillis();
-		int dataLength = -1;
+		dataLength = -1;
+		stagedResponse = null;
+		boolean success = false;
+		final HttpConnectionPool connectionPool = HttpConnectionPool.getInstance();
+		connectionPool.acquire(url);
 		try {
 			final URLConnection connection = openConnection(url, headers);
 			// pour traductions (si on vient de CollectorServlet.forwardActionAndUpdateData,
 			// cela permet d'avoir les messages dans la bonne langue)
 			connection.setRequestProperty("Accept-Language", I18N.getCurrentLocale().getLanguage());
-			if (url.getUserInfo() != null) {
-				final String authorization = Base64Coder.encodeString(url.getUserInfo());
-				connection.setRequestProperty("Authorization", "Basic " + authorization);
+			if (Parameters.getTransportFormat() == TransportFormat.BINARY) {
+				// format binaire si l'application le connaît, sinon sérialisation java
+				connection.setRequestProperty("Accept", TransportFormat.BINARY.getMimeType() + ", "
+						+ TransportFormat.SERIALIZED.getMimeType());
 			}
 			// Rq: on ne gère pas pour l'instant les éventuels cookie de session http,
 			// puisque le filtre de monitoring n'est pas censé créer des sessions
@@ -177,10 +183,20 @@ class LabradorRetriever {
 			} else if (result instanceof Exception) {
 				throw createIOException((Exception) result);
 			}
+			if (stagedResponse != null && Thread.currentThread().isInterrupted()) {
+				// appel abandonné (temps maximum dépassé) : la réponse ne sera pas fusionnée
+				throw new IOException("Call interrupted for " + url);
+			}
+			success = true;
 			return result;
 		} catch (final ClassNotFoundException e) {
 			throw createIOException(e);
 		} finally {
+			if (!success && stagedResponse != null) {
+				stagedResponse.delete();
+				stagedResponse = null;
+			}
+			connectionPool.release(url);
 			LOGGER.info("http call done in " + (System.currentTimeMillis() - start) + " ms with "
 					+ dataLength / 1024 + " KB read for " + url);
 		}
@@ -201,16 +217,14 @@ class LabradorRetriever {
 		assert httpRequest != null;
 		assert httpResponse != null;
 		final long start = System.currentTimeMillis();
-		int dataLength = -1;
+		dataLength = -1;
+		final HttpConnectionPool connectionPool = HttpConnectionPool.getInstance();
+		connectionPool.acquire(url);
 		try {
 			final URLConnection connection = openConnection(url, headers);
 			// pour traductions
 			connection.setRequestProperty("Accept-Language",
 					httpRequest.getHeader("Accept-Language"));
-			if (url.getUserInfo() != null) {
-				final String authorization = Base64Coder.encodeString(url.getUserInfo());
-				connection.setRequestProperty("Authorization", "Basic " + authorization);
-			}
 			// Rq: on ne gère pas pour l'instant les éventuels cookie de session http,
 			// puisque le filtre de monitoring n'est pas censé créer des sessions
 			//		if (cookie != null) { connection.setRequestProperty("Cookie", cookie); }
@@ -221,8 +235,10 @@ class LabradorRetriever {
 					connection.getInputStream());
 			InputStream input = counterInputStream;
 			try {
-				if ("gzip".equals(connection.getContentEncoding())) {
-					input = new GZIPInputStream(input);
+				final CompressionCodec compressionCodec = CompressionCodec
+						.valueOfContentEncoding(connection.getContentEncoding());
+				if (compressionCodec != null) {
+					input = compressionCodec.createInputStream(input);
 				}
 				httpResponse.setContentType(connection.getContentType());
 				TransportFormat.pump(input, httpResponse.getOutputStream());
@@ -235,13 +251,43 @@ class LabradorRetriever {
 				}
 			}
 		} finally {
+			connectionPool.release(url);
 			LOGGER.info("http call done in " + (System.currentTimeMillis() - start) + " ms with "
 					+ dataLength / 1024 + " KB read for " + url);
 		}
 	}
 
 	/**
-	 * Ouvre la connection http.
+	 * @return Nombre d'octets lus lors du dernier appel (-1 si inconnu)
+	 */
+	int getDataLength() {
+		return dataLength;
+	}
+
+	URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * Définit si une réponse au format de transport binaire doit être copiée dans un fichier temporaire
+	 * pour que ses requêtes soient fusionnées ensuite au fil de la relecture (serveur de collecte).
+	 * @param staging boolean (false par défaut : réponse entièrement lue en mémoire)
+	 */
+	void setStaging(boolean staging) {
+		this.staging = staging;
+	}
+
+	/**
+	 * @return Réponse copiée lors du dernier appel, ou null si non copiée
+	 * (à supprimer par l'appelant après la fusion)
+	 */
+	StagedResponse getStagedResponse() {
+		return stagedResponse;
+	}
+
+	/**
+	 * Ouvre la connection http (réutilisée si possible, avec les timeouts paramétrés
+	 * et l'authentification de l'url).
 	 * @param url URL
 	 * @param headers Entêtes http
 	 * @return Object
@@ -249,17 +295,10 @@ class LabradorRetriever {
 	 */
 	private static URLConnection openConnection(URL url, Map<String, String> headers)
 			throws IOException {
-		final URLConnection connection = url.openConnection();
-		connection.setUseCaches(false);
-		if (CONNECTION_TIMEOUT > 0) {
-			connection.setConnectTimeout(CONNECTION_TIMEOUT);
-		}
-		if (READ_TIMEOUT > 0) {
-			connection.setReadTimeout(READ_TIMEOUT);
-		}
+		final URLConnection connection = HttpConnectionPool.getInstance().openConnection(url);
 		// grâce à cette propriété, l'application retournera un flux compressé si la taille
-		// dépasse x Ko
-		connection.setRequestProperty("Accept-Encoding", "gzip");
+		// dépasse x Ko (en lz si le paramètre compression-codec vaut lz, en gzip sinon)
+		connection.setRequestProperty("Accept-Encoding", CompressionCodec.getAcceptEncoding());
 		if (headers != null) {
 			for (final Map.Entry<String, String> entry : headers.entrySet()) {
 				connection.setRequestProperty(entry.getKey(), entry.getValue());
@@ -276,20 +315,24 @@ class LabradorRetriever {
 	 * @throws IOException   Exception de communication
 	 * @throws ClassNotFoundException   Une classe transmise par le serveur n'a pas été trouvée
 	 */
-	private static Serializable read(URLConnection connection, InputStream inputStream)
+	private Serializable read(URLConnection connection, InputStream inputStream)
 			throws IOException, ClassNotFoundException {
 		InputStream input = inputStream;
 		try {
-			if ("gzip".equals(connection.getContentEncoding())) {
+			final CompressionCodec compressionCodec = CompressionCodec
+					.valueOfContentEncoding(connection.getContentEncoding());
+			if (compressionCodec != null) {
 				// si la taille du flux dépasse x Ko et que l'application a retourné un flux compressé
-				// alors on le décompresse
-				input = new GZIPInputStream(input);
+				// (gzip ou lz) alors on le décompresse
+				input = compressionCodec.createInputStream(input);
 			}
 			final String contentType = connection.getContentType();
 			final TransportFormat transportFormat;
 			if (contentType != null) {
 				if (contentType.startsWith("text/xml")) {
 					transportFormat = TransportFormat.XML;
+				} else if (contentType.startsWith(TransportFormat.BINARY.getMimeType())) {
+					transportFormat = TransportFormat.BINARY;
 				} else if (contentType.startsWith("text/html")) {
 					throw new IllegalStateException(
 							"Unexpected html content type, maybe not authentified");
@@ -299,6 +342,11 @@ class LabradorRetriever {
 			} else {
 				transportFormat = TransportFormat.SERIALIZED;
 			}
+			if (transportFormat == TransportFormat.BINARY && staging) {
+				// les requêtes seront fusionnées au fil de la relecture, sans liste complète en mémoire
+				stagedResponse = StagedResponse.stage(input);
+				return stagedResponse.getResult();
+			}
 			return transportFormat.readSerializableFrom(input);
 		} finally {
 			try {
@@ -317,7 +365,7 @@ class LabradorRetriever {
 		if (connection instanceof HttpURLConnection) {
 			final InputStream error = ((HttpURLConnection) connection).getErrorStream();
 			if (error != null) {
-				error.close();
+				HttpConnectionPool.getInstance().drainAndClose(error);
 			}
 		}
 	}
@@ -335,9 +383,11 @@ class LabradorRetriever {
 		if (!request.contains(HttpParameters.PART_PARAMETER + '=')) {
 			final String message = request.contains("/test2") ? null
 					: "ceci est message pour le rapport";
-			result = Arrays.asList(new Counter(Counter.HTTP_COUNTER_NAME, null), new Counter(
-					"services", null), new Counter(Counter.ERROR_COUNTER_NAME, null),
-					new JavaInformations(null, true), message);
+			// une requête http par appel, comme si l'application monitorée avait été utilisée
+			final Counter httpCounter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+			httpCounter.addRequest("mock", 100, 50, false, 1000);
+			result = Arrays.asList(httpCounter, new Counter("services", null), new Counter(
+					Counter.ERROR_COUNTER_NAME, null), new JavaInformations(null, true), message);
 		} else {
 			result = LabradorMock.createMockResultOfPartCall(request);
 		}
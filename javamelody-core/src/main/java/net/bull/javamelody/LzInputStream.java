@@ -0,0 +1,217 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * InputStream décompressant les données compressées par {@link LzOutputStream}.
+ * @author Emeric Vernat
+ */
+class LzInputStream extends FilterInputStream {
+	private final byte[] buffer = new byte[LzOutputStream.BLOCK_SIZE];
+	private final byte[] compressedBuffer = new byte[LzOutputStream
+			.maxCompressedLength(LzOutputStream.BLOCK_SIZE)];
+	private int position;
+	private int count;
+	private boolean eof;
+
+	/**
+	 * Constructeur.
+	 * @param in InputStream
+	 * @throws IOException Si le flux n'est pas un flux compressé par LzOutputStream
+	 */
+	LzInputStream(InputStream in) throws IOException {
+		super(in);
+		final byte[] magic = new byte[LzOutputStream.MAGIC.length];
+		readFully(magic, magic.length);
+		if (!Arrays.equals(magic, LzOutputStream.MAGIC)) {
+			throw new IOException("Not in LZ format");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read() throws IOException {
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		final int result = buffer[position] & 0xFF;
+		position++;
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(byte[] bytes, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		final int length = Math.min(len, count - position);
+		System.arraycopy(buffer, position, bytes, off, length);
+		position += length;
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && (position < count || readBlock())) {
+			final int length = (int) Math.min(n - skipped, count - position);
+			position += length;
+			skipped += length;
+		}
+		return skipped;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int available() throws IOException {
+		return count - position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private boolean readBlock() throws IOException {
+		if (eof) {
+			return false;
+		}
+		final int length = readInt();
+		final int compressedLength = readInt();
+		if (length == 0) {
+			eof = true;
+			return false;
+		}
+		if (length < 0 || length > buffer.length || compressedLength <= 0
+				|| compressedLength > compressedBuffer.length) {
+			throw new IOException("Corrupted LZ stream");
+		}
+		if (compressedLength == length) {
+			// bloc stocké tel quel
+			readFully(buffer, length);
+		} else {
+			readFully(compressedBuffer, compressedLength);
+			decompress(compressedBuffer, compressedLength, buffer, length);
+		}
+		position = 0;
+		count = length;
+		return true;
+	}
+
+	private int readInt() throws IOException {
+		final int b1 = in.read();
+		final int b2 = in.read();
+		final int b3 = in.read();
+		final int b4 = in.read();
+		if ((b1 | b2 | b3 | b4) < 0) {
+			throw new EOFException();
+		}
+		return b1 << 24 | b2 << 16 | b3 << 8 | b4;
+	}
+
+	private void readFully(byte[] bytes, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			final int read = in.read(bytes, offset, length - offset);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			offset += read;
+		}
+	}
+
+	/**
+	 * Décompresse un bloc.
+	 * @param src Données compressées
+	 * @param srcLength Longueur des données compressées
+	 * @param dst Tableau de destination
+	 * @param length Longueur des données décompressées
+	 * @throws IOException Si les données sont corrompues
+	 */
+	static void decompress(byte[] src, int srcLength, byte[] dst, int length) throws IOException {
+		try {
+			int sp = 0;
+			int dp = 0;
+			while (true) {
+				final int token = src[sp] & 0xFF;
+				sp++;
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int b;
+					do {
+						b = src[sp] & 0xFF;
+						sp++;
+						literalLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, sp, dst, dp, literalLength);
+				sp += literalLength;
+				dp += literalLength;
+				if (dp >= length) {
+					// dernière séquence: uniquement des littéraux
+					break;
+				}
+				final int offset = src[sp] & 0xFF | (src[sp + 1] & 0xFF) << 8;
+				sp += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[sp] & 0xFF;
+						sp++;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += LzOutputStream.MIN_MATCH;
+				final int ref = dp - offset;
+				if (offset == 0 || ref < 0 || dp + matchLength > length) {
+					throw new IOException("Corrupted LZ stream");
+				}
+				// copie avec recouvrement possible: le motif est recopié par morceaux
+				// dont la taille double à chaque fois
+				int remaining = matchLength;
+				while (remaining > 0) {
+					final int chunk = Math.min(dp - ref, remaining);
+					System.arraycopy(dst, ref, dst, dp, chunk);
+					dp += chunk;
+					remaining -= chunk;
+				}
+			}
+			if (dp != length || sp != srcLength) {
+				throw new IOException("Corrupted LZ stream");
+			}
+		} catch (final IndexOutOfBoundsException e) {
+			final IOException ex = new IOException("Corrupted LZ stream");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+}
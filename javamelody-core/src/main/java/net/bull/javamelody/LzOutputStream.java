@@ -0,0 +1,231 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * OutputStream compressant les données avec un algorithme rapide de la famille LZ77 (proche de LZ4),
+ * en java pur et sans dépendance.
+ * Le taux de compression est moins bon que gzip, mais la compression et la décompression
+ * sont plusieurs fois plus rapides et consomment beaucoup moins de cpu.
+ * <br/>Le flux est constitué d'une signature puis de blocs de 64 Ko au plus, chacun précédé
+ * de sa taille décompressée et de sa taille compressée; un bloc de taille nulle termine le flux.
+ * @see LzInputStream
+ * @author Emeric Vernat
+ */
+class LzOutputStream extends FilterOutputStream {
+	static final byte[] MAGIC = { 'J', 'M', 'L', 'Z' };
+	static final int BLOCK_SIZE = 64 * 1024;
+	static final int MIN_MATCH = 4;
+	private static final int HASH_LOG = 14;
+	private static final int MAX_OFFSET = 65535;
+
+	private final byte[] buffer = new byte[BLOCK_SIZE];
+	private final byte[] compressedBuffer = new byte[maxCompressedLength(BLOCK_SIZE)];
+	private final int[] hashTable = new int[1 << HASH_LOG];
+	private int count;
+	private boolean magicWritten;
+	private boolean closed;
+
+	/**
+	 * Constructeur.
+	 * @param out OutputStream
+	 */
+	LzOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			writeBlock();
+		}
+		buffer[count] = (byte) b;
+		count++;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(byte[] bytes, int off, int len) throws IOException {
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (count == buffer.length) {
+				writeBlock();
+			}
+			final int length = Math.min(remaining, buffer.length - count);
+			System.arraycopy(bytes, offset, buffer, count, length);
+			count += length;
+			offset += length;
+			remaining -= length;
+		}
+	}
+
+	/**
+	 * Termine le flux compressé sans fermer le flux sous-jacent.
+	 * @throws IOException e
+	 */
+	void finish() throws IOException {
+		if (!closed) {
+			writeBlock();
+			// bloc vide de fin de flux
+			writeInt(0);
+			writeInt(0);
+			closed = true;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() throws IOException {
+		if (!closed) {
+			writeBlock();
+		}
+		super.flush();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			super.close();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (!magicWritten) {
+			out.write(MAGIC);
+			magicWritten = true;
+		}
+		if (count == 0) {
+			return;
+		}
+		final int compressedLength = compress(buffer, count, compressedBuffer, hashTable);
+		writeInt(count);
+		if (compressedLength < count) {
+			writeInt(compressedLength);
+			out.write(compressedBuffer, 0, compressedLength);
+		} else {
+			// données incompressibles: le bloc est stocké tel quel
+			writeInt(count);
+			out.write(buffer, 0, count);
+		}
+		count = 0;
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresse un bloc.
+	 * @param src Données
+	 * @param srcLength Longueur des données
+	 * @param dst Tableau de destination, de taille au moins maxCompressedLength(srcLength)
+	 * @param hashTable Table de hachage de travail
+	 * @return Longueur des données compressées
+	 */
+	static int compress(byte[] src, int srcLength, byte[] dst, int[] hashTable) {
+		// les positions sont stockées + 1 pour que 0 signifie "aucune"
+		Arrays.fill(hashTable, 0);
+		int dp = 0;
+		int anchor = 0;
+		int i = 0;
+		while (i + MIN_MATCH <= srcLength) {
+			final int sequence = readInt(src, i);
+			final int hash = sequence * -1640531535 >>> 32 - HASH_LOG;
+			final int ref = hashTable[hash] - 1;
+			hashTable[hash] = i + 1;
+			if (ref >= 0 && i - ref <= MAX_OFFSET && readInt(src, ref) == sequence) {
+				int matchLength = MIN_MATCH;
+				while (i + matchLength < srcLength && src[ref + matchLength] == src[i + matchLength]) {
+					matchLength++;
+				}
+				dp = writeSequence(src, anchor, i - anchor, dst, dp, i - ref, matchLength);
+				i += matchLength;
+				anchor = i;
+			} else {
+				i++;
+			}
+		}
+		// dernière séquence: uniquement des littéraux (éventuellement aucun)
+		return writeSequence(src, anchor, srcLength - anchor, dst, dp, 0, 0);
+	}
+
+	private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst,
+			int destinationPosition, int offset, int matchLength) {
+		int dp = destinationPosition;
+		final int tokenPosition = dp;
+		dp++;
+		int token;
+		if (literalLength >= 15) {
+			token = 15 << 4;
+			dp = writeLength(dst, dp, literalLength - 15);
+		} else {
+			token = literalLength << 4;
+		}
+		System.arraycopy(src, literalStart, dst, dp, literalLength);
+		dp += literalLength;
+		if (matchLength > 0) {
+			dst[dp] = (byte) offset;
+			dst[dp + 1] = (byte) (offset >>> 8);
+			dp += 2;
+			final int length = matchLength - MIN_MATCH;
+			if (length >= 15) {
+				token |= 15;
+				dp = writeLength(dst, dp, length - 15);
+			} else {
+				token |= length;
+			}
+		}
+		dst[tokenPosition] = (byte) token;
+		return dp;
+	}
+
+	private static int writeLength(byte[] dst, int destinationPosition, int length) {
+		int dp = destinationPosition;
+		int remaining = length;
+		while (remaining >= 255) {
+			dst[dp] = (byte) 255;
+			dp++;
+			remaining -= 255;
+		}
+		dst[dp] = (byte) remaining;
+		return dp + 1;
+	}
+
+	private static int readInt(byte[] bytes, int position) {
+		return (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16
+				| (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+	}
+}
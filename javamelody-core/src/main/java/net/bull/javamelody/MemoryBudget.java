@@ -0,0 +1,192 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Budget mémoire d'une application dans le serveur de collecte.
+ * <br/>La mémoire utilisée par une application est estimée à chaque collecte (compteurs, compteurs du jour
+ * et JRobin des requêtes). Au-delà du budget (paramètre application-memory-budget en Mo), le niveau de détail
+ * est réduit progressivement, d'un cran par collecte : diminution du nombre maximum de requêtes par compteur,
+ * puis suppression des graphiques par requête, puis conservation des seuls totaux des compteurs.
+ * Le niveau de détail est rétabli progressivement quand la mémoire utilisée repasse sous la moitié du budget.
+ * @author Emeric Vernat
+ */
+final class MemoryBudget {
+	private static final Logger LOGGER = Logger.getLogger("javamelody");
+	// estimation de la mémoire d'une instance de JRobin de requête (noms, chemin du fichier)
+	private static final long JROBIN_ESTIMATED_MEMORY_SIZE = 1024;
+	// nombre maximum de requêtes par compteur sans réduction (comme dans Counter)
+	private static final int MAX_REQUESTS_COUNT = 10000;
+	// nombre minimum de requêtes par compteur avant de supprimer les graphiques par requête
+	private static final int MIN_MAX_REQUESTS_COUNT = 1000;
+	// nombre de requêtes par compteur lorsque seuls les totaux des compteurs sont conservés
+	private static final int AGGREGATES_ONLY_MAX_REQUESTS_COUNT = 10;
+
+	private final String application;
+	private final long budget;
+	private Degradation degradation = Degradation.NONE;
+	private int maxRequestsCount = MAX_REQUESTS_COUNT;
+	private long memorySize;
+
+	/**
+	 * Niveau de réduction du détail d'une application.
+	 */
+	enum Degradation {
+		/** Détail complet. */
+		NONE,
+		/** Nombre maximum de requêtes par compteur réduit. */
+		REDUCED_REQUESTS,
+		/** Nombre maximum de requêtes réduit et pas de graphiques par requête. */
+		NO_REQUEST_GRAPHS,
+		/** Seuls les totaux des compteurs sont conservés (courbes des compteurs). */
+		AGGREGATES_ONLY
+	}
+
+	MemoryBudget(String application, long budget) {
+		super();
+		assert application != null;
+		this.application = application;
+		this.budget = budget;
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return Budget mémoire selon le paramètre application-memory-budget (sans limite par défaut)
+	 */
+	static MemoryBudget createFromParameters(String application) {
+		final String parameter = Parameters.getParameter(Parameter.APPLICATION_MEMORY_BUDGET);
+		if (parameter == null) {
+			return new MemoryBudget(application, -1);
+		}
+		final long budgetMb = Long.parseLong(parameter.trim());
+		if (budgetMb <= 0) {
+			throw new IllegalStateException(
+					"The parameter application-memory-budget should be > 0 (in MB)");
+		}
+		return new MemoryBudget(application, budgetMb * 1024 * 1024);
+	}
+
+	/**
+	 * Estime la mémoire utilisée par l'application après une collecte et réduit ou rétablit
+	 * le niveau de détail d'un cran si nécessaire.
+	 * @param collector Collector de l'application
+	 */
+	synchronized void check(Collector collector) {
+		memorySize = estimateMemorySize(collector);
+		if (budget > 0) {
+			if (memorySize > budget) {
+				degrade();
+			} else if (memorySize < budget / 2 && degradation != Degradation.NONE) {
+				restore();
+			}
+		}
+		if (collector.getMaxRequestsCountLimit() != maxRequestsCount) {
+			collector.setMaxRequestsCountLimit(maxRequestsCount);
+		}
+		final boolean requestGraphsDisabled = degradation.compareTo(Degradation.NO_REQUEST_GRAPHS) >= 0;
+		if (collector.isRequestGraphsDisabled() != requestGraphsDisabled) {
+			collector.setRequestGraphsDisabled(requestGraphsDisabled);
+		}
+	}
+
+	private void degrade() {
+		final Degradation previous = degradation;
+		if (maxRequestsCount > MIN_MAX_REQUESTS_COUNT) {
+			maxRequestsCount = Math.max(maxRequestsCount / 2, MIN_MAX_REQUESTS_COUNT);
+			degradation = Degradation.REDUCED_REQUESTS;
+		} else if (degradation.compareTo(Degradation.NO_REQUEST_GRAPHS) < 0) {
+			degradation = Degradation.NO_REQUEST_GRAPHS;
+		} else if (degradation != Degradation.AGGREGATES_ONLY) {
+			maxRequestsCount = AGGREGATES_ONLY_MAX_REQUESTS_COUNT;
+			degradation = Degradation.AGGREGATES_ONLY;
+		} else {
+			// rien de plus ne peut être réduit
+			return;
+		}
+		LOGGER.warn("memory budget of " + budget / 1024 / 1024 + " MB exceeded by the application "
+				+ application + " (" + memorySize / 1024 / 1024 + " MB): details reduced from "
+				+ previous + " to " + degradation + ", max requests count " + maxRequestsCount);
+	}
+
+	private void restore() {
+		if (degradation == Degradation.AGGREGATES_ONLY) {
+			maxRequestsCount = MIN_MAX_REQUESTS_COUNT;
+			degradation = Degradation.NO_REQUEST_GRAPHS;
+		} else if (degradation == Degradation.NO_REQUEST_GRAPHS) {
+			degradation = Degradation.REDUCED_REQUESTS;
+		} else {
+			maxRequestsCount = Math.min(maxRequestsCount * 2, MAX_REQUESTS_COUNT);
+			if (maxRequestsCount == MAX_REQUESTS_COUNT) {
+				degradation = Degradation.NONE;
+			}
+		}
+		LOGGER.info("memory of the application " + application + " back under its budget ("
+				+ memorySize / 1024 / 1024 + " MB): details restored to " + degradation
+				+ ", max requests count " + maxRequestsCount);
+	}
+
+	private static long estimateMemorySize(Collector collector) {
+		final long requestJRobinsCount;
+		if (collector.isRequestGraphsDisabled()) {
+			// les graphiques par requête supprimés seraient recréés si le détail était rétabli,
+			// donc on les compte pour ne pas rétablir puis réduire de nouveau le détail à chaque collecte
+			long requestsCount = 0;
+			for (final Counter counter : collector.getCounters()) {
+				requestsCount += counter.getRequestsCount();
+			}
+			requestJRobinsCount = requestsCount;
+		} else {
+			requestJRobinsCount = collector.getRequestJRobinsCount();
+		}
+		return Math.max(collector.getEstimatedMemorySize(), 0) + requestJRobinsCount
+				* JROBIN_ESTIMATED_MEMORY_SIZE;
+	}
+
+	/**
+	 * @return Budget en octets, ou -1 si pas de limite
+	 */
+	long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return Mémoire utilisée estimée lors de la dernière collecte en octets
+	 */
+	synchronized long getMemorySize() {
+		return memorySize;
+	}
+
+	synchronized Degradation getDegradation() {
+		return degradation;
+	}
+
+	synchronized int getMaxRequestsCount() {
+		return maxRequestsCount;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "[application=" + application + ", budget=" + budget
+				+ ", memorySize=" + memorySize + ", degradation=" + degradation
+				+ ", maxRequestsCount=" + maxRequestsCount + ']';
+	}
+}
@@ -97,7 +97,7 @@ class MemoryInformations implements Serializable {
 		return null;
 	}
 
-	private static long buildGarbageCollectionTimeMillis() {
+	static long buildGarbageCollectionTimeMillis() {
 		long garbageCollectionTime = 0;
 		for (final GarbageCollectorMXBean garbageCollector : ManagementFactory
 				.getGarbageCollectorMXBeans()) {
@@ -27,6 +27,7 @@ import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_P
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HIGH_RESOLUTION_PART;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNLP_PART;
 import static net.bull.javamelody.HttpParameters.JOB_ID_PARAMETER;
@@ -34,6 +35,7 @@ import static net.bull.javamelody.HttpParameters.LAST_VALUE_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PERIOD_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
+import static net.bull.javamelody.HttpParameters.PROMETHEUS_PART;
 import static net.bull.javamelody.HttpParameters.RESOURCE_PARAMETER;
 import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
 import static net.bull.javamelody.HttpParameters.THREADS_DUMP_PART;
@@ -134,6 +136,10 @@ class MonitoringController {
 		final JavaInformations javaInformations;
 		if (MonitoringController.isJavaInformationsNeeded(httpRequest)) {
 			javaInformations = new JavaInformations(servletContext, true);
+		} else if (PROMETHEUS_PART.equalsIgnoreCase(httpRequest.getParameter(PART_PARAMETER))) {
+			// sans les détails (threads, jobs, caches...) et sans servletContext (dépendances)
+			// pour que l'export au format Prometheus reste rapide
+			javaInformations = new JavaInformations(null, false);
 		} else {
 			javaInformations = null;
 		}
@@ -166,8 +172,14 @@ class MonitoringController {
 			if (part == null && graph != null) {
 				final Range range = httpCookieManager.getRange(httpRequest, httpResponse);
 				doGraph(httpRequest, httpResponse, range, graph);
+			} else if (HIGH_RESOLUTION_PART.equalsIgnoreCase(part) && graph != null) {
+				doHighResolutionGraph(httpRequest, httpResponse, graph);
 			} else if (LAST_VALUE_PART.equalsIgnoreCase(part)) {
 				doLastValue(httpResponse, graph);
+			} else if (PROMETHEUS_PART.equalsIgnoreCase(part)) {
+				final PrometheusController prometheusController = new PrometheusController(
+						collector, javaInformationsList);
+				prometheusController.doPrometheus(httpResponse);
 			} else if (WEB_XML_PART.equalsIgnoreCase(part)) {
 				doWebXml(httpResponse);
 			} else if (POM_XML_PART.equalsIgnoreCase(part)) {
@@ -278,19 +290,21 @@ class MonitoringController {
 	void doCompressedSerializable(HttpServletRequest httpRequest, HttpServletResponse httpResponse,
 			Serializable serializable) throws IOException {
 		// note: normalement la compression est supportée ici car s'il s'agit du serveur de collecte,
-		// LabradorRetriever appelle connection.setRequestProperty("Accept-Encoding", "gzip");
+		// LabradorRetriever appelle connection.setRequestProperty("Accept-Encoding", ...);
 		// et on teste CompressionServletResponseWrapper car il peut déjà être mis dans le serveur de collecte
 		// par CollectorServlet.doCompressedPart
 		final SerializableController serializableController = new SerializableController(collector);
-		if (isCompressionSupported(httpRequest)
+		// lz si le serveur de collecte l'accepte, gzip sinon
+		final CompressionCodec compressionCodec = CompressionCodec.valueOfAcceptEncoding(httpRequest);
+		if (compressionCodec != null
 				&& !(httpResponse instanceof CompressionServletResponseWrapper)
 				&& !GZIP_COMPRESSION_DISABLED) {
 			// comme les données peuvent être volumineuses avec toutes les requêtes sql et http
-			// et les threads on compresse le flux de réponse en gzip à partir de 50 Ko
+			// et les threads on compresse le flux de réponse à partir de 50 Ko
 			// (à moins que la compression http ne soit pas supportée
 			// comme par ex s'il y a un proxy squid qui ne supporte que http 1.0)
 			final CompressionServletResponseWrapper wrappedResponse = new CompressionServletResponseWrapper(
-					httpResponse, 50 * 1024);
+					httpResponse, 50 * 1024, compressionCodec);
 			try {
 				serializableController.doSerializable(httpRequest, wrappedResponse, serializable);
 			} finally {
@@ -358,6 +372,23 @@ class MonitoringController {
 		}
 	}
 
+	private void doHighResolutionGraph(HttpServletRequest httpRequest,
+			HttpServletResponse httpResponse, String graphName) throws IOException {
+		final int width = Math.min(Integer.parseInt(httpRequest.getParameter(WIDTH_PARAMETER)),
+				1600);
+		final int height = Math.min(Integer.parseInt(httpRequest.getParameter(HEIGHT_PARAMETER)),
+				1600);
+		final HighResolutionCapture capture = collector.getHighResolutionCapture();
+		if (capture != null && capture.getGraphNames().contains(graphName)) {
+			final byte[] img = capture.graph(graphName, width, height);
+			httpResponse.setContentType("image/png");
+			httpResponse.setContentLength(img.length);
+			httpResponse.addHeader(CONTENT_DISPOSITION, "inline;filename=" + graphName + ".png");
+			httpResponse.getOutputStream().write(img);
+			httpResponse.flushBuffer();
+		}
+	}
+
 	// part=lastValue&graph=x,y,z sera utilisé par munin notamment
 	private void doLastValue(HttpServletResponse httpResponse, String graphName) throws IOException {
 		httpResponse.setContentType("text/plain");
@@ -19,6 +19,7 @@
 package net.bull.javamelody;
 
 import static net.bull.javamelody.HttpParameters.COLLECTOR_PARAMETER;
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -345,9 +346,12 @@ public class MonitoringFilter implements Filter {
 		if ("stop".equalsIgnoreCase(httpRequest.getParameter(COLLECTOR_PARAMETER))) {
 			// on a été appelé par un serveur de collecte qui fera l'aggrégation dans le temps,
 			// le stockage et les courbes, donc on arrête le timer s'il est démarré
-			// et on vide les stats pour que le serveur de collecte ne récupère que les deltas
-			for (final Counter counter : collector.getCounters()) {
-				counter.clear();
+			// et on vide les stats pour que le serveur de collecte ne récupère que les deltas,
+			// sauf si le serveur de collecte utilise la collecte par différences avec un curseur
+			if (httpRequest.getParameter(CURSOR_PARAMETER) == null) {
+				for (final Counter counter : collector.getCounters()) {
+					counter.clear();
+				}
 			}
 
 			if (!collector.isStopped()) {
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Récupération en parallèle des données des serveurs (noeuds) d'une application monitorée,
+ * avec un nombre maximum d'appels simultanés par application et un temps maximum par noeud.
+ * <br/>Les résultats sont fusionnés dans l'ordre des noeuds, au fur et à mesure de leur arrivée,
+ * et un noeud en erreur est ignoré sans faire échouer la collecte, sauf si tous les noeuds sont en erreur.
+ * @author Emeric Vernat
+ */
+final class NodeFetchPool {
+	private static final int DEFAULT_CONCURRENCY = 8;
+	// temps de connexion et de lecture max de LabradorRetriever, plus une marge
+	private static final long DEFAULT_TIMEOUT_MILLIS = 90000;
+	private static ExecutorService executorService;
+
+	/**
+	 * Traitement du résultat d'un noeud, appelé dans le thread de l'appelant et dans l'ordre des noeuds.
+	 * @param <T> Type du résultat
+	 */
+	interface NodeResultHandler<T> {
+		/**
+		 * @param nodeIndex Index du noeud dans la liste des urls
+		 * @param result Résultat du noeud
+		 * @param dataLength Nombre d'octets lus pour ce noeud, ou -1 si inconnu
+		 * @throws IOException e
+		 */
+		void nodeFetched(int nodeIndex, T result, long dataLength) throws IOException;
+	}
+
+	private static final class NodeFetch<T> implements Callable<T> {
+		private final LabradorRetriever labradorRetriever;
+		private final Locale locale;
+
+		NodeFetch(LabradorRetriever labradorRetriever, Locale locale) {
+			super();
+			this.labradorRetriever = labradorRetriever;
+			this.locale = locale;
+		}
+
+		@Override
+		public T call() throws IOException {
+			// la locale est liée au thread de l'appelant (entête Accept-Language)
+			I18N.bindLocale(locale);
+			try {
+				return labradorRetriever.<T> call();
+			} finally {
+				I18N.unbindLocale();
+			}
+		}
+
+		long getDataLength() {
+			return labradorRetriever.getDataLength();
+		}
+	}
+
+	private NodeFetchPool() {
+		super();
+	}
+
+	/**
+	 * Récupère les résultats des urls des noeuds d'une application.
+	 * @param labradorRetrievers Appels des urls des noeuds
+	 * @param handler Traitement du résultat de chaque noeud
+	 * @param <T> Type du résultat
+	 * @return Liste des noeuds en erreur avec leur cause (vide si aucun)
+	 * @throws IOException Si tous les noeuds sont en erreur (exception du premier noeud)
+	 */
+	static <T> List<String> fetch(List<LabradorRetriever> labradorRetrievers,
+			NodeResultHandler<T> handler) throws IOException {
+		final int concurrency = getConcurrency();
+		final List<NodeFetch<T>> fetches = new ArrayList<NodeFetch<T>>(labradorRetrievers.size());
+		final Locale locale = I18N.getCurrentLocale();
+		for (final LabradorRetriever labradorRetriever : labradorRetrievers) {
+			fetches.add(new NodeFetch<T>(labradorRetriever, locale));
+		}
+		final Exception[] failures = new Exception[fetches.size()];
+		if (fetches.size() == 1 || concurrency == 1) {
+			// un seul noeud ou parallélisme désactivé : appels dans le thread courant
+			for (int i = 0; i < fetches.size(); i++) {
+				final NodeFetch<T> fetch = fetches.get(i);
+				final T result;
+				try {
+					result = fetch.labradorRetriever.<T> call();
+				} catch (final Exception e) { // NOPMD
+					failures[i] = e;
+					continue;
+				}
+				handler.nodeFetched(i, result, fetch.getDataLength());
+			}
+		} else {
+			fetchConcurrently(fetches, concurrency, failures, handler);
+		}
+		return checkFailures(labradorRetrievers, failures);
+	}
+
+	// CHECKSTYLE:OFF
+	private static <T> void fetchConcurrently(List<NodeFetch<T>> fetches, int concurrency,
+			Exception[] failures, NodeResultHandler<T> handler) throws IOException {
+		// CHECKSTYLE:ON
+		final CompletionService<T> completionService = new ExecutorCompletionService<T>(
+				getExecutorService());
+		final long timeout = getTimeoutMillis();
+		final int size = fetches.size();
+		final List<T> results = new ArrayList<T>(size);
+		final boolean[] done = new boolean[size];
+		final Map<Future<T>, Integer> indexesInProgress = new HashMap<Future<T>, Integer>();
+		final long[] deadlines = new long[size];
+		int submitted = 0;
+		int merged = 0;
+		try {
+			while (merged < size) {
+				while (submitted < size && indexesInProgress.size() < concurrency) {
+					results.add(null);
+					deadlines[submitted] = System.currentTimeMillis() + timeout;
+					indexesInProgress.put(completionService.submit(fetches.get(submitted)),
+							submitted);
+					submitted++;
+				}
+				final Future<T> future = completionService.poll(
+						getRemainingMillis(indexesInProgress.values(), deadlines),
+						TimeUnit.MILLISECONDS);
+				if (future != null) {
+					final Integer index = indexesInProgress.remove(future);
+					if (index != null) {
+						try {
+							results.set(index, future.get());
+						} catch (final ExecutionException e) {
+							failures[index] = e.getCause() instanceof Exception ? (Exception) e
+									.getCause() : e;
+						}
+						done[index] = true;
+					}
+				} else {
+					cancelExpired(indexesInProgress, deadlines, failures, done);
+				}
+				// fusion dans l'ordre des noeuds de tous les résultats arrivés jusqu'ici
+				while (merged < size && done[merged]) {
+					if (failures[merged] == null) {
+						handler.nodeFetched(merged, results.get(merged),
+								fetches.get(merged).getDataLength());
+						results.set(merged, null);
+					}
+					merged++;
+				}
+			}
+		} catch (final InterruptedException e) {
+			throw createIOException(e);
+		} finally {
+			for (final Future<T> future : indexesInProgress.keySet()) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private static long getRemainingMillis(Iterable<Integer> indexesInProgress, long[] deadlines) {
+		long earliestDeadline = Long.MAX_VALUE;
+		for (final Integer index : indexesInProgress) {
+			earliestDeadline = Math.min(earliestDeadline, deadlines[index]);
+		}
+		return Math.max(earliestDeadline - System.currentTimeMillis(), 0);
+	}
+
+	private static <T> void cancelExpired(Map<Future<T>, Integer> indexesInProgress,
+			long[] deadlines, Exception[] failures, boolean[] done) {
+		final long now = System.currentTimeMillis();
+		for (final Map.Entry<Future<T>, Integer> entry : new ArrayList<Map.Entry<Future<T>, Integer>>(
+				indexesInProgress.entrySet())) {
+			final int index = entry.getValue();
+			if (deadlines[index] <= now) {
+				entry.getKey().cancel(true);
+				indexesInProgress.remove(entry.getKey());
+				failures[index] = new IOException("Timeout of " + getTimeoutMillis()
+						+ " ms exceeded");
+				done[index] = true;
+			}
+		}
+	}
+
+	private static List<String> checkFailures(List<LabradorRetriever> labradorRetrievers,
+			Exception[] failures)
+			throws IOException {
+		final List<String> failedNodes = new ArrayList<String>();
+		Exception firstFailure = null;
+		for (int i = 0; i < failures.length; i++) {
+			final Exception failure = failures[i];
+			if (failure != null) {
+				if (firstFailure == null) {
+					firstFailure = failure;
+				}
+				final String failedNode = RemoteCollector.getHostAndPort(labradorRetrievers.get(i)
+						.getUrl()) + ": " + failure;
+				failedNodes.add(failedNode);
+				LOG.debug("node unavailable " + failedNode);
+			}
+		}
+		if (firstFailure != null && failedNodes.size() == failures.length) {
+			// tous les noeuds sont en erreur : l'application est indisponible
+			if (firstFailure instanceof IOException) {
+				throw (IOException) firstFailure;
+			} else if (firstFailure instanceof RuntimeException) {
+				throw (RuntimeException) firstFailure;
+			}
+			throw createIOException(firstFailure);
+		}
+		return failedNodes;
+	}
+
+	static int getConcurrency() {
+		final String parameter = Parameters.getParameter(Parameter.COLLECT_NODES_CONCURRENCY);
+		if (parameter == null) {
+			return DEFAULT_CONCURRENCY;
+		}
+		final int concurrency = Integer.parseInt(parameter.trim());
+		if (concurrency <= 0) {
+			throw new IllegalStateException(
+					"The parameter collect-nodes-concurrency should be > 0");
+		}
+		return concurrency;
+	}
+
+	static long getTimeoutMillis() {
+		final String parameter = Parameters.getParameter(Parameter.COLLECT_NODE_TIMEOUT);
+		if (parameter == null) {
+			return DEFAULT_TIMEOUT_MILLIS;
+		}
+		final long timeout = Long.parseLong(parameter.trim());
+		if (timeout <= 0) {
+			throw new IllegalStateException("The parameter collect-node-timeout should be > 0");
+		}
+		return timeout;
+	}
+
+	private static synchronized ExecutorService getExecutorService() {
+		if (executorService == null) {
+			// le nombre de threads est borné par le nombre de collectes simultanées
+			// multiplié par le nombre maximum d'appels simultanés par application
+			executorService = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "javamelody collect node "
+							+ threadNumber.incrementAndGet());
+					// les threads ne doivent pas empêcher l'arrêt de la jvm
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executorService;
+	}
+
+	static synchronized void stop() {
+		if (executorService != null) {
+			executorService.shutdown();
+			executorService = null;
+		}
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Résumé des données d'un serveur (noeud) d'une application dans le serveur de collecte.
+ * <br/>Les compteurs des noeuds sont fusionnés dans le collector de l'application sans être conservés :
+ * ce résumé léger (hits, temps moyen et pourcentage d'erreurs par compteur, et requêtes les plus longues)
+ * est conservé à côté pour comparer les noeuds entre eux et repérer un noeud anormal,
+ * sans désactiver l'agrégation ni appeler le monitoring de chaque noeud.
+ * <br/>Les valeurs sont cumulées depuis le démarrage du serveur de collecte, et aussi gardées
+ * pour la dernière collecte. Les requêtes les plus longues sont approximatives : une requête sortie
+ * de la liste perd ses hits précédents si elle y revient.
+ * @author Emeric Vernat
+ */
+final class NodeSummary implements Serializable {
+	static final int TOP_REQUESTS_COUNT = 10;
+	// un noeud est anormal si son temps moyen est au moins le double de la médiane des noeuds
+	private static final int OUTLIER_MEAN_RATIO = 2;
+	// ou si son pourcentage d'erreurs dépasse de 5 points la médiane des noeuds
+	private static final float OUTLIER_ERROR_PERCENTAGE_DELTA = 5;
+	// nombre minimum de hits d'un compteur sur un noeud pour le comparer aux autres
+	private static final long OUTLIER_MIN_HITS = 10;
+	private static final long serialVersionUID = 7536468462618962917L;
+
+	private final String node;
+	private final Map<String, CounterSummary> counterSummariesByName = new LinkedHashMap<String, CounterSummary>();
+	private long lastCollectTime;
+
+	/**
+	 * Résumé d'un compteur sur un noeud.
+	 */
+	static final class CounterSummary implements Serializable {
+		private static final long serialVersionUID = -7467462364528627402L;
+		private final String counterName;
+		private long hits;
+		private long durationsSum;
+		private long systemErrors;
+		private long lastCollectHits;
+		private long lastCollectDurationsSum;
+		private long lastCollectSystemErrors;
+		@SuppressWarnings("all")
+		private final Map<String, CounterRequest> topRequestsByName = new LinkedHashMap<String, CounterRequest>();
+
+		CounterSummary(String counterName) {
+			super();
+			assert counterName != null;
+			this.counterName = counterName;
+		}
+
+		void addRequest(CounterRequest request) {
+			hits += request.getHits();
+			durationsSum += request.getDurationsSum();
+			systemErrors += request.getSystemErrors();
+			lastCollectHits += request.getHits();
+			lastCollectDurationsSum += request.getDurationsSum();
+			lastCollectSystemErrors += request.getSystemErrors();
+			final CounterRequest topRequest = topRequestsByName.get(request.getName());
+			if (topRequest != null) {
+				topRequest.addHits(request);
+			} else if (topRequestsByName.size() < TOP_REQUESTS_COUNT) {
+				addTopRequest(request);
+			} else {
+				// la requête remplace la requête la plus courte de la liste si elle est plus longue
+				CounterRequest shortestRequest = null;
+				for (final CounterRequest otherRequest : topRequestsByName.values()) {
+					if (shortestRequest == null
+							|| otherRequest.getDurationsSum() < shortestRequest.getDurationsSum()) {
+						shortestRequest = otherRequest;
+					}
+				}
+				assert shortestRequest != null;
+				if (request.getDurationsSum() > shortestRequest.getDurationsSum()) {
+					topRequestsByName.remove(shortestRequest.getName());
+					addTopRequest(request);
+				}
+			}
+		}
+
+		private void addTopRequest(CounterRequest request) {
+			// nouvelle instance pour ne pas garder la requête lue, ni ses requêtes filles
+			final CounterRequest topRequest = new CounterRequest(request.getName(), counterName);
+			topRequest.addHits(request);
+			topRequestsByName.put(topRequest.getName(), topRequest);
+		}
+
+		void resetLastCollect() {
+			lastCollectHits = 0;
+			lastCollectDurationsSum = 0;
+			lastCollectSystemErrors = 0;
+		}
+
+		String getCounterName() {
+			return counterName;
+		}
+
+		long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return Temps moyen en ms depuis le démarrage du serveur de collecte, ou -1 si pas de hits
+		 */
+		int getMean() {
+			if (hits > 0) {
+				return (int) (durationsSum / hits);
+			}
+			return -1;
+		}
+
+		/**
+		 * @return Pourcentage d'erreurs systèmes depuis le démarrage du serveur de collecte
+		 */
+		float getSystemErrorPercentage() {
+			if (hits > 0) {
+				return Math.min(100f * systemErrors / hits, 100f);
+			}
+			return 0;
+		}
+
+		long getLastCollectHits() {
+			return lastCollectHits;
+		}
+
+		/**
+		 * @return Temps moyen en ms lors de la dernière collecte, ou -1 si pas de hits
+		 */
+		int getLastCollectMean() {
+			if (lastCollectHits > 0) {
+				return (int) (lastCollectDurationsSum / lastCollectHits);
+			}
+			return -1;
+		}
+
+		/**
+		 * @return Pourcentage d'erreurs systèmes lors de la dernière collecte
+		 */
+		float getLastCollectSystemErrorPercentage() {
+			if (lastCollectHits > 0) {
+				return Math.min(100f * lastCollectSystemErrors / lastCollectHits, 100f);
+			}
+			return 0;
+		}
+
+		/**
+		 * @return Requêtes les plus longues (somme des durées) de ce compteur sur ce noeud, triées
+		 */
+		List<CounterRequest> getTopRequests() {
+			final List<CounterRequest> result = new ArrayList<CounterRequest>(
+					topRequestsByName.size());
+			for (final CounterRequest request : topRequestsByName.values()) {
+				result.add(request.clone());
+			}
+			Collections.sort(result,
+					Collections.reverseOrder(new Counter.CounterRequestComparator()));
+			return result;
+		}
+
+		CounterSummary copy() {
+			final CounterSummary copy = new CounterSummary(counterName);
+			copy.hits = hits;
+			copy.durationsSum = durationsSum;
+			copy.systemErrors = systemErrors;
+			copy.lastCollectHits = lastCollectHits;
+			copy.lastCollectDurationsSum = lastCollectDurationsSum;
+			copy.lastCollectSystemErrors = lastCollectSystemErrors;
+			for (final CounterRequest request : topRequestsByName.values()) {
+				copy.topRequestsByName.put(request.getName(), request.clone());
+			}
+			return copy;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "[counterName=" + getCounterName() + ", hits="
+					+ getHits() + ", mean=" + getMean() + ", systemErrorPercentage="
+					+ getSystemErrorPercentage() + ']';
+		}
+	}
+
+	NodeSummary(String node) {
+		super();
+		assert node != null;
+		this.node = node;
+	}
+
+	/**
+	 * Début d'une collecte de ce noeud : les valeurs de la dernière collecte sont remises à zéro.
+	 */
+	synchronized void beginCollect() {
+		lastCollectTime = System.currentTimeMillis();
+		for (final CounterSummary counterSummary : counterSummariesByName.values()) {
+			counterSummary.resetLastCollect();
+		}
+	}
+
+	/**
+	 * Ajoute au résumé les hits d'une requête reçue de ce noeud.
+	 * @param counterName Nom du compteur
+	 * @param request Requête reçue (différence depuis la collecte précédente)
+	 */
+	synchronized void addRequest(String counterName, CounterRequest request) {
+		if (request.getHits() > 0) {
+			CounterSummary counterSummary = counterSummariesByName.get(counterName);
+			if (counterSummary == null) {
+				counterSummary = new CounterSummary(counterName);
+				counterSummariesByName.put(counterName, counterSummary);
+			}
+			counterSummary.addRequest(request);
+		}
+	}
+
+	/**
+	 * Ajoute au résumé les requêtes d'un compteur reçu de ce noeud.
+	 * @param counter Compteur reçu (différences depuis la collecte précédente)
+	 */
+	void addCounter(Counter counter) {
+		for (final CounterRequest request : counter.getRequests()) {
+			addRequest(counter.getName(), request);
+		}
+	}
+
+	String getNode() {
+		return node;
+	}
+
+	synchronized long getLastCollectTime() {
+		return lastCollectTime;
+	}
+
+	/**
+	 * @param counterName Nom du compteur
+	 * @return Copie du résumé du compteur sur ce noeud, ou null si pas de hits
+	 */
+	synchronized CounterSummary getCounterSummary(String counterName) {
+		final CounterSummary counterSummary = counterSummariesByName.get(counterName);
+		if (counterSummary == null) {
+			return null;
+		}
+		return counterSummary.copy();
+	}
+
+	/**
+	 * @return Copies des résumés des compteurs sur ce noeud
+	 */
+	synchronized List<CounterSummary> getCounterSummaries() {
+		final List<CounterSummary> result = new ArrayList<CounterSummary>(
+				counterSummariesByName.size());
+		for (final CounterSummary counterSummary : counterSummariesByName.values()) {
+			result.add(counterSummary.copy());
+		}
+		return result;
+	}
+
+	/**
+	 * Indique si un compteur de ce noeud est anormal par rapport aux autres noeuds de l'application :
+	 * temps moyen au moins double de la médiane des noeuds ou pourcentage d'erreurs supérieur de 5 points
+	 * à la médiane des noeuds (les noeuds avec moins de 10 hits pour ce compteur ne sont pas comparés).
+	 * @param nodeSummaries Résumés de tous les noeuds de l'application
+	 * @param counterName Nom du compteur
+	 * @return boolean
+	 */
+	boolean isOutlier(List<NodeSummary> nodeSummaries, String counterName) {
+		final CounterSummary counterSummary = getCounterSummary(counterName);
+		if (counterSummary == null || counterSummary.getHits() < OUTLIER_MIN_HITS) {
+			return false;
+		}
+		final List<Integer> means = new ArrayList<Integer>();
+		final List<Float> errorPercentages = new ArrayList<Float>();
+		for (final NodeSummary nodeSummary : nodeSummaries) {
+			final CounterSummary other = nodeSummary.getCounterSummary(counterName);
+			if (other != null && other.getHits() >= OUTLIER_MIN_HITS) {
+				means.add(other.getMean());
+				errorPercentages.add(other.getSystemErrorPercentage());
+			}
+		}
+		// il faut au moins 3 noeuds comparables pour qu'une médiane ait un sens
+		if (means.size() < 3) {
+			return false;
+		}
+		final int medianMean = getMedian(means);
+		final float medianErrorPercentage = getMedian(errorPercentages);
+		return medianMean > 0 && counterSummary.getMean() >= OUTLIER_MEAN_RATIO * medianMean
+				|| counterSummary.getSystemErrorPercentage() >= medianErrorPercentage
+						+ OUTLIER_ERROR_PERCENTAGE_DELTA;
+	}
+
+	private static <T extends Comparable<T>> T getMedian(List<T> values) {
+		final List<T> sorted = new ArrayList<T>(values);
+		Collections.sort(sorted);
+		return sorted.get(sorted.size() / 2);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "[node=" + getNode() + ", counters="
+				+ counterSummariesByName.values() + ']';
+	}
+}
@@ -48,6 +48,44 @@ public enum Parameter {
 	 */
 	STORAGE_DIRECTORY("storage-directory"),
 
+	/**
+	 * Paramètre pour stocker les temps moyens des requêtes dans un fichier consolidé par compteur et par jour,
+	 * au lieu d'un fichier rrd par requête ("false" par défaut).
+	 */
+	CONSOLIDATED_REQUEST_GRAPHS("consolidated-request-graphs"),
+
+	/**
+	 * Taille maximale en Ko du cache des images des graphiques (4096 par défaut, 0 pour désactiver le cache).
+	 */
+	GRAPH_CACHE_MAX_SIZE("graph-cache-max-size"),
+
+	/**
+	 * Temps maximum en millisecondes pour le rendu en parallèle des graphiques d'une requête,
+	 * au-delà duquel une image d'attente est renvoyée à la place d'un graphique (5000 par défaut).
+	 */
+	GRAPH_RENDERING_TIME_BUDGET("graph-rendering-time-budget"),
+
+	/**
+	 * Paramètre pour garder les données des graphiques en mémoire hors du tas java au lieu de fichiers rrd,
+	 * avec une sauvegarde périodique et à l'arrêt dans une archive compressée ("false" par défaut).
+	 */
+	MEMORY_RRD_STORAGE("memory-rrd-storage"),
+
+	/**
+	 * Période en secondes des sauvegardes des données des graphiques en mémoire (600 par défaut).
+	 */
+	MEMORY_RRD_SNAPSHOT_SECONDS("memory-rrd-snapshot-seconds"),
+
+	/**
+	 * Période en secondes des mesures d'une capture à haute résolution (5 par défaut).
+	 */
+	HIGH_RESOLUTION_SECONDS("high-resolution-seconds"),
+
+	/**
+	 * Durée en minutes d'une capture à haute résolution (15 par défaut).
+	 */
+	HIGH_RESOLUTION_MINUTES("high-resolution-minutes"),
+
 	/**
 	 * Active le log des requêtes http au niveau INFO (false par défaut).
 	 */
@@ -162,6 +200,109 @@ public enum Parameter {
 	 */
 	GZIP_COMPRESSION_DISABLED("gzip-compression-disabled"),
 
+	/**
+	 * Algorithme de compression des fichiers des compteurs et du transport vers le serveur de collecte :
+	 * "gzip" ou "lz", plus rapide mais moins compact ("gzip" par défaut).
+	 */
+	COMPRESSION_CODEC("compression-codec"),
+
+	/**
+	 * Niveau de compression gzip entre 1 (le plus rapide) et 9 (le plus compact) (6 par défaut).
+	 */
+	COMPRESSION_LEVEL("compression-level"),
+
+	/**
+	 * Paramètre pour désactiver, dans le serveur de collecte, la collecte par différences avec un curseur
+	 * et revenir à la collecte vidant les compteurs des applications monitorées ("false" par défaut).
+	 */
+	DELTA_COLLECT_DISABLED("delta-collect-disabled"),
+
+	/**
+	 * Nombre maximum d'appels simultanés, dans le serveur de collecte, aux serveurs d'une même application
+	 * lors d'une collecte (8 par défaut, 1 pour appeler les serveurs l'un après l'autre).
+	 */
+	COLLECT_NODES_CONCURRENCY("collect-nodes-concurrency"),
+
+	/**
+	 * Temps maximum en millisecondes pour la réponse d'un serveur d'une application lors d'une collecte
+	 * en parallèle, au-delà duquel ce serveur est ignoré pour cette collecte (90000 par défaut).
+	 */
+	COLLECT_NODE_TIMEOUT("collect-node-timeout"),
+
+	/**
+	 * Nombre maximum de threads de collecte des applications dans le serveur de collecte (10 par défaut),
+	 * le nombre de threads s'adaptant à la durée des dernières collectes dans cette limite.
+	 */
+	COLLECT_THREADS("collect-threads"),
+
+	/**
+	 * Urls des serveurs de collecte entre lesquels les applications sont réparties,
+	 * séparées par des virgules, par exemple "http://collector1:8080/,http://collector2:8080/"
+	 * (aucune par défaut : toutes les applications sont collectées par ce serveur de collecte).
+	 */
+	COLLECTOR_SHARDS("collector-shards"),
+
+	/**
+	 * Url de ce serveur de collecte parmi celles du paramètre collector-shards (aucune par défaut).
+	 */
+	COLLECTOR_SHARD_URL("collector-shard-url"),
+
+	/**
+	 * Budget mémoire en Mo de chaque application dans le serveur de collecte, au-delà duquel le détail
+	 * des requêtes de l'application est réduit progressivement (aucun par défaut).
+	 */
+	APPLICATION_MEMORY_BUDGET("application-memory-budget"),
+
+	/**
+	 * Nombre de requêtes de chaque compteur, parmi les plus longues en temps cumulé, exposées
+	 * dans le format texte de Prometheus (part=prometheus), 20 par défaut.
+	 */
+	PROMETHEUS_TOP_REQUESTS("prometheus-top-requests"),
+
+	/**
+	 * Timeout de connexion en millisecondes des appels http du serveur de collecte
+	 * vers les applications monitorées (20000 par défaut, 0 pour aucun timeout).
+	 */
+	HTTP_CONNECT_TIMEOUT("http-connect-timeout"),
+
+	/**
+	 * Timeout de lecture en millisecondes des appels http du serveur de collecte
+	 * vers les applications monitorées (60000 par défaut, 0 pour aucun timeout).
+	 */
+	HTTP_READ_TIMEOUT("http-read-timeout"),
+
+	/**
+	 * Nombre maximum d'appels http simultanés du serveur de collecte vers un même serveur,
+	 * afin de réutiliser les connexions gardées ouvertes (5 par défaut, comme http.maxConnections).
+	 */
+	HTTP_CONNECTIONS_PER_HOST("http-connections-per-host"),
+
+	/**
+	 * URL du serveur de collecte auquel l'application monitorée envoie ses données à chaque collecte
+	 * (mode push), par exemple "http://collector:8080/", au lieu d'être interrogée par le serveur de
+	 * collecte (aucune par défaut).
+	 */
+	COLLECTOR_SERVER_URL("collector-server-url"),
+
+	/**
+	 * Nom de l'application dans le serveur de collecte en mode push, commun à tous les serveurs
+	 * de l'application (nom du contexte de la webapp par défaut).
+	 */
+	COLLECTOR_APPLICATION("collector-application"),
+
+	/**
+	 * Jeton partagé entre le serveur de collecte et les applications monitorées en mode push
+	 * (aucun par défaut). Le serveur de collecte n'accepte les envois en mode push que si ce paramètre
+	 * est défini et que l'application monitorée envoie le même jeton.
+	 */
+	PUSH_TOKEN("push-token"),
+
+	/**
+	 * Noms des applications, séparés par des virgules, acceptées par le serveur de collecte
+	 * en mode push (aucune par défaut).
+	 */
+	PUSH_APPLICATIONS("push-applications"),
+
 	/**
 	 * Active les actions Ramasse-miettes, Invalidation sessions et Heap-dump (false par défaut).
 	 */
@@ -219,7 +360,8 @@ public enum Parameter {
 
 	/**
 	 * Format du transport entre un serveur de collecte et une application monitorée
-	 * (serialized : sérialisation java par défaut et recommandée pour les performances, xml : possible).
+	 * (serialized : sérialisation java par défaut et recommandée pour les performances, xml : possible,
+	 * binary : encodage binaire compact, demandé par l'entête Accept et avec repli sur serialized).
 	 * <br/>Selon http://code.google.com/p/thrift-protobuf-compare/wiki/Benchmarking?ts=1237772203&updated=Benchmarking,
 	 * la sérialisation java est 75% plus performante en temps que xml (xstream/xpp)
 	 * et à peine plus gourmande en taille de flux.
@@ -190,14 +190,24 @@ final class Parameters {
 		return new File(getStorageDirectory(""), COLLECTOR_APPLICATIONS_FILENAME);
 	}
 
+	/**
+	 * @return Format de transport configuré pour la collecte (sérialisation java par défaut)
+	 */
+	static TransportFormat getTransportFormat() {
+		final String transportFormat = Parameters.getParameter(Parameter.TRANSPORT_FORMAT);
+		if (transportFormat == null) {
+			return TransportFormat.SERIALIZED;
+		}
+		return TransportFormat.valueOfIgnoreCase(transportFormat);
+	}
+
 	static List<URL> parseUrl(String value) throws MalformedURLException {
 		// pour un cluster, le paramètre vaut "url1,url2"
-		final TransportFormat transportFormat;
-		if (Parameters.getParameter(Parameter.TRANSPORT_FORMAT) == null) {
+		TransportFormat transportFormat = getTransportFormat();
+		if (transportFormat == TransportFormat.BINARY) {
+			// le format binaire est demandé par l'entête Accept (cf LabradorRetriever),
+			// pour que les applications d'une version antérieure répondent en sérialisation java
 			transportFormat = TransportFormat.SERIALIZED;
-		} else {
-			transportFormat = TransportFormat.valueOfIgnoreCase(Parameters
-					.getParameter(Parameter.TRANSPORT_FORMAT));
 		}
 		final String suffix = "/monitoring?collector=stop&format=" + transportFormat.getCode();
 
@@ -299,6 +309,14 @@ final class Parameters {
 		return new File(directory);
 	}
 
+	/**
+	 * Booléen selon que le paramètre memory-rrd-storage vaut true.
+	 * @return boolean
+	 */
+	static boolean isMemoryRrdStorage() {
+		return Boolean.parseBoolean(Parameters.getParameter(Parameter.MEMORY_RRD_STORAGE));
+	}
+
 	/**
 	 * Booléen selon que le paramètre no-database vaut true.
 	 * @return boolean
@@ -307,6 +325,14 @@ final class Parameters {
 		return Boolean.parseBoolean(Parameters.getParameter(Parameter.NO_DATABASE));
 	}
 
+	/**
+	 * Booléen selon que le paramètre consolidated-request-graphs vaut true.
+	 * @return boolean
+	 */
+	static boolean isConsolidatedRequestGraphs() {
+		return Boolean.parseBoolean(Parameters.getParameter(Parameter.CONSOLIDATED_REQUEST_GRAPHS));
+	}
+
 	/**
 	 * Booléen selon que le paramètre system-actions-enabled vaut true.
 	 * @return boolean
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.bull.javamelody.Counter.RequestVisitor;
+
+/**
+ * Contrôleur au format texte de Prometheus (part=prometheus) : totaux des compteurs, hits et durées
+ * des requêtes les plus longues et jauges de la JVM.
+ * <br/>Les métriques sont écrites directement à partir de l'état du collector, sans rendu de rapport,
+ * sans I18N et sans copie ni tri de toutes les requêtes, pour rester rapide même avec beaucoup de requêtes.
+ * @author Emeric Vernat
+ */
+final class PrometheusController {
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+	private static final int DEFAULT_TOP_REQUESTS = 20;
+	private static final String PREFIX = "javamelody_";
+	// longueur maximale du label name des requêtes (une requête sql complète serait trop longue)
+	private static final int MAX_NAME_LABEL_LENGTH = 100;
+
+	private final Collector collector;
+	private final List<JavaInformations> javaInformationsList;
+	private final int topRequests;
+
+	/**
+	 * Totaux et requêtes les plus longues d'un compteur, calculés en un seul parcours de ses requêtes.
+	 * <br/>Les requêtes les plus longues sont gardées dans des tableaux de taille fixe
+	 * pour ne pas allouer d'objet par requête.
+	 */
+	private static final class CounterMetrics implements RequestVisitor {
+		private final String counterName;
+		private final String[] topIds;
+		private final String[] topNames;
+		private final long[] topHits;
+		private final long[] topDurationsSums;
+		private final long[] topSystemErrors;
+		private int topCount;
+		private int minIndex;
+		private long hits;
+		private long durationsSum;
+		private long systemErrors;
+		private int requestsCount;
+
+		CounterMetrics(String counterName, int topRequests) {
+			super();
+			this.counterName = counterName;
+			this.topIds = new String[topRequests];
+			this.topNames = new String[topRequests];
+			this.topHits = new long[topRequests];
+			this.topDurationsSums = new long[topRequests];
+			this.topSystemErrors = new long[topRequests];
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void visit(String requestId, String requestName, long requestHits,
+				long requestDurationsSum, long requestSystemErrors) {
+			hits += requestHits;
+			durationsSum += requestDurationsSum;
+			systemErrors += requestSystemErrors;
+			requestsCount++;
+			final int index;
+			if (topCount < topNames.length) {
+				index = topCount;
+				topCount++;
+			} else if (topCount > 0 && requestDurationsSum > topDurationsSums[minIndex]) {
+				index = minIndex;
+			} else {
+				return;
+			}
+			topIds[index] = requestId;
+			topNames[index] = requestName;
+			topHits[index] = requestHits;
+			topDurationsSums[index] = requestDurationsSum;
+			topSystemErrors[index] = requestSystemErrors;
+			if (topCount == topNames.length) {
+				// recherche de la requête la moins longue parmi les plus longues, qui sera remplacée
+				minIndex = 0;
+				for (int i = 1; i < topCount; i++) {
+					if (topDurationsSums[i] < topDurationsSums[minIndex]) {
+						minIndex = i;
+					}
+				}
+			}
+		}
+
+		void sortTopRequests() {
+			// tri par insertion par durée cumulée décroissante, sur peu de requêtes
+			for (int i = 1; i < topCount; i++) {
+				final String id = topIds[i];
+				final String name = topNames[i];
+				final long requestHits = topHits[i];
+				final long requestDurationsSum = topDurationsSums[i];
+				final long requestSystemErrors = topSystemErrors[i];
+				int j = i - 1;
+				while (j >= 0 && topDurationsSums[j] < requestDurationsSum) {
+					topIds[j + 1] = topIds[j];
+					topNames[j + 1] = topNames[j];
+					topHits[j + 1] = topHits[j];
+					topDurationsSums[j + 1] = topDurationsSums[j];
+					topSystemErrors[j + 1] = topSystemErrors[j];
+					j--;
+				}
+				topIds[j + 1] = id;
+				topNames[j + 1] = name;
+				topHits[j + 1] = requestHits;
+				topDurationsSums[j + 1] = requestDurationsSum;
+				topSystemErrors[j + 1] = requestSystemErrors;
+			}
+		}
+	}
+
+	PrometheusController(Collector collector, List<JavaInformations> javaInformationsList) {
+		super();
+		assert collector != null;
+		assert javaInformationsList != null;
+		this.collector = collector;
+		this.javaInformationsList = javaInformationsList;
+		this.topRequests = getTopRequestsFromParameters();
+	}
+
+	static int getTopRequestsFromParameters() {
+		final String parameter = Parameters.getParameter(Parameter.PROMETHEUS_TOP_REQUESTS);
+		if (parameter == null) {
+			return DEFAULT_TOP_REQUESTS;
+		}
+		final int result = Integer.parseInt(parameter.trim());
+		if (result < 0) {
+			throw new IllegalStateException("The parameter prometheus-top-requests should be >= 0");
+		}
+		return result;
+	}
+
+	void doPrometheus(HttpServletResponse httpResponse) throws IOException {
+		httpResponse.setContentType(CONTENT_TYPE);
+		final PrintWriter writer = httpResponse.getWriter();
+		writeMetrics(writer);
+		writer.flush();
+	}
+
+	void writeMetrics(Writer writer) throws IOException {
+		final List<CounterMetrics> countersMetrics = new ArrayList<CounterMetrics>();
+		for (final Counter counter : collector.getCounters()) {
+			if (counter.isDisplayed()) {
+				final CounterMetrics counterMetrics = new CounterMetrics(counter.getName(),
+						topRequests);
+				counter.visitRequests(counterMetrics);
+				counterMetrics.sortTopRequests();
+				countersMetrics.add(counterMetrics);
+			}
+		}
+		writeCounterMetrics(writer, countersMetrics);
+		writeRequestMetrics(writer, countersMetrics);
+		writeJavaMetrics(writer);
+	}
+
+	private void writeCounterMetrics(Writer writer, List<CounterMetrics> countersMetrics)
+			throws IOException {
+		// chaque métrique est écrite en un seul bloc, comme le demande le format texte
+		writeHeader(writer, "counter_hits_total", "counter", "Hits of the requests of a counter");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			writeCounterSample(writer, "counter_hits_total", counterMetrics, counterMetrics.hits);
+		}
+		writeHeader(writer, "counter_durations_milliseconds_total", "counter",
+				"Sum of the durations of the requests of a counter");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			writeCounterSample(writer, "counter_durations_milliseconds_total", counterMetrics,
+					counterMetrics.durationsSum);
+		}
+		writeHeader(writer, "counter_errors_total", "counter",
+				"System errors of the requests of a counter");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			writeCounterSample(writer, "counter_errors_total", counterMetrics,
+					counterMetrics.systemErrors);
+		}
+		writeHeader(writer, "counter_requests", "gauge", "Number of distinct requests of a counter");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			writeCounterSample(writer, "counter_requests", counterMetrics,
+					counterMetrics.requestsCount);
+		}
+	}
+
+	private void writeRequestMetrics(Writer writer, List<CounterMetrics> countersMetrics)
+			throws IOException {
+		if (topRequests == 0) {
+			return;
+		}
+		writeHeader(writer, "request_hits_total", "counter", "Hits of the longest requests");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			for (int i = 0; i < counterMetrics.topCount; i++) {
+				writeRequestSample(writer, "request_hits_total", counterMetrics, i,
+						counterMetrics.topHits[i]);
+			}
+		}
+		writeHeader(writer, "request_durations_milliseconds_total", "counter",
+				"Sum of the durations of the longest requests");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			for (int i = 0; i < counterMetrics.topCount; i++) {
+				writeRequestSample(writer, "request_durations_milliseconds_total", counterMetrics,
+						i, counterMetrics.topDurationsSums[i]);
+			}
+		}
+		writeHeader(writer, "request_errors_total", "counter",
+				"System errors of the longest requests");
+		for (final CounterMetrics counterMetrics : countersMetrics) {
+			for (int i = 0; i < counterMetrics.topCount; i++) {
+				writeRequestSample(writer, "request_errors_total", counterMetrics, i,
+						counterMetrics.topSystemErrors[i]);
+			}
+		}
+	}
+
+	private void writeJavaMetrics(Writer writer) throws IOException {
+		final List<JavaInformations> list = new ArrayList<JavaInformations>(
+				javaInformationsList.size());
+		for (final JavaInformations javaInformations : javaInformationsList) {
+			// javaInformations peut être null si non demandée (par le serveur de collecte notamment)
+			if (javaInformations != null) {
+				list.add(javaInformations);
+			}
+		}
+		if (list.isEmpty()) {
+			return;
+		}
+		writeHeader(writer, "memory_used_bytes", "gauge", "Used heap memory");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "memory_used_bytes", javaInformations, javaInformations
+					.getMemoryInformations().getUsedMemory());
+		}
+		writeHeader(writer, "memory_max_bytes", "gauge", "Max heap memory");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "memory_max_bytes", javaInformations, javaInformations
+					.getMemoryInformations().getMaxMemory());
+		}
+		writeHeader(writer, "memory_used_non_heap_bytes", "gauge", "Used non-heap memory");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "memory_used_non_heap_bytes", javaInformations,
+					javaInformations.getMemoryInformations().getUsedNonHeapMemory());
+		}
+		writeHeader(writer, "gc_time_milliseconds_total", "counter", "Garbage collection time");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "gc_time_milliseconds_total", javaInformations,
+					javaInformations.getMemoryInformations().getGarbageCollectionTimeMillis());
+		}
+		writeHeader(writer, "loaded_classes", "gauge", "Loaded classes");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "loaded_classes", javaInformations, javaInformations
+					.getMemoryInformations().getLoadedClassesCount());
+		}
+		writeHeader(writer, "threads", "gauge", "Threads");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "threads", javaInformations,
+					javaInformations.getThreadCount());
+		}
+		writeHeader(writer, "http_active_threads", "gauge", "Active http threads");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "http_active_threads", javaInformations,
+					javaInformations.getActiveThreadCount());
+		}
+		writeHeader(writer, "http_sessions", "gauge", "Http sessions");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "http_sessions", javaInformations,
+					javaInformations.getSessionCount());
+		}
+		writeHeader(writer, "jdbc_active_connections", "gauge", "Active jdbc connections");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "jdbc_active_connections", javaInformations,
+					javaInformations.getActiveConnectionCount());
+		}
+		writeHeader(writer, "jdbc_used_connections", "gauge", "Used jdbc connections");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "jdbc_used_connections", javaInformations,
+					javaInformations.getUsedConnectionCount());
+		}
+		writeHeader(writer, "jdbc_max_connections", "gauge", "Max jdbc connections");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "jdbc_max_connections", javaInformations,
+					javaInformations.getMaxConnectionCount());
+		}
+		writeHeader(writer, "jdbc_transactions_total", "counter", "Jdbc transactions");
+		for (final JavaInformations javaInformations : list) {
+			writeJavaSample(writer, "jdbc_transactions_total", javaInformations,
+					javaInformations.getTransactionCount());
+		}
+		writeHeader(writer, "process_cpu_time_milliseconds_total", "counter", "Process cpu time");
+		for (final JavaInformations javaInformations : list) {
+			// -1 si non disponible dans cette JVM
+			if (javaInformations.getProcessCpuTimeMillis() >= 0) {
+				writeJavaSample(writer, "process_cpu_time_milliseconds_total", javaInformations,
+						javaInformations.getProcessCpuTimeMillis());
+			}
+		}
+		writeHeader(writer, "system_load_average", "gauge", "System load average");
+		for (final JavaInformations javaInformations : list) {
+			if (javaInformations.getSystemLoadAverage() >= 0) {
+				writeJavaSample(writer, "system_load_average", javaInformations,
+						javaInformations.getSystemLoadAverage());
+			}
+		}
+		writeHeader(writer, "open_file_descriptors", "gauge", "Open file descriptors");
+		for (final JavaInformations javaInformations : list) {
+			if (javaInformations.getUnixOpenFileDescriptorCount() >= 0) {
+				writeJavaSample(writer, "open_file_descriptors", javaInformations,
+						javaInformations.getUnixOpenFileDescriptorCount());
+			}
+		}
+	}
+
+	private static void writeHeader(Writer writer, String name, String type, String help)
+			throws IOException {
+		writer.write("# HELP ");
+		writer.write(PREFIX);
+		writer.write(name);
+		writer.write(' ');
+		writer.write(help);
+		writer.write("\n# TYPE ");
+		writer.write(PREFIX);
+		writer.write(name);
+		writer.write(' ');
+		writer.write(type);
+		writer.write('\n');
+	}
+
+	private void writeCounterSample(Writer writer, String name, CounterMetrics counterMetrics,
+			long value) throws IOException {
+		writeNameAndApplication(writer, name);
+		writer.write(",counter=\"");
+		writeLabelValue(writer, counterMetrics.counterName);
+		writer.write("\"} ");
+		writer.write(String.valueOf(value));
+		writer.write('\n');
+	}
+
+	private void writeRequestSample(Writer writer, String name, CounterMetrics counterMetrics,
+			int index, long value) throws IOException {
+		writeNameAndApplication(writer, name);
+		writer.write(",counter=\"");
+		writeLabelValue(writer, counterMetrics.counterName);
+		// l'id de la requête est le label qui l'identifie, son nom est tronqué pour l'affichage
+		writer.write("\",request=\"");
+		writeLabelValue(writer, counterMetrics.topIds[index]);
+		writer.write("\",name=\"");
+		final String requestName = counterMetrics.topNames[index];
+		if (requestName.length() > MAX_NAME_LABEL_LENGTH) {
+			writeLabelValue(writer, requestName.substring(0, MAX_NAME_LABEL_LENGTH));
+			writer.write("...");
+		} else {
+			writeLabelValue(writer, requestName);
+		}
+		writer.write("\"} ");
+		writer.write(String.valueOf(value));
+		writer.write('\n');
+	}
+
+	private void writeJavaSample(Writer writer, String name, JavaInformations javaInformations,
+			long value) throws IOException {
+		writeJavaSampleLabels(writer, name, javaInformations);
+		writer.write(String.valueOf(value));
+		writer.write('\n');
+	}
+
+	private void writeJavaSample(Writer writer, String name, JavaInformations javaInformations,
+			double value) throws IOException {
+		writeJavaSampleLabels(writer, name, javaInformations);
+		writer.write(String.valueOf(value));
+		writer.write('\n');
+	}
+
+	private void writeJavaSampleLabels(Writer writer, String name,
+			JavaInformations javaInformations) throws IOException {
+		writeNameAndApplication(writer, name);
+		writer.write(",host=\"");
+		writeLabelValue(writer, javaInformations.getHost());
+		writer.write("\"} ");
+	}
+
+	private void writeNameAndApplication(Writer writer, String name) throws IOException {
+		writer.write(PREFIX);
+		writer.write(name);
+		writer.write("{application=\"");
+		writeLabelValue(writer, collector.getApplication());
+		writer.write('"');
+	}
+
+	static void writeLabelValue(Writer writer, String value) throws IOException {
+		// échappement des valeurs de labels selon le format texte : \, " et retour à la ligne
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write(' ');
+				break;
+			default:
+				writer.write(c);
+				break;
+			}
+		}
+	}
+}
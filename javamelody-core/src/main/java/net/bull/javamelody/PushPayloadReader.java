@@ -0,0 +1,192 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lecture dans le serveur de collecte des données envoyées en mode push par les applications monitorées.
+ * <br/>Comme ces données sont reçues du réseau, leur taille est bornée (avant et après décompression)
+ * et seules les classes des packages de javamelody et de quelques packages du jdk (java.lang, java.util)
+ * peuvent être désérialisées.
+ * @author Emeric Vernat
+ */
+final class PushPayloadReader {
+	/**
+	 * Taille maximale en octets d'un envoi, compressé ou non.
+	 */
+	static final int MAX_PAYLOAD_SIZE = 32 * 1024 * 1024;
+
+	private static final Set<String> ALLOWED_PACKAGES = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList("net.bull.javamelody",
+					"java.lang", "java.util", "java.util.concurrent",
+					"java.util.concurrent.atomic", "java.util.concurrent.locks")));
+
+	/**
+	 * Flux limité à une taille maximale.
+	 */
+	static final class LimitedInputStream extends InputStream {
+		private final InputStream inputStream;
+		private final long maxSize;
+		private long size;
+
+		LimitedInputStream(InputStream inputStream, long maxSize) {
+			super();
+			assert inputStream != null;
+			this.inputStream = inputStream;
+			this.maxSize = maxSize;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int result = inputStream.read();
+			if (result != -1) {
+				addSize(1);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] bytes, int off, int len) throws IOException {
+			final int result = inputStream.read(bytes, off, len);
+			if (result != -1) {
+				addSize(result);
+			}
+			return result;
+		}
+
+		private void addSize(int length) throws IOException {
+			size += length;
+			if (size > maxSize) {
+				throw new IOException("Payload too large, more than " + maxSize + " bytes");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Désérialisation restreinte aux classes autorisées.
+	 */
+	private static final class RestrictedObjectInputStream extends ObjectInputStream {
+		RestrictedObjectInputStream(InputStream input) throws IOException {
+			super(input);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+				ClassNotFoundException {
+			if (!isClassAllowed(desc.getName())) {
+				throw new InvalidClassException(desc.getName(), "Class not allowed in push mode");
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+			// aucun proxy dans les données envoyées
+			throw new InvalidClassException("Proxy", "Class not allowed in push mode");
+		}
+	}
+
+	private long payloadSize;
+
+	PushPayloadReader() {
+		super();
+	}
+
+	/**
+	 * Lit les données envoyées par une application monitorée.
+	 * @param input Flux reçu, éventuellement compressé
+	 * @return Données envoyées
+	 * @throws IOException Si le flux est trop grand, illisible ou contient des classes non autorisées
+	 */
+	List<Serializable> read(InputStream input) throws IOException {
+		final LimitedInputStream decompressedInput = new LimitedInputStream(
+				CompressionCodec.createDetectingInputStream(new LimitedInputStream(input,
+						MAX_PAYLOAD_SIZE)), MAX_PAYLOAD_SIZE);
+		final ObjectInputStream in = new RestrictedObjectInputStream(decompressedInput);
+		final Object result;
+		try {
+			result = in.readObject();
+		} catch (final ClassNotFoundException e) {
+			throw createIOException(e);
+		} finally {
+			in.close();
+		}
+		payloadSize = decompressedInput.getSize();
+		if (!(result instanceof List)) {
+			throw new InvalidClassException(String.valueOf(result), "Not a list of push data");
+		}
+		@SuppressWarnings("unchecked")
+		final List<Serializable> payload = (List<Serializable>) result;
+		return payload;
+	}
+
+	/**
+	 * @return Taille en octets, après décompression, des dernières données lues
+	 */
+	long getPayloadSize() {
+		return payloadSize;
+	}
+
+	static boolean isClassAllowed(String className) {
+		String name = className;
+		if (name.startsWith("[")) {
+			// tableaux : on vérifie le type des éléments
+			while (name.startsWith("[")) {
+				name = name.substring(1);
+			}
+			if (name.length() == 1) {
+				// tableau d'un type primitif
+				return true;
+			}
+			if (!name.startsWith("L") || !name.endsWith(";")) {
+				return false;
+			}
+			name = name.substring(1, name.length() - 1);
+		}
+		final int index = name.lastIndexOf('.');
+		return index > 0 && ALLOWED_PACKAGES.contains(name.substring(0, index));
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+}
@@ -20,14 +20,17 @@ package net.bull.javamelody;
 
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
+import static net.bull.javamelody.HttpParameters.FLAME_GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
@@ -48,8 +51,12 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.bull.javamelody.BinaryTransport.RequestHandler;
+import net.bull.javamelody.NodeFetchPool.NodeResultHandler;
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Collecteur de données pour une application sur un ou plusieurs serveur(s) distant() : utilisé par serveur de collecte et par IHM Swing.
@@ -63,6 +70,78 @@ class RemoteCollector {
 	private Map<JavaInformations, List<CounterRequestContext>> currentRequests;
 	private String cookies;
 	private boolean aggregationDisabled;
+	// curseurs de la collecte par différences, par url d'application monitorée
+	private final Map<String, String> cursorsByUrl = new HashMap<String, String>();
+	private long lastCollectDataLength;
+	private List<String> lastFailedNodes = Collections.emptyList();
+	// résumés des données de chaque serveur de l'application, par url d'application monitorée
+	private final Map<String, NodeSummary> nodeSummariesByUrl = new ConcurrentHashMap<String, NodeSummary>();
+	// hotspots fusionnés des serveurs, null tant qu'ils n'ont pas été affichés
+	private volatile ClusterHotspots clusterHotspots;
+
+	/**
+	 * Fusion, dans l'ordre des serveurs, des données collectées sur chaque serveur de l'application.
+	 */
+	private final class CollectDataHandler implements NodeResultHandler<List<Serializable>> {
+		final List<JavaInformations> javaInfosList = new ArrayList<JavaInformations>();
+		final Map<JavaInformations, List<CounterRequestContext>> counterRequestContextsByJavaInformations = new HashMap<JavaInformations, List<CounterRequestContext>>();
+		final StringBuilder sb = new StringBuilder();
+		final boolean countersIgnored;
+		final List<LabradorRetriever> labradorRetrievers;
+		long dataLength;
+
+		CollectDataHandler(boolean countersIgnored, List<LabradorRetriever> labradorRetrievers) {
+			super();
+			this.countersIgnored = countersIgnored;
+			this.labradorRetrievers = labradorRetrievers;
+		}
+
+		@Override
+		public void nodeFetched(int nodeIndex, List<Serializable> serialized, long nodeDataLength)
+				throws IOException {
+			dataLength += Math.max(nodeDataLength, 0);
+			final StagedResponse stagedResponse = labradorRetrievers.get(nodeIndex)
+					.getStagedResponse();
+			final List<Serializable> serializables;
+			if (stagedResponse == null) {
+				serializables = serialized;
+			} else {
+				// la réponse du noeud a été entièrement reçue et vérifiée : ses requêtes sont fusionnées
+				// au fil de la relecture et ne sont plus dans les compteurs relus
+				serializables = mergeStagedResponse(stagedResponse,
+						getNodeSummary(urls.get(nodeIndex)));
+			}
+			final List<Counter> counters = new ArrayList<Counter>();
+			final CollectCursor newCursor = dispatchSerializables(serializables, counters,
+					javaInfosList, counterRequestContextsByJavaInformations, sb);
+			if (countersIgnored) {
+				// compteurs cumulés depuis le démarrage du noeud, renvoyés par une action
+				// sans avancer le curseur : les différences seront lues à la prochaine collecte
+				if (collector == null) {
+					for (final Counter counter : counters) {
+						counter.clear();
+					}
+					collector = new Collector(application, counters);
+				}
+				return;
+			}
+			// la réponse du noeud a été entièrement lue : ses compteurs peuvent être fusionnés
+			final NodeSummary nodeSummary = getNodeSummary(urls.get(nodeIndex));
+			for (final Counter counter : counters) {
+				nodeSummary.addCounter(counter);
+			}
+			if (collector == null || aggregationDisabled) {
+				collector = new Collector(application, counters);
+			} else {
+				addRequestsAndErrors(counters);
+			}
+			// si l'application monitorée ne connaît pas la collecte par différences,
+			// elle a vidé ses compteurs comme avant et il n'y a pas de curseur
+			if (newCursor != null) {
+				cursorsByUrl.put(urls.get(nodeIndex).toString(), newCursor.getId());
+			}
+		}
+	}
 
 	/**
 	 * Constructeur.
@@ -78,7 +157,7 @@ class RemoteCollector {
 	}
 
 	String collectData() throws IOException {
-		return collectDataWithUrls(urls);
+		return collectDataWithUrls(urls, false);
 	}
 
 	String collectDataIncludingCurrentRequests() throws IOException {
@@ -87,42 +166,111 @@ class RemoteCollector {
 			urlsWithCurrentRequests.add(new URL(url.toString() + '&' + PART_PARAMETER + '='
 					+ DEFAULT_WITH_CURRENT_REQUESTS_PART));
 		}
-		return collectDataWithUrls(urlsWithCurrentRequests);
+		return collectDataWithUrls(urlsWithCurrentRequests, false);
 	}
 
-	private String collectDataWithUrls(List<URL> urlsForCollect) throws IOException {
-		final List<JavaInformations> javaInfosList = new ArrayList<JavaInformations>();
-		final Map<JavaInformations, List<CounterRequestContext>> counterRequestContextsByJavaInformations = new HashMap<JavaInformations, List<CounterRequestContext>>();
-		final StringBuilder sb = new StringBuilder();
-		for (final URL url : urlsForCollect) {
-			final List<Counter> counters = new ArrayList<Counter>();
-			final List<Serializable> serialized = collectForUrl(url);
-			dispatchSerializables(serialized, counters, javaInfosList,
-					counterRequestContextsByJavaInformations, sb);
-			if (this.collector == null || aggregationDisabled) {
-				this.collector = new Collector(application, counters);
-			} else {
-				addRequestsAndErrors(counters);
+	private String collectDataWithUrls(List<URL> urlsForCollect, boolean action)
+			throws IOException {
+		assert urlsForCollect.size() == urls.size();
+		final boolean delta = isDeltaCollectEnabled();
+		// en collecte par différences, les compteurs renvoyés par une action sont ignorés
+		final boolean countersIgnored = delta && action;
+		final List<URL> urlsWithCursors;
+		if (delta && !action) {
+			urlsWithCursors = new ArrayList<URL>(urlsForCollect.size());
+			for (int i = 0; i < urlsForCollect.size(); i++) {
+				// les urls de collecte sont dans le même ordre que les urls des applications
+				String cursor = cursorsByUrl.get(urls.get(i).toString());
+				if (cursor == null) {
+					// curseur inconnu de l'application monitorée, pour la première collecte
+					cursor = "0";
+				}
+				urlsWithCursors.add(new URL(urlsForCollect.get(i).toString() + '&'
+						+ CURSOR_PARAMETER + '=' + cursor));
 			}
+		} else {
+			urlsWithCursors = urlsForCollect;
 		}
-		this.javaInformationsList = javaInfosList;
-		this.currentRequests = counterRequestContextsByJavaInformations;
+		// si le collector existe déjà, les réponses au format binaire sont copiées dans des fichiers
+		// temporaires, puis leurs requêtes sont fusionnées dans ce collector au fil de la relecture
+		final boolean staging = collector != null && !aggregationDisabled && !countersIgnored;
+		final List<LabradorRetriever> labradorRetrievers = new ArrayList<LabradorRetriever>(
+				urlsWithCursors.size());
+		final List<String> urlsForSummaries = new ArrayList<String>(urls.size());
+		for (int i = 0; i < urlsWithCursors.size(); i++) {
+			final LabradorRetriever labradorRetriever = createLabradorRetriever(urlsWithCursors
+					.get(i));
+			labradorRetriever.setStaging(staging);
+			if (!countersIgnored) {
+				getNodeSummary(urls.get(i)).beginCollect();
+			}
+			labradorRetrievers.add(labradorRetriever);
+			urlsForSummaries.add(urls.get(i).toString());
+		}
+		// les résumés des serveurs qui ne font plus partie de l'application sont oubliés
+		nodeSummariesByUrl.keySet().retainAll(urlsForSummaries);
+		// les serveurs de l'application sont appelés en parallèle et fusionnés dans l'ordre,
+		// un serveur indisponible est ignoré pour cette collecte (sauf s'ils le sont tous)
+		final CollectDataHandler handler = new CollectDataHandler(countersIgnored,
+				labradorRetrievers);
+		try {
+			this.lastFailedNodes = NodeFetchPool.fetch(labradorRetrievers, handler);
+		} finally {
+			for (final LabradorRetriever labradorRetriever : labradorRetrievers) {
+				final StagedResponse stagedResponse = labradorRetriever.getStagedResponse();
+				if (stagedResponse != null) {
+					stagedResponse.delete();
+				}
+			}
+		}
+		if (!countersIgnored) {
+			this.lastCollectDataLength = handler.dataLength;
+		}
+		this.javaInformationsList = handler.javaInfosList;
+		this.currentRequests = handler.counterRequestContextsByJavaInformations;
 		final String messageForReport;
-		if (sb.length() == 0) {
+		if (handler.sb.length() == 0) {
 			messageForReport = null;
 		} else {
-			messageForReport = sb.toString();
+			messageForReport = handler.sb.toString();
 		}
 		return messageForReport;
 	}
 
-	private void dispatchSerializables(
+	@SuppressWarnings("unchecked")
+	private List<Serializable> mergeStagedResponse(StagedResponse stagedResponse,
+			final NodeSummary nodeSummary) throws IOException {
+		final RequestHandler requestHandler = new RequestHandler() {
+			@Override
+			public boolean requestRead(Counter counter, CounterRequest request) {
+				final Counter collectorCounter = collector.getCounterByName(counter.getName());
+				if (collectorCounter == null) {
+					// compteur inconnu du collector : la requête reste dans le compteur relu
+					return false;
+				}
+				// le résumé du noeud garde les totaux et les requêtes les plus longues de ce noeud
+				nodeSummary.addRequest(counter.getName(), request);
+				collectorCounter.addRequestHits(request);
+				return true;
+			}
+		};
+		try {
+			return (List<Serializable>) stagedResponse.merge(requestHandler);
+		} catch (final ClassNotFoundException e) {
+			final IOException ex = new IOException(e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	private CollectCursor dispatchSerializables(
 			List<Serializable> serialized,
 			List<Counter> counters,
 			List<JavaInformations> javaInfosList,
 			Map<JavaInformations, List<CounterRequestContext>> counterRequestContextsByJavaInformations,
 			StringBuilder sb) {
 		JavaInformations latestJavaInformations = null;
+		CollectCursor collectCursor = null;
 		final List<CounterRequestContext> counterRequestContextsList = new ArrayList<CounterRequestContext>();
 		for (final Serializable serializable : serialized) {
 			if (serializable instanceof Counter) {
@@ -138,12 +286,38 @@ class RemoteCollector {
 			} else if (serializable instanceof CounterRequestContext) {
 				final CounterRequestContext counterRequestContext = (CounterRequestContext) serializable;
 				counterRequestContextsList.add(counterRequestContext);
+			} else if (serializable instanceof CollectCursor) {
+				collectCursor = (CollectCursor) serializable;
 			}
 		}
 		if (!counterRequestContextsList.isEmpty()) {
 			counterRequestContextsByJavaInformations.put(latestJavaInformations,
 					counterRequestContextsList);
 		}
+		return collectCursor;
+	}
+
+	/**
+	 * Ajoute les données envoyées par les serveurs de l'application en mode push,
+	 * à la place de collectData (utilisé dans le serveur de collecte).
+	 * @param payloads Envois reçus depuis la collecte précédente, dans l'ordre de réception
+	 * @param javaInfosList Informations système des serveurs actifs
+	 */
+	void addPushedData(List<List<Serializable>> payloads, List<JavaInformations> javaInfosList) {
+		final Map<JavaInformations, List<CounterRequestContext>> counterRequestContextsByJavaInformations = new HashMap<JavaInformations, List<CounterRequestContext>>();
+		final StringBuilder sb = new StringBuilder();
+		for (final List<Serializable> payload : payloads) {
+			final List<Counter> counters = new ArrayList<Counter>();
+			// les informations système sont celles des serveurs actifs en paramètre
+			dispatchSerializables(payload, counters, new ArrayList<JavaInformations>(),
+					counterRequestContextsByJavaInformations, sb);
+			if (this.collector == null) {
+				this.collector = new Collector(application, counters);
+			} else {
+				addRequestsAndErrors(counters);
+			}
+		}
+		this.javaInformationsList = javaInfosList;
 	}
 
 	String executeActionAndCollectData(Action action, String counterName, String sessionId,
@@ -168,9 +342,19 @@ class RemoteCollector {
 			if (cacheId != null) {
 				actionUrl.append("&cacheId=").append(cacheId);
 			}
+			if (isDeltaCollectEnabled()) {
+				// curseur vide pour que l'application monitorée ne vide pas ses compteurs
+				// sans changer l'état de la collecte par différences
+				// (les compteurs cumulés qu'elle renvoie alors sont ignorés)
+				actionUrl.append('&').append(CURSOR_PARAMETER).append('=');
+			}
 			actionUrls.add(new URL(actionUrl.toString()));
 		}
-		return collectDataWithUrls(actionUrls);
+		if (action == Action.CLEAR_HOTSPOTS) {
+			// les hotspots seront récupérés à nouveau sur les serveurs au prochain affichage
+			clusterHotspots = null;
+		}
+		return collectDataWithUrls(actionUrls, true);
 	}
 
 	List<SessionInformations> collectSessionInformations(String sessionId) throws IOException {
@@ -178,72 +362,113 @@ class RemoteCollector {
 		if (sessionId == null) {
 			// récupération à la demande des sessions
 			final List<SessionInformations> sessionsInformations = new ArrayList<SessionInformations>();
-			for (final URL url : urls) {
-				final URL sessionsUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-						+ SESSIONS_PART);
-				final List<SessionInformations> sessions = collectForUrl(sessionsUrl);
-				sessionsInformations.addAll(sessions);
-			}
+			collectForUrls('&' + PART_PARAMETER + '=' + SESSIONS_PART,
+					new NodeResultHandler<List<SessionInformations>>() {
+						@Override
+						public void nodeFetched(int nodeIndex, List<SessionInformations> sessions,
+								long dataLength) {
+							sessionsInformations.addAll(sessions);
+						}
+					});
 			SessionListener.sortSessions(sessionsInformations);
 			return sessionsInformations;
 		}
-		SessionInformations found = null;
-		for (final URL url : urls) {
-			final URL sessionsUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ SESSIONS_PART + '&' + SESSION_ID_PARAMETER + '=' + sessionId);
-			final SessionInformations session = collectForUrl(sessionsUrl);
-			if (session != null) {
-				found = session;
-				break;
+		final List<SessionInformations> found = new ArrayList<SessionInformations>(1);
+		collectForUrls('&' + PART_PARAMETER + '=' + SESSIONS_PART + '&' + SESSION_ID_PARAMETER
+				+ '=' + sessionId, new NodeResultHandler<SessionInformations>() {
+			@Override
+			public void nodeFetched(int nodeIndex, SessionInformations session, long dataLength) {
+				// la session est dans le premier serveur qui la connaît
+				if (session != null && found.isEmpty()) {
+					found.add(session);
+				}
 			}
+		});
+		// si found est toujours vide, alors la session a été invalidée
+		return found;
+	}
+
+	List<SampledMethod> collectHotspots() throws IOException {
+		return getClusterHotspots().getHotspots();
+	}
+
+	List<SampledStack> collectHotspotStacks() throws IOException {
+		return getClusterHotspots().getHotspotStacks();
+	}
+
+	private ClusterHotspots getClusterHotspots() throws IOException {
+		ClusterHotspots result = clusterHotspots;
+		if (result != null) {
+			result.touch();
+		} else {
+			// premier affichage des hotspots : récupération immédiate sur les serveurs,
+			// puis mise à jour à chaque collecte et les affichages suivants utilisent ces données
+			result = new ClusterHotspots();
+			refreshClusterHotspots(result);
+			clusterHotspots = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Met à jour les hotspots fusionnés des serveurs, s'ils ont été affichés récemment.
+	 * @throws IOException e
+	 */
+	void refreshClusterHotspotsIfNeeded() throws IOException {
+		final ClusterHotspots hotspots = clusterHotspots;
+		if (hotspots == null) {
+			return;
 		}
-		if (found == null) {
-			// si found est toujours null, alors la session a été invalidée
-			return Collections.emptyList();
+		if (hotspots.isUnused()) {
+			// hotspots plus affichés depuis un moment : on arrête de les récupérer à chaque collecte,
+			// ils seront récupérés à nouveau sur les serveurs au prochain affichage
+			clusterHotspots = null;
+			return;
 		}
-		return Collections.singletonList(found);
+		refreshClusterHotspots(hotspots);
 	}
 
-	List<SampledMethod> collectHotspots() throws IOException {
-		// récupération à la demande des hotspots
-		final Map<SampledMethod, SampledMethod> map = new HashMap<SampledMethod, SampledMethod>();
-		for (final URL url : urls) {
-			final URL hotspotsUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ HOTSPOTS_PART);
-			final List<SampledMethod> hotspots = collectForUrl(hotspotsUrl);
-			if (urls.size() == 1) {
-				// s'il n'y a qu'un serveur, inutile d'aller plus loin pour fusionner les données
-				return hotspots;
-			}
-			for (final SampledMethod method : hotspots) {
-				// SampledMethod implémente hashCode et equals
-				final SampledMethod previous = map.get(method);
-				if (previous == null) {
-					map.put(method, method);
-				} else {
-					previous.setCount(previous.getCount() + method.getCount());
-				}
-			}
+	private void refreshClusterHotspots(final ClusterHotspots hotspots) throws IOException {
+		final List<URL> currentUrls = urls;
+		collectForUrls('&' + PART_PARAMETER + '=' + HOTSPOTS_PART,
+				new NodeResultHandler<List<SampledMethod>>() {
+					@Override
+					public void nodeFetched(int nodeIndex, List<SampledMethod> methods,
+							long dataLength) {
+						hotspots.updateNode(currentUrls.get(nodeIndex).toString(), methods, null);
+					}
+				});
+		collectForUrls('&' + PART_PARAMETER + '=' + FLAME_GRAPH_PART,
+				new NodeResultHandler<List<SampledStack>>() {
+					@Override
+					public void nodeFetched(int nodeIndex, List<SampledStack> stacks,
+							long dataLength) {
+						hotspots.updateNode(currentUrls.get(nodeIndex).toString(), null, stacks);
+					}
+				});
+		final List<String> nodes = new ArrayList<String>(currentUrls.size());
+		for (final URL url : currentUrls) {
+			nodes.add(url.toString());
 		}
-		final List<SampledMethod> hotspots = new ArrayList<SampledMethod>(map.values());
-		Collections.sort(hotspots);
-		return hotspots;
+		hotspots.retainNodes(nodes);
 	}
 
 	HeapHistogram collectHeapHistogram() throws IOException {
 		// récupération à la demande des HeapHistogram
-		HeapHistogram heapHistoTotal = null;
-		for (final URL url : urls) {
-			final URL heapHistoUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ HEAP_HISTO_PART);
-			final HeapHistogram heapHisto = collectForUrl(heapHistoUrl);
-			if (heapHistoTotal == null) {
-				heapHistoTotal = heapHisto;
-			} else {
-				heapHistoTotal.add(heapHisto);
-			}
-		}
-		return heapHistoTotal;
+		final List<HeapHistogram> heapHistoTotal = new ArrayList<HeapHistogram>(1);
+		collectForUrls('&' + PART_PARAMETER + '=' + HEAP_HISTO_PART,
+				new NodeResultHandler<HeapHistogram>() {
+					@Override
+					public void nodeFetched(int nodeIndex, HeapHistogram heapHisto,
+							long dataLength) {
+						if (heapHistoTotal.isEmpty()) {
+							heapHistoTotal.add(heapHisto);
+						} else {
+							heapHistoTotal.get(0).add(heapHisto);
+						}
+					}
+				});
+		return heapHistoTotal.get(0);
 	}
 
 	DatabaseInformations collectDatabaseInformations(int requestIndex) throws IOException {
@@ -253,54 +478,57 @@ class RemoteCollector {
 		return collectForUrl(databaseUrl);
 	}
 
-	@SuppressWarnings("unchecked")
 	List<List<ConnectionInformations>> collectConnectionInformations() throws IOException {
 		// récupération à la demande des connections
 		final List<List<ConnectionInformations>> connectionInformations = new ArrayList<List<ConnectionInformations>>();
-		for (final URL url : urls) {
-			final URL connectionsUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ CONNECTIONS_PART);
-			final Object result = collectForUrl(connectionsUrl);
-			if (result instanceof List && !((List<?>) result).isEmpty()
-					&& ((List<?>) result).get(0) instanceof List) {
-				// pour le serveur de collecte
-				final List<List<ConnectionInformations>> connections = (List<List<ConnectionInformations>>) result;
-				connectionInformations.addAll(connections);
-			} else {
-				final List<ConnectionInformations> connections = (List<ConnectionInformations>) result;
-				connectionInformations.add(connections);
-			}
-		}
+		collectForUrls('&' + PART_PARAMETER + '=' + CONNECTIONS_PART,
+				new NodeResultHandler<Object>() {
+					@SuppressWarnings("unchecked")
+					@Override
+					public void nodeFetched(int nodeIndex, Object result, long dataLength) {
+						if (result instanceof List && !((List<?>) result).isEmpty()
+								&& ((List<?>) result).get(0) instanceof List) {
+							// pour le serveur de collecte
+							final List<List<ConnectionInformations>> connections = (List<List<ConnectionInformations>>) result;
+							connectionInformations.addAll(connections);
+						} else {
+							final List<ConnectionInformations> connections = (List<ConnectionInformations>) result;
+							connectionInformations.add(connections);
+						}
+					}
+				});
 		return connectionInformations;
 	}
 
-	@SuppressWarnings("unchecked")
 	Map<String, List<ProcessInformations>> collectProcessInformations() throws IOException {
 		// récupération à la demande des processus
 		final String title = I18N.getString("Processus");
 		final Map<String, List<ProcessInformations>> processesByTitle = new LinkedHashMap<String, List<ProcessInformations>>();
-		for (final URL url : urls) {
-			final URL processUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ PROCESSES_PART);
-			final Object result = collectForUrl(processUrl);
-			if (result instanceof Map) {
-				// pour le serveur de collecte et pour les nodes dans Jenkins
-				final Map<String, List<ProcessInformations>> processByTitle = (Map<String, List<ProcessInformations>>) result;
-				for (final Map.Entry<String, List<ProcessInformations>> entry : processByTitle
-						.entrySet()) {
-					String node = entry.getKey();
-					if (!node.startsWith(title)) {
-						// si serveur de collecte alors il y a déjà un titre, mais pas pour les nodes Jenkins
-						node = title + " (" + entry.getKey() + ')';
+		collectForUrls('&' + PART_PARAMETER + '=' + PROCESSES_PART,
+				new NodeResultHandler<Object>() {
+					@SuppressWarnings("unchecked")
+					@Override
+					public void nodeFetched(int nodeIndex, Object result, long dataLength) {
+						if (result instanceof Map) {
+							// pour le serveur de collecte et pour les nodes dans Jenkins
+							final Map<String, List<ProcessInformations>> processByTitle = (Map<String, List<ProcessInformations>>) result;
+							for (final Map.Entry<String, List<ProcessInformations>> entry : processByTitle
+									.entrySet()) {
+								String node = entry.getKey();
+								if (!node.startsWith(title)) {
+									// si serveur de collecte alors il y a déjà un titre, mais pas pour les nodes Jenkins
+									node = title + " (" + entry.getKey() + ')';
+								}
+								final List<ProcessInformations> processList = entry.getValue();
+								processesByTitle.put(node, processList);
+							}
+						} else {
+							final List<ProcessInformations> processList = (List<ProcessInformations>) result;
+							processesByTitle.put(title + " (" + getHostAndPort(urls.get(nodeIndex))
+									+ ')', processList);
+						}
 					}
-					final List<ProcessInformations> processList = entry.getValue();
-					processesByTitle.put(node, processList);
-				}
-			} else {
-				final List<ProcessInformations> processList = (List<ProcessInformations>) result;
-				processesByTitle.put(title + " (" + getHostAndPort(url) + ')', processList);
-			}
-		}
+				});
 		return processesByTitle;
 	}
 
@@ -314,43 +542,49 @@ class RemoteCollector {
 		return collectForUrl(jndiUrl);
 	}
 
-	@SuppressWarnings("unchecked")
 	Map<String, List<MBeanNode>> collectMBeans() throws IOException {
 		// récupération à la demande des MBeans
 		final String title = I18N.getString("MBeans");
 		final Map<String, List<MBeanNode>> mbeansByTitle = new LinkedHashMap<String, List<MBeanNode>>();
-		for (final URL url : urls) {
-			final URL mbeansUrl = new URL(url.toString() + '&' + PART_PARAMETER + '=' + MBEANS_PART);
-			final Object result = collectForUrl(mbeansUrl);
-			if (result instanceof Map) {
-				// pour le serveur de collecte et les nodes dans Jenkins
-				final Map<String, List<MBeanNode>> mbeansByNodeName = (Map<String, List<MBeanNode>>) result;
-				for (final Map.Entry<String, List<MBeanNode>> entry : mbeansByNodeName.entrySet()) {
-					String node = entry.getKey();
-					if (!node.startsWith(title)) {
-						// si serveur de collecte alors il y a déjà un titre, mais pas pour les nodes Jenkins
-						node = title + " (" + entry.getKey() + ')';
+		collectForUrls('&' + PART_PARAMETER + '=' + MBEANS_PART, new NodeResultHandler<Object>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void nodeFetched(int nodeIndex, Object result, long dataLength) {
+				if (result instanceof Map) {
+					// pour le serveur de collecte et les nodes dans Jenkins
+					final Map<String, List<MBeanNode>> mbeansByNodeName = (Map<String, List<MBeanNode>>) result;
+					for (final Map.Entry<String, List<MBeanNode>> entry : mbeansByNodeName
+							.entrySet()) {
+						String node = entry.getKey();
+						if (!node.startsWith(title)) {
+							// si serveur de collecte alors il y a déjà un titre, mais pas pour les nodes Jenkins
+							node = title + " (" + entry.getKey() + ')';
+						}
+						final List<MBeanNode> mbeans = entry.getValue();
+						mbeansByTitle.put(node, mbeans);
 					}
-					final List<MBeanNode> mbeans = entry.getValue();
-					mbeansByTitle.put(node, mbeans);
+				} else {
+					final List<MBeanNode> mbeans = (List<MBeanNode>) result;
+					mbeansByTitle.put(title + " (" + getHostAndPort(urls.get(nodeIndex)) + ')',
+							mbeans);
 				}
-			} else {
-				final List<MBeanNode> mbeans = (List<MBeanNode>) result;
-				mbeansByTitle.put(title + " (" + getHostAndPort(url) + ')', mbeans);
 			}
-		}
+		});
 		return mbeansByTitle;
 	}
 
 	Map<JavaInformations, List<CounterRequestContext>> collectCurrentRequests() throws IOException {
 		// récupération à la demande des requêtes en cours
 		final Map<JavaInformations, List<CounterRequestContext>> requests = new LinkedHashMap<JavaInformations, List<CounterRequestContext>>();
-		for (final URL url : urls) {
-			final URL currentRequestsUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
-					+ CURRENT_REQUESTS_PART);
-			final Map<JavaInformations, List<CounterRequestContext>> result = collectForUrl(currentRequestsUrl);
-			requests.putAll(result);
-		}
+		collectForUrls('&' + PART_PARAMETER + '=' + CURRENT_REQUESTS_PART,
+				new NodeResultHandler<Map<JavaInformations, List<CounterRequestContext>>>() {
+					@Override
+					public void nodeFetched(int nodeIndex,
+							Map<JavaInformations, List<CounterRequestContext>> result,
+							long dataLength) {
+						requests.putAll(result);
+					}
+				});
 		return requests;
 	}
 
@@ -387,6 +621,15 @@ class RemoteCollector {
 		return collectForUrl(jrobinUrl);
 	}
 
+	Map<String, JRobinTimeSeries> collectJRobinsTimeSeries(String graphNames) throws IOException {
+		final URL url = urls.get(0);
+		final String graphParameter = graphNames == null ? "" : '&' + GRAPH_PARAMETER + '='
+				+ graphNames;
+		final URL jrobinsDataUrl = new URL(url.toString() + graphParameter + '&'
+				+ PART_PARAMETER + '=' + JROBINS_DATA_PART);
+		return collectForUrl(jrobinsDataUrl);
+	}
+
 	String collectSqlRequestExplainPlan(String sqlRequest) throws IOException {
 		final URL url = urls.get(0);
 		final URL explainPlanUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
@@ -410,14 +653,29 @@ class RemoteCollector {
 	}
 
 	private <T> T collectForUrl(URL url) throws IOException {
-		final LabradorRetriever labradorRetriever;
+		return createLabradorRetriever(url).<T> call();
+	}
+
+	private <T> void collectForUrls(String urlSuffix, NodeResultHandler<T> handler)
+			throws IOException {
+		final List<LabradorRetriever> labradorRetrievers = new ArrayList<LabradorRetriever>(
+				urls.size());
+		for (final URL url : urls) {
+			labradorRetrievers.add(createLabradorRetriever(new URL(url.toString() + urlSuffix)));
+		}
+		// récupération en parallèle, les serveurs indisponibles sont ignorés sauf s'ils le sont tous
+		NodeFetchPool.fetch(labradorRetrievers, handler);
+	}
+
+	private LabradorRetriever createLabradorRetriever(URL url) {
+		return new LabradorRetriever(url, getHeaders());
+	}
+
+	private Map<String, String> getHeaders() {
 		if (cookies != null) {
-			final Map<String, String> headers = Collections.singletonMap("Cookie", cookies);
-			labradorRetriever = new LabradorRetriever(url, headers);
-		} else {
-			labradorRetriever = new LabradorRetriever(url);
+			return Collections.singletonMap("Cookie", cookies);
 		}
-		return labradorRetriever.call();
+		return null;
 	}
 
 	static String getHostAndPort(URL url) {
@@ -448,6 +706,55 @@ class RemoteCollector {
 		return currentRequests;
 	}
 
+	/**
+	 * @return Nombre d'octets lus lors de la dernière collecte des données
+	 */
+	long getLastCollectDataLength() {
+		return lastCollectDataLength;
+	}
+
+	/**
+	 * @return Serveurs de l'application en erreur lors de la dernière collecte des données,
+	 * avec la cause (vide si aucun)
+	 */
+	List<String> getLastFailedNodes() {
+		return lastFailedNodes;
+	}
+
+	private NodeSummary getNodeSummary(URL url) {
+		final String key = url.toString();
+		NodeSummary nodeSummary = nodeSummariesByUrl.get(key);
+		if (nodeSummary == null) {
+			nodeSummary = new NodeSummary(getHostAndPort(url));
+			nodeSummariesByUrl.put(key, nodeSummary);
+		}
+		return nodeSummary;
+	}
+
+	/**
+	 * @return Résumés des données de chaque serveur de l'application, dans l'ordre des urls
+	 * (vide en mode push, où les données reçues ne sont pas séparées par serveur)
+	 */
+	List<NodeSummary> getNodeSummaries() {
+		final List<NodeSummary> result = new ArrayList<NodeSummary>(urls.size());
+		for (final URL url : urls) {
+			final NodeSummary nodeSummary = nodeSummariesByUrl.get(url.toString());
+			if (nodeSummary != null) {
+				result.add(nodeSummary);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return true si la collecte se fait par différences avec un curseur, sans vider les compteurs
+	 * des applications monitorées (sauf dans l'ihm Swing ou si désactivé par paramètre)
+	 */
+	boolean isDeltaCollectEnabled() {
+		return !aggregationDisabled
+				&& !Boolean.parseBoolean(Parameters.getParameter(Parameter.DELTA_COLLECT_DISABLED));
+	}
+
 	// cette méthode est utilisée dans l'ihm Swing
 	void setURLs(List<URL> newURLs) {
 		assert urls != null;
@@ -0,0 +1,810 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jrobin.data.Plottable;
+
+/**
+ * Stockage consolidé des temps moyens par requête d'un compteur : un seul fichier par compteur et par jour,
+ * au lieu d'un fichier rrd par requête.
+ * <br/>Le fichier du jour est en colonnes et en ajout seul : à chaque collecte, une seule écriture séquentielle
+ * ajoute une colonne contenant les valeurs de toutes les requêtes ayant eu des hits dans la période,
+ * précédée des entrées du dictionnaire (identifiant de requête, index) pour les nouvelles requêtes du jour.
+ * <br/>Les fichiers des jours passés sont ensuite consolidés une fois par jour (par intervalles d'une heure,
+ * de 6 heures puis d'un jour selon leur ancienneté, comme les archives des fichiers rrd) et indexés par requête :
+ * la lecture des valeurs d'une requête ne lit alors que l'index du fichier et le bloc de cette requête.
+ * Les fichiers sont conservés 2 ans, comme les fichiers rrd.
+ * @author Emeric Vernat
+ */
+final class RequestSeriesStorage {
+	static final String FILE_EXTENSION = ".series";
+	private static final String DAY_PATTERN = "yyyyMMdd";
+	private static final byte[] MAGIC = { 'J', 'M', 'R', 'S' };
+	private static final int VERSION = 1;
+	private static final byte DICTIONARY_RECORD = 1;
+	private static final byte COLUMN_RECORD = 2;
+	// import par index de dictionnaire, qui n'est plus écrit mais qui est encore relu
+	private static final byte SERIES_RECORD = 3;
+	private static final byte NAMED_SERIES_RECORD = 4;
+	private static final byte CHUNK_RECORD = 5;
+	private static final int HEADER_LENGTH = MAGIC.length + 4;
+	private static final int CHUNK_HEADER_LENGTH = 1 + 4 * 4;
+	private static final int CHUNK_VALUE_LENGTH = 3 * 4;
+	private static final int HOUR = 60 * 60;
+	private static final int DAY = 24 * HOUR;
+	// les imports et les consolidations réécrivent les fichiers des jours passés
+	private static final Object PAST_FILES_LOCK = new Object();
+
+	private final String application;
+	private final String counterName;
+	private final int step;
+	// dictionnaire du fichier du jour courant
+	private final Map<String, Integer> indexesById = new HashMap<String, Integer>();
+	private final Map<String, Float> pendingValuesById = new LinkedHashMap<String, Float>();
+	private final Map<String, Double> lastValuesById = new ConcurrentHashMap<String, Double>();
+	private File currentFile;
+
+	/**
+	 * Réception des valeurs lues dans un fichier.
+	 */
+	private interface ValueHandler {
+		void value(String requestId, long time, float average, float maximum);
+	}
+
+	/**
+	 * Flux comptant les octets lus, pour connaître la fin du dernier enregistrement complet d'un fichier.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int result = super.read();
+			if (result != -1) {
+				count++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int result = super.read(b, off, len);
+			if (result > 0) {
+				count += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long result = super.skip(n);
+			count += result;
+			return result;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/**
+	 * Série de valeurs d'une requête, triée par date.
+	 */
+	static final class Series {
+		private final long[] times;
+		private final double[] values;
+		private final double[] maxValues;
+
+		Series(long[] times, double[] values, double[] maxValues) {
+			super();
+			assert times.length == values.length;
+			assert times.length == maxValues.length;
+			this.times = times;
+			this.values = values;
+			this.maxValues = maxValues;
+		}
+
+		int size() {
+			return times.length;
+		}
+
+		long[] getTimes() {
+			return times;
+		}
+
+		double[] getValues() {
+			return values;
+		}
+
+		/**
+		 * Consolide la série en intervalles, comme les archives AVERAGE et MAX des fichiers rrd.
+		 * @param bucketSeconds Durée des intervalles en secondes
+		 * @param max true pour le maximum, false pour la moyenne
+		 * @return Plottable pour RrdGraphDef
+		 */
+		Plottable toPlottable(final long bucketSeconds, boolean max) {
+			final List<Long> bucketTimes = new ArrayList<Long>();
+			final List<Double> bucketValues = new ArrayList<Double>();
+			int i = 0;
+			while (i < times.length) {
+				final long bucket = times[i] / bucketSeconds;
+				double sum = 0;
+				double maximum = Double.NEGATIVE_INFINITY;
+				int count = 0;
+				while (i < times.length && times[i] / bucketSeconds == bucket) {
+					sum += values[i];
+					maximum = Math.max(maximum, maxValues[i]);
+					count++;
+					i++;
+				}
+				bucketTimes.add(bucket);
+				bucketValues.add(max ? maximum : sum / count);
+			}
+			final long[] buckets = new long[bucketTimes.size()];
+			final double[] consolidatedValues = new double[buckets.length];
+			for (int j = 0; j < buckets.length; j++) {
+				buckets[j] = bucketTimes.get(j);
+				consolidatedValues[j] = bucketValues.get(j);
+			}
+			return new Plottable() {
+				@Override
+				public double getValue(long timestamp) {
+					final int index = Arrays.binarySearch(buckets, timestamp / bucketSeconds);
+					if (index < 0) {
+						// pas de hits dans cet intervalle: valeur inconnue comme dans un fichier rrd
+						return Double.NaN;
+					}
+					return consolidatedValues[index];
+				}
+			};
+		}
+	}
+
+	RequestSeriesStorage(String application, String counterName, int step) {
+		super();
+		assert application != null;
+		assert counterName != null;
+		assert step > 0;
+		this.application = application;
+		this.counterName = counterName;
+		this.step = step;
+	}
+
+	String getCounterName() {
+		return counterName;
+	}
+
+	int getStep() {
+		return step;
+	}
+
+	/**
+	 * Ajoute la valeur d'une requête pour la période courante, en mémoire jusqu'au prochain {@link #flush()}.
+	 * @param requestId Identifiant de la requête
+	 * @param value Temps moyen
+	 */
+	synchronized void addValue(String requestId, double value) {
+		pendingValuesById.put(requestId, (float) value);
+		lastValuesById.put(requestId, value);
+	}
+
+	double getLastValue(String requestId) {
+		final Double value = lastValuesById.get(requestId);
+		if (value == null) {
+			return Double.NaN;
+		}
+		return value;
+	}
+
+	void removeRequest(String requestId) {
+		// les données déjà écrites seront supprimées avec les fichiers obsolètes
+		lastValuesById.remove(requestId);
+	}
+
+	/**
+	 * Écrit en une seule écriture séquentielle les valeurs de la période courante.
+	 * @throws IOException e
+	 */
+	synchronized void flush() throws IOException {
+		if (pendingValuesById.isEmpty()) {
+			return;
+		}
+		final long time = System.currentTimeMillis() / 1000;
+		final File file = getFile(time);
+		if (!file.equals(currentFile) || !file.exists()) {
+			// nouveau jour ou redémarrage: on relit le dictionnaire du fichier s'il existe déjà
+			indexesById.clear();
+			if (file.exists()) {
+				final long length = readFile(file, null, indexesById, null);
+				if (length < file.length()) {
+					// dernier enregistrement incomplet (arrêt brutal par exemple) : on le supprime,
+					// sinon les enregistrements suivants seraient ajoutés après et illisibles
+					truncate(file, length);
+				}
+			}
+			currentFile = file;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(bytes);
+		if (!file.exists() || file.length() == 0) {
+			writeHeader(output);
+		}
+		final int[] indexes = new int[pendingValuesById.size()];
+		final float[] values = new float[indexes.length];
+		int i = 0;
+		for (final Map.Entry<String, Float> entry : pendingValuesById.entrySet()) {
+			indexes[i] = getIndex(output, entry.getKey());
+			values[i] = entry.getValue();
+			i++;
+		}
+		output.writeByte(COLUMN_RECORD);
+		output.writeInt((int) time);
+		output.writeInt(indexes.length);
+		for (int j = 0; j < indexes.length; j++) {
+			output.writeInt(indexes[j]);
+			output.writeFloat(values[j]);
+		}
+		output.close();
+		try {
+			append(file, bytes.toByteArray(), time * 1000);
+		} catch (final IOException e) {
+			// écriture peut-être partielle : le fichier sera relu et tronqué à la prochaine écriture
+			currentFile = null;
+			throw e;
+		}
+		pendingValuesById.clear();
+	}
+
+	/**
+	 * Importe une série de valeurs pour une requête (migration d'un fichier rrd par exemple).
+	 * @param requestId Identifiant de la requête
+	 * @param times Dates en secondes
+	 * @param values Valeurs (les valeurs NaN sont ignorées)
+	 * @throws IOException e
+	 */
+	synchronized void importSeries(String requestId, long[] times, double[] values)
+			throws IOException {
+		// regroupement par jour, pour écrire un seul enregistrement par fichier
+		final Map<File, List<Integer>> positionsByFile = new LinkedHashMap<File, List<Integer>>();
+		for (int i = 0; i < times.length; i++) {
+			if (!Double.isNaN(values[i])) {
+				final File file = getFile(times[i]);
+				List<Integer> positions = positionsByFile.get(file);
+				if (positions == null) {
+					positions = new ArrayList<Integer>();
+					positionsByFile.put(file, positions);
+				}
+				positions.add(i);
+			}
+		}
+		synchronized (PAST_FILES_LOCK) {
+			for (final Map.Entry<File, List<Integer>> entry : positionsByFile.entrySet()) {
+				final File file = entry.getKey();
+				final List<Integer> positions = entry.getValue();
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final DataOutputStream output = new DataOutputStream(bytes);
+				if (!file.exists() || file.length() == 0) {
+					writeHeader(output);
+				}
+				// l'enregistrement contient l'identifiant de la requête: pas de dictionnaire à relire
+				// et il peut être ajouté à la fin d'un fichier déjà consolidé (qui le sera de nouveau)
+				output.writeByte(NAMED_SERIES_RECORD);
+				output.writeUTF(requestId);
+				output.writeInt(positions.size());
+				long lastTime = 0;
+				for (final int position : positions) {
+					output.writeInt((int) times[position]);
+					output.writeFloat((float) values[position]);
+					lastTime = Math.max(lastTime, times[position]);
+				}
+				output.close();
+				// la date de dernière mise à jour est celle des données, pour la purge des fichiers obsolètes
+				append(file, bytes.toByteArray(), lastTime * 1000);
+			}
+		}
+	}
+
+	/**
+	 * Relit les valeurs d'une requête entre deux dates.
+	 * <br/>Cette méthode n'est pas synchronisée avec {@link #flush()} : le fichier du jour n'est modifié
+	 * que par ajout et les fichiers consolidés sont remplacés en entier, donc le rendu des graphiques
+	 * ne bloque pas les collectes.
+	 * @param requestId Identifiant de la requête
+	 * @param startTime Date de début en secondes
+	 * @param endTime Date de fin en secondes
+	 * @return Series
+	 * @throws IOException e
+	 */
+	Series getSeries(String requestId, final long startTime, final long endTime)
+			throws IOException {
+		final SortedMap<Long, float[]> valuesByTime = new TreeMap<Long, float[]>();
+		final ValueHandler handler = new ValueHandler() {
+			public void value(String id, long time, float average, float maximum) {
+				if (time >= startTime && time <= endTime) {
+					valuesByTime.put(time, new float[] { average, maximum });
+				}
+			}
+		};
+		// un fichier par jour entre startTime et endTime
+		final Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(getDayStart(startTime * 1000));
+		while (calendar.getTimeInMillis() <= endTime * 1000) {
+			final File file = getFile(calendar.getTimeInMillis() / 1000);
+			if (file.exists()) {
+				try {
+					readFile(file, requestId, null, handler);
+				} catch (final FileNotFoundException e) {
+					// fichier supprimé entre-temps (purge des fichiers obsolètes)
+					LOG.debug("request series file deleted: " + file.getPath());
+				}
+			}
+			calendar.add(Calendar.DAY_OF_YEAR, 1);
+		}
+		final long[] times = new long[valuesByTime.size()];
+		final double[] values = new double[times.length];
+		final double[] maxValues = new double[times.length];
+		int i = 0;
+		for (final Map.Entry<Long, float[]> entry : valuesByTime.entrySet()) {
+			times[i] = entry.getKey();
+			values[i] = entry.getValue()[0];
+			maxValues[i] = entry.getValue()[1];
+			i++;
+		}
+		return new Series(times, values, maxValues);
+	}
+
+	/**
+	 * Retourne la durée des intervalles de consolidation pour une durée de graphique,
+	 * selon les mêmes archives que celles des fichiers rrd.
+	 * @param durationSeconds Durée du graphique en secondes
+	 * @return Durée des intervalles en secondes
+	 */
+	long getBucketSeconds(long durationSeconds) {
+		if (durationSeconds <= DAY) {
+			return step;
+		} else if (durationSeconds <= 7 * DAY) {
+			return Math.max(step, HOUR);
+		} else if (durationSeconds <= 31 * DAY) {
+			return Math.max(step, 6 * HOUR);
+		}
+		return Math.max(step, 8 * 6 * HOUR);
+	}
+
+	private int getIndex(DataOutputStream output, String requestId) throws IOException {
+		Integer index = indexesById.get(requestId);
+		if (index == null) {
+			index = indexesById.size();
+			indexesById.put(requestId, index);
+			writeDictionaryEntry(output, index, requestId);
+		}
+		return index;
+	}
+
+	private static void writeHeader(DataOutputStream output) throws IOException {
+		output.write(MAGIC);
+		output.writeInt(VERSION);
+	}
+
+	private static void writeDictionaryEntry(DataOutputStream output, int index, String requestId)
+			throws IOException {
+		output.writeByte(DICTIONARY_RECORD);
+		output.writeInt(index);
+		output.writeUTF(requestId);
+	}
+
+	/**
+	 * Lit un fichier, pour relire son dictionnaire (si dictionary n'est pas null)
+	 * et les valeurs d'une requête ou de toutes les requêtes si requestId est null (si handler n'est pas null).
+	 * @return Longueur du fichier jusqu'à la fin du dernier enregistrement complet
+	 */
+	private static long readFile(File file, String requestId, Map<String, Integer> dictionary,
+			ValueHandler handler) throws IOException {
+		final CountingInputStream counting = new CountingInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		final DataInputStream input = new DataInputStream(counting);
+		long length = 0;
+		try {
+			readHeader(input, file);
+			final Map<Integer, String> idsByIndex = new HashMap<Integer, String>();
+			while (true) {
+				length = counting.getCount();
+				final int type = input.read();
+				if (type == -1) {
+					break;
+				}
+				if (type == DICTIONARY_RECORD) {
+					final int index = input.readInt();
+					final String id = input.readUTF();
+					idsByIndex.put(index, id);
+					if (dictionary != null) {
+						dictionary.put(id, index);
+					}
+				} else if (type == COLUMN_RECORD) {
+					final long time = input.readInt() & 0xFFFFFFFFL;
+					final int count = input.readInt();
+					for (int i = 0; i < count; i++) {
+						final String id = idsByIndex.get(input.readInt());
+						final float value = input.readFloat();
+						handleValue(handler, requestId, id, time, value);
+					}
+				} else if (type == SERIES_RECORD || type == NAMED_SERIES_RECORD) {
+					final String id;
+					if (type == SERIES_RECORD) {
+						id = idsByIndex.get(input.readInt());
+					} else {
+						id = input.readUTF();
+					}
+					final int count = input.readInt();
+					for (int i = 0; i < count; i++) {
+						final long time = input.readInt() & 0xFFFFFFFFL;
+						final float value = input.readFloat();
+						handleValue(handler, requestId, id, time, value);
+					}
+				} else if (type == CHUNK_RECORD) {
+					readChunk(input, requestId, handler);
+				} else {
+					throw new IOException("Invalid request series file: " + file.getPath());
+				}
+			}
+		} catch (final EOFException e) {
+			// dernière écriture interrompue (arrêt brutal par exemple): on garde ce qui a été lu
+			LOG.debug("truncated request series file: " + file.getPath());
+			return length;
+		} finally {
+			input.close();
+		}
+		return length;
+	}
+
+	private static void handleValue(ValueHandler handler, String requestId, String id, long time,
+			float value) {
+		if (handler != null && id != null && (requestId == null || requestId.equals(id))) {
+			handler.value(id, time, value, value);
+		}
+	}
+
+	private static void readChunk(DataInputStream input, String requestId, ValueHandler handler)
+			throws IOException {
+		// durée des intervalles
+		input.readInt();
+		final int entryCount = input.readInt();
+		final int indexLength = input.readInt();
+		final int dataLength = input.readInt();
+		if (handler == null) {
+			skipFully(input, indexLength + dataLength);
+			return;
+		}
+		final String[] ids = new String[entryCount];
+		final int[] offsets = new int[entryCount];
+		final int[] counts = new int[entryCount];
+		for (int i = 0; i < entryCount; i++) {
+			ids[i] = input.readUTF();
+			offsets[i] = input.readInt();
+			counts[i] = input.readInt();
+		}
+		// les blocs des requêtes sont dans l'ordre de l'index: on ne lit que ceux demandés
+		int position = 0;
+		for (int i = 0; i < entryCount; i++) {
+			if (requestId == null || requestId.equals(ids[i])) {
+				skipFully(input, offsets[i] - position);
+				for (int j = 0; j < counts[i]; j++) {
+					final long time = input.readInt() & 0xFFFFFFFFL;
+					final float average = input.readFloat();
+					final float maximum = input.readFloat();
+					handler.value(ids[i], time, average, maximum);
+				}
+				position = offsets[i] + counts[i] * CHUNK_VALUE_LENGTH;
+			}
+		}
+		// enregistrements éventuellement ajoutés après la consolidation (imports)
+		skipFully(input, dataLength - position);
+	}
+
+	private static void readHeader(DataInputStream input, File file) throws IOException {
+		final byte[] magic = new byte[MAGIC.length];
+		input.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC) || input.readInt() != VERSION) {
+			throw new IOException("Invalid request series file: " + file.getPath());
+		}
+	}
+
+	private static void skipFully(DataInputStream input, int length) throws IOException {
+		int remaining = length;
+		while (remaining > 0) {
+			final int skipped = input.skipBytes(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining -= skipped;
+		}
+	}
+
+	private void append(File file, byte[] bytes, long lastUpdate) throws IOException {
+		final File directory = file.getParentFile();
+		if (!directory.mkdirs() && !directory.exists()) {
+			throw new IOException("JavaMelody directory can't be created: " + directory.getPath());
+		}
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		StorageManifest.getInstance(application).fileUpdated(file, lastUpdate, -1);
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		LOG.debug("incomplete record removed from request series file: " + file.getPath());
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(length);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private File getFile(long timeSeconds) {
+		final DateFormat dateFormat = new SimpleDateFormat(DAY_PATTERN, Locale.US);
+		final String day = dateFormat.format(new Date(timeSeconds * 1000));
+		return new File(Parameters.getStorageDirectory(application), counterName + "Requests_"
+				+ day + FILE_EXTENSION);
+	}
+
+	private static long getDayStart(long timeMillis) {
+		final Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timeMillis);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	private static long getDayStart(File file) {
+		final String fileName = file.getName();
+		final int dayIndex = fileName.length() - FILE_EXTENSION.length() - DAY_PATTERN.length();
+		if (dayIndex < 0) {
+			return -1;
+		}
+		try {
+			return new SimpleDateFormat(DAY_PATTERN, Locale.US).parse(
+					fileName.substring(dayIndex, dayIndex + DAY_PATTERN.length())).getTime();
+		} catch (final ParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Retourne la durée des intervalles de consolidation d'un fichier selon son ancienneté,
+	 * pour garder la résolution nécessaire aux graphiques qui l'utilisent (cf getBucketSeconds).
+	 * @param ageInDays Ancienneté du fichier en jours
+	 * @return Durée des intervalles en secondes, ou 0 si le fichier ne doit pas encore être consolidé
+	 */
+	static int getCompactionBucketSeconds(long ageInDays) {
+		if (ageInDays < 2) {
+			// le graphique du jour utilise les valeurs de chaque collecte du jour et de la veille
+			return 0;
+		} else if (ageInDays < 8) {
+			return HOUR;
+		} else if (ageInDays < 32) {
+			return 6 * HOUR;
+		}
+		return DAY;
+	}
+
+	/**
+	 * Retourne la durée des intervalles d'un fichier consolidé, ou 0 si le fichier n'est pas consolidé
+	 * ou si des enregistrements y ont été ajoutés depuis la consolidation.
+	 */
+	private static int getCompactedBucketSeconds(File file) throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			readHeader(input, file);
+			if (input.read() != CHUNK_RECORD) {
+				return 0;
+			}
+			final int bucketSeconds = input.readInt();
+			// nombre de requêtes
+			input.readInt();
+			final long chunkLength = CHUNK_HEADER_LENGTH + (long) input.readInt()
+					+ input.readInt();
+			if (HEADER_LENGTH + chunkLength != file.length()) {
+				return 0;
+			}
+			return bucketSeconds;
+		} catch (final EOFException e) {
+			return 0;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Consolide un fichier d'un jour passé en intervalles (moyenne et maximum de chaque intervalle)
+	 * et l'indexe par requête. Le fichier est remplacé en entier par un renommage,
+	 * pour que les lectures concurrentes voient l'ancien fichier ou le nouveau.
+	 * @param file Fichier
+	 * @param bucketSeconds Durée des intervalles en secondes
+	 * @throws IOException e
+	 */
+	static void compactFile(File file, final int bucketSeconds) throws IOException {
+		assert bucketSeconds > 0;
+		synchronized (PAST_FILES_LOCK) {
+			final Map<String, SortedMap<Long, double[]>> bucketsById =
+					new LinkedHashMap<String, SortedMap<Long, double[]>>();
+			readFile(file, null, null, new ValueHandler() {
+				public void value(String requestId, long time, float average, float maximum) {
+					SortedMap<Long, double[]> buckets = bucketsById.get(requestId);
+					if (buckets == null) {
+						buckets = new TreeMap<Long, double[]>();
+						bucketsById.put(requestId, buckets);
+					}
+					final long bucket = time - time % bucketSeconds;
+					// somme des moyennes, nombre et maximum
+					double[] bucketValues = buckets.get(bucket);
+					if (bucketValues == null) {
+						bucketValues = new double[] { 0, 0, Double.NEGATIVE_INFINITY };
+						buckets.put(bucket, bucketValues);
+					}
+					bucketValues[0] += average;
+					bucketValues[1]++;
+					bucketValues[2] = Math.max(bucketValues[2], maximum);
+				}
+			});
+			final File tmpFile = new File(file.getPath() + ".tmp");
+			writeChunk(tmpFile, bucketSeconds, bucketsById);
+			if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+				if (!tmpFile.delete()) {
+					tmpFile.deleteOnExit();
+				}
+				throw new IOException("Request series file can't be replaced: " + file.getPath());
+			}
+		}
+	}
+
+	private static void writeChunk(File file, int bucketSeconds,
+			Map<String, SortedMap<Long, double[]>> bucketsById) throws IOException {
+		final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		final DataOutputStream indexOutput = new DataOutputStream(index);
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		final DataOutputStream dataOutput = new DataOutputStream(data);
+		for (final Map.Entry<String, SortedMap<Long, double[]>> entry : bucketsById.entrySet()) {
+			indexOutput.writeUTF(entry.getKey());
+			indexOutput.writeInt(data.size());
+			indexOutput.writeInt(entry.getValue().size());
+			for (final Map.Entry<Long, double[]> bucket : entry.getValue().entrySet()) {
+				final double[] bucketValues = bucket.getValue();
+				dataOutput.writeInt(bucket.getKey().intValue());
+				dataOutput.writeFloat((float) (bucketValues[0] / bucketValues[1]));
+				dataOutput.writeFloat((float) bucketValues[2]);
+			}
+		}
+		indexOutput.close();
+		dataOutput.close();
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			writeHeader(output);
+			output.writeByte(CHUNK_RECORD);
+			output.writeInt(bucketSeconds);
+			output.writeInt(bucketsById.size());
+			output.writeInt(index.size());
+			output.writeInt(data.size());
+			index.writeTo(output);
+			data.writeTo(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	static long deleteObsoleteFiles(String application) {
+		// même durée de conservation que les archives des fichiers rrd des requêtes (2 ans)
+		final Calendar nowMinusTwoYearsAndADay = Calendar.getInstance();
+		nowMinusTwoYearsAndADay.add(Calendar.YEAR, -2);
+		nowMinusTwoYearsAndADay.add(Calendar.DAY_OF_YEAR, -1);
+		final long todayStart = getDayStart(System.currentTimeMillis());
+		final StorageManifest storageManifest = StorageManifest.getInstance(application);
+		final File storageDir = Parameters.getStorageDirectory(application);
+		long diskUsage = 0;
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.SERIES)) {
+			final File file = new File(storageDir, entry.getName());
+			boolean deleted = false;
+			if (entry.getLastUpdate() < nowMinusTwoYearsAndADay.getTimeInMillis()) {
+				deleted = file.delete() || !file.exists();
+				if (deleted) {
+					storageManifest.fileDeleted(file);
+				}
+			} else {
+				compactFileIfNeeded(file, entry.getLastUpdate(), todayStart, storageManifest);
+			}
+			if (!deleted) {
+				diskUsage += entry.getSize();
+			}
+		}
+		return diskUsage;
+	}
+
+	private static void compactFileIfNeeded(File file, long lastUpdate, long todayStart,
+			StorageManifest storageManifest) {
+		final long dayStart = getDayStart(file);
+		if (dayStart < 0 || !file.exists()) {
+			return;
+		}
+		// (+ 1 heure pour les changements d'heure)
+		final long ageInDays = (todayStart - dayStart + HOUR * 1000L) / (DAY * 1000L);
+		final int bucketSeconds = getCompactionBucketSeconds(ageInDays);
+		try {
+			if (bucketSeconds != 0 && getCompactedBucketSeconds(file) < bucketSeconds) {
+				compactFile(file, bucketSeconds);
+				storageManifest.fileUpdated(file, lastUpdate, -1);
+			}
+		} catch (final IOException e) {
+			// le fichier reste lisible tel quel, il sera consolidé une autre fois
+			LOG.info("A request series file could not be compacted: " + file.getPath(), e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[application=" + application + ", counterName="
+				+ counterName + ']';
+	}
+}
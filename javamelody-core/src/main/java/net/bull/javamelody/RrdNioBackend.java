@@ -29,7 +29,6 @@ import java.io.IOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Timer;
-import java.util.TimerTask;
 
 import org.jrobin.core.RrdFileBackend;
 
@@ -43,12 +42,8 @@ public class RrdNioBackend extends RrdFileBackend {
 	private static Timer fileSyncTimer;
 
 	private MappedByteBuffer byteBuffer;
-	private final TimerTask syncTask = new TimerTask() {
-		@Override
-		public void run() {
-			sync();
-		}
-	};
+	private final boolean readOnly;
+	private boolean dirty;
 
 	/**
 	 * Creates RrdFileBackend object for the given file path, backed by java.nio.* classes.
@@ -56,15 +51,14 @@ public class RrdNioBackend extends RrdFileBackend {
 	 * @param path	   Path to a file
 	 * @param readOnly   True, if file should be open in a read-only mode. False otherwise
 	 * @param syncPeriod See {@link RrdNioBackendFactory#setSyncPeriod(int)} for explanation
+	 * (modified files are synchronized by a single scheduler for all files)
 	 * @throws IOException Thrown in case of I/O error
 	 */
 	protected RrdNioBackend(String path, boolean readOnly, int syncPeriod) throws IOException {
 		super(path, readOnly);
+		this.readOnly = readOnly;
 		try {
 			mapFile();
-			if (!readOnly) {
-				fileSyncTimer.schedule(syncTask, syncPeriod * 1000L, syncPeriod * 1000L);
-			}
 		} catch (final IOException ioe) {
 			super.close();
 			throw ioe;
@@ -79,11 +73,12 @@ public class RrdNioBackend extends RrdFileBackend {
 	}
 
 	/**
-	 * Sets the timer.
+	 * Sets the timer, and starts the synchronization of modified files in a dedicated thread.
 	 * @param timer timer to synchronize files.
 	 */
 	public static void setFileSyncTimer(Timer timer) {
 		fileSyncTimer = timer;
+		RrdNioSyncScheduler.getInstance().start();
 	}
 
 	private void mapFile() throws IOException {
@@ -130,6 +125,11 @@ public class RrdNioBackend extends RrdFileBackend {
 		if (byteBuffer != null) {
 			byteBuffer.position((int) offset);
 			byteBuffer.put(b);
+			if (!dirty && !readOnly) {
+				dirty = true;
+				// the file will be synchronized later by the scheduler, with other modified files
+				RrdNioSyncScheduler.getInstance().markDirty(this);
+			}
 		} else {
 			throw new IOException("Write failed, file " + getPath() + " not mapped for I/O");
 		}
@@ -158,12 +158,12 @@ public class RrdNioBackend extends RrdFileBackend {
 	 */
 	@Override
 	public synchronized void close() throws IOException {
-		// cancel synchronization
+		// no synchronization here: if the file was modified, the scheduler will synchronize it later
 		try {
-			if (syncTask != null) {
-				syncTask.cancel();
+			if (dirty) {
+				RrdNioSyncScheduler.getInstance().markClosed(getPath());
+				dirty = false;
 			}
-			sync();
 			unmapFile();
 		} finally {
 			super.close();
@@ -178,5 +178,18 @@ public class RrdNioBackend extends RrdFileBackend {
 		if (byteBuffer != null) {
 			byteBuffer.force();
 		}
+		dirty = false;
+	}
+
+	/**
+	 * Forces modified data to be stored in the file, if the file is still open.
+	 * @return false if the file is closed
+	 */
+	synchronized boolean syncIfOpen() {
+		if (byteBuffer == null) {
+			return false;
+		}
+		sync();
+		return true;
 	}
 }
@@ -50,6 +50,8 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
 
 	private static int syncPeriod = DEFAULT_SYNC_PERIOD;
 
+	private static RrdOffHeapStorage offHeapStorage;
+
 	/**
 	 * Returns time between two consecutive background synchronizations. If not changed via
 	 * {@link #setSyncPeriod(int)} method call, defaults to {@link #DEFAULT_SYNC_PERIOD}.
@@ -81,9 +83,47 @@ public class RrdNioBackendFactory extends RrdFileBackendFactory {
 	 */
 	@Override
 	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		RrdPoolStatistics.getInstance().fileOpened(path);
+		final RrdOffHeapStorage storage = offHeapStorage;
+		if (storage != null) {
+			return storage.open(path);
+		}
 		return new RrdNioBackend(path, readOnly, syncPeriod);
 	}
 
+	/**
+	 * Determines if the RRD data for the given path exists, in a file or in memory.
+	 *
+	 * @param path File path
+	 * @return True, if the RRD data exists
+	 */
+	@Override
+	protected boolean exists(String path) {
+		final RrdOffHeapStorage storage = offHeapStorage;
+		if (storage != null) {
+			return storage.exists(path);
+		}
+		return super.exists(path);
+	}
+
+	/**
+	 * Returns the memory storage used instead of files, or null if RRD data is stored in files.
+	 *
+	 * @return RrdOffHeapStorage
+	 */
+	static RrdOffHeapStorage getOffHeapStorage() {
+		return offHeapStorage;
+	}
+
+	/**
+	 * Sets the memory storage to use instead of files, or null to store RRD data in files.
+	 *
+	 * @param storage RrdOffHeapStorage
+	 */
+	static void setOffHeapStorage(RrdOffHeapStorage storage) {
+		offHeapStorage = storage;
+	}
+
 	/**
 	 * Returns the name of this factory.
 	 *
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Planificateur unique des synchronisations sur disque (force) des fichiers rrd écrits par {@link RrdNioBackend},
+ * au lieu d'une tâche par fichier ouvert dans le timer et d'une synchronisation à chaque fermeture.
+ * <br/>Seuls les fichiers modifiés depuis leur dernière synchronisation sont synchronisés, les plus anciens d'abord,
+ * et les synchronisations sont réparties sur la période de synchronisation avec une limite par seconde,
+ * pour éviter les rafales de synchronisations.
+ * <br/>Les synchronisations sont faites dans un thread dédié et non dans le timer des collectes,
+ * pour qu'une synchronisation lente sur disque ne retarde pas les collectes.
+ * <br/>Un fichier modifié puis fermé reste à synchroniser : ses données sont déjà dans le cache du système
+ * et la synchronisation assure seulement leur écriture sur disque.
+ * @author Emeric Vernat
+ */
+final class RrdNioSyncScheduler {
+	static final long TICK_MILLIS = 1000;
+	static final int MAX_SYNCS_PER_TICK = 50;
+	private static final RrdNioSyncScheduler INSTANCE = new RrdNioSyncScheduler();
+
+	// LinkedHashMap pour synchroniser dans l'ordre où les fichiers ont été modifiés,
+	// avec en valeur le backend si le fichier est encore ouvert ou null s'il a été fermé
+	private final Map<String, RrdNioBackend> dirtyBackendsByPath = new LinkedHashMap<String, RrdNioBackend>();
+	private Timer syncTimer;
+	private long syncCount;
+	private long syncTotalMillis;
+	private long maxSyncMillis;
+	private long lastSyncMillis;
+
+	RrdNioSyncScheduler() {
+		super();
+	}
+
+	static RrdNioSyncScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	synchronized void start() {
+		if (syncTimer != null) {
+			return;
+		}
+		syncTimer = new Timer("javamelody rrd sync", true);
+		final TimerTask tickTask = new TimerTask() {
+			@Override
+			public void run() {
+				tick(RrdNioBackendFactory.getSyncPeriod() * 1000L);
+			}
+		};
+		syncTimer.schedule(tickTask, TICK_MILLIS, TICK_MILLIS);
+	}
+
+	synchronized void stop() {
+		if (syncTimer != null) {
+			syncTimer.cancel();
+			syncTimer = null;
+		}
+	}
+
+	synchronized void markDirty(RrdNioBackend backend) {
+		// si le fichier est déjà à synchroniser, il garde son rang dans la file
+		if (dirtyBackendsByPath.get(backend.getPath()) == null) {
+			dirtyBackendsByPath.put(backend.getPath(), backend);
+		}
+	}
+
+	synchronized void markClosed(String path) {
+		// le fichier modifié puis fermé sera synchronisé sans le backend, en gardant son rang dans la file
+		dirtyBackendsByPath.put(path, null);
+	}
+
+	/**
+	 * Synchronise une part des fichiers modifiés, de sorte que tous soient synchronisés en une période.
+	 * @param syncPeriodMillis Période de synchronisation en millisecondes
+	 */
+	void tick(long syncPeriodMillis) {
+		final int quota;
+		synchronized (this) {
+			quota = getQuota(dirtyBackendsByPath.size(), syncPeriodMillis);
+		}
+		sync(quota);
+	}
+
+	/**
+	 * Synchronise tous les fichiers modifiés, à l'arrêt par exemple.
+	 */
+	void syncAll() {
+		sync(Integer.MAX_VALUE);
+	}
+
+	private void sync(int maxCount) {
+		final List<String> paths = new ArrayList<String>();
+		final List<RrdNioBackend> backends = new ArrayList<RrdNioBackend>();
+		synchronized (this) {
+			final Iterator<Map.Entry<String, RrdNioBackend>> iterator = dirtyBackendsByPath
+					.entrySet().iterator();
+			while (paths.size() < maxCount && iterator.hasNext()) {
+				final Map.Entry<String, RrdNioBackend> entry = iterator.next();
+				paths.add(entry.getKey());
+				backends.add(entry.getValue());
+				iterator.remove();
+			}
+		}
+		// les synchronisations sont faites hors du lock pour ne pas bloquer les écritures
+		for (int i = 0; i < paths.size(); i++) {
+			final String path = paths.get(i);
+			final RrdNioBackend backend = backends.get(i);
+			final long start = System.currentTimeMillis();
+			try {
+				if (backend == null || !backend.syncIfOpen()) {
+					syncFile(path);
+				}
+			} catch (final IOException e) {
+				// fichier supprimé entre temps par exemple
+				LOG.debug("sync failed for " + path, e);
+			}
+			final long duration = System.currentTimeMillis() - start;
+			synchronized (this) {
+				syncCount++;
+				syncTotalMillis += duration;
+				maxSyncMillis = Math.max(maxSyncMillis, duration);
+				lastSyncMillis = duration;
+			}
+		}
+	}
+
+	private static void syncFile(String path) throws IOException {
+		final File file = new File(path);
+		if (!file.exists()) {
+			return;
+		}
+		// en lecture seule, pour ne pas recréer un fichier vide s'il vient d'être supprimé
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			randomAccessFile.getChannel().force(false);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	static int getQuota(int dirtyCount, long syncPeriodMillis) {
+		if (dirtyCount == 0) {
+			return 0;
+		}
+		final long ticksPerPeriod = Math.max(syncPeriodMillis / TICK_MILLIS, 1);
+		final long quota = (dirtyCount + ticksPerPeriod - 1) / ticksPerPeriod;
+		return (int) Math.min(quota, MAX_SYNCS_PER_TICK);
+	}
+
+	synchronized int getDirtyCount() {
+		return dirtyBackendsByPath.size();
+	}
+
+	synchronized long getSyncCount() {
+		return syncCount;
+	}
+
+	synchronized long getMeanSyncMillis() {
+		if (syncCount == 0) {
+			return 0;
+		}
+		return syncTotalMillis / syncCount;
+	}
+
+	synchronized long getMaxSyncMillis() {
+		return maxSyncMillis;
+	}
+
+	synchronized long getLastSyncMillis() {
+		return lastSyncMillis;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "[dirtyCount=" + getDirtyCount() + ", syncCount="
+				+ getSyncCount() + ", meanSyncMillis=" + getMeanSyncMillis()
+				+ ", maxSyncMillis=" + getMaxSyncMillis() + ']';
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jrobin.core.RrdBackend;
+
+/**
+ * Backend JRobin gardant les données d'un fichier rrd en mémoire hors du tas java,
+ * dans un buffer direct de {@link RrdOffHeapStorage}.
+ * @author Emeric Vernat
+ */
+final class RrdOffHeapBackend extends RrdBackend {
+	private final RrdOffHeapStorage storage;
+	private final String key;
+	private final String directory;
+	// génération de sauvegarde pour laquelle le répertoire a déjà été marqué comme modifié
+	private volatile int markedGeneration = -1;
+
+	RrdOffHeapBackend(String path, String key, RrdOffHeapStorage storage) {
+		super(path);
+		this.storage = storage;
+		this.key = key;
+		this.directory = new File(key).getParent();
+	}
+
+	@Override
+	protected void write(long offset, byte[] b) throws IOException {
+		final ByteBuffer buffer = storage.getBuffer(key);
+		if (buffer == null) {
+			throw new IOException("Write failed, " + getPath() + " not allocated");
+		}
+		// duplicate pour ne pas partager la position entre les threads
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position((int) offset);
+		// verrou sur le buffer pour que la sauvegarde ne copie pas une écriture à moitié faite
+		synchronized (buffer) {
+			duplicate.put(b);
+		}
+		// le répertoire n'est marqué qu'une fois entre deux sauvegardes,
+		// et non à chaque écriture d'une valeur
+		final int generation = storage.getSnapshotGeneration();
+		if (generation != markedGeneration) {
+			storage.markModifiedDirectory(directory);
+			markedGeneration = generation;
+		}
+	}
+
+	@Override
+	protected void read(long offset, byte[] b) throws IOException {
+		final ByteBuffer buffer = storage.getBuffer(key);
+		if (buffer == null) {
+			throw new IOException("Read failed, " + getPath() + " not allocated");
+		}
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position((int) offset);
+		duplicate.get(b);
+	}
+
+	@Override
+	public long getLength() {
+		final ByteBuffer buffer = storage.getBuffer(key);
+		if (buffer == null) {
+			return 0;
+		}
+		return buffer.capacity();
+	}
+
+	@Override
+	protected void setLength(long newLength) throws IOException {
+		// appelée une seule fois, juste après la création d'un fichier rrd
+		storage.putBuffer(key, ByteBuffer.allocateDirect((int) newLength));
+	}
+
+	@Override
+	public void close() {
+		// les données restent en mémoire
+	}
+}
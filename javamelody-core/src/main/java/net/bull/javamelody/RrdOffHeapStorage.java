@@ -0,0 +1,282 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jrobin.core.RrdBackend;
+
+/**
+ * Stockage des {@link RrdOffHeapBackend}, gardant toutes les données des graphiques en mémoire hors du tas java,
+ * pour que la mise à jour des graphiques ne fasse aucune entrée/sortie sur disque
+ * (stockage lent sur le réseau ou éphémère dans des conteneurs par exemple).
+ * <br/>Les données de chaque répertoire de stockage sont sauvegardées périodiquement et à l'arrêt
+ * dans une seule archive compressée, qui est relue au démarrage.
+ * <br/>Ce stockage est utilisé par {@link RrdNioBackendFactory} à la place des fichiers rrd,
+ * car JRobin ne permet plus de changer de factory par défaut après la création du premier fichier rrd.
+ * @author Emeric Vernat
+ */
+final class RrdOffHeapStorage {
+	static final String SNAPSHOT_FILENAME = "rrd.snapshot";
+	private static final int DEFAULT_SNAPSHOT_SECONDS = 600;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private final Map<String, ByteBuffer> buffersByKey = new ConcurrentHashMap<String, ByteBuffer>();
+	// répertoires dont l'archive a été relue et répertoires modifiés depuis la dernière sauvegarde
+	private final Set<String> restoredDirectories = new HashSet<String>();
+	private final Set<String> modifiedDirectories = new HashSet<String>();
+	// incrémentée à chaque sauvegarde, sous le verrou de modifiedDirectories
+	private volatile int snapshotGeneration;
+	private TimerTask snapshotTask;
+
+	RrdBackend open(String path) throws IOException {
+		return new RrdOffHeapBackend(path, getKey(path), this);
+	}
+
+	boolean exists(String path) {
+		try {
+			return buffersByKey.containsKey(getKey(path));
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	ByteBuffer getBuffer(String key) {
+		return buffersByKey.get(key);
+	}
+
+	void putBuffer(String key, ByteBuffer buffer) {
+		buffersByKey.put(key, buffer);
+		markModified(key);
+	}
+
+	void markModified(String key) {
+		markModifiedDirectory(new File(key).getParent());
+	}
+
+	void markModifiedDirectory(String directory) {
+		synchronized (modifiedDirectories) {
+			modifiedDirectories.add(directory);
+		}
+	}
+
+	int getSnapshotGeneration() {
+		return snapshotGeneration;
+	}
+
+	boolean delete(String path) throws IOException {
+		final String key = getKey(path);
+		if (buffersByKey.remove(key) != null) {
+			markModified(key);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param directory Répertoire de stockage
+	 * @return Noms des fichiers rrd en mémoire de ce répertoire
+	 * @throws IOException e
+	 */
+	List<String> getFileNames(File directory) throws IOException {
+		final String directoryPath = directory.getCanonicalPath();
+		restore(directoryPath);
+		final List<String> result = new ArrayList<String>();
+		for (final String key : buffersByKey.keySet()) {
+			final File file = new File(key);
+			if (directoryPath.equals(file.getParent())) {
+				result.add(file.getName());
+			}
+		}
+		return result;
+	}
+
+	private String getKey(String path) throws IOException {
+		final File file = new File(path).getCanonicalFile();
+		// l'archive du répertoire est relue à la première utilisation d'un fichier de ce répertoire
+		restore(file.getParent());
+		return file.getPath();
+	}
+
+	private void restore(String directoryPath) throws IOException {
+		synchronized (restoredDirectories) {
+			if (!restoredDirectories.add(directoryPath)) {
+				return;
+			}
+			final File snapshotFile = new File(directoryPath, SNAPSHOT_FILENAME);
+			if (!snapshotFile.exists()) {
+				return;
+			}
+			final DataInputStream input = new DataInputStream(
+					CompressionCodec.createDetectingInputStream(new BufferedInputStream(
+							new FileInputStream(snapshotFile))));
+			try {
+				if (input.readInt() != SNAPSHOT_VERSION) {
+					throw new IOException("Invalid rrd snapshot: " + snapshotFile.getPath());
+				}
+				// chaque fichier est précédé de true, et la fin de l'archive est marquée par false
+				while (input.readBoolean()) {
+					final String fileName = input.readUTF();
+					final byte[] bytes = new byte[input.readInt()];
+					input.readFully(bytes);
+					final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+					buffer.put(bytes);
+					buffersByKey.put(new File(directoryPath, fileName).getPath(), buffer);
+				}
+			} finally {
+				input.close();
+			}
+			LOG.debug("rrd data restored from " + snapshotFile.getPath());
+		}
+	}
+
+	/**
+	 * Sauvegarde les données des répertoires modifiés depuis la dernière sauvegarde.
+	 * @throws IOException e
+	 */
+	synchronized void saveSnapshots() throws IOException {
+		final List<String> directories;
+		synchronized (modifiedDirectories) {
+			directories = new ArrayList<String>(modifiedDirectories);
+			modifiedDirectories.clear();
+			// les écritures suivantes marqueront de nouveau leur répertoire
+			snapshotGeneration++;
+		}
+		for (final String directoryPath : directories) {
+			try {
+				saveSnapshot(directoryPath);
+			} catch (final IOException e) {
+				// la sauvegarde sera retentée la prochaine fois
+				synchronized (modifiedDirectories) {
+					modifiedDirectories.add(directoryPath);
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void saveSnapshot(String directoryPath) throws IOException {
+		final File directory = new File(directoryPath);
+		if (!directory.mkdirs() && !directory.exists()) {
+			throw new IOException("JavaMelody directory can't be created: " + directoryPath);
+		}
+		final List<String> keys = new ArrayList<String>();
+		for (final String key : buffersByKey.keySet()) {
+			if (directoryPath.equals(new File(key).getParent())) {
+				keys.add(key);
+			}
+		}
+		final File snapshotFile = new File(directory, SNAPSHOT_FILENAME);
+		final File tmpFile = new File(directory, SNAPSHOT_FILENAME + ".tmp");
+		final OutputStream out = CompressionCodec.getConfiguredCodec().createOutputStream(
+				new FileOutputStream(tmpFile), 8 * 1024);
+		final DataOutputStream output = new DataOutputStream(out);
+		try {
+			output.writeInt(SNAPSHOT_VERSION);
+			for (final String key : keys) {
+				final ByteBuffer buffer = buffersByKey.get(key);
+				if (buffer == null) {
+					// fichier supprimé entre temps
+					continue;
+				}
+				final byte[] bytes = new byte[buffer.capacity()];
+				final ByteBuffer duplicate = buffer.duplicate();
+				duplicate.clear();
+				// même verrou que les écritures de RrdOffHeapBackend, pour une copie cohérente
+				synchronized (buffer) {
+					duplicate.get(bytes);
+				}
+				output.writeBoolean(true);
+				output.writeUTF(new File(key).getName());
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			output.writeBoolean(false);
+		} finally {
+			output.close();
+		}
+		if (snapshotFile.exists() && !snapshotFile.delete() || !tmpFile.renameTo(snapshotFile)) {
+			throw new IOException("Rrd snapshot can't be written: " + snapshotFile.getPath());
+		}
+	}
+
+	/**
+	 * Planifie la sauvegarde périodique des données.
+	 * @param timer Timer
+	 */
+	synchronized void scheduleSnapshots(Timer timer) {
+		if (snapshotTask != null) {
+			snapshotTask.cancel();
+		}
+		snapshotTask = new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					saveSnapshots();
+				} catch (final IOException e) {
+					LOG.warn("exception while saving rrd snapshot", e);
+				}
+			}
+		};
+		final long periodMillis = getSnapshotSeconds() * 1000L;
+		timer.schedule(snapshotTask, periodMillis, periodMillis);
+	}
+
+	static int getSnapshotSeconds() {
+		final String parameter = Parameters.getParameter(Parameter.MEMORY_RRD_SNAPSHOT_SECONDS);
+		if (parameter == null) {
+			return DEFAULT_SNAPSHOT_SECONDS;
+		}
+		final int seconds = Integer.parseInt(parameter.trim());
+		if (seconds <= 0) {
+			throw new IllegalStateException(
+					"The parameter memory-rrd-snapshot-seconds should be > 0");
+		}
+		return seconds;
+	}
+
+	/**
+	 * @return Nombre de fichiers rrd en mémoire
+	 */
+	int getFileCount() {
+		return buffersByKey.size();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[files=" + getFileCount() + ']';
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jrobin.core.RrdDbPool;
+import org.jrobin.core.RrdException;
+
+/**
+ * Statistiques du pool de fichiers rrd de JRobin: ouvertures et réouvertures de fichiers,
+ * demandes au pool plein, attentes du verrou sur un RrdDb et latences par opération.
+ * <br/>Elles permettent de savoir si des collectes ralenties par des rendus de courbes concurrents
+ * sont dues à la capacité du pool, aux réouvertures de fichiers ou aux attentes de verrou.
+ * <br/>Ces statistiques sont affichées dans la page de monitoring et exposées en JMX.
+ * @author Emeric Vernat
+ */
+final class RrdPoolStatistics implements RrdPoolStatisticsMBean {
+	// bornes supérieures en millisecondes des intervalles des histogrammes,
+	// le dernier intervalle étant au-delà de la dernière borne
+	static final long[] HISTOGRAM_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000,
+			2000, };
+	// nombre maximum de fichiers mémorisés pour compter les réouvertures
+	private static final int MAX_OPENED_PATHS = 10000;
+	private static final RrdPoolStatistics INSTANCE = new RrdPoolStatistics();
+
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong reopenCount = new AtomicLong();
+	private final AtomicLong capacityHitCount = new AtomicLong();
+	@SuppressWarnings("serial")
+	private final Map<String, Boolean> openedPaths = Collections
+			.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+					// les fichiers les moins récemment ouverts sont oubliés
+					return size() > MAX_OPENED_PATHS;
+				}
+			});
+	private final Map<Operation, Histogram> histograms = new ConcurrentHashMap<Operation, Histogram>();
+	private ObjectName registeredName;
+	private int registrationCount;
+
+	/**
+	 * Opération instrumentée sur les fichiers rrd.
+	 */
+	enum Operation {
+		/** Demande d'un RrdDb au pool (attente du pool et ouverture du fichier comprises). */
+		REQUEST,
+		/** Attente du verrou sur un RrdDb avant une mise à jour. */
+		LOCK_WAIT,
+		/** Mise à jour d'une valeur. */
+		UPDATE,
+		/** Lecture de valeurs. */
+		FETCH,
+		/** Rendu d'une courbe. */
+		GRAPH,
+		/** Libération d'un RrdDb dans le pool (fermeture du fichier comprise). */
+		RELEASE;
+
+		String getLabel() {
+			return name().toLowerCase(Locale.ENGLISH).replace('_', ' ');
+		}
+	}
+
+	/**
+	 * Histogramme de latences, sans verrou.
+	 */
+	static final class Histogram {
+		private final AtomicLongArray counts = new AtomicLongArray(
+				HISTOGRAM_BOUNDS_MILLIS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			final long millis = nanos / 1000000;
+			int index = 0;
+			while (index < HISTOGRAM_BOUNDS_MILLIS.length
+					&& millis >= HISTOGRAM_BOUNDS_MILLIS[index]) {
+				index++;
+			}
+			counts.incrementAndGet(index);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+		}
+
+		long getCount() {
+			return count.get();
+		}
+
+		double getMeanMillis() {
+			final long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			return totalNanos.get() / 1000000d / n;
+		}
+
+		double getMaxMillis() {
+			return maxNanos.get() / 1000000d;
+		}
+
+		long[] getCounts() {
+			final long[] result = new long[counts.length()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = counts.get(i);
+			}
+			return result;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(getCount()).append(" calls, mean ").append(round(getMeanMillis()))
+					.append(" ms, max ").append(round(getMaxMillis())).append(" ms");
+			final long[] histogramCounts = getCounts();
+			for (int i = 0; i < histogramCounts.length; i++) {
+				if (histogramCounts[i] > 0) {
+					if (i < HISTOGRAM_BOUNDS_MILLIS.length) {
+						sb.append(", <").append(HISTOGRAM_BOUNDS_MILLIS[i]).append(" ms: ");
+					} else {
+						sb.append(", >=")
+								.append(HISTOGRAM_BOUNDS_MILLIS[HISTOGRAM_BOUNDS_MILLIS.length - 1])
+								.append(" ms: ");
+					}
+					sb.append(histogramCounts[i]);
+				}
+			}
+			return sb.toString();
+		}
+
+		private static double round(double millis) {
+			return Math.round(millis * 100) / 100d;
+		}
+	}
+
+	private RrdPoolStatistics() {
+		super();
+		reset();
+	}
+
+	static RrdPoolStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Enregistre l'ouverture d'un fichier rrd (appelée par la factory des backends).
+	 * @param path Chemin du fichier
+	 */
+	void fileOpened(String path) {
+		openCount.incrementAndGet();
+		if (openedPaths.put(path, Boolean.TRUE) != null) {
+			reopenCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Enregistre la demande d'un RrdDb au pool, si le pool est plein à ce moment.
+	 * @param rrdPool RrdDbPool
+	 */
+	void checkCapacity(RrdDbPool rrdPool) {
+		// le pool de JRobin attend qu'un fichier soit libéré s'il est plein
+		if (rrdPool.getOpenFileCount() >= rrdPool.getCapacity()) {
+			capacityHitCount.incrementAndGet();
+		}
+	}
+
+	void record(Operation operation, long nanos) {
+		histograms.get(operation).record(nanos);
+	}
+
+	Histogram getHistogram(Operation operation) {
+		return histograms.get(operation);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getOpenCount() {
+		return openCount.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getReopenCount() {
+		return reopenCount.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getOpenFileCount() {
+		try {
+			return RrdDbPool.getInstance().getOpenFileCount();
+		} catch (final RrdException e) {
+			return 0;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getPoolCapacity() {
+		try {
+			return RrdDbPool.getInstance().getCapacity();
+		} catch (final RrdException e) {
+			return 0;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getCapacityHitCount() {
+		return capacityHitCount.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String[] getLatencies() {
+		final Operation[] operations = Operation.values();
+		final String[] result = new String[operations.length];
+		for (int i = 0; i < operations.length; i++) {
+			result[i] = operations[i].getLabel() + ": " + histograms.get(operations[i]);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		openCount.set(0);
+		reopenCount.set(0);
+		capacityHitCount.set(0);
+		openedPaths.clear();
+		for (final Operation operation : Operation.values()) {
+			histograms.put(operation, new Histogram());
+		}
+	}
+
+	/**
+	 * Enregistre ces statistiques dans le serveur JMX.
+	 * <br/>Elles sont communes à toutes les applications qui partagent cette classe (javamelody dans
+	 * le classpath commun du serveur par exemple) : elles ne sont alors enregistrées qu'une fois,
+	 * avec le nom de la première application, et le restent tant qu'une de ces applications n'est pas arrêtée.
+	 * @param application Nom de l'application, pour distinguer plusieurs webapps dans un même serveur
+	 * @throws JMException e
+	 */
+	synchronized void registerMBean(String application) throws JMException {
+		if (registeredName == null) {
+			final MBeanServer mbeanServer = MBeans.getPlatformMBeanServer();
+			final ObjectName name = getObjectName(application);
+			if (!mbeanServer.isRegistered(name)) {
+				mbeanServer.registerMBean(new StandardMBean(this, RrdPoolStatisticsMBean.class),
+						name);
+				registeredName = name;
+			}
+		}
+		registrationCount++;
+	}
+
+	/**
+	 * Désenregistre ces statistiques du serveur JMX, si elles y ont été enregistrées
+	 * et si c'est la dernière application qui les a enregistrées.
+	 * @throws JMException e
+	 */
+	synchronized void unregisterMBean() throws JMException {
+		if (registrationCount > 0) {
+			registrationCount--;
+		}
+		if (registrationCount == 0 && registeredName != null) {
+			final MBeanServer mbeanServer = MBeans.getPlatformMBeanServer();
+			if (mbeanServer.isRegistered(registeredName)) {
+				mbeanServer.unregisterMBean(registeredName);
+			}
+			registeredName = null;
+		}
+	}
+
+	static ObjectName getObjectName(String application) throws JMException {
+		return new ObjectName("net.bull.javamelody:type=RrdPoolStatistics,application="
+				+ ObjectName.quote(application));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[opens=" + getOpenCount() + ", reopens="
+				+ getReopenCount() + ", capacityHits=" + getCapacityHitCount() + ']';
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+/**
+ * Interface JMX des statistiques du pool de fichiers rrd de JRobin, voir {@link RrdPoolStatistics}.
+ * <br/>Cette interface est publique car JMX l'exige.
+ * @author Emeric Vernat
+ */
+public interface RrdPoolStatisticsMBean {
+	/**
+	 * @return Nombre d'ouvertures de fichiers rrd
+	 */
+	long getOpenCount();
+
+	/**
+	 * @return Nombre de réouvertures de fichiers rrd déjà ouverts auparavant
+	 */
+	long getReopenCount();
+
+	/**
+	 * @return Nombre de fichiers rrd actuellement ouverts dans le pool
+	 */
+	int getOpenFileCount();
+
+	/**
+	 * @return Capacité du pool
+	 */
+	int getPoolCapacity();
+
+	/**
+	 * @return Nombre de demandes au pool alors qu'il était plein
+	 */
+	long getCapacityHitCount();
+
+	/**
+	 * @return Statistiques de latence par opération (nombre, moyenne, maximum et histogramme en ms)
+	 */
+	String[] getLatencies();
+
+	/**
+	 * Réinitialise les statistiques.
+	 */
+	void reset();
+}
@@ -43,10 +43,37 @@ class SamplingProfiler {
 	 */
 	private final int maxDataSize = 10000;
 
+	/**
+	 * Maximum number of stacks to hold into memory (for the flame graph)
+	 */
+	private final int maxStacksSize = 1000;
+
+	/**
+	 * Maximum number of frames of a sampled stack, the frames in the middle are elided
+	 */
+	private static final int MAX_STACK_DEPTH = 50;
+
+	/**
+	 * Number of frames kept on the hotspot side when the frames in the middle of a stack are elided
+	 */
+	private static final int HOTSPOT_SIDE_DEPTH = 10;
+
+	/**
+	 * Frame replacing the elided frames in the middle of a sampled stack
+	 */
+	static final String ELIDED_FRAMES = "...";
+
+	/**
+	 * Separator of the frames in a collapsed stack, root first
+	 */
+	static final char FRAME_SEPARATOR = ';';
+
 	private final String[] excludedPackages;
 
 	private final Map<SampledMethod, SampledMethod> data = new HashMap<SampledMethod, SampledMethod>();
 
+	private final Map<String, SampledStack> stacks = new HashMap<String, SampledStack>();
+
 	static class SampledMethod implements Comparable<SampledMethod>, Serializable {
 		private static final long serialVersionUID = 1L;
 
@@ -127,6 +154,73 @@ class SamplingProfiler {
 		}
 	}
 
+	/**
+	 * Sampled stack, from the root of the thread to the hotspot method, in collapsed format
+	 * ("class.method;class.method;...") as used by flame graphs.
+	 */
+	static class SampledStack implements Comparable<SampledStack>, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private long count;
+
+		private final String stack;
+
+		SampledStack(String stack) {
+			super();
+			assert stack != null;
+			this.stack = stack;
+		}
+
+		void incrementCount() {
+			count++;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		void setCount(long count) {
+			this.count = count;
+		}
+
+		String getStack() {
+			return stack;
+		}
+
+		String[] getFrames() {
+			return stack.split(String.valueOf(FRAME_SEPARATOR));
+		}
+
+		@Override
+		public int compareTo(SampledStack sampledStack) {
+			return count < sampledStack.count ? 1 : count == sampledStack.count ? 0 : -1;
+		}
+
+		@Override
+		public int hashCode() {
+			return stack.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null) {
+				return false;
+			}
+			if (getClass() != obj.getClass()) {
+				return false;
+			}
+			return stack.equals(((SampledStack) obj).stack);
+		}
+
+		@Override
+		public String toString() {
+			return stack;
+		}
+	}
+
 	/**
 	 * Constructor.
 	 * Excluded packages by default "java,sun,com.sun,javax,org.apache,org.hibernate,oracle,org.postgresql,org.eclipse"
@@ -166,9 +260,11 @@ class SamplingProfiler {
 				final StackTraceElement[] stackTrace = entry.getValue();
 				if (stackTrace.length > 0 && thread.getState() == Thread.State.RUNNABLE
 						&& thread != currentThread) {
-					for (final StackTraceElement element : stackTrace) {
+					for (int i = 0; i < stackTrace.length; i++) {
+						final StackTraceElement element = stackTrace[i];
 						if (!isPackageExcluded(element)) {
 							addSample(element);
+							addStackSample(stackTrace, i);
 							break;
 						}
 					}
@@ -176,6 +272,7 @@ class SamplingProfiler {
 			}
 		} finally {
 			limitDataSize();
+			limitStacksSize();
 		}
 	}
 
@@ -194,6 +291,60 @@ class SamplingProfiler {
 		method.incrementCount();
 	}
 
+	private void addStackSample(StackTraceElement[] stackTrace, int hotspotIndex) {
+		// the stack goes from the root of the thread to the hotspot method,
+		// the frames called by the hotspot method are in excluded packages and are not kept
+		final int rootIndex = stackTrace.length - 1;
+		// in a deep stack, the frames nearest to the root (to group the stacks in the flame graph)
+		// and nearest to the hotspot are kept, the frames in the middle are replaced by one frame
+		final int elidedFramesStart;
+		final int elidedFramesEnd;
+		if (rootIndex - hotspotIndex + 1 > MAX_STACK_DEPTH) {
+			elidedFramesStart = rootIndex - (MAX_STACK_DEPTH - HOTSPOT_SIDE_DEPTH - 2);
+			elidedFramesEnd = hotspotIndex + HOTSPOT_SIDE_DEPTH - 1;
+		} else {
+			elidedFramesStart = -1;
+			elidedFramesEnd = -1;
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (int i = rootIndex; i >= hotspotIndex; i--) {
+			if (i < elidedFramesStart && i > elidedFramesEnd) {
+				continue;
+			}
+			if (i == elidedFramesEnd) {
+				sb.append(ELIDED_FRAMES).append(FRAME_SEPARATOR);
+			}
+			final StackTraceElement element = stackTrace[i];
+			sb.append(element.getClassName()).append('.').append(element.getMethodName());
+			if (i > hotspotIndex) {
+				sb.append(FRAME_SEPARATOR);
+			}
+		}
+		final String key = sb.toString();
+		SampledStack sampledStack = this.stacks.get(key);
+		if (sampledStack == null) {
+			sampledStack = new SampledStack(key);
+			this.stacks.put(key, sampledStack);
+		}
+		sampledStack.incrementCount();
+	}
+
+	private void limitStacksSize() {
+		long minCount = 1;
+		int size = stacks.size();
+		while (size > maxStacksSize) {
+			final Iterator<SampledStack> iterator = stacks.values().iterator();
+			while (iterator.hasNext() && size > maxStacksSize) {
+				final SampledStack sampledStack = iterator.next();
+				if (sampledStack.getCount() <= minCount) {
+					iterator.remove();
+					size--;
+				}
+			}
+			minCount++;
+		}
+	}
+
 	private void limitDataSize() {
 		long minCount = 1;
 		int size = data.size();
@@ -226,7 +377,20 @@ class SamplingProfiler {
 		return methods.subList(0, Math.min(rows, methods.size()));
 	}
 
+	synchronized List<SampledStack> getHotspotStacks(int rows) {
+		final List<SampledStack> result = new ArrayList<SampledStack>(stacks.size());
+		for (final SampledStack sampledStack : stacks.values()) {
+			// copy, as the counts may change after the synchronized block
+			final SampledStack copy = new SampledStack(sampledStack.getStack());
+			copy.setCount(sampledStack.getCount());
+			result.add(copy);
+		}
+		Collections.sort(result);
+		return result.subList(0, Math.min(rows, result.size()));
+	}
+
 	synchronized void clear() {
 		data.clear();
+		stacks.clear();
 	}
 }
@@ -24,8 +24,10 @@ import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
 import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
+import static net.bull.javamelody.HttpParameters.FLAME_GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PART;
@@ -33,6 +35,7 @@ import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
@@ -59,6 +62,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Contrôleur au sens MVC pour la partie des données sérialisées.
@@ -79,7 +83,15 @@ class SerializableController {
 		// la page monitoring avec un format "serialized" ou "xml" en paramètre
 		// pour avoir les données au format sérialisé java ou xml
 		final String format = httpRequest.getParameter(FORMAT_PARAMETER);
-		final TransportFormat transportFormat = TransportFormat.valueOfIgnoreCase(format);
+		final TransportFormat transportFormat;
+		final String accept = httpRequest.getHeader("Accept");
+		if (TransportFormat.SERIALIZED.getCode().equalsIgnoreCase(format) && accept != null
+				&& accept.contains(TransportFormat.BINARY.getMimeType())) {
+			// le serveur de collecte accepte le format binaire, plus compact
+			transportFormat = TransportFormat.BINARY;
+		} else {
+			transportFormat = TransportFormat.valueOfIgnoreCase(format);
+		}
 		// checkDependencies avant setContentType pour afficher correctement les erreurs
 		transportFormat.checkDependencies();
 		httpResponse.setContentType(transportFormat.getMimeType());
@@ -111,6 +123,10 @@ class SerializableController {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return new ArrayList<SampledMethod>(collector.getHotspots());
+		} else if (FLAME_GRAPH_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			return new ArrayList<SampledStack>(collector.getHotspotStacks());
 		} else if (HEAP_HISTO_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
@@ -162,6 +178,11 @@ class SerializableController {
 			final int height = Integer.parseInt(httpRequest.getParameter(HEIGHT_PARAMETER));
 			final Collection<JRobin> jrobins = collector.getOtherJRobins();
 			return (Serializable) convertJRobinsToImages(jrobins, range, width, height);
+		} else if (JROBINS_DATA_PART.equalsIgnoreCase(part)) {
+			// données des courbes sans rendu d'image, pour UI Swing ou tableaux de bord,
+			// use ?part=jrobinsData&graph=usedMemory,cpu&period=jour&format=json for example
+			final String graphNames = httpRequest.getParameter(GRAPH_PARAMETER);
+			return getJRobinsTimeSeries(range, graphNames);
 		} else if (THREADS_PART.equalsIgnoreCase(part)) {
 			return new ArrayList<ThreadInformations>(javaInformationsList.get(0)
 					.getThreadInformationsList());
@@ -182,7 +203,7 @@ class SerializableController {
 		} else if (DEFAULT_WITH_CURRENT_REQUESTS_PART.equalsIgnoreCase(part)) {
 			final List<Serializable> result = new ArrayList<Serializable>();
 			result.addAll((List<Serializable>) createDefaultSerializable(javaInformationsList,
-					range, messageForReport));
+					range, messageForReport, httpRequest.getParameter(CURSOR_PARAMETER)));
 			result.addAll(getCurrentRequests());
 			return (Serializable) result;
 		} else if (EXPLAIN_PLAN_PART.equalsIgnoreCase(part)) {
@@ -191,7 +212,8 @@ class SerializableController {
 			return explainPlanFor(sqlRequest);
 		}
 
-		return createDefaultSerializable(javaInformationsList, range, messageForReport);
+		return createDefaultSerializable(javaInformationsList, range, messageForReport,
+				httpRequest.getParameter(CURSOR_PARAMETER));
 	}
 
 	private Serializable getCounterRequestById(String requestId, Range range) throws IOException {
@@ -223,6 +245,36 @@ class SerializableController {
 		return (Serializable) convertJRobinsToImages(jrobins, range, width, height);
 	}
 
+	private Serializable getJRobinsTimeSeries(Range range, String graphNames)
+			throws IOException {
+		final List<JRobin> jrobins = new ArrayList<JRobin>();
+		if (graphNames == null) {
+			for (final JRobin jrobin : collector.getCounterJRobins()) {
+				if (collector.isJRobinDisplayed(jrobin)) {
+					jrobins.add(jrobin);
+				}
+			}
+			for (final JRobin jrobin : collector.getOtherJRobins()) {
+				if (collector.isJRobinDisplayed(jrobin)) {
+					jrobins.add(jrobin);
+				}
+			}
+		} else {
+			for (final String graphName : graphNames.split(",")) {
+				final JRobin jrobin = collector.getJRobin(graphName);
+				// les courbes inconnues sont ignorées
+				if (jrobin != null) {
+					jrobins.add(jrobin);
+				}
+			}
+		}
+		final Map<String, JRobinTimeSeries> result = new LinkedHashMap<String, JRobinTimeSeries>();
+		for (final JRobin jrobin : jrobins) {
+			result.put(jrobin.getName(), jrobin.getTimeSeries(range));
+		}
+		return (Serializable) result;
+	}
+
 	private Serializable explainPlanFor(String sqlRequest) {
 		assert sqlRequest != null;
 		try {
@@ -248,24 +300,37 @@ class SerializableController {
 
 	private Map<String, byte[]> convertJRobinsToImages(Collection<JRobin> jrobins, Range range,
 			int width, int height) throws IOException {
-		final Map<String, byte[]> images = new LinkedHashMap<String, byte[]>(jrobins.size());
+		final List<JRobin> displayedJRobins = new ArrayList<JRobin>(jrobins.size());
 		for (final JRobin jrobin : jrobins) {
 			if (collector.isJRobinDisplayed(jrobin)) {
-				final byte[] image = jrobin.graph(range, width, height);
-				images.put(jrobin.getName(), image);
+				displayedJRobins.add(jrobin);
 			}
 		}
-		return images;
+		// rendu en parallèle, dans l'ordre des jrobins
+		return GraphRenderingPool.renderGraphs(displayedJRobins, range, width, height);
 	}
 
 	Serializable createDefaultSerializable(List<JavaInformations> javaInformationsList,
 			Range range, String messageForReport) throws IOException {
+		return createDefaultSerializable(javaInformationsList, range, messageForReport, null);
+	}
+
+	private Serializable createDefaultSerializable(List<JavaInformations> javaInformationsList,
+			Range range, String messageForReport, String cursor) throws IOException {
 		final List<Counter> counters = collector.getRangeCounters(range);
 		final List<Serializable> serialized = new ArrayList<Serializable>(counters.size()
-				+ javaInformationsList.size());
+				+ javaInformationsList.size() + 1);
 		// on clone les counters avant de les sérialiser pour ne pas avoir de problèmes de concurrences d'accès
+		final List<Counter> clones = new ArrayList<Counter>(counters.size());
 		for (final Counter counter : counters) {
-			serialized.add(counter.clone());
+			clones.add(counter.clone());
+		}
+		if (cursor != null && cursor.length() > 0 && range.getPeriod() == Period.TOUT) {
+			// collecte par différences depuis le curseur envoyé par le serveur de collecte
+			// (un curseur vide, pour les actions, indique seulement de ne pas vider les compteurs)
+			serialized.addAll(collector.getCollectCursorTracker().getCountersSince(cursor, clones));
+		} else {
+			serialized.addAll(clones);
 		}
 		serialized.addAll(javaInformationsList);
 		if (messageForReport != null) {
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import net.bull.javamelody.BinaryTransport.RequestHandler;
+
+/**
+ * Réponse d'un serveur au format de transport binaire, copiée dans un fichier temporaire pendant sa lecture
+ * par le serveur de collecte.
+ * <br/>Les requêtes des compteurs ne sont fusionnées dans le collector qu'une fois la réponse entièrement
+ * reçue et vérifiée, au fil de la relecture de ce fichier : la mémoire utilisée reste de l'ordre d'une requête
+ * quel que soit le nombre de requêtes, et une réponse incomplète ou abandonnée n'est pas fusionnée en partie
+ * (en collecte par différences, le curseur du serveur n'avance pas et ses données sont relues à la collecte suivante).
+ * @author Emeric Vernat
+ */
+final class StagedResponse {
+	// lecture de vérification : les requêtes lues ne sont pas gardées
+	private static final RequestHandler DISCARDING_REQUEST_HANDLER = new RequestHandler() {
+		@Override
+		public boolean requestRead(Counter counter, CounterRequest request) {
+			return true;
+		}
+	};
+
+	private final File file;
+	private final Serializable result;
+
+	private StagedResponse(File file, Serializable result) {
+		super();
+		this.file = file;
+		this.result = result;
+	}
+
+	/**
+	 * Copie une réponse dans un fichier temporaire et vérifie qu'elle est entière et lisible.
+	 * @param input Flux de la réponse, non compressé
+	 * @return StagedResponse
+	 * @throws IOException Si la réponse est incomplète ou illisible (le fichier est alors supprimé)
+	 * @throws ClassNotFoundException e
+	 */
+	static StagedResponse stage(InputStream input) throws IOException, ClassNotFoundException {
+		final File file = File.createTempFile("javamelody", ".staging",
+				Parameters.TEMPORARY_DIRECTORY);
+		boolean staged = false;
+		try {
+			final OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				TransportFormat.pump(input, output);
+			} finally {
+				output.close();
+			}
+			final Serializable result = read(file, DISCARDING_REQUEST_HANDLER);
+			staged = true;
+			return new StagedResponse(file, result);
+		} finally {
+			if (!staged) {
+				delete(file);
+			}
+		}
+	}
+
+	/**
+	 * @return Objets lus lors de la vérification, avec des compteurs sans leurs requêtes
+	 */
+	Serializable getResult() {
+		return result;
+	}
+
+	/**
+	 * Relit la réponse en passant chaque requête des compteurs au handler au fil de la lecture.
+	 * @param requestHandler Traitement des requêtes (fusion dans le collector)
+	 * @return Objets lus, avec des compteurs sans les requêtes traitées par le handler
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e
+	 */
+	Serializable merge(RequestHandler requestHandler) throws IOException, ClassNotFoundException {
+		return read(file, requestHandler);
+	}
+
+	void delete() {
+		delete(file);
+	}
+
+	boolean exists() {
+		return file.exists();
+	}
+
+	private static Serializable read(File file, RequestHandler requestHandler) throws IOException,
+			ClassNotFoundException {
+		final InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return BinaryTransport.read(input, requestHandler);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			LOG.debug("staging file can't be deleted: " + file.getPath());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[file=" + file.getName() + ']';
+	}
+}
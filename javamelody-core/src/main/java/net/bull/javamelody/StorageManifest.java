@@ -0,0 +1,358 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Manifeste des fichiers d'un répertoire de stockage (fichier, type, date de dernière mise à jour, taille),
+ * maintenu au fil des écritures pour que la purge des fichiers obsolètes et le calcul de l'usage disque
+ * ne nécessitent plus de lire les attributs de tous les fichiers ni d'ouvrir tous les fichiers rrd.
+ * <br/>Le répertoire n'est relu (noms de fichiers seulement) que si sa date de modification a changé,
+ * c'est-à-dire si des fichiers y ont été ajoutés ou supprimés par ailleurs.
+ * @author Emeric Vernat
+ */
+final class StorageManifest {
+	static final String MANIFEST_FILENAME = "storage.manifest";
+	private static final String ENCODING = "UTF-8";
+	private static final char SEPARATOR = '\t';
+	private static final Map<String, StorageManifest> INSTANCES = new ConcurrentHashMap<String, StorageManifest>();
+
+	private final File directory;
+	private final ConcurrentMap<String, Entry> entriesByName = new ConcurrentHashMap<String, Entry>();
+	private long directoryLastModified = -1;
+	private boolean loaded;
+	// volatile car modifié sans synchronisation par fileUpdated, fileTouched et fileDeleted
+	private volatile boolean dirty;
+
+	/**
+	 * Type de fichier dans le répertoire de stockage.
+	 */
+	enum Kind {
+		/** Fichier de compteur (.ser.gz). */
+		COUNTER,
+		/** Fichier JRobin (.rrd). */
+		JROBIN,
+		/** Fichier des temps moyens consolidés des requêtes d'un compteur pour un jour (.series). */
+		SERIES,
+		/** Autre fichier (last_shutdown.html par exemple). */
+		OTHER;
+
+		static Kind valueOfFileName(String fileName) {
+			if (fileName.endsWith(".ser.gz")) {
+				return COUNTER;
+			} else if (fileName.endsWith(".rrd")) {
+				return JROBIN;
+			} else if (fileName.endsWith(RequestSeriesStorage.FILE_EXTENSION)) {
+				return SERIES;
+			}
+			return OTHER;
+		}
+	}
+
+	/**
+	 * Entrée du manifeste pour un fichier.
+	 */
+	static final class Entry {
+		private final String name;
+		private final Kind kind;
+		private volatile long lastUpdate;
+		private volatile long size;
+
+		Entry(String name, long lastUpdate, long size) {
+			super();
+			assert name != null;
+			this.name = name;
+			this.kind = Kind.valueOfFileName(name);
+			this.lastUpdate = lastUpdate;
+			this.size = size;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		Kind getKind() {
+			return kind;
+		}
+
+		long getLastUpdate() {
+			return lastUpdate;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "[name=" + getName() + ", kind=" + getKind()
+					+ ", lastUpdate=" + getLastUpdate() + ", size=" + getSize() + ']';
+		}
+	}
+
+	private StorageManifest(File directory) {
+		super();
+		assert directory != null;
+		this.directory = directory;
+	}
+
+	static StorageManifest getInstance(String application) {
+		final File directory = Parameters.getStorageDirectory(application);
+		final String key = directory.getPath();
+		StorageManifest manifest = INSTANCES.get(key);
+		if (manifest == null) {
+			synchronized (INSTANCES) {
+				manifest = INSTANCES.get(key);
+				if (manifest == null) {
+					manifest = new StorageManifest(directory);
+					INSTANCES.put(key, manifest);
+				}
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Enregistre dans le manifeste l'écriture d'un fichier.
+	 * @param file Fichier écrit
+	 * @param lastUpdate Date de dernière mise à jour des données en millisecondes
+	 * @param size Taille du fichier, ou -1 si inconnue (la taille sera alors lue)
+	 */
+	void fileUpdated(File file, long lastUpdate, long size) {
+		final String fileName = file.getName();
+		final Entry entry = entriesByName.get(fileName);
+		final long fileSize = size >= 0 ? size : file.length();
+		if (entry == null) {
+			entriesByName.put(fileName, new Entry(fileName, lastUpdate, fileSize));
+		} else {
+			entry.lastUpdate = lastUpdate;
+			entry.size = fileSize;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Enregistre dans le manifeste la mise à jour des données d'un fichier dont la taille ne change pas
+	 * (fichier rrd). Cette méthode ne fait aucune entrée/sortie.
+	 * @param file Fichier mis à jour
+	 * @param lastUpdate Date de dernière mise à jour des données en millisecondes
+	 */
+	void fileTouched(File file, long lastUpdate) {
+		final Entry entry = entriesByName.get(file.getName());
+		if (entry == null) {
+			fileUpdated(file, lastUpdate, -1);
+		} else {
+			entry.lastUpdate = lastUpdate;
+			dirty = true;
+		}
+	}
+
+	void fileDeleted(File file) {
+		if (entriesByName.remove(file.getName()) != null) {
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Retourne les entrées d'un type de fichier, après avoir réconcilié le manifeste avec le répertoire
+	 * si des fichiers y ont été ajoutés ou supprimés sans passer par le manifeste.
+	 * @param kind Type de fichier
+	 * @return List
+	 */
+	List<Entry> getEntries(Kind kind) {
+		reconcile();
+		final List<Entry> result = new ArrayList<Entry>();
+		for (final Entry entry : entriesByName.values()) {
+			if (entry.getKind() == kind) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Somme des tailles des fichiers du répertoire de stockage
+	 */
+	long getDiskUsage() {
+		reconcile();
+		long sum = 0;
+		for (final Entry entry : entriesByName.values()) {
+			sum += entry.getSize();
+		}
+		return sum;
+	}
+
+	synchronized void reconcile() {
+		if (!loaded) {
+			loaded = true;
+			try {
+				load();
+			} catch (final IOException e) {
+				// manifeste illisible, tant pis: il sera reconstruit à partir du répertoire
+				LOG.debug("storage manifest can't be read in " + directory.getPath(), e);
+			}
+		}
+		final long lastModified = directory.lastModified();
+		// la résolution de la date de modification d'un répertoire peut être d'une seconde,
+		// donc on relit aussi le répertoire s'il a été modifié très récemment
+		if (lastModified == directoryLastModified
+				&& System.currentTimeMillis() - lastModified > 2000) {
+			return;
+		}
+		final String[] fileNames = directory.list();
+		if (fileNames == null) {
+			entriesByName.clear();
+			directoryLastModified = lastModified;
+			return;
+		}
+		final Set<String> names = new HashSet<String>(fileNames.length);
+		for (final String fileName : fileNames) {
+			if (!MANIFEST_FILENAME.equals(fileName)) {
+				names.add(fileName);
+				if (!entriesByName.containsKey(fileName)) {
+					// seuls les fichiers inconnus du manifeste sont lus
+					final File file = new File(directory, fileName);
+					if (file.isFile()) {
+						entriesByName.put(fileName,
+								new Entry(fileName, file.lastModified(), file.length()));
+						dirty = true;
+					}
+				}
+			}
+		}
+		if (entriesByName.keySet().retainAll(names)) {
+			dirty = true;
+		}
+		directoryLastModified = lastModified;
+	}
+
+	private void load() throws IOException {
+		final File file = new File(directory, MANIFEST_FILENAME);
+		if (!file.exists()) {
+			return;
+		}
+		final Map<String, Entry> loadedEntriesByName = new LinkedHashMap<String, Entry>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), ENCODING));
+		try {
+			String line = reader.readLine();
+			while (line != null) {
+				final int index1 = line.indexOf(SEPARATOR);
+				final int index2 = line.indexOf(SEPARATOR, index1 + 1);
+				if (index1 > 0 && index2 > index1) {
+					final long lastUpdate = Long.parseLong(line.substring(0, index1));
+					final long size = Long.parseLong(line.substring(index1 + 1, index2));
+					final String name = line.substring(index2 + 1);
+					loadedEntriesByName.put(name, new Entry(name, lastUpdate, size));
+				}
+				line = reader.readLine();
+			}
+		} catch (final NumberFormatException e) {
+			throw createIOException(e);
+		} finally {
+			reader.close();
+		}
+		// les entrées déjà en mémoire (fichiers écrits avant ce chargement) sont plus récentes
+		for (final Entry entry : loadedEntriesByName.values()) {
+			entriesByName.putIfAbsent(entry.getName(), entry);
+		}
+	}
+
+	/**
+	 * Enregistre le manifeste dans le répertoire de stockage s'il a été modifié.
+	 * @throws IOException e
+	 */
+	synchronized void save() throws IOException {
+		if (!dirty || !directory.exists()) {
+			return;
+		}
+		// le manifeste existant doit être chargé avant d'être remplacé,
+		// sinon les entrées des fichiers non écrits depuis le démarrage seraient perdues
+		reconcile();
+		// date du répertoire lue avant l'écriture : si le répertoire a été modifié par ailleurs
+		// depuis la dernière réconciliation, il devra toujours être relu après cette écriture
+		final boolean directoryReconciled = directory.lastModified() == directoryLastModified;
+		// dirty est remis à false avant l'écriture, pour ne pas perdre une modification faite pendant
+		dirty = false;
+		final File file = new File(directory, MANIFEST_FILENAME);
+		final File tmpFile = new File(directory, MANIFEST_FILENAME + ".tmp");
+		try {
+			write(tmpFile);
+			if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+				throw new IOException("Storage manifest can't be written: " + file.getPath());
+			}
+		} catch (final IOException e) {
+			dirty = true;
+			throw e;
+		}
+		if (directoryReconciled) {
+			// l'écriture du manifeste modifie le répertoire, mais ne doit pas entraîner sa relecture
+			directoryLastModified = directory.lastModified();
+		}
+	}
+
+	private void write(File tmpFile) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				tmpFile), ENCODING));
+		try {
+			for (final Entry entry : entriesByName.values()) {
+				writer.write(String.valueOf(entry.getLastUpdate()));
+				writer.write(SEPARATOR);
+				writer.write(String.valueOf(entry.getSize()));
+				writer.write(SEPARATOR);
+				writer.write(entry.getName());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static IOException createIOException(Exception e) {
+		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
+		final IOException ex = new IOException(e.getMessage());
+		ex.initCause(e);
+		return ex;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[directory=" + directory.getPath() + ", entries="
+				+ entriesByName.size() + ']';
+	}
+}
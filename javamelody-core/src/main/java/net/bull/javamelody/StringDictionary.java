@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dictionnaire partagé des noms de requêtes et des messages d'erreurs.
+ * <br/>Un même nom de requête (requête sql complète, url, Classe.méthode) est sinon conservé en mémoire
+ * dans autant d'instances de String que de compteurs (compteur courant, compteur du jour, compteurs
+ * des périodes), et dans le serveur de collecte que d'applications exécutant le même code.
+ * Avec ce dictionnaire, les chaînes identiques sont partagées par une seule instance.
+ * <br/>Les chaînes sont référencées faiblement : une chaîne qui n'est plus utilisée par aucune requête
+ * est libérée par le ramasse-miette et disparaît du dictionnaire.
+ * (String.intern() n'est pas utilisé car la table des chaînes internées du jdk a une taille fixe
+ * et est en PermGen avant le jdk 7).
+ * <br/>Le dictionnaire est découpé en plusieurs maps ayant chacune leur verrou, pour que les threads
+ * créant des requêtes ou des erreurs en parallèle ne se bloquent pas sur un verrou global.
+ * @author Emeric Vernat
+ */
+final class StringDictionary {
+	// estimation de la mémoire d'une instance de String et de son tableau de caractères, hors caractères
+	private static final int STRING_OVERHEAD = 40;
+	// nombre de maps (puissance de 2)
+	private static final int STRIPES = 16;
+	private static final StringDictionary INSTANCE = new StringDictionary();
+
+	// WeakHashMap a des clés faibles, et les valeurs sont aussi faibles car elles référencent les clés
+	private final List<Map<String, WeakReference<String>>> stripes = new ArrayList<Map<String, WeakReference<String>>>(
+			STRIPES);
+	private final AtomicLong lookupCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong savedBytes = new AtomicLong();
+
+	private StringDictionary() {
+		super();
+		for (int i = 0; i < STRIPES; i++) {
+			stripes.add(new WeakHashMap<String, WeakReference<String>>());
+		}
+	}
+
+	static StringDictionary getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Retourne l'instance partagée d'une chaîne.
+	 * @param string Chaîne (peut être nulle)
+	 * @return Chaîne égale à celle en paramètre, partagée par toutes les requêtes
+	 */
+	static String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		return INSTANCE.internString(string);
+	}
+
+	private String internString(String string) {
+		lookupCount.incrementAndGet();
+		final int hash = string.hashCode();
+		final Map<String, WeakReference<String>> stringsByString = stripes.get((hash ^ hash >>> 16)
+				& (STRIPES - 1));
+		synchronized (stringsByString) {
+			final WeakReference<String> reference = stringsByString.get(string);
+			if (reference != null) {
+				final String result = reference.get();
+				if (result != null) {
+					if (result != string) {
+						hitCount.incrementAndGet();
+						savedBytes.addAndGet(STRING_OVERHEAD + 2L * string.length());
+					}
+					return result;
+				}
+			}
+			stringsByString.put(string, new WeakReference<String>(string));
+			return string;
+		}
+	}
+
+	/**
+	 * @return Nombre de chaînes dans le dictionnaire
+	 */
+	int getSize() {
+		int size = 0;
+		for (final Map<String, WeakReference<String>> stringsByString : stripes) {
+			synchronized (stringsByString) {
+				size += stringsByString.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return Nombre de chaînes cherchées dans le dictionnaire
+	 */
+	long getLookupCount() {
+		return lookupCount.get();
+	}
+
+	/**
+	 * @return Nombre de chaînes remplacées par une instance déjà présente dans le dictionnaire
+	 */
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return Estimation de la mémoire en octets économisée depuis le démarrage par les chaînes remplacées
+	 * (une partie de ces chaînes aurait de toute façon été libérée ensuite)
+	 */
+	long getSavedBytes() {
+		return savedBytes.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[size=" + getSize() + ", lookups="
+				+ getLookupCount() + ", hits=" + getHitCount() + ", savedBytes=" + getSavedBytes()
+				+ ']';
+	}
+}
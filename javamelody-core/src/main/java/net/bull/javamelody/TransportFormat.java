@@ -33,9 +33,16 @@ import java.util.Locale;
 import java.util.Map;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
 import com.thoughtworks.xstream.converters.collections.MapConverter;
+import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriterHelper;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.xml.CompactWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
 
 /**
  * Liste des formats de transport entre un serveur de collecte et une application monitorée
@@ -60,7 +67,15 @@ enum TransportFormat {
 	 * JSON (écriture en JSON avec XStream).
 	 * Note : il serait possible aussi de le faire avec Jackson (http://jackson.codehaus.org/)
 	 */
-	JSON("application/json");
+	JSON("application/json"),
+
+	/**
+	 * Encodage binaire compact et versionné (voir {@link BinaryTransport}), environ 2 fois plus petit
+	 * et plus rapide à écrire et à lire que la sérialisation java pour les compteurs.
+	 * <br/>Un serveur de collecte configuré avec ce format le demande par l'entête http Accept,
+	 * les applications monitorées d'une version antérieure répondant alors en sérialisation java.
+	 */
+	BINARY("application/x-javamelody-binary");
 
 	private static final String NULL_VALUE = "null";
 
@@ -131,8 +146,52 @@ enum TransportFormat {
 			xstream.registerLocalConverter(Counter.class, "requests", mapConverter);
 			xstream.registerLocalConverter(Counter.class, "rootCurrentContextsByThreadId",
 					mapConverter);
+			if (json) {
+				// NaN n'existe pas en json: les valeurs inconnues des courbes sont écrites null
+				final Converter timeSeriesConverter = createJsonTimeSeriesConverter();
+				xstream.registerLocalConverter(JRobinTimeSeries.class, "averages",
+						timeSeriesConverter);
+				xstream.registerLocalConverter(JRobinTimeSeries.class, "maximums",
+						timeSeriesConverter);
+			}
 			return xstream;
 		}
+
+		private static Converter createJsonTimeSeriesConverter() {
+			return new Converter() {
+				/** {@inheritDoc} */
+				@SuppressWarnings("rawtypes")
+				@Override
+				public boolean canConvert(Class type) {
+					return double[].class.equals(type);
+				}
+
+				/** {@inheritDoc} */
+				@Override
+				public void marshal(Object source, HierarchicalStreamWriter writer,
+						MarshallingContext context) {
+					for (final double value : (double[]) source) {
+						if (Double.isNaN(value)) {
+							ExtendedHierarchicalStreamWriterHelper.startNode(writer, NULL_VALUE,
+									Mapper.Null.class);
+						} else {
+							ExtendedHierarchicalStreamWriterHelper.startNode(writer, "double",
+									double.class);
+							writer.setValue(String.valueOf(value));
+						}
+						writer.endNode();
+					}
+				}
+
+				/** {@inheritDoc} */
+				@Override
+				public Object unmarshal(HierarchicalStreamReader reader,
+						UnmarshallingContext context) {
+					// le format json n'est utilisé qu'en écriture
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
 	}
 
 	private final String code;
@@ -223,6 +282,13 @@ enum TransportFormat {
 		case JSON:
 			XmlIO.writeToJson(nonNullSerializable, bufferedOutput);
 			break;
+		case BINARY:
+			try {
+				BinaryTransport.write(nonNullSerializable, bufferedOutput);
+			} finally {
+				bufferedOutput.close();
+			}
+			break;
 		default:
 			throw new IllegalStateException(toString());
 		}
@@ -247,6 +313,13 @@ enum TransportFormat {
 			// pas possible avec JsonHierarchicalStreamDriver
 			// (http://xstream.codehaus.org/json-tutorial.html)
 			throw new UnsupportedOperationException();
+		case BINARY:
+			try {
+				result = BinaryTransport.read(bufferedInput);
+			} finally {
+				bufferedInput.close();
+			}
+			break;
 		default:
 			throw new IllegalStateException(toString());
 		}
@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 /**
  * Liste des alias XStream pour les conversions XML et JSON.
@@ -50,11 +51,15 @@ final class XStreamAlias {
 		result.put("jobInformations", JobInformations.class);
 		result.put("counterError", CounterError.class);
 		result.put("method", SampledMethod.class);
+		result.put("stack", SampledStack.class);
 		result.put("processInformations", ProcessInformations.class);
 		result.put("databaseInformations", DatabaseInformations.class);
 		result.put("jndiBinding", JndiBinding.class);
 		result.put("mbeanNode", MBeanNode.class);
 		result.put("attribute", MBeanNode.MBeanAttribute.class);
+		result.put("timeSeries", JRobinTimeSeries.class);
+		result.put("nodeSummary", NodeSummary.class);
+		result.put("counterSummary", NodeSummary.CounterSummary.class);
 		return result;
 	}
 }
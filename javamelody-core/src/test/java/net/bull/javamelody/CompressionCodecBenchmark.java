@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark des algorithmes de compression (taux de compression et débits) sur des fichiers de compteurs réels.
+ * <br/>Usage : java net.bull.javamelody.CompressionCodecBenchmark [répertoire de stockage]
+ * <br/>Sans répertoire ou s'il ne contient pas de fichiers .ser.gz, un compteur sql synthétique est utilisé.
+ * @author Emeric Vernat
+ */
+public final class CompressionCodecBenchmark {
+	private static final int ITERATIONS = 20;
+
+	private CompressionCodecBenchmark() {
+		super();
+	}
+
+	/**
+	 * Lance le benchmark.
+	 * @param args Répertoire de stockage optionnel
+	 * @throws IOException e
+	 */
+	public static void main(String[] args) throws IOException {
+		final List<byte[]> samples = new ArrayList<byte[]>();
+		if (args.length > 0) {
+			final File[] files = new File(args[0]).listFiles();
+			if (files != null) {
+				for (final File file : files) {
+					if (file.getName().endsWith(".ser.gz")) {
+						samples.add(readUncompressed(file));
+					}
+				}
+			}
+		}
+		if (samples.isEmpty()) {
+			samples.add(createSyntheticCounter());
+		}
+		long rawLength = 0;
+		for (final byte[] sample : samples) {
+			rawLength += sample.length;
+		}
+		System.out.println(samples.size() + " counter(s), " + rawLength / 1024
+				+ " KB uncompressed");
+		final String[] levels = { "1", null, "9" };
+		for (final CompressionCodec codec : CompressionCodec.values()) {
+			for (final String level : codec == CompressionCodec.GZIP ? levels
+					: new String[] { null }) {
+				Utils.setProperty(Parameter.COMPRESSION_LEVEL, level);
+				run(codec, level, samples, rawLength);
+			}
+		}
+		Utils.setProperty(Parameter.COMPRESSION_LEVEL, null);
+	}
+
+	private static void run(CompressionCodec codec, String level, List<byte[]> samples,
+			long rawLength) throws IOException {
+		// échauffement
+		final List<byte[]> compressed = new ArrayList<byte[]>();
+		for (final byte[] sample : samples) {
+			compressed.add(compress(codec, sample));
+		}
+		long compressedLength = 0;
+		for (final byte[] bytes : compressed) {
+			compressedLength += bytes.length;
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (final byte[] sample : samples) {
+				compress(codec, sample);
+			}
+		}
+		final long compressTime = System.nanoTime() - start;
+		final long start2 = System.nanoTime();
+		final byte[] buffer = new byte[8192];
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (final byte[] bytes : compressed) {
+				final InputStream input = codec
+						.createInputStream(new ByteArrayInputStream(bytes));
+				try {
+					while (input.read(buffer) != -1) {
+						continue;
+					}
+				} finally {
+					input.close();
+				}
+			}
+		}
+		final long decompressTime = System.nanoTime() - start2;
+		final double megaBytes = (double) rawLength * ITERATIONS / 1024 / 1024;
+		System.out.println(codec + (level != null ? " level " + level : "") + ": ratio "
+				+ Math.round(1000d * compressedLength / rawLength) / 10d + " %, compression "
+				+ Math.round(megaBytes * 1000000000 / compressTime) + " MB/s, decompression "
+				+ Math.round(megaBytes * 1000000000 / decompressTime) + " MB/s");
+	}
+
+	private static byte[] compress(CompressionCodec codec, byte[] bytes) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+		final OutputStream output = codec.createOutputStream(out, 512);
+		try {
+			output.write(bytes);
+		} finally {
+			output.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] readUncompressed(File file) throws IOException {
+		final InputStream input = CompressionCodec
+				.createDetectingInputStream(new FileInputStream(file));
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TransportFormat.pump(input, out);
+			return out.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	private static byte[] createSyntheticCounter() throws IOException {
+		final Counter counter = new Counter("sql", null);
+		for (int i = 0; i < 5000; i++) {
+			final String request = "select id, name, description from table" + i % 100
+					+ " t inner join other o on o.id = t.other_id where t.id = " + i;
+			counter.addRequest(request, i % 300, -1, i % 97 == 0, -1);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ObjectOutputStream output = new ObjectOutputStream(out);
+		try {
+			output.writeObject(counter);
+		} finally {
+			output.close();
+		}
+		return out.toByteArray();
+	}
+}
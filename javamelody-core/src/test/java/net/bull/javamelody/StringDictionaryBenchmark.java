@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark de la mémoire économisée par le dictionnaire des noms de requêtes (StringDictionary)
+ * dans un serveur de collecte : plusieurs applications exécutant le même code,
+ * avec pour chacune un compteur sql et son compteur du jour reçus par sérialisation.
+ * <br/>Sans le dictionnaire, les noms sont dupliqués par réflexion comme ils l'étaient auparavant.
+ * <br/>Usage : java -Xmx512m net.bull.javamelody.StringDictionaryBenchmark [applications] [requêtes]
+ * @author Emeric Vernat
+ */
+public final class StringDictionaryBenchmark {
+	private StringDictionaryBenchmark() {
+		super();
+	}
+
+	/**
+	 * Lance le benchmark.
+	 * @param args Nombre d'applications et nombre de requêtes par compteur, optionnels
+	 * @throws Exception e
+	 */
+	public static void main(String[] args) throws Exception { // NOPMD
+		Utils.initialize();
+		final int applications = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		final byte[] bytes = write(createSyntheticCounter(requests));
+		for (final boolean dictionary : new boolean[] { false, true }) {
+			final long before = getUsedMemory();
+			final List<Counter> counters = new ArrayList<Counter>();
+			for (int i = 0; i < applications; i++) {
+				// compteur courant et compteur du jour
+				counters.add(read(bytes, dictionary));
+				counters.add(read(bytes, dictionary));
+			}
+			final long used = getUsedMemory() - before;
+			System.out.println((dictionary ? "with" : "without") + " dictionary: " + applications
+					+ " applications, " + requests + " requests per counter, " + used / 1024
+					+ " KB for " + counters.size() + " counters");
+		}
+		System.out.println(StringDictionary.getInstance());
+	}
+
+	private static Counter createSyntheticCounter(int requests) {
+		final Counter counter = new Counter("sql", null);
+		for (int i = 0; i < requests; i++) {
+			final String request = "select t.id, t.name, t.description, o.label, o.creation_date from table"
+					+ i + " t inner join other o on o.id = t.other_id where t.status = ? and t.id = ?";
+			counter.addRequest(request, i % 300, -1, false, -1);
+		}
+		return counter;
+	}
+
+	private static byte[] write(Counter counter) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransportFormat.SERIALIZED.writeSerializableTo(counter, out);
+		return out.toByteArray();
+	}
+
+	private static Counter read(byte[] bytes, boolean dictionary) throws Exception { // NOPMD
+		final Counter counter = (Counter) TransportFormat.SERIALIZED
+				.readSerializableFrom(new ByteArrayInputStream(bytes));
+		if (!dictionary) {
+			// copie des noms, des ids et des clés comme sans le dictionnaire
+			final Field nameField = CounterRequest.class.getDeclaredField("name");
+			final Field idField = CounterRequest.class.getDeclaredField("id");
+			final Field requestsField = Counter.class.getDeclaredField("requests");
+			nameField.setAccessible(true);
+			idField.setAccessible(true);
+			requestsField.setAccessible(true);
+			@SuppressWarnings("unchecked")
+			final Map<String, CounterRequest> requestsByName = (Map<String, CounterRequest>) requestsField
+					.get(counter);
+			for (final CounterRequest request : new ArrayList<CounterRequest>(
+					requestsByName.values())) {
+				final String name = new String(request.getName().toCharArray());
+				nameField.set(request, name);
+				idField.set(request, new String(request.getId().toCharArray()));
+				requestsByName.remove(name);
+				requestsByName.put(name, request);
+			}
+		}
+		return counter;
+	}
+
+	private static long getUsedMemory() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		final Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
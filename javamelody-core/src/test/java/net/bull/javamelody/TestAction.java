@@ -111,6 +111,12 @@ public class TestAction {
 				counterName, sessionId, threadId, jobId, "inconnu"));
 		assertNotNull("message PURGE_OBSOLETE_FILES", Action.PURGE_OBSOLETE_FILES.execute(
 				collector, null, counterName, sessionId, threadId, jobId, cacheId));
+		assertNotNull("message START_HIGH_RESOLUTION_CAPTURE",
+				Action.START_HIGH_RESOLUTION_CAPTURE.execute(collector, null, counterName,
+						sessionId, threadId, jobId, cacheId));
+		assertNotNull("message STOP_HIGH_RESOLUTION_CAPTURE",
+				Action.STOP_HIGH_RESOLUTION_CAPTURE.execute(collector, null, counterName,
+						sessionId, threadId, jobId, cacheId));
 		final String heapDump1 = Action.HEAP_DUMP.execute(collector, null, counterName, sessionId,
 				threadId, jobId, cacheId);
 		assertNotNull("message HEAP_DUMP", heapDump1);
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.bull.javamelody.SamplingProfiler.SampledMethod;
+import net.bull.javamelody.SamplingProfiler.SampledStack;
+
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe ClusterHotspots.
+ * @author Emeric Vernat
+ */
+public class TestClusterHotspots {
+	private static final String NODE1 = "http://node1/monitoring";
+	private static final String NODE2 = "http://node2/monitoring";
+	private static final String STACK = "test.Main.main;test.Service.run";
+
+	private static SampledMethod createMethod(long count) {
+		final SampledMethod method = new SampledMethod("test.Service", "run");
+		method.setCount(count);
+		return method;
+	}
+
+	private static SampledStack createStack(long count) {
+		final SampledStack stack = new SampledStack(STACK);
+		stack.setCount(count);
+		return stack;
+	}
+
+	/** Test. */
+	@Test
+	public void testUpdateNode() {
+		final ClusterHotspots clusterHotspots = new ClusterHotspots();
+		assertTrue("empty", clusterHotspots.getHotspots().isEmpty());
+		clusterHotspots.updateNode(NODE1, Collections.singletonList(createMethod(10)),
+				Collections.singletonList(createStack(10)));
+		clusterHotspots.updateNode(NODE2, Collections.singletonList(createMethod(5)),
+				Collections.singletonList(createStack(5)));
+		assertEquals("nodes", 2, clusterHotspots.getNodesCount());
+		assertEquals("method count", 15, clusterHotspots.getHotspots().get(0).getCount());
+		assertEquals("stack count", 15, clusterHotspots.getHotspotStacks().get(0).getCount());
+
+		// seule la différence avec les données précédentes du serveur est ajoutée
+		clusterHotspots.updateNode(NODE1, Collections.singletonList(createMethod(12)), null);
+		assertEquals("method count", 17, clusterHotspots.getHotspots().get(0).getCount());
+		assertEquals("stack count", 15, clusterHotspots.getHotspotStacks().get(0).getCount());
+
+		// serveur redémarré ou hotspots réinitialisés
+		final SampledMethod other = new SampledMethod("test.Dao", "select");
+		other.setCount(1);
+		clusterHotspots.updateNode(NODE2, Collections.singletonList(other),
+				Collections.<SampledStack> emptyList());
+		final List<SampledMethod> hotspots = clusterHotspots.getHotspots();
+		assertEquals("methods", 2, hotspots.size());
+		assertEquals("method count", 12, hotspots.get(0).getCount());
+		assertEquals("method count", 1, hotspots.get(1).getCount());
+		assertEquals("stack count", 10, clusterHotspots.getHotspotStacks().get(0).getCount());
+	}
+
+	/** Test. */
+	@Test
+	public void testRetainNodes() {
+		final ClusterHotspots clusterHotspots = new ClusterHotspots();
+		clusterHotspots.updateNode(NODE1, Collections.singletonList(createMethod(10)),
+				Collections.singletonList(createStack(10)));
+		clusterHotspots.updateNode(NODE2, Collections.singletonList(createMethod(5)),
+				Collections.singletonList(createStack(5)));
+		clusterHotspots.retainNodes(Arrays.asList(NODE1, NODE2));
+		assertEquals("nodes", 2, clusterHotspots.getNodesCount());
+		clusterHotspots.retainNodes(Collections.singletonList(NODE2));
+		assertEquals("nodes", 1, clusterHotspots.getNodesCount());
+		assertEquals("method count", 5, clusterHotspots.getHotspots().get(0).getCount());
+		assertEquals("stack count", 5, clusterHotspots.getHotspotStacks().get(0).getCount());
+		clusterHotspots.clear();
+		assertTrue("cleared", clusterHotspots.getHotspotStacks().isEmpty());
+		assertEquals("toString", "ClusterHotspots[nodes=0, methods=0, stacks=0]",
+				clusterHotspots.toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testUnused() {
+		final ClusterHotspots clusterHotspots = new ClusterHotspots();
+		assertFalse("unused", clusterHotspots.isUnused());
+		final long hour = 60 * 60 * 1000L;
+		assertTrue("unused", clusterHotspots.isUnusedAt(System.currentTimeMillis() + hour));
+		clusterHotspots.touch();
+		assertFalse("unused", clusterHotspots.isUnusedAt(System.currentTimeMillis() + hour / 4));
+	}
+}
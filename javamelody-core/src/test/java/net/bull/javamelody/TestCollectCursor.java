@@ -0,0 +1,148 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CollectCursor.
+ * @author Emeric Vernat
+ */
+public class TestCollectCursor {
+	private Counter counter;
+	private CollectCursor.Tracker tracker;
+
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		counter = new Counter("http", null);
+		tracker = new CollectCursor.Tracker();
+	}
+
+	/** Test. */
+	@Test
+	public void testGetCountersSince() {
+		counter.addRequest("test a", 100, 50, false, 1000);
+		// première collecte : tout
+		List<Serializable> result = collect("0");
+		assertEquals("hits", 1, getHits(result, "test a"));
+		final String cursor1 = getCursor(result).getId();
+
+		counter.addRequest("test a", 100, 50, false, 1000);
+		counter.addRequest("test b", 100, 50, false, 1000);
+		result = collect(cursor1);
+		assertEquals("hits", 1, getHits(result, "test a"));
+		assertEquals("hits", 1, getHits(result, "test b"));
+		final String cursor2 = getCursor(result).getId();
+		assertTrue("new cursor", !cursor1.equals(cursor2));
+
+		// la réponse précédente est perdue : le serveur renvoie cursor1
+		counter.addRequest("test a", 100, 50, false, 1000);
+		result = collect(cursor1);
+		assertEquals("hits", 2, getHits(result, "test a"));
+		assertEquals("hits", 1, getHits(result, "test b"));
+		final String cursor3 = getCursor(result).getId();
+
+		// rien de nouveau
+		result = collect(cursor3);
+		assertEquals("requests count", 0, getCounter(result).getRequestsCount());
+
+		// curseur inconnu (serveur de collecte redémarré) : différences depuis la dernière collecte
+		counter.addRequest("test b", 100, 50, false, 1000);
+		result = collect("unknown");
+		assertEquals("hits", 0, getHits(result, "test a"));
+		assertEquals("hits", 1, getHits(result, "test b"));
+
+		// compteur vidé : tout ce qui est nouveau depuis
+		final String cursor4 = getCursor(result).getId();
+		counter.clear();
+		counter.addRequest("test a", 100, 50, false, 1000);
+		result = collect(cursor4);
+		assertEquals("hits", 1, getHits(result, "test a"));
+		assertNotNull("toString", getCursor(result).toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testManyLostResponses() {
+		counter.addRequest("test a", 100, 50, false, 1000);
+		final String acknowledgedCursor = getCursor(collect("0")).getId();
+		// les envois échouent plusieurs fois de suite (serveur de collecte arrêté) :
+		// l'état du curseur confirmé doit être gardé
+		for (int i = 0; i < 10; i++) {
+			counter.addRequest("test a", 100, 50, false, 1000);
+			collect(acknowledgedCursor);
+		}
+		counter.addRequest("test b", 100, 50, false, 1000);
+		final List<Serializable> result = collect(acknowledgedCursor);
+		assertEquals("hits", 10, getHits(result, "test a"));
+		assertEquals("hits", 1, getHits(result, "test b"));
+	}
+
+	/** Test. */
+	@Test
+	public void testLostPushResponses() {
+		counter.addRequest("test a", 100, 50, false, 1000);
+		final String acknowledgedCursor = getCursor(collect("0")).getId();
+		// envoi accepté par le serveur de collecte, mais dont la réponse est perdue
+		counter.addRequest("test a", 100, 50, false, 1000);
+		final String acceptedCursor = getCursor(collect(acknowledgedCursor)).getId();
+		// les envois suivants sont refusés par le serveur de collecte et leurs réponses perdues
+		for (int i = 0; i < 10; i++) {
+			counter.addRequest("test a", 100, 50, false, 1000);
+			collect(acknowledgedCursor);
+		}
+		// le serveur de collecte confirme enfin le curseur accepté : son état doit être gardé
+		counter.addRequest("test b", 100, 50, false, 1000);
+		final List<Serializable> result = collect(acceptedCursor);
+		assertEquals("hits", 10, getHits(result, "test a"));
+		assertEquals("hits", 1, getHits(result, "test b"));
+	}
+
+	private List<Serializable> collect(String cursorId) {
+		final List<Counter> clones = Collections.singletonList(counter.clone());
+		return tracker.getCountersSince(cursorId, clones);
+	}
+
+	private static Counter getCounter(List<Serializable> result) {
+		return (Counter) result.get(0);
+	}
+
+	private static CollectCursor getCursor(List<Serializable> result) {
+		return (CollectCursor) result.get(result.size() - 1);
+	}
+
+	private static long getHits(List<Serializable> result, String requestName) {
+		final CounterRequest request = getCounter(result).getCounterRequestByName(requestName);
+		if (request == null) {
+			return 0;
+		}
+		return request.getHits();
+	}
+}
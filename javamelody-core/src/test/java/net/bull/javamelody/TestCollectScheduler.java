@@ -0,0 +1,200 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bull.javamelody.CollectScheduler.ApplicationState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CollectScheduler.
+ * @author Emeric Vernat
+ */
+public class TestCollectScheduler {
+	private static final long PERIOD_MILLIS = 100;
+	private Timer timer;
+	private CollectScheduler collectScheduler;
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		timer = new Timer(getClass().getSimpleName(), true);
+		collectScheduler = new CollectScheduler(timer, PERIOD_MILLIS);
+	}
+
+	/** Stop. */
+	@After
+	public void tearDown() {
+		collectScheduler.stop();
+		timer.cancel();
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testSkipAndCoalesce() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicInteger collects = new AtomicInteger();
+		final Runnable slowCollect = new Runnable() {
+			@Override
+			public void run() {
+				collects.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}
+		};
+		collectScheduler.schedule("slow", slowCollect);
+		final ApplicationState state = collectScheduler.getState("slow");
+		assertNotNull("state", state);
+		assertTrue("running", state.isRunning());
+		assertTrue("jitter", state.getJitterMillis() < PERIOD_MILLIS);
+		// les collectes suivantes sont sautées tant que la première n'est pas finie
+		collectScheduler.schedule("slow", slowCollect);
+		collectScheduler.schedule("slow", slowCollect);
+		assertEquals("skipped", 2, state.getSkippedCount());
+
+		// une autre application n'est pas bloquée par l'application lente
+		final CountDownLatch fastDone = new CountDownLatch(1);
+		collectScheduler.schedule("fast", new Runnable() {
+			@Override
+			public void run() {
+				fastDone.countDown();
+			}
+		});
+		assertTrue("fast", fastDone.await(5, TimeUnit.SECONDS));
+
+		release.countDown();
+		assertTrue("done", done.await(5, TimeUnit.SECONDS));
+		// les collectes sautées sont regroupées en une seule
+		Thread.sleep(100);
+		assertEquals("collects", 2, collects.get());
+		assertEquals("collectCount", 2, state.getCollectCount());
+		assertFalse("running", state.isRunning());
+		assertTrue("toString", collectScheduler.toString().contains("slow"));
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testScheduleAfterStop() throws InterruptedException {
+		collectScheduler.stop();
+		final AtomicInteger collects = new AtomicInteger();
+		collectScheduler.schedule("stopped", new Runnable() {
+			@Override
+			public void run() {
+				collects.incrementAndGet();
+			}
+		});
+		final ApplicationState state = collectScheduler.getState("stopped");
+		final long start = System.currentTimeMillis();
+		while (state.isRunning() && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		// la collecte refusée ne reste pas en cours et n'annule pas le timer
+		assertFalse("running", state.isRunning());
+		assertEquals("collects", 0, collects.get());
+		final CountDownLatch timerAlive = new CountDownLatch(1);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				timerAlive.countDown();
+			}
+		}, 0);
+		assertTrue("timer", timerAlive.await(5, TimeUnit.SECONDS));
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testCollectLag() throws InterruptedException {
+		assertEquals("lag", 0, collectScheduler.getCollectLagMillis("unknown"));
+		assertFalse("late", collectScheduler.isCollectLate("unknown"));
+		final CountDownLatch release = new CountDownLatch(1);
+		collectScheduler.schedule("test", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Thread.sleep(3 * PERIOD_MILLIS);
+		assertTrue("lag", collectScheduler.getCollectLagMillis("test") > 0);
+		assertTrue("late", collectScheduler.isCollectLate("test"));
+		release.countDown();
+		Thread.sleep(PERIOD_MILLIS / 2);
+		assertFalse("late", collectScheduler.isCollectLate("test"));
+		collectScheduler.remove("test");
+		assertEquals("lag", 0, collectScheduler.getCollectLagMillis("test"));
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testAdjustPoolSize() throws InterruptedException {
+		assertEquals("threads", CollectScheduler.getMaxThreads(), collectScheduler.getPoolSize());
+		final CountDownLatch done = new CountDownLatch(1);
+		collectScheduler.schedule("test", new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue("done", done.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		// une seule application rapide : un seul thread suffit
+		collectScheduler.adjustPoolSize();
+		assertEquals("threads", 1, collectScheduler.getPoolSize());
+	}
+
+	/** Test. */
+	@Test
+	public void testParameters() {
+		assertEquals("threads", 10, CollectScheduler.getMaxThreads());
+		Utils.setProperty(Parameter.COLLECT_THREADS, "0");
+		try {
+			CollectScheduler.getMaxThreads();
+			fail("threads");
+		} catch (final IllegalStateException e) {
+			assertNotNull("e", e);
+		}
+	}
+}
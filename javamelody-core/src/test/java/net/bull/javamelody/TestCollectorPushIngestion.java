@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CollectorPushIngestion,
+ * avec des applications monitorées dans le même processus.
+ * @author Emeric Vernat
+ */
+public class TestCollectorPushIngestion {
+	private static final String TEST = "test push";
+	private static final String REQUEST = "test request";
+	private static final long PAYLOAD_SIZE = 1000;
+
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private static CollectorPushClient createNode(String nodeId) {
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		final Collector collector = new Collector(nodeId, Collections.singletonList(counter));
+		// sans les données éventuellement relues du stockage par le constructeur de Collector
+		counter.clear();
+		return new CollectorPushClient(collector, "http://localhost:8090/", TEST, nodeId);
+	}
+
+	private static void addHits(CollectorPushClient node, int hits) {
+		final Counter counter = getCounter(node);
+		for (int i = 0; i < hits; i++) {
+			counter.addRequest(REQUEST, 100, 50, false, 1000);
+		}
+	}
+
+	private static Counter getCounter(CollectorPushClient node) {
+		return node.getCollector().getCounterByName(Counter.HTTP_COUNTER_NAME);
+	}
+
+	private static List<Serializable> createPayload(CollectorPushClient node) {
+		return node.createPayload(Collections.singletonList(new JavaInformations(null, false)));
+	}
+
+	private static long getHits(List<List<Serializable>> payloads) {
+		long hits = 0;
+		for (final List<Serializable> payload : payloads) {
+			final Counter counter = (Counter) payload.get(0);
+			for (final CounterRequest request : counter.getRequests()) {
+				hits += request.getHits();
+			}
+		}
+		return hits;
+	}
+
+	/** Test. */
+	@Test
+	public void testPush() {
+		final CollectorPushIngestion ingestion = new CollectorPushIngestion();
+		final CollectorPushClient node1 = createNode("node1");
+		final CollectorPushClient node2 = createNode("node2");
+		addHits(node1, 2);
+		addHits(node2, 3);
+		node1.acknowledge(ingestion.push(TEST, node1.getNodeId(), node1.getAcknowledgedCursor(),
+				createPayload(node1), PAYLOAD_SIZE));
+		node2.acknowledge(ingestion.push(TEST, node2.getNodeId(), node2.getAcknowledgedCursor(),
+				createPayload(node2), PAYLOAD_SIZE));
+		assertEquals("nodes", 2, ingestion.getNodesCount(TEST));
+		assertEquals("queue", 2, ingestion.getQueueSize(TEST));
+		assertEquals("javaInformations", 2, ingestion.getJavaInformationsList(TEST).size());
+		assertEquals("hits", 5, getHits(ingestion.drain(TEST)));
+		assertEquals("queue", 0, ingestion.getQueueSize(TEST));
+
+		// seules les différences sont envoyées ensuite
+		addHits(node1, 1);
+		node1.acknowledge(ingestion.push(TEST, node1.getNodeId(), node1.getAcknowledgedCursor(),
+				createPayload(node1), PAYLOAD_SIZE));
+		assertEquals("hits", 1, getHits(ingestion.drain(TEST)));
+
+		// réponse perdue : les données ne sont pas fusionnées une deuxième fois
+		addHits(node1, 1);
+		final String cursorBeforeLostResponse = node1.getAcknowledgedCursor();
+		final String lostCursor = ingestion.push(TEST, node1.getNodeId(),
+				cursorBeforeLostResponse, createPayload(node1), PAYLOAD_SIZE);
+		assertEquals("hits", 1, getHits(ingestion.drain(TEST)));
+		addHits(node1, 1);
+		final String cursor = ingestion.push(TEST, node1.getNodeId(), cursorBeforeLostResponse,
+				createPayload(node1), PAYLOAD_SIZE);
+		assertEquals("cursor", lostCursor, cursor);
+		assertEquals("hits", 0, getHits(ingestion.drain(TEST)));
+		node1.acknowledge(cursor);
+		node1.acknowledge(ingestion.push(TEST, node1.getNodeId(), node1.getAcknowledgedCursor(),
+				createPayload(node1), PAYLOAD_SIZE));
+		assertEquals("hits", 1, getHits(ingestion.drain(TEST)));
+		assertTrue("applications", ingestion.getApplications().contains(TEST));
+		assertNotNull("toString", ingestion.toString());
+		assertNotNull("toString", node1.toString());
+
+		// pas de serveur de collecte à cette adresse : pas d'exception et les données seront renvoyées
+		final String acknowledgedCursor = node1.getAcknowledgedCursor();
+		node1.pushWithoutErrors();
+		node1.pushWithoutErrors();
+		assertEquals("cursor", acknowledgedCursor, node1.getAcknowledgedCursor());
+	}
+
+	/** Test. */
+	@Test
+	public void testBackpressure() {
+		final CollectorPushIngestion ingestion = new CollectorPushIngestion();
+		final CollectorPushClient node = createNode("node");
+		for (int i = 0; i < CollectorPushIngestion.MAX_QUEUED_PUSHES; i++) {
+			// envois sans confirmation, tous fusionnés car premier envoi
+			assertNotNull("push", push(ingestion, node, PAYLOAD_SIZE));
+		}
+		assertNull("queue full", push(ingestion, node, PAYLOAD_SIZE));
+		ingestion.drain(TEST);
+		assertNotNull("push", push(ingestion, node, PAYLOAD_SIZE));
+
+		// file d'attente bornée en octets, mais un envoi seul est toujours accepté
+		ingestion.drain(TEST);
+		assertNotNull("push", push(ingestion, node, CollectorPushIngestion.MAX_QUEUED_BYTES));
+		assertNull("queue full", push(ingestion, node, PAYLOAD_SIZE));
+		ingestion.drain(TEST);
+		assertNotNull("push", push(ingestion, node, PAYLOAD_SIZE));
+	}
+
+	private static String push(CollectorPushIngestion ingestion, CollectorPushClient node,
+			long payloadSize) {
+		return ingestion.push(TEST, node.getNodeId(), "0", createPayload(node), payloadSize);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCollectorServer() throws IOException {
+		final CollectorServer collectorServer = new CollectorServer();
+		try {
+			final CollectorPushClient node1 = createNode("node1");
+			final CollectorPushClient node2 = createNode("node2");
+			addHits(node1, 2);
+			addHits(node2, 3);
+			for (final CollectorPushClient node : new CollectorPushClient[] { node1, node2 }) {
+				node.acknowledge(collectorServer.pushForApplication(TEST, node.getNodeId(),
+						node.getAcknowledgedCursor(), createPayload(node), PAYLOAD_SIZE));
+			}
+			assertFalse("available", collectorServer.isApplicationDataAvailable(TEST));
+			collectorServer.collectPushedApplicationWithoutErrors(TEST);
+			assertTrue("available", collectorServer.isApplicationDataAvailable(TEST));
+			assertTrue("pushed applications", collectorServer.getPushedApplications()
+					.contains(TEST));
+			final Collector collector = collectorServer.getCollectorByApplication(TEST);
+			// le collector relit les données stockées par un test précédent éventuel
+			final long hits = collector.getCounterByName(Counter.HTTP_COUNTER_NAME)
+					.getCounterRequestByName(REQUEST).getHits();
+			assertTrue("hits", hits >= 5);
+			assertEquals("javaInformations", 2, collectorServer
+					.getJavaInformationsByApplication(TEST).size());
+
+			addHits(node2, 1);
+			node2.acknowledge(collectorServer.pushForApplication(TEST, node2.getNodeId(),
+					node2.getAcknowledgedCursor(), createPayload(node2), PAYLOAD_SIZE));
+			collectorServer.collectPushedApplicationWithoutErrors(TEST);
+			assertEquals("hits", hits + 1, collector.getCounterByName(Counter.HTTP_COUNTER_NAME)
+					.getCounterRequestByName(REQUEST).getHits());
+			assertTrue("url", node1.getPushUrl().toString().contains("push=test+push"));
+		} finally {
+			collectorServer.stop();
+		}
+	}
+}
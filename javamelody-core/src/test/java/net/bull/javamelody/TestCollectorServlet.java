@@ -18,18 +18,31 @@
  */
 package net.bull.javamelody;
 
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
+import static net.bull.javamelody.HttpParameters.NODE_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PUSH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.RELEASE_PARAMETER;
+import static net.bull.javamelody.HttpParameters.SHARD_PART;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -46,9 +59,12 @@ public class TestCollectorServlet {
 	private static final String TRUE = "true";
 	private static final String REMOTE_ADDR = "127.0.0.1"; // NOPMD
 	private static final String TEST = "test";
+	private static final String PUSH_TOKEN = "token";
 	private ServletConfig config;
 	private ServletContext context;
 	private CollectorServlet collectorServlet;
+	private String pushTokenParameter;
+	private String pushApplicationsParameter;
 
 	/**
 	 * Initialisation.
@@ -146,6 +162,65 @@ public class TestCollectorServlet {
 		verify(response);
 	}
 
+	/** Test.
+	 * @throws ServletException e
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testDoGetShardPing() throws ServletException, IOException,
+			ClassNotFoundException {
+		setUp();
+		final String shardUrl = "http://localhost:8081/";
+		Utils.setProperty(Parameter.COLLECTOR_SHARDS, shardUrl + ",http://localhost:8082/");
+		Utils.setProperty(Parameter.COLLECTOR_SHARD_URL, shardUrl);
+		final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getParameter(PART_PARAMETER)).andReturn(SHARD_PART).anyTimes();
+		final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		expect(response.getOutputStream()).andReturn(new FilterServletOutputStream(output))
+				.anyTimes();
+		replay(config);
+		replay(context);
+		replay(request);
+		replay(response);
+		collectorServlet.init(config);
+		collectorServlet.doGet(request, response);
+		verify(request);
+		verify(response);
+		assertEquals("shard", shardUrl, TransportFormat.SERIALIZED
+				.readSerializableFrom(new ByteArrayInputStream(output.toByteArray())));
+
+		// demande de libération d'une application par un autre serveur de collecte
+		doGetShardRelease("http://localhost:8082/", "127.0.0.1", true);
+		doGetShardRelease("http://localhost:8083/", "127.0.0.1", false);
+		doGetShardRelease(null, "127.0.0.1", false);
+		// entête d'un serveur de collecte du paramètre, mais envoyé par un autre hôte
+		doGetShardRelease("http://localhost:8082/", "10.1.2.3", false);
+	}
+
+	private void doGetShardRelease(String requestingShardUrl, String remoteAddr, boolean allowed)
+			throws ServletException, IOException {
+		final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getRemoteAddr()).andReturn(remoteAddr).anyTimes();
+		expect(request.getParameter(PART_PARAMETER)).andReturn(SHARD_PART).anyTimes();
+		expect(request.getParameter(RELEASE_PARAMETER)).andReturn(TEST).anyTimes();
+		expect(request.getHeader(CollectorShards.FORWARDED_HEADER)).andReturn(
+				requestingShardUrl).anyTimes();
+		final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		expect(response.getOutputStream()).andReturn(new FilterServletOutputStream(output))
+				.anyTimes();
+		if (!allowed) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden release");
+		}
+		replay(request);
+		replay(response);
+		collectorServlet.doGet(request, response);
+		verify(request);
+		verify(response);
+		assertEquals("released", allowed, output.size() > 0);
+	}
+
 	/** Test.
 	 * @throws ServletException e
 	 * @throws IOException e */
@@ -196,6 +271,81 @@ public class TestCollectorServlet {
 		verify(response);
 	}
 
+	/** Test.
+	 * @throws ServletException e
+	 * @throws IOException e */
+	@Test
+	public void testDoPostPush() throws ServletException, IOException {
+		final List<Serializable> payload = new ArrayList<Serializable>();
+		payload.add(new Counter(Counter.HTTP_COUNTER_NAME, null));
+		payload.add(new JavaInformations(null, false));
+		payload.add(new CollectCursor("1"));
+		// mode push désactivé sans jeton défini dans le serveur de collecte
+		doPostPush(payload, "0", PUSH_TOKEN, TEST, HttpServletResponse.SC_FORBIDDEN,
+				"Forbidden push");
+		pushTokenParameter = PUSH_TOKEN;
+		doPostPush(payload, "0", null, TEST, HttpServletResponse.SC_FORBIDDEN, "Forbidden push");
+		doPostPush(payload, "0", "other", TEST, HttpServletResponse.SC_FORBIDDEN,
+				"Forbidden push");
+		// application non autorisée
+		doPostPush(payload, "0", PUSH_TOKEN, TEST, HttpServletResponse.SC_FORBIDDEN,
+				"Application not allowed for push");
+		pushApplicationsParameter = "other, " + TEST;
+		doPostPush(payload, "0", PUSH_TOKEN, "unknown", HttpServletResponse.SC_FORBIDDEN,
+				"Application not allowed for push");
+		doPostPush(payload, null, PUSH_TOKEN, TEST, HttpServletResponse.SC_BAD_REQUEST,
+				"Missing parameters");
+		// classe non autorisée
+		final List<Serializable> invalidPayload = new ArrayList<Serializable>(payload);
+		invalidPayload.add(new URL("http://localhost/"));
+		doPostPush(invalidPayload, "0", PUSH_TOKEN, TEST, HttpServletResponse.SC_BAD_REQUEST,
+				"Invalid push");
+		doPostPush(payload, "0", PUSH_TOKEN, TEST, 0, null);
+	}
+
+	private void doPostPush(List<Serializable> payload, String cursor, String token,
+			String application, int errorStatus, String errorMessage) throws IOException,
+			ServletException {
+		setUp();
+		Utils.setProperty(Parameter.PUSH_TOKEN, pushTokenParameter);
+		Utils.setProperty(Parameter.PUSH_APPLICATIONS, pushApplicationsParameter);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.SERIALIZED.writeSerializableTo((Serializable) payload, output);
+		final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+		final ServletInputStream servletInputStream = new ServletInputStream() {
+			/** {@inheritDoc} */
+			@Override
+			public int read() throws IOException {
+				return input.read();
+			}
+		};
+		final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getRequestURI()).andReturn("/test/request").anyTimes();
+		expect(request.getParameter(PUSH_PARAMETER)).andReturn(application).anyTimes();
+		expect(request.getHeader(CollectorPushClient.PUSH_TOKEN_HEADER)).andReturn(token)
+				.anyTimes();
+		expect(request.getParameter(NODE_PARAMETER)).andReturn("node").anyTimes();
+		expect(request.getParameter(CURSOR_PARAMETER)).andReturn(cursor).anyTimes();
+		expect(request.getInputStream()).andReturn(servletInputStream).anyTimes();
+		final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		final FilterServletOutputStream servletOutputStream = new FilterServletOutputStream(
+				new ByteArrayOutputStream());
+		expect(response.getOutputStream()).andReturn(servletOutputStream).anyTimes();
+		if (errorStatus != 0) {
+			response.sendError(errorStatus, errorMessage);
+		}
+		replay(config);
+		replay(context);
+		replay(request);
+		replay(response);
+		collectorServlet.init(config);
+		collectorServlet.doPost(request, response);
+		verify(config);
+		verify(context);
+		verify(request);
+		verify(response);
+	}
+
 	/** Test. */
 	@Test
 	public void testMainWinstone() {
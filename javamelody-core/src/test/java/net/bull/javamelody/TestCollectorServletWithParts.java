@@ -19,11 +19,13 @@
 package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.ACTION_PARAMETER;
+import static net.bull.javamelody.HttpParameters.APPLICATIONS_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CACHE_ID_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
+import static net.bull.javamelody.HttpParameters.DASHBOARD_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
@@ -33,13 +35,16 @@ import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JOB_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
+import static net.bull.javamelody.HttpParameters.NODES_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
+import static net.bull.javamelody.HttpParameters.PROMETHEUS_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
 import static net.bull.javamelody.HttpParameters.SESSIONS_PART;
 import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
@@ -187,6 +192,32 @@ public class TestCollectorServletWithParts {
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, PROCESSES_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, NODES_PART);
+		doPart(parameters);
+		parameters.put(PART_PARAMETER, PROMETHEUS_PART);
+		doPart(parameters);
+	}
+
+	/** Test.
+	 * @throws ServletException e
+	 * @throws IOException e */
+	@Test
+	public void testDashboard() throws IOException, ServletException {
+		final Map<String, String> parameters = new LinkedHashMap<String, String>();
+		parameters.put(PART_PARAMETER, DASHBOARD_PART);
+		doPart(parameters);
+		parameters.put(APPLICATIONS_PARAMETER, TEST + ",unknown");
+		parameters.put(GRAPH_PARAMETER, "cpu,usedMemory,unknown");
+		doPart(parameters);
+		parameters.put(WIDTH_PARAMETER, "80");
+		parameters.put(HEIGHT_PARAMETER, "80");
+		doPart(parameters);
+		parameters.put(WIDTH_PARAMETER, "100000");
+		doPart(parameters);
+		parameters.put(HEIGHT_PARAMETER, "-5");
+		doPart(parameters);
+		parameters.put(WIDTH_PARAMETER, "abc");
+		doPart(parameters);
 	}
 
 	/** Test.
@@ -224,6 +255,8 @@ public class TestCollectorServletWithParts {
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, CURRENT_REQUESTS_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, NODES_PART);
+		doPart(parameters);
 		parameters.put(WIDTH_PARAMETER, "80");
 		parameters.put(HEIGHT_PARAMETER, "80");
 		parameters.put(PART_PARAMETER, JROBINS_PART);
@@ -234,6 +267,8 @@ public class TestCollectorServletWithParts {
 		parameters.remove(GRAPH_PARAMETER);
 		parameters.put(PART_PARAMETER, OTHER_JROBINS_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, JROBINS_DATA_PART);
+		doPart(parameters);
 		parameters.remove(WIDTH_PARAMETER);
 		parameters.remove(HEIGHT_PARAMETER);
 		parameters.put(PART_PARAMETER, EXPLAIN_PLAN_PART);
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.bull.javamelody.CollectorShards.HashRing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CollectorShards.
+ * @author Emeric Vernat
+ */
+public class TestCollectorShards {
+	private static final String SHARD1 = "http://localhost:8081/";
+	private static final String SHARD2 = "http://localhost:8082/";
+	private static final String SHARD3 = "http://localhost:8083/";
+	private static final List<String> SHARDS = Arrays.asList(SHARD1, SHARD2, SHARD3);
+	private static final int APPLICATIONS_COUNT = 300;
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test. */
+	@Test
+	public void testHashRing() {
+		assertNull("empty", new HashRing(Collections.<String> emptyList()).getShard("app"));
+		final HashRing ring = new HashRing(SHARDS);
+		final HashRing ringWithout3 = new HashRing(Arrays.asList(SHARD1, SHARD2));
+		final Map<String, Integer> countsByShard = new HashMap<String, Integer>();
+		for (int i = 0; i < APPLICATIONS_COUNT; i++) {
+			final String application = "app" + i;
+			final String shard = ring.getShard(application);
+			assertEquals("stable", shard, ring.getShard(application));
+			final Integer count = countsByShard.get(shard);
+			countsByShard.put(shard, count == null ? 1 : count + 1);
+			// sans le 3ème serveur, seules ses applications changent de serveur
+			if (!SHARD3.equals(shard)) {
+				assertEquals("consistent", shard, ringWithout3.getShard(application));
+			}
+		}
+		for (final String shard : SHARDS) {
+			assertTrue("balanced " + countsByShard,
+					countsByShard.get(shard) > APPLICATIONS_COUNT / SHARDS.size() / 2);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testShardsInOneJvm() {
+		final CollectorShards shards1 = new CollectorShards(SHARDS, SHARD1);
+		final CollectorShards shards2 = new CollectorShards(SHARDS, SHARD2);
+		final CollectorShards shards3 = new CollectorShards(SHARDS, SHARD3);
+		final List<CollectorShards> instances = Arrays.asList(shards1, shards2, shards3);
+		assertEquals("live", SHARDS.size(), shards1.getLiveShardUrls().size());
+		assertOneOwner(instances);
+
+		// le 3ème serveur de collecte s'arrête
+		shards1.setLiveShardUrls(Arrays.asList(SHARD1, SHARD2));
+		shards2.setLiveShardUrls(Arrays.asList(SHARD2, SHARD1));
+		for (int i = 0; i < APPLICATIONS_COUNT; i++) {
+			final String application = "app" + i;
+			assertTrue("owner", shards1.isLocal(application) ^ shards2.isLocal(application));
+			if (!shards1.isLocal(application)) {
+				assertEquals("remote", SHARD2, shards1.getRemoteShardUrl(application));
+			}
+		}
+
+		// le 3ème serveur de collecte revient
+		shards1.setLiveShardUrls(SHARDS);
+		shards2.setLiveShardUrls(SHARDS);
+		assertOneOwner(instances);
+		assertTrue("toString", shards1.toString().contains(SHARD1));
+	}
+
+	private static void assertOneOwner(List<CollectorShards> instances) {
+		for (int i = 0; i < APPLICATIONS_COUNT; i++) {
+			final String application = "app" + i;
+			int owners = 0;
+			for (final CollectorShards shards : instances) {
+				if (shards.isLocal(application)) {
+					owners++;
+					assertNull("remote", shards.getRemoteShardUrl(application));
+				} else {
+					assertNotNull("remote", shards.getRemoteShardUrl(application));
+				}
+			}
+			assertEquals("owners", 1, owners);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCheckShards() throws IOException {
+		// le port 1 refuse les connexions : les autres serveurs de collecte sont indisponibles
+		final String unavailableShard = "http://localhost:1/";
+		final CollectorShards shards = new CollectorShards(Arrays.asList(SHARD1,
+				unavailableShard), SHARD1);
+		// un serveur de collecte n'est retiré de l'anneau qu'après plusieurs échecs consécutifs
+		for (int i = 1; i < CollectorShards.MAX_FAILED_PINGS; i++) {
+			shards.checkShards();
+			assertEquals("live", 2, shards.getLiveShardUrls().size());
+		}
+		shards.checkShards();
+		assertEquals("live", Collections.singleton(SHARD1), shards.getLiveShardUrls());
+		assertTrue("local", shards.isLocal("app"));
+		// une demande de libération ignore les serveurs de collecte indisponibles
+		shards.requestRelease("app");
+		assertTrue("local", shards.isLocal("app"));
+		// un serveur de collecte qui fait une demande revient dans l'anneau
+		assertFalse("unknown shard", shards.shardAvailable(SHARD2, "127.0.0.1"));
+		assertFalse("other host", shards.shardAvailable(unavailableShard, "10.1.2.3"));
+		assertFalse("no address", shards.shardAvailable(unavailableShard, null));
+		assertEquals("live", 1, shards.getLiveShardUrls().size());
+		assertTrue("shardAvailable", shards.shardAvailable(unavailableShard, "127.0.0.1"));
+		assertEquals("live", 2, shards.getLiveShardUrls().size());
+		shards.checkShards();
+		assertEquals("live", 2, shards.getLiveShardUrls().size());
+
+		Utils.setProperty(Parameters.PARAMETER_SYSTEM_PREFIX + "mockLabradorRetriever", "true");
+		try {
+			shards.checkShards();
+			assertEquals("live", 2, shards.getLiveShardUrls().size());
+		} finally {
+			Utils.setProperty(Parameters.PARAMETER_SYSTEM_PREFIX + "mockLabradorRetriever",
+					"false");
+		}
+		assertEquals("pingUrl", SHARD1 + "?part=shard", CollectorShards.getPingUrl(SHARD1));
+		assertEquals("pingUrl", SHARD1 + "?a=b&part=shard",
+				CollectorShards.getPingUrl(SHARD1 + "?a=b"));
+		assertEquals("releaseUrl", SHARD1 + "?part=shard&release=my+app",
+				CollectorShards.getReleaseUrl(SHARD1, "my app"));
+	}
+
+	/** Test. */
+	@Test
+	public void testCreateFromParameters() {
+		final CollectorShards disabled = CollectorShards.createFromParameters();
+		assertFalse("enabled", disabled.isEnabled());
+		assertTrue("local", disabled.isLocal("app"));
+		assertNull("remote", disabled.getRemoteShardUrl("app"));
+		disabled.checkShards();
+		disabled.requestRelease("app");
+
+		Utils.setProperty(Parameter.COLLECTOR_SHARDS, SHARD1 + ',' + SHARD2);
+		try {
+			CollectorShards.createFromParameters();
+			fail("collector-shard-url");
+		} catch (final IllegalStateException e) {
+			assertNotNull("e", e);
+		}
+		Utils.setProperty(Parameter.COLLECTOR_SHARD_URL, SHARD3);
+		try {
+			CollectorShards.createFromParameters();
+			fail("collector-shard-url");
+		} catch (final IllegalStateException e) {
+			assertNotNull("e", e);
+		}
+		Utils.setProperty(Parameter.COLLECTOR_SHARD_URL, SHARD2);
+		final CollectorShards shards = CollectorShards.createFromParameters();
+		assertTrue("enabled", shards.isEnabled());
+		assertEquals("shards", Arrays.asList(SHARD1, SHARD2), shards.getShardUrls());
+		assertEquals("local", SHARD2, shards.getLocalShardUrl());
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire des classes CompressionCodec, LzOutputStream et LzInputStream.
+ * @author Emeric Vernat
+ */
+public class TestCompressionCodec {
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testLzRoundTrip() throws IOException {
+		final Random random = new Random(12345);
+		final byte[] randomBytes = new byte[200 * 1024];
+		random.nextBytes(randomBytes);
+		checkRoundTrip(CompressionCodec.LZ, randomBytes);
+		checkRoundTrip(CompressionCodec.LZ, new byte[0]);
+		checkRoundTrip(CompressionCodec.LZ, new byte[] { 1, 2, 3 });
+		// données répétitives, avec des séquences plus longues que les blocs
+		checkRoundTrip(CompressionCodec.LZ, new byte[300 * 1024]);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append("select * from table").append(i % 97).append(" where id = ?\n");
+		}
+		final byte[] text = sb.toString().getBytes("UTF-8");
+		final byte[] compressed = checkRoundTrip(CompressionCodec.LZ, text);
+		assertTrue("compression ratio", compressed.length < text.length / 4);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGzipLevel() throws IOException {
+		final byte[] bytes = "javamelody javamelody javamelody".getBytes("UTF-8");
+		checkRoundTrip(CompressionCodec.GZIP, bytes);
+		Utils.setProperty(Parameter.COMPRESSION_LEVEL, "1");
+		assertEquals("level", 1, CompressionCodec.getDeflateLevel());
+		checkRoundTrip(CompressionCodec.GZIP, bytes);
+		Utils.setProperty(Parameter.COMPRESSION_LEVEL, "10");
+		try {
+			CompressionCodec.getDeflateLevel();
+			fail("level");
+		} catch (final IllegalStateException e) {
+			assertTrue("level", e.getMessage() != null);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testDetectingInputStream() throws IOException {
+		final byte[] bytes = "javamelody".getBytes("UTF-8");
+		for (final CompressionCodec codec : CompressionCodec.values()) {
+			final byte[] compressed = compress(codec, bytes);
+			assertArrayEquals(codec.toString(), bytes,
+					read(CompressionCodec.createDetectingInputStream(new ByteArrayInputStream(
+							compressed))));
+		}
+		// flux non compressé
+		assertArrayEquals("raw", bytes,
+				read(CompressionCodec.createDetectingInputStream(new ByteArrayInputStream(bytes))));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCorruptedLzStream() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("javamelody ").append(i);
+		}
+		final byte[] compressed = compress(CompressionCodec.LZ, sb.toString().getBytes("UTF-8"));
+		// on corrompt les données après la signature et l'entête du premier bloc
+		for (int i = 12; i < compressed.length - 8; i += 7) {
+			compressed[i] = (byte) (compressed[i] ^ 0x5A);
+		}
+		try {
+			read(new LzInputStream(new ByteArrayInputStream(compressed)));
+			// si la corruption n'est pas détectée, les données ne doivent pas être les mêmes,
+			// mais au moins il n'y a pas eu d'exception autre qu'IOException
+		} catch (final IOException e) {
+			assertTrue("corrupted", e.getMessage() != null || e.getCause() != null);
+		}
+		try {
+			new LzInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }));
+			fail("magic");
+		} catch (final IOException e) {
+			assertTrue("magic", e.getMessage() != null);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testContentEncoding() {
+		for (final CompressionCodec codec : CompressionCodec.values()) {
+			assertSame("valueOfContentEncoding", codec,
+					CompressionCodec.valueOfContentEncoding(codec.getContentEncoding()));
+		}
+		assertNull("valueOfContentEncoding", CompressionCodec.valueOfContentEncoding(null));
+		assertNull("valueOfContentEncoding", CompressionCodec.valueOfContentEncoding("unknown"));
+
+		assertEquals("acceptEncoding", "gzip", CompressionCodec.getAcceptEncoding());
+		Utils.setProperty(Parameter.COMPRESSION_CODEC, "lz");
+		assertSame("configuredCodec", CompressionCodec.LZ, CompressionCodec.getConfiguredCodec());
+		assertTrue("acceptEncoding",
+				CompressionCodec.getAcceptEncoding().startsWith(
+						CompressionCodec.LZ.getContentEncoding()));
+
+		assertSame("valueOfAcceptEncoding", CompressionCodec.LZ,
+				valueOfAcceptEncoding(CompressionCodec.getAcceptEncoding()));
+		assertSame("valueOfAcceptEncoding", CompressionCodec.GZIP,
+				valueOfAcceptEncoding("gzip, deflate"));
+		assertNull("valueOfAcceptEncoding", valueOfAcceptEncoding("deflate"));
+	}
+
+	private static CompressionCodec valueOfAcceptEncoding(String acceptEncoding) {
+		final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getHeaders("Accept-Encoding")).andReturn(
+				Collections.enumeration(Collections.singletonList(acceptEncoding))).anyTimes();
+		replay(request);
+		final CompressionCodec result = CompressionCodec.valueOfAcceptEncoding(request);
+		verify(request);
+		return result;
+	}
+
+	private static byte[] checkRoundTrip(CompressionCodec codec, byte[] bytes) throws IOException {
+		final byte[] compressed = compress(codec, bytes);
+		assertArrayEquals(codec.toString(), bytes,
+				read(codec.createInputStream(new ByteArrayInputStream(compressed))));
+		return compressed;
+	}
+
+	private static byte[] compress(CompressionCodec codec, byte[] bytes) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final OutputStream output = codec.createOutputStream(out, 512);
+		try {
+			// écritures de tailles variables pour tester le découpage en blocs
+			int offset = 0;
+			int length = 1;
+			while (offset < bytes.length) {
+				final int len = Math.min(length, bytes.length - offset);
+				if (len == 1) {
+					output.write(bytes[offset]);
+				} else {
+					output.write(bytes, offset, len);
+				}
+				offset += len;
+				length = length * 3 + 1;
+			}
+		} finally {
+			output.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TransportFormat.pump(input, out);
+			return out.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+}
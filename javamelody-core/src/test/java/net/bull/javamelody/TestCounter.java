@@ -182,6 +182,67 @@ public class TestCounter {
 		counterRequest.removeHits(counterRequest2);
 	}
 
+	/** Test. */
+	@Test
+	public void testCounterRequestDurationsHistogram() {
+		final CounterRequest previousRequest = new CounterRequest("test histogram",
+				counter.getName());
+		assertEquals("percentile", -1, previousRequest.getDurationPercentile(95));
+		assertEquals("histogramMaximum", -1, previousRequest.getHistogramMaximum());
+		previousRequest.addHit(5000, 0, false, null, 0);
+		final CounterRequest request = previousRequest.clone();
+		for (int i = 0; i < 99; i++) {
+			request.addHit(10, 0, false, null, 0);
+		}
+		request.addHit(900, 0, false, null, 0);
+		// requête de la dernière période, par différence comme dans la collecte
+		final CounterRequest lastPeriodRequest = request.clone();
+		lastPeriodRequest.removeHits(previousRequest);
+		assertEquals("hits", 100, lastPeriodRequest.getHits());
+		final long[] histogram = lastPeriodRequest.getDurationsHistogram();
+		assertEquals("length", CounterRequest.DURATIONS_HISTOGRAM_LENGTH, histogram.length);
+		// 10 ms est entre 8 et 15 ms, 900 ms entre 512 et 1023 ms
+		assertEquals("10 ms", 99, histogram[4]);
+		assertEquals("900 ms", 1, histogram[10]);
+		assertEquals("5000 ms", 0, histogram[13]);
+		assertEquals("histogramMaximum", 1023, lastPeriodRequest.getHistogramMaximum());
+		final long percentile95 = lastPeriodRequest.getDurationPercentile(95);
+		assertTrue("percentile95", percentile95 >= 8 && percentile95 <= 15);
+		assertEquals("percentile100", 1023, lastPeriodRequest.getDurationPercentile(100));
+		// le clone a son propre histogramme
+		assertEquals("clone", 101, request.getDurationsHistogram()[4]
+				+ request.getDurationsHistogram()[10] + request.getDurationsHistogram()[13]);
+		final CounterRequest sum = new CounterRequest("test histogram", counter.getName());
+		sum.addHits(lastPeriodRequest);
+		sum.addHits(previousRequest);
+		assertEquals("addHits", 1, sum.getDurationsHistogram()[13]);
+		assertEquals("addHits", 99, sum.getDurationsHistogram()[4]);
+	}
+
+	/** Test. */
+	@Test
+	public void testCounterRequestLongDurationsHistogram() {
+		final CounterRequest request = new CounterRequest("test long histogram",
+				counter.getName());
+		for (int i = 0; i < 90; i++) {
+			request.addHit(10, 0, false, null, 0);
+		}
+		for (int i = 0; i < 10; i++) {
+			request.addHit(100000 + i * 10000, 0, false, null, 0);
+		}
+		// les durées au-delà de 65 s ne sont plus plafonnées à 65535 ms
+		assertEquals("histogramMaximum", 262143, request.getHistogramMaximum());
+		final long percentile95 = request.getDurationPercentile(95);
+		assertTrue("percentile95", percentile95 > 65535 && percentile95 <= 262143);
+		// durée au-delà du dernier intervalle : le maximum connu est utilisé
+		final CounterRequest overflowRequest = new CounterRequest("test overflow histogram",
+				counter.getName());
+		overflowRequest.addHit(3000000000L, 0, false, null, 0);
+		assertEquals("overflow", 3000000000L, overflowRequest.getHistogramMaximum());
+		assertEquals("overflow percentile", 3000000000L,
+				overflowRequest.getDurationPercentile(100));
+	}
+
 	/** Test. */
 	@Test
 	public void testRemoveRequest() {
@@ -261,6 +322,41 @@ public class TestCounter {
 		errorCounter.addErrors(errors);
 	}
 
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testRemoveRequestsAndErrors() throws InterruptedException {
+		counter.clear();
+		counter.addRequest("test a", 100, 50, false, 1000);
+		counter.addRequest("test b", 100, 50, false, 1000);
+		final Counter previousCounter = counter.clone();
+		counter.addRequest("test b", 300, 50, false, 1000);
+		counter.addRequest("test c", 100, 50, false, 1000);
+		final Counter delta = counter.clone();
+		delta.removeRequestsAndErrors(previousCounter);
+		assertEquals("requests count", 2, delta.getRequestsCount());
+		assertEquals("hits", 1, delta.getCounterRequestByName("test b").getHits());
+		assertEquals("mean", 300, delta.getCounterRequestByName("test b").getMean());
+		assertEquals("hits", 1, delta.getCounterRequestByName("test c").getHits());
+		assertEquals("hits", 2, counter.getCounterRequestByName("test b").getHits());
+
+		counter.clear();
+		counter.addRequest("test a", 100, 50, false, 1000);
+		final Counter afterClear = counter.clone();
+		afterClear.removeRequestsAndErrors(previousCounter);
+		assertEquals("requests count after clear", 1, afterClear.getRequestsCount());
+
+		final Counter errorCounter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		errorCounter.addRequestForSystemError("error a", 1, 0, null);
+		final Counter previousErrorCounter = errorCounter.clone();
+		Thread.sleep(10);
+		errorCounter.addRequestForSystemError("error b", 1, 0, null);
+		final Counter errorDelta = errorCounter.clone();
+		errorDelta.removeRequestsAndErrors(previousErrorCounter);
+		assertEquals("errors count", 1, errorDelta.getErrorsCount());
+		assertEquals("error", "error b", errorDelta.getErrors().get(0).getMessage());
+	}
+
 	/** Test. */
 	@Test
 	public void testGetErrors() {
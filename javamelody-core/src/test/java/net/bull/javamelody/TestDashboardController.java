@@ -0,0 +1,87 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe DashboardController.
+ * @author Emeric Vernat
+ */
+public class TestDashboardController {
+	private static final String ENCODING = "UTF-8";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test. */
+	@Test
+	public void testQuote() {
+		assertEquals("quote null", "null", DashboardController.quote(null));
+		assertEquals("quote", "\"cpu\"", DashboardController.quote("cpu"));
+		assertEquals("quote escape", "\"a\\\"b\\\\c\\nd\\u0001\"",
+				DashboardController.quote("a\"b\\c\nd\u0001"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testToJsonTimeSeries() throws IOException {
+		final JRobinTimeSeries timeSeries = new JRobinTimeSeries("cpu", "% CPU", 1000, 60,
+				new double[] { 1, Double.NaN }, new double[] { 2, Double.POSITIVE_INFINITY });
+		final String json = new String(DashboardController.toJson(timeSeries), ENCODING);
+		assertEquals("toJson",
+				"{\"label\":\"% CPU\",\"startTime\":1000,\"step\":60,\"averages\":[1.0,null],"
+						+ "\"maximums\":[2.0,null]}", json);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testToJsonImage() throws IOException {
+		final String json = new String(DashboardController.toJson("cpu", new byte[] { 1, 2, 3 }),
+				ENCODING);
+		assertEquals("toJson", "{\"label\":\"cpu\",\"image\":\"AQID\"}", json);
+	}
+
+	/** Test. */
+	@Test
+	public void testParseGraphSize() {
+		assertEquals("size", 200, DashboardController.parseGraphSize(" 200"));
+		assertEquals("max", 1600, DashboardController.parseGraphSize("100000"));
+		assertEquals("min", 1, DashboardController.parseGraphSize("0"));
+		assertEquals("min", 1, DashboardController.parseGraphSize("-5"));
+		try {
+			DashboardController.parseGraphSize("abc");
+			fail("NumberFormatException");
+		} catch (final NumberFormatException e) {
+			assertNotNull("e", e);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe GraphImageCache.
+ * @author Emeric Vernat
+ */
+public class TestGraphImageCache {
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private static Callable<byte[]> createRenderer(final AtomicInteger renderCount,
+			final int imageSize) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				renderCount.incrementAndGet();
+				return new byte[imageSize];
+			}
+		};
+	}
+
+	private static String buildKey(String graphName, long lastUpdateTime) {
+		return GraphImageCache.buildKey("test", graphName, Period.JOUR.getRange(), 200, 50,
+				Locale.FRENCH, lastUpdateTime, 0);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGetImage() throws IOException {
+		final GraphImageCache cache = new GraphImageCache(1000);
+		final AtomicInteger renderCount = new AtomicInteger();
+		final byte[] image = cache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		assertSame("hit", image,
+				cache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100)));
+		assertEquals("renderCount", 1, renderCount.get());
+		assertEquals("hits", 1, cache.getHits());
+		assertEquals("misses", 1, cache.getMisses());
+		// nouvelle donnée, donc nouveau rendu
+		cache.getImage(buildKey("cpu", 2), createRenderer(renderCount, 100));
+		assertEquals("renderCount", 2, renderCount.get());
+		assertEquals("imageCount", 2, cache.getImageCount());
+		assertEquals("size", 200, cache.getSize());
+		assertTrue("toString", cache.toString().length() > 0);
+		cache.clear();
+		assertEquals("size", 0, cache.getSize());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testEviction() throws IOException {
+		final GraphImageCache cache = new GraphImageCache(250);
+		final AtomicInteger renderCount = new AtomicInteger();
+		cache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		cache.getImage(buildKey("memory", 1), createRenderer(renderCount, 100));
+		// accès à cpu, donc memory est le moins récemment utilisé
+		cache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		cache.getImage(buildKey("sql", 1), createRenderer(renderCount, 100));
+		assertEquals("evictions", 1, cache.getEvictions());
+		assertEquals("size", 200, cache.getSize());
+		cache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		assertEquals("renderCount", 3, renderCount.get());
+		// une image trop grande n'est pas gardée
+		cache.getImage(buildKey("big", 1), createRenderer(renderCount, 1000));
+		assertEquals("imageCount", 2, cache.getImageCount());
+
+		// cache désactivé
+		final GraphImageCache disabledCache = new GraphImageCache(0);
+		disabledCache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		disabledCache.getImage(buildKey("cpu", 1), createRenderer(renderCount, 100));
+		assertEquals("renderCount", 6, renderCount.get());
+		assertEquals("imageCount", 0, disabledCache.getImageCount());
+	}
+
+	/** Test. */
+	@Test
+	public void testRenderError() {
+		final GraphImageCache cache = new GraphImageCache(1000);
+		try {
+			cache.getImage(buildKey("error", 1), new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					throw new IOException("test");
+				}
+			});
+			fail("IOException");
+		} catch (final IOException e) {
+			assertEquals("message", "test", e.getMessage());
+		}
+		assertFalse("not cached", cache.getImageCount() > 0);
+	}
+
+	/** Test. */
+	@Test
+	public void testGetInstance() {
+		assertSame("instance", GraphImageCache.getInstance(), GraphImageCache.getInstance());
+		assertTrue("maxSize", GraphImageCache.getInstance().getMaxSize() > 0);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe GraphRenderingPool.
+ * @author Emeric Vernat
+ */
+public class TestGraphRenderingPool {
+	private static final String TEST_APPLICATION = "test";
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testRenderGraphs() throws IOException {
+		final List<JRobin> jrobins = new ArrayList<JRobin>();
+		for (final String name : Arrays.asList("usedMemory", "cpu", "httpSessions")) {
+			final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, name, null);
+			jrobin.addValue(1);
+			jrobins.add(jrobin);
+		}
+		final Map<String, byte[]> images = GraphRenderingPool.renderGraphs(jrobins,
+				Period.JOUR.getRange(), 200, 50);
+		// l'ordre des graphiques est conservé
+		assertEquals("names", Arrays.asList("usedMemory", "cpu", "httpSessions"),
+				new ArrayList<String>(images.keySet()));
+		for (final byte[] image : images.values()) {
+			assertNotNull("png", ImageIO.read(new ByteArrayInputStream(image)));
+		}
+		GraphRenderingPool.prerenderGraphs(jrobins, Period.SEMAINE.getRange(), 200, 50);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testPlaceholder() throws IOException {
+		final byte[] placeholder = GraphRenderingPool.createPlaceholderImage(200, 50);
+		assertEquals("width", 200, ImageIO.read(new ByteArrayInputStream(placeholder))
+				.getWidth());
+	}
+
+	/** Test. */
+	@Test
+	public void testTimeBudget() {
+		assertEquals("default", 5000, GraphRenderingPool.getTimeBudgetMillis());
+		Utils.setProperty(Parameter.GRAPH_RENDERING_TIME_BUDGET, "100");
+		assertEquals("timeBudget", 100, GraphRenderingPool.getTimeBudgetMillis());
+		Utils.setProperty(Parameter.GRAPH_RENDERING_TIME_BUDGET, "0");
+		try {
+			GraphRenderingPool.getTimeBudgetMillis();
+			fail("IllegalStateException");
+		} catch (final IllegalStateException e) {
+			assertNotNull("e", e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe HighResolutionCapture.
+ * @author Emeric Vernat
+ */
+public class TestHighResolutionCapture {
+	private Counter counter;
+	private Collector collector;
+
+	/** Before. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		collector = new Collector("test high resolution", Collections.singletonList(counter));
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testSample() throws InterruptedException {
+		// capacité de 2 mesures
+		final HighResolutionCapture capture = new HighResolutionCapture(collector, 1, 1);
+		assertTrue("graphNames", capture.getGraphNames().contains("usedMemory"));
+		assertTrue("graphNames", capture.getGraphNames().contains("httpHitsRate"));
+		assertTrue("graphNames", capture.getGraphNames().contains("httpMeanTimes"));
+		assertNull("unknown", capture.getTimeSeries("unknown"));
+		assertEquals("sampleCount", 0, capture.getSampleCount());
+
+		capture.sample();
+		// pas 2 mesures dans la même seconde
+		capture.sample();
+		assertEquals("sampleCount", 1, capture.getSampleCount());
+		JRobinTimeSeries timeSeries = capture.getTimeSeries("usedMemory");
+		assertEquals("length", 1, timeSeries.getAverages().length);
+		assertTrue("usedMemory", timeSeries.getAverages()[0] > 0);
+		assertTrue("first hits rate", Double.isNaN(capture.getTimeSeries("httpHitsRate")
+				.getAverages()[0]));
+
+		counter.addRequest("test", 100, 50, false, 1000);
+		counter.addRequest("test", 300, 50, false, 1000);
+		Thread.sleep(1000);
+		capture.sample();
+		timeSeries = capture.getTimeSeries("httpMeanTimes");
+		assertEquals("length", 2, timeSeries.getAverages().length);
+		assertEquals("mean time", 200, timeSeries.getAverages()[1], 0.01);
+		assertTrue("hits rate", capture.getTimeSeries("httpHitsRate").getAverages()[1] > 0);
+
+		Thread.sleep(1000);
+		capture.sample();
+		// la capacité est atteinte : la mesure la plus ancienne est remplacée
+		assertEquals("sampleCount", 2, capture.getSampleCount());
+		timeSeries = capture.getTimeSeries("httpMeanTimes");
+		assertEquals("mean time", 200, timeSeries.getAverages()[0], 0.01);
+		assertTrue("no hits", Double.isNaN(timeSeries.getAverages()[1]));
+		assertEquals("hits rate", 0, capture.getTimeSeries("httpHitsRate").getAverages()[1],
+				0.01);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGraph() throws IOException {
+		final HighResolutionCapture capture = new HighResolutionCapture(collector, 5, 60);
+		// courbe vide avant la première mesure
+		assertTrue("graph", capture.graph("usedMemory", 400, 100).length > 0);
+		capture.sample();
+		assertTrue("graph", capture.graph("usedMemory", 400, 100).length > 0);
+		assertTrue("graph", capture.graph("httpMeanTimes", 200, 50).length > 0);
+		boolean exception = false;
+		try {
+			capture.graph("unknown", 200, 50);
+		} catch (final IllegalArgumentException e) {
+			exception = true;
+		}
+		assertTrue("unknown graph", exception);
+		assertNotNull("toString", capture.toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testStartAndStop() {
+		assertNull("no capture", collector.getHighResolutionCapture());
+		final HighResolutionCapture capture = collector.startHighResolutionCapture();
+		assertSame("capture", capture, collector.getHighResolutionCapture());
+		assertTrue("running", capture.isRunning());
+		assertEquals("intervalSeconds", 5, capture.getIntervalSeconds());
+		assertEquals("duration", 15 * 60 * 1000, capture.getEndDate().getTime()
+				- capture.getStartDate().getTime());
+		final HighResolutionCapture capture2 = collector.startHighResolutionCapture();
+		assertFalse("previous capture stopped", capture.isRunning());
+		collector.stop();
+		assertFalse("stopped", capture2.isRunning());
+		// les données restent affichables après l'arrêt
+		assertSame("capture", capture2, collector.getHighResolutionCapture());
+	}
+
+	/** Test. */
+	@Test
+	public void testParameters() {
+		Utils.setProperty(Parameter.HIGH_RESOLUTION_SECONDS, "2");
+		Utils.setProperty(Parameter.HIGH_RESOLUTION_MINUTES, "3");
+		assertEquals("seconds", 2, HighResolutionCapture.getIntervalSecondsParameter());
+		assertEquals("minutes", 3, HighResolutionCapture.getDurationMinutesParameter());
+		Utils.setProperty(Parameter.HIGH_RESOLUTION_SECONDS, "0");
+		boolean exception = false;
+		try {
+			HighResolutionCapture.getIntervalSecondsParameter();
+		} catch (final IllegalStateException e) {
+			exception = true;
+		}
+		assertTrue("exception", exception);
+	}
+}
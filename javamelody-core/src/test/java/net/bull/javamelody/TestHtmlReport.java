@@ -41,6 +41,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
@@ -279,6 +280,14 @@ public class TestHtmlReport {
 		assertNotEmptyAndClear(writer);
 		htmlReport.writeMBeans(MBeans.getAllMBeanNodes());
 		assertNotEmptyAndClear(writer);
+		htmlReport.writeFlameGraph(Collections.<SampledStack> emptyList());
+		assertNotEmptyAndClear(writer);
+		final SampledStack stack1 = new SampledStack("test.Main.main;test.Service.run");
+		stack1.setCount(10);
+		final SampledStack stack2 = new SampledStack("test.Main.main;test.Dao.select");
+		stack2.setCount(5);
+		htmlReport.writeFlameGraph(Arrays.asList(stack1, stack2));
+		assertNotEmptyAndClear(writer);
 		htmlReport.writeProcesses(ProcessInformations.buildProcessInformations(getClass()
 				.getResourceAsStream("/tasklist.txt"), true));
 		assertNotEmptyAndClear(writer);
@@ -511,6 +520,8 @@ public class TestHtmlReport {
 			final HtmlReport htmlReport = new HtmlReport(collector, collectorServer,
 					javaInformationsList, Period.TOUT, writer);
 			htmlReport.toHtml(null, null);
+			// statistiques internes du serveur de collecte
+			assertTrue("statistics", writer.toString().contains("RRD pool: "));
 			assertNotEmptyAndClear(writer);
 
 			Utils.setProperty(Parameters.PARAMETER_SYSTEM_PREFIX + "mockLabradorRetriever", "true");
@@ -71,6 +71,80 @@ public class TestJRobin {
 		jrobin.deleteFile();
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGetTimeSeries() throws IOException {
+		final Range range = Period.JOUR.getRange();
+		final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, "usedMemory", null);
+		jrobin.addValue(100);
+		final JRobinTimeSeries timeSeries = jrobin.getTimeSeries(range);
+		assertEquals("name", "usedMemory", timeSeries.getName());
+		assertEquals("label", jrobin.getLabel(), timeSeries.getLabel());
+		assertEquals("step", 60, timeSeries.getStep());
+		assertTrue("size", timeSeries.size() > 0);
+		assertEquals("averages", timeSeries.size(), timeSeries.getAverages().length);
+		assertEquals("maximums", timeSeries.size(), timeSeries.getMaximums().length);
+		assertEquals("time", timeSeries.getStartTime() + 60, timeSeries.getTime(1));
+		assertTrue("toString", timeSeries.toString().length() > 0);
+		jrobin.getTimeSeries(Range.createCustomRange(new Date(System.currentTimeMillis() - 24L
+				* 60 * 60 * 1000), new Date()));
+		jrobin.deleteFile();
+
+		final RequestSeriesStorage requestSeriesStorage = new RequestSeriesStorage(
+				TEST_APPLICATION, "testtimeseries", 60);
+		final JRobin consolidatedJRobin = JRobin.createConsolidatedInstance(TEST_APPLICATION,
+				"testtimeseries1", "request", requestSeriesStorage);
+		consolidatedJRobin.addValue(200);
+		requestSeriesStorage.flush();
+		final JRobinTimeSeries consolidatedTimeSeries = consolidatedJRobin.getTimeSeries(range);
+		final double[] averages = consolidatedTimeSeries.getAverages();
+		final double[] maximums = consolidatedTimeSeries.getMaximums();
+		// la dernière valeur peut être dans l'avant-dernier intervalle si une minute vient de passer
+		int last = averages.length - 1;
+		while (last > 0 && Double.isNaN(averages[last])) {
+			last--;
+		}
+		assertEquals("lastAverage", 200, averages[last], 0.01);
+		assertEquals("lastMaximum", 200, maximums[last], 0.01);
+		assertTrue("firstAverage", Double.isNaN(averages[0]));
+		consolidatedJRobin.deleteFile();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testRequestTailValues() throws IOException {
+		final String name = "httptesttail";
+		final File rrdFile = new File(Parameters.getStorageDirectory(TEST_APPLICATION), name
+				+ ".rrd");
+		// fichier rrd d'une version précédente, avec seulement les temps moyens
+		final JRobin oldJRobin = JRobin.createInstance(TEST_APPLICATION, name, null);
+		oldJRobin.deleteFile();
+		JRobin.createInstance(TEST_APPLICATION, name, null);
+		final long oldLength = rrdFile.length();
+		// les datasources du maximum et du 95e centile sont ajoutées au fichier existant
+		final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, name, "request");
+		assertTrue("length", rrdFile.length() > oldLength);
+		final long upgradedLength = rrdFile.length();
+		JRobin.createInstance(TEST_APPLICATION, name, "request");
+		assertEquals("length", upgradedLength, rrdFile.length());
+		jrobin.addRequestValues(10, 100, 50);
+		jrobin.graph(Period.JOUR.getRange(), 500, 200);
+		jrobin.deleteFile();
+
+		final RequestSeriesStorage requestSeriesStorage = new RequestSeriesStorage(
+				TEST_APPLICATION, "testtail", 60);
+		final JRobin consolidatedJRobin = JRobin.createConsolidatedInstance(TEST_APPLICATION,
+				"testtail1", "request", requestSeriesStorage);
+		consolidatedJRobin.graph(Period.JOUR.getRange(), 500, 200);
+		consolidatedJRobin.addRequestValues(10, 100, 50);
+		requestSeriesStorage.flush();
+		assertEquals("lastValue", 10, consolidatedJRobin.getLastValue(), 0.01);
+		consolidatedJRobin.graph(Period.SEMAINE.getRange(), 500, 200);
+		consolidatedJRobin.deleteFile();
+	}
+
 	/** Test.
 	 * @throws IOException e */
 	@Test
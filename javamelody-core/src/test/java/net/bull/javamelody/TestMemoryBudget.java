@@ -0,0 +1,127 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import net.bull.javamelody.MemoryBudget.Degradation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe MemoryBudget.
+ * @author Emeric Vernat
+ */
+public class TestMemoryBudget {
+	private static final String TEST = "test";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private Collector createCollector(boolean collect) {
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		final Collector collector = new Collector(TEST, Collections.singletonList(counter));
+		// le compteur a pu être relu depuis le stockage d'un autre test
+		counter.clear();
+		if (collect) {
+			for (int i = 0; i < 100; i++) {
+				counter.addRequest("test " + i, i, i, false, 1000);
+			}
+			collector.collectWithoutErrors(Collections.singletonList(new JavaInformations(null,
+					false)));
+		}
+		return collector;
+	}
+
+	/** Test. */
+	@Test
+	public void testDegradeAndRestore() {
+		final Collector collector = createCollector(true);
+		final MemoryBudget memoryBudget = new MemoryBudget(TEST, 1000);
+		memoryBudget.check(collector);
+		assertTrue("memorySize", memoryBudget.getMemorySize() > memoryBudget.getBudget());
+		assertEquals("degradation", Degradation.REDUCED_REQUESTS, memoryBudget.getDegradation());
+		assertEquals("maxRequestsCount", 5000, collector.getMaxRequestsCountLimit());
+		for (int i = 0; i < 3; i++) {
+			memoryBudget.check(collector);
+		}
+		assertEquals("maxRequestsCount", 1000, collector.getMaxRequestsCountLimit());
+		assertFalse("requestGraphsDisabled", collector.isRequestGraphsDisabled());
+		memoryBudget.check(collector);
+		assertEquals("degradation", Degradation.NO_REQUEST_GRAPHS, memoryBudget.getDegradation());
+		assertTrue("requestGraphsDisabled", collector.isRequestGraphsDisabled());
+		assertEquals("requestJRobinsCount", 0, collector.getRequestJRobinsCount());
+		memoryBudget.check(collector);
+		assertEquals("degradation", Degradation.AGGREGATES_ONLY, memoryBudget.getDegradation());
+		assertEquals("maxRequestsCount", 10, collector.getMaxRequestsCountLimit());
+		memoryBudget.check(collector);
+		assertEquals("degradation", Degradation.AGGREGATES_ONLY, memoryBudget.getDegradation());
+
+		// un collector sans données est sous la moitié du budget
+		final Collector emptyCollector = createCollector(false);
+		memoryBudget.check(emptyCollector);
+		assertEquals("degradation", Degradation.NO_REQUEST_GRAPHS, memoryBudget.getDegradation());
+		assertEquals("maxRequestsCount", 1000, emptyCollector.getMaxRequestsCountLimit());
+		memoryBudget.check(emptyCollector);
+		assertEquals("degradation", Degradation.REDUCED_REQUESTS, memoryBudget.getDegradation());
+		assertFalse("requestGraphsDisabled", emptyCollector.isRequestGraphsDisabled());
+		for (int i = 0; i < 4; i++) {
+			memoryBudget.check(emptyCollector);
+		}
+		assertEquals("degradation", Degradation.NONE, memoryBudget.getDegradation());
+		assertEquals("maxRequestsCount", 10000, emptyCollector.getMaxRequestsCountLimit());
+		assertTrue("toString", memoryBudget.toString().contains(TEST));
+	}
+
+	/** Test. */
+	@Test
+	public void testWithoutBudget() {
+		final Collector collector = createCollector(true);
+		final MemoryBudget memoryBudget = MemoryBudget.createFromParameters(TEST);
+		assertEquals("budget", -1, memoryBudget.getBudget());
+		memoryBudget.check(collector);
+		assertTrue("memorySize", memoryBudget.getMemorySize() > 0);
+		assertEquals("degradation", Degradation.NONE, memoryBudget.getDegradation());
+		assertFalse("requestGraphsDisabled", collector.isRequestGraphsDisabled());
+	}
+
+	/** Test. */
+	@Test
+	public void testCreateFromParameters() {
+		Utils.setProperty(Parameter.APPLICATION_MEMORY_BUDGET, "10");
+		assertEquals("budget", 10 * 1024 * 1024, MemoryBudget.createFromParameters(TEST)
+				.getBudget());
+		Utils.setProperty(Parameter.APPLICATION_MEMORY_BUDGET, "0");
+		try {
+			MemoryBudget.createFromParameters(TEST);
+			fail("createFromParameters");
+		} catch (final IllegalStateException e) {
+			assertTrue("createFromParameters", e.getMessage().contains("application-memory-budget"));
+		}
+	}
+}
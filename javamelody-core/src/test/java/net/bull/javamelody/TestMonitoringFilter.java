@@ -24,6 +24,7 @@ import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
+import static net.bull.javamelody.HttpParameters.CURSOR_PARAMETER;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
@@ -31,9 +32,11 @@ import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HIGH_RESOLUTION_PART;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JNLP_PART;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.LAST_VALUE_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
@@ -42,6 +45,7 @@ import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PERIOD_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
+import static net.bull.javamelody.HttpParameters.PROMETHEUS_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
 import static net.bull.javamelody.HttpParameters.RESOURCE_PARAMETER;
 import static net.bull.javamelody.HttpParameters.RUNTIME_DEPENDENCIES_PART;
@@ -622,9 +626,32 @@ public class TestMonitoringFilter { // NOPMD
 		parameters.put(GRAPH, "usedMemory,cpu,unknown");
 		monitoring(parameters);
 
+		parameters.remove(GRAPH);
+		parameters.put(PART_PARAMETER, PROMETHEUS_PART);
+		monitoring(parameters);
+
 		parameters.put(PART_PARAMETER, USAGES_PART);
 		parameters.put(GRAPH, "unknown");
 		monitoring(parameters);
+
+		parameters.remove(GRAPH);
+		parameters.put(PART_PARAMETER, HIGH_RESOLUTION_PART);
+		monitoring(parameters);
+		parameters.put(ACTION_PARAMETER, Action.START_HIGH_RESOLUTION_CAPTURE.toString());
+		monitoring(parameters);
+		parameters.remove(ACTION_PARAMETER);
+		monitoring(parameters);
+		parameters.put(GRAPH, "usedMemory");
+		parameters.put(WIDTH_PARAMETER, "400");
+		parameters.put(HEIGHT_PARAMETER, "100");
+		monitoring(parameters);
+		parameters.put(GRAPH, "unknown");
+		monitoring(parameters, false);
+		parameters.remove(GRAPH);
+		parameters.remove(WIDTH_PARAMETER);
+		parameters.remove(HEIGHT_PARAMETER);
+		parameters.put(ACTION_PARAMETER, Action.STOP_HIGH_RESOLUTION_CAPTURE.toString());
+		monitoring(parameters);
 	}
 
 	private void monitorJdbcParts(Map<String, String> parameters) throws IOException,
@@ -756,6 +783,11 @@ public class TestMonitoringFilter { // NOPMD
 		parameters.remove(GRAPH_PARAMETER);
 		parameters.put(PART_PARAMETER, OTHER_JROBINS_PART);
 		monitoring(parameters);
+		parameters.put(PART_PARAMETER, JROBINS_DATA_PART);
+		monitoring(parameters);
+		parameters.put(GRAPH_PARAMETER, "cpu,unknown");
+		monitoring(parameters);
+		parameters.remove(GRAPH_PARAMETER);
 		parameters.remove(WIDTH_PARAMETER);
 		parameters.remove(HEIGHT_PARAMETER);
 		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, TRUE);
@@ -796,8 +828,16 @@ public class TestMonitoringFilter { // NOPMD
 		parameters.put(PART_PARAMETER, null);
 		parameters.put(COLLECTOR_PARAMETER, "stop");
 		monitoring(parameters);
+		parameters.put(CURSOR_PARAMETER, "0");
+		monitoring(parameters);
+		parameters.put(PART_PARAMETER, DEFAULT_WITH_CURRENT_REQUESTS_PART);
+		monitoring(parameters);
+		parameters.put(PART_PARAMETER, null);
+		parameters.put(CURSOR_PARAMETER, "");
 		parameters.put(ACTION_PARAMETER, Action.GC.toString());
 		monitoring(parameters);
+		parameters.remove(CURSOR_PARAMETER);
+		monitoring(parameters);
 	}
 
 	/** Test.
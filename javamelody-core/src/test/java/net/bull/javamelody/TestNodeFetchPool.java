@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.bull.javamelody.NodeFetchPool.NodeResultHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe NodeFetchPool.
+ * @author Emeric Vernat
+ */
+public class TestNodeFetchPool {
+	private final List<File> files = new ArrayList<File>();
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		for (final File file : files) {
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		NodeFetchPool.stop();
+	}
+
+	private URL createNodeUrl(String result) throws IOException {
+		final File file = File.createTempFile("javamelody", ".ser");
+		files.add(file);
+		final OutputStream output = new FileOutputStream(file);
+		try {
+			TransportFormat.SERIALIZED.writeSerializableTo(result, output);
+		} finally {
+			output.close();
+		}
+		return file.toURI().toURL();
+	}
+
+	private List<String> fetch(List<URL> urls, final List<String> results) throws IOException {
+		final List<LabradorRetriever> labradorRetrievers = new ArrayList<LabradorRetriever>();
+		for (final URL url : urls) {
+			labradorRetrievers.add(new LabradorRetriever(url));
+		}
+		return NodeFetchPool.fetch(labradorRetrievers, new NodeResultHandler<String>() {
+			@Override
+			public void nodeFetched(int nodeIndex, String result, long dataLength) {
+				results.add(nodeIndex + ":" + result);
+			}
+		});
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testFetch() throws IOException {
+		final URL unavailableUrl = new URL("file:/javamelody/unavailable.ser");
+		final List<URL> urls = Arrays.asList(createNodeUrl("a"), unavailableUrl,
+				createNodeUrl("b"), createNodeUrl("c"));
+		for (final String concurrency : Arrays.asList(null, "1", "2")) {
+			Utils.setProperty(Parameter.COLLECT_NODES_CONCURRENCY, concurrency);
+			final List<String> results = new ArrayList<String>();
+			final List<String> failedNodes = fetch(urls, results);
+			// fusion dans l'ordre des noeuds, sans le noeud en erreur
+			assertEquals("results", Arrays.asList("0:a", "2:b", "3:c"), results);
+			assertEquals("failedNodes", 1, failedNodes.size());
+		}
+		Utils.setProperty(Parameter.COLLECT_NODES_CONCURRENCY, null);
+		try {
+			fetch(Arrays.asList(unavailableUrl, unavailableUrl), new ArrayList<String>());
+			fail("all nodes unavailable");
+		} catch (final IOException e) {
+			assertTrue("all nodes unavailable", e.getMessage().contains("unavailable"));
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testFetchTimeout() throws IOException {
+		// serveur qui accepte les connexions mais ne répond jamais
+		final ServerSocket serverSocket = new ServerSocket(0);
+		try {
+			Utils.setProperty(Parameter.COLLECT_NODE_TIMEOUT, "200");
+			final URL slowUrl = new URL("http://localhost:" + serverSocket.getLocalPort()
+					+ "/monitoring");
+			final List<String> results = new ArrayList<String>();
+			final long start = System.currentTimeMillis();
+			final List<String> failedNodes = fetch(Arrays.asList(slowUrl, createNodeUrl("a")),
+					results);
+			assertTrue("timeout", System.currentTimeMillis() - start < 10000);
+			assertEquals("results", Arrays.asList("1:a"), results);
+			assertEquals("failedNodes", 1, failedNodes.size());
+		} finally {
+			Utils.setProperty(Parameter.COLLECT_NODE_TIMEOUT, null);
+			serverSocket.close();
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testParameters() {
+		assertTrue("concurrency", NodeFetchPool.getConcurrency() > 0);
+		assertTrue("timeout", NodeFetchPool.getTimeoutMillis() > 0);
+		Utils.setProperty(Parameter.COLLECT_NODES_CONCURRENCY, "0");
+		try {
+			NodeFetchPool.getConcurrency();
+			fail("concurrency");
+		} catch (final IllegalStateException e) {
+			assertTrue("concurrency", e.getMessage().contains("collect-nodes-concurrency"));
+		} finally {
+			Utils.setProperty(Parameter.COLLECT_NODES_CONCURRENCY, null);
+		}
+	}
+}
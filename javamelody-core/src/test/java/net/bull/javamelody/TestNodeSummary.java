@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.bull.javamelody.NodeSummary.CounterSummary;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe NodeSummary.
+ * @author Emeric Vernat
+ */
+public class TestNodeSummary {
+	private static final String COUNTER_NAME = Counter.HTTP_COUNTER_NAME;
+	private static final String SQL_COUNTER_NAME = "sql";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private static CounterRequest createRequest(String name, long hits, long durationEach,
+			long systemErrors) {
+		final Counter counter = new Counter(COUNTER_NAME, null);
+		for (int i = 0; i < hits; i++) {
+			counter.addRequest(name, durationEach, 0, i < systemErrors, 1000);
+		}
+		return counter.getCounterRequestByName(name);
+	}
+
+	private static NodeSummary createNodeSummary(String node, long durationEach, long systemErrors) {
+		final NodeSummary nodeSummary = new NodeSummary(node);
+		nodeSummary.beginCollect();
+		nodeSummary.addRequest(COUNTER_NAME, createRequest("/test", 100, durationEach,
+				systemErrors));
+		return nodeSummary;
+	}
+
+	/** Test. */
+	@Test
+	public void testAddRequest() {
+		final NodeSummary nodeSummary = new NodeSummary("node1");
+		assertNull("counterSummary", nodeSummary.getCounterSummary(COUNTER_NAME));
+		nodeSummary.beginCollect();
+		nodeSummary.addRequest(COUNTER_NAME, createRequest("/test1", 10, 100, 1));
+		nodeSummary.addRequest(COUNTER_NAME, createRequest("/test2", 10, 300, 0));
+		// une requête sans hits n'est pas ajoutée
+		nodeSummary.addRequest(SQL_COUNTER_NAME, new CounterRequest("select 1",
+				SQL_COUNTER_NAME));
+		assertNull("sql", nodeSummary.getCounterSummary(SQL_COUNTER_NAME));
+		CounterSummary counterSummary = nodeSummary.getCounterSummary(COUNTER_NAME);
+		assertEquals("hits", 20, counterSummary.getHits());
+		assertEquals("mean", 200, counterSummary.getMean());
+		assertEquals("systemErrorPercentage", 5f, counterSummary.getSystemErrorPercentage(), 0.01);
+		assertEquals("lastCollectHits", 20, counterSummary.getLastCollectHits());
+		assertEquals("lastCollectMean", 200, counterSummary.getLastCollectMean());
+		assertEquals("topRequests", "/test2", counterSummary.getTopRequests().get(0).getName());
+
+		// nouvelle collecte : les valeurs cumulées sont gardées
+		nodeSummary.beginCollect();
+		nodeSummary.addRequest(COUNTER_NAME, createRequest("/test1", 20, 400, 0));
+		counterSummary = nodeSummary.getCounterSummary(COUNTER_NAME);
+		assertEquals("hits", 40, counterSummary.getHits());
+		assertEquals("lastCollectHits", 20, counterSummary.getLastCollectHits());
+		assertEquals("lastCollectMean", 400, counterSummary.getLastCollectMean());
+		assertEquals("lastCollectSystemErrorPercentage", 0f,
+				counterSummary.getLastCollectSystemErrorPercentage(), 0.01);
+		assertEquals("topRequests", "/test1", counterSummary.getTopRequests().get(0).getName());
+		assertEquals("topRequests", 30, counterSummary.getTopRequests().get(0).getHits());
+		assertEquals("counterSummaries", 1, nodeSummary.getCounterSummaries().size());
+		assertTrue("lastCollectTime", nodeSummary.getLastCollectTime() > 0);
+		assertNotNull("toString", nodeSummary.toString());
+		assertNotNull("toString", counterSummary.toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testTopRequests() {
+		final NodeSummary nodeSummary = new NodeSummary("node1");
+		for (int i = 1; i <= NodeSummary.TOP_REQUESTS_COUNT + 5; i++) {
+			nodeSummary.addRequest(COUNTER_NAME, createRequest("/test" + i, 1, i * 10, 0));
+		}
+		final List<CounterRequest> topRequests = nodeSummary.getCounterSummary(COUNTER_NAME)
+				.getTopRequests();
+		assertEquals("topRequests", NodeSummary.TOP_REQUESTS_COUNT, topRequests.size());
+		assertEquals("topRequests", "/test" + (NodeSummary.TOP_REQUESTS_COUNT + 5), topRequests
+				.get(0).getName());
+		assertEquals("topRequests", "/test6", topRequests.get(topRequests.size() - 1).getName());
+	}
+
+	/** Test. */
+	@Test
+	public void testAddCounter() {
+		final Counter counter = new Counter(COUNTER_NAME, null);
+		counter.addRequest("/test1", 100, 0, false, 1000);
+		counter.addRequest("/test2", 200, 0, true, 1000);
+		final NodeSummary nodeSummary = new NodeSummary("node1");
+		nodeSummary.addCounter(counter);
+		assertEquals("hits", 2, nodeSummary.getCounterSummary(COUNTER_NAME).getHits());
+		assertEquals("systemErrorPercentage", 50f, nodeSummary.getCounterSummary(COUNTER_NAME)
+				.getSystemErrorPercentage(), 0.01);
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testAddCounterReadFromBinary() throws IOException, ClassNotFoundException {
+		final Counter counter = new Counter(COUNTER_NAME, null);
+		counter.addRequest("/test1", 100, 0, false, 1000);
+		counter.addRequest("/test2", 200, 0, false, 1000);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(new ArrayList<Counter>(Arrays.asList(counter)),
+				output);
+		final List<?> after = (List<?>) BinaryTransport.read(new ByteArrayInputStream(output
+				.toByteArray()));
+		// le résumé est complété une fois la réponse du noeud entièrement lue
+		final NodeSummary nodeSummary = new NodeSummary("node1");
+		nodeSummary.addCounter((Counter) after.get(0));
+		assertEquals("hits", 2, nodeSummary.getCounterSummary(COUNTER_NAME).getHits());
+		assertEquals("mean", 150, nodeSummary.getCounterSummary(COUNTER_NAME).getMean());
+	}
+
+	/** Test. */
+	@Test
+	public void testIsOutlier() {
+		final NodeSummary node1 = createNodeSummary("node1", 100, 0);
+		final NodeSummary node2 = createNodeSummary("node2", 110, 0);
+		final NodeSummary slowNode = createNodeSummary("node3", 300, 0);
+		final NodeSummary errorNode = createNodeSummary("node4", 100, 20);
+		final List<NodeSummary> nodeSummaries = Arrays.asList(node1, node2, slowNode, errorNode);
+		assertFalse("node1", node1.isOutlier(nodeSummaries, COUNTER_NAME));
+		assertFalse("node2", node2.isOutlier(nodeSummaries, COUNTER_NAME));
+		assertTrue("slowNode", slowNode.isOutlier(nodeSummaries, COUNTER_NAME));
+		assertTrue("errorNode", errorNode.isOutlier(nodeSummaries, COUNTER_NAME));
+		assertFalse("sql", node1.isOutlier(nodeSummaries, SQL_COUNTER_NAME));
+		// pas de comparaison avec moins de 3 noeuds
+		assertFalse("2 nodes", slowNode.isOutlier(Arrays.asList(node1, slowNode), COUNTER_NAME));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testToHtml() throws IOException {
+		final List<NodeSummary> nodeSummaries = Arrays.asList(
+				createNodeSummary("node1", 100, 0), createNodeSummary("node2", 110, 0),
+				createNodeSummary("node3", 300, 0));
+		final List<Counter> counters = Arrays.asList(new Counter(COUNTER_NAME, "dbweb.png"),
+				new Counter(SQL_COUNTER_NAME, "db.png"));
+		final StringWriter writer = new StringWriter();
+		new HtmlNodeSummaryReport(nodeSummaries, counters, writer).toHtml();
+		final String html = writer.toString();
+		assertTrue("node3", html.contains("node3"));
+		assertTrue("outlier", html.contains("bullets/red.png"));
+		assertTrue("topRequests", html.contains("/test"));
+
+		final StringWriter emptyWriter = new StringWriter();
+		new HtmlNodeSummaryReport(Collections.<NodeSummary> emptyList(), counters, emptyWriter)
+				.toHtml();
+		assertFalse("empty", emptyWriter.toString().contains("bullets/red.png"));
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe PrometheusController.
+ * @author Emeric Vernat
+ */
+public class TestPrometheusController {
+	private static final String TEST = "test";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private String writeMetrics(Collector collector, List<JavaInformations> javaInformationsList)
+			throws IOException {
+		final StringWriter writer = new StringWriter();
+		new PrometheusController(collector, javaInformationsList).writeMetrics(writer);
+		return writer.toString();
+	}
+
+	private static int countLines(String text, String prefix) {
+		int count = 0;
+		for (final String line : text.split("\n")) {
+			if (line.startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteMetrics() throws IOException {
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		final Collector collector = new Collector(TEST, Collections.singletonList(counter));
+		// le compteur a pu être relu depuis le stockage d'un autre test
+		counter.clear();
+		for (int i = 0; i < 100; i++) {
+			counter.addRequest("request " + i, i, 0, i % 10 == 0, 1000);
+		}
+		counter.addRequest("request \"with\\quotes\"\n", 1000, 0, false, 1000);
+		final JavaInformations javaInformations = new JavaInformations(null, false);
+		final String metrics = writeMetrics(collector, Arrays.asList(javaInformations, null));
+		assertTrue("counter hits", metrics.contains("javamelody_counter_hits_total{application=\""
+				+ TEST + "\",counter=\"http\"} 101\n"));
+		assertTrue("counter durations",
+				metrics.contains("javamelody_counter_durations_milliseconds_total{application=\""
+						+ TEST + "\",counter=\"http\"} 5950\n"));
+		assertTrue("counter errors", metrics.contains("javamelody_counter_errors_total{application=\""
+				+ TEST + "\",counter=\"http\"} 10\n"));
+		assertTrue("counter requests", metrics.contains("javamelody_counter_requests{application=\""
+				+ TEST + "\",counter=\"http\"} 101\n"));
+		assertEquals("top requests", 20, countLines(metrics, "javamelody_request_hits_total{"));
+		// la requête la plus longue est la première, identifiée par son id et avec son nom échappé
+		final String longestId = new CounterRequest("request \"with\\quotes\"\n", counter.getName())
+				.getId();
+		final String secondId = new CounterRequest("request 99", counter.getName()).getId();
+		assertTrue("escaped request", metrics.contains("javamelody_request_durations_milliseconds_total{"
+				+ "application=\"" + TEST + "\",counter=\"http\",request=\"" + longestId
+				+ "\",name=\"request \\\"with\\\\quotes\\\"\\n\"} 1000\n"
+				+ "javamelody_request_durations_milliseconds_total{application=\"" + TEST
+				+ "\",counter=\"http\",request=\"" + secondId + "\",name=\"request 99\"} 99\n"));
+		assertFalse("not in top requests", metrics.contains("name=\"request 79\""));
+		assertEquals("memory", 1, countLines(metrics, "javamelody_memory_used_bytes{"));
+		assertTrue("host", metrics.contains(",host=\"" + javaInformations.getHost() + "\"}"));
+		// une seule déclaration de type par métrique et aucune ligne vide
+		assertEquals("type", 1, countLines(metrics, "# TYPE javamelody_counter_hits_total "));
+		assertFalse("empty line", metrics.contains("\n\n"));
+
+		// nom de requête tronqué dans le label name
+		final StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 30; i++) {
+			longName.append("select ");
+		}
+		counter.addRequest(longName.toString(), 10000, 0, false, 1000);
+		assertTrue("truncated name", writeMetrics(collector,
+				Collections.<JavaInformations> emptyList()).contains(
+				",name=\"" + longName.substring(0, 100) + "...\"}"));
+
+		// compteur non affiché
+		counter.setDisplayed(false);
+		assertFalse("not displayed", writeMetrics(collector,
+				Collections.<JavaInformations> emptyList()).contains("counter=\"http\""));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteMetricsWithManyRequests() throws IOException {
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		final Collector collector = new Collector(TEST, Collections.singletonList(counter));
+		counter.clear();
+		for (int i = 0; i < 10000; i++) {
+			counter.addRequest("request " + i, i % 1000, 0, false, 1000);
+		}
+		Utils.setProperty(Parameter.PROMETHEUS_TOP_REQUESTS, "5");
+		try {
+			final String metrics = writeMetrics(collector,
+					Collections.<JavaInformations> emptyList());
+			assertEquals("top requests", 5, countLines(metrics, "javamelody_request_hits_total{"));
+			assertTrue("counter requests", metrics.contains("counter=\"http\"} 10000\n"));
+			assertFalse("no jvm metrics", metrics.contains("javamelody_memory_used_bytes"));
+			for (final String line : metrics.split("\n")) {
+				if (line.startsWith("javamelody_request_durations_milliseconds_total{")) {
+					assertTrue("longest requests", line.endsWith(" 999"));
+				}
+			}
+			Utils.setProperty(Parameter.PROMETHEUS_TOP_REQUESTS, "0");
+			assertFalse("no request metrics",
+					writeMetrics(collector, Collections.<JavaInformations> emptyList())
+							.contains("javamelody_request_"));
+			Utils.setProperty(Parameter.PROMETHEUS_TOP_REQUESTS, "-1");
+			try {
+				writeMetrics(collector, Collections.<JavaInformations> emptyList());
+				fail("prometheus-top-requests");
+			} catch (final IllegalStateException e) {
+				assertTrue("prometheus-top-requests", e.getMessage() != null);
+			}
+		} finally {
+			Utils.setProperty(Parameter.PROMETHEUS_TOP_REQUESTS, null);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe PushPayloadReader.
+ * @author Emeric Vernat
+ */
+public class TestPushPayloadReader {
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testRead() throws IOException {
+		final List<Serializable> payload = new ArrayList<Serializable>();
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		counter.addRequest("test", 100, 50, false, 1000);
+		payload.add(counter);
+		payload.add(new JavaInformations(null, true));
+		payload.add(new CollectCursor("1"));
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.SERIALIZED.writeSerializableTo((Serializable) payload, output);
+		final PushPayloadReader pushPayloadReader = new PushPayloadReader();
+		final List<Serializable> result = pushPayloadReader.read(new ByteArrayInputStream(
+				output.toByteArray()));
+		assertEquals("payload", payload.size(), result.size());
+		assertEquals("payloadSize", output.size(), pushPayloadReader.getPayloadSize());
+
+		// ce n'est pas une liste
+		output.reset();
+		TransportFormat.SERIALIZED.writeSerializableTo("test", output);
+		try {
+			pushPayloadReader.read(new ByteArrayInputStream(output.toByteArray()));
+		} catch (final IOException e) {
+			assertNotNull("not a list", e);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testIsClassAllowed() {
+		assertTrue("counter", PushPayloadReader.isClassAllowed(Counter.class.getName()));
+		assertTrue("string", PushPayloadReader.isClassAllowed(String.class.getName()));
+		assertTrue("list", PushPayloadReader.isClassAllowed(ArrayList.class.getName()));
+		assertTrue("array", PushPayloadReader.isClassAllowed(String[].class.getName()));
+		assertTrue("primitive array", PushPayloadReader.isClassAllowed(long[][].class.getName()));
+		assertFalse("url", PushPayloadReader.isClassAllowed(java.net.URL.class.getName()));
+		assertFalse("url array",
+				PushPayloadReader.isClassAllowed(java.net.URL[].class.getName()));
+		assertFalse("reflect",
+				PushPayloadReader.isClassAllowed(java.lang.reflect.Proxy.class.getName()));
+		assertFalse("no package", PushPayloadReader.isClassAllowed("Test"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testLimitedInputStream() throws IOException {
+		final InputStream input = new PushPayloadReader.LimitedInputStream(
+				new ByteArrayInputStream(new byte[20]), 10);
+		try {
+			assertEquals("read", 5, input.read(new byte[5]));
+			assertEquals("read", 0, input.read());
+			input.read(new byte[10]);
+		} catch (final IOException e) {
+			assertNotNull("too large", e);
+		} finally {
+			input.close();
+		}
+	}
+}
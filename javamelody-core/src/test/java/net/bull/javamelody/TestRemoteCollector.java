@@ -18,6 +18,11 @@
  */
 package net.bull.javamelody;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -58,6 +63,72 @@ public class TestRemoteCollector {
 				null);
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCollectData() throws IOException {
+		assertTrue("isDeltaCollectEnabled", remoteCollector.isDeltaCollectEnabled());
+		remoteCollector.collectData();
+		assertNotNull("collector", remoteCollector.getCollector());
+		assertEquals("nodeSummaries", 1, remoteCollector.getNodeSummaries().size());
+		assertEquals("node", "localhost:8090", remoteCollector.getNodeSummaries().get(0)
+				.getNode());
+		remoteCollector.collectData();
+		// pas de données lues avec mockLabradorRetriever
+		assertEquals("lastCollectDataLength", 0, remoteCollector.getLastCollectDataLength());
+		Utils.setProperty(Parameter.DELTA_COLLECT_DISABLED, "true");
+		assertFalse("isDeltaCollectEnabled", remoteCollector.isDeltaCollectEnabled());
+		remoteCollector.collectData();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testExecuteDoesNotAddCounters() throws IOException {
+		assertTrue("isDeltaCollectEnabled", remoteCollector.isDeltaCollectEnabled());
+		remoteCollector.collectData();
+		final long hits = getHttpHits();
+		final long nodeHits = getNodeHttpHits();
+		assertTrue("hits", hits > 0);
+		// une action renvoie les compteurs cumulés du noeud, qui ne doivent pas être ajoutés
+		remoteCollector.executeActionAndCollectData(Action.GC, null, null, null, null, null);
+		remoteCollector.executeActionAndCollectData(Action.INVALIDATE_SESSIONS, null, null, null,
+				null, null);
+		assertEquals("hits after actions", hits, getHttpHits());
+		assertEquals("node hits after actions", nodeHits, getNodeHttpHits());
+		remoteCollector.collectData();
+		// une requête http par appel avec mockLabradorRetriever
+		assertEquals("hits after collect", hits + 1, getHttpHits());
+
+		// une action avant la première collecte n'ajoute rien non plus
+		final RemoteCollector newRemoteCollector = new RemoteCollector("test",
+				remoteCollector.getURLs());
+		newRemoteCollector.executeActionAndCollectData(Action.GC, null, null, null, null, null);
+		assertNotNull("collector", newRemoteCollector.getCollector());
+		final long newHits = getHttpHits(newRemoteCollector);
+		newRemoteCollector.executeActionAndCollectData(Action.GC, null, null, null, null, null);
+		assertEquals("hits after second action", newHits, getHttpHits(newRemoteCollector));
+	}
+
+	private long getHttpHits() {
+		return getHttpHits(remoteCollector);
+	}
+
+	private static long getHttpHits(RemoteCollector aRemoteCollector) {
+		long hits = 0;
+		for (final CounterRequest request : aRemoteCollector.getCollector()
+				.getCounterByName(Counter.HTTP_COUNTER_NAME).getRequests()) {
+			hits += request.getHits();
+		}
+		return hits;
+	}
+
+	private long getNodeHttpHits() {
+		final NodeSummary.CounterSummary counterSummary = remoteCollector.getNodeSummaries()
+				.get(0).getCounterSummary(Counter.HTTP_COUNTER_NAME);
+		return counterSummary == null ? 0 : counterSummary.getHits();
+	}
+
 	/** Test.
 	 * @throws IOException e */
 	@Test
@@ -65,6 +136,8 @@ public class TestRemoteCollector {
 		remoteCollector.collectJRobin("cpu", 50, 50);
 		remoteCollector.collectJRobins(50, 50);
 		remoteCollector.collectOtherJRobins(50, 50);
+		remoteCollector.collectJRobinsTimeSeries("cpu,usedMemory");
+		remoteCollector.collectJRobinsTimeSeries(null);
 	}
 
 	/** Test.
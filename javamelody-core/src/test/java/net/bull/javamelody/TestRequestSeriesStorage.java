@@ -0,0 +1,253 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Timer;
+
+import org.jrobin.data.Plottable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RequestSeriesStorage.
+ * @author Emeric Vernat
+ */
+public class TestRequestSeriesStorage {
+	private static final String TEST_APPLICATION = "test request series";
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+		// fichiers des exécutions précédentes
+		final File[] files = Parameters.getStorageDirectory(TEST_APPLICATION).listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.getName().endsWith(RequestSeriesStorage.FILE_EXTENSION) && !file.delete()) {
+					fail("delete");
+				}
+			}
+		}
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testFlushAndGetSeries() throws IOException {
+		final RequestSeriesStorage storage = new RequestSeriesStorage(TEST_APPLICATION,
+				"testflush", 60);
+		assertTrue("toString", storage.toString().length() > 0);
+		assertEquals("counterName", "testflush", storage.getCounterName());
+		assertTrue("lastValue", Double.isNaN(storage.getLastValue("request1")));
+		final long start = System.currentTimeMillis() / 1000 - 10;
+		storage.addValue("request1", 100);
+		storage.addValue("request2", 200);
+		storage.flush();
+		// flush sans valeur ne fait rien
+		storage.flush();
+		assertEquals("lastValue", 100, storage.getLastValue("request1"), 0.01);
+		final long end = System.currentTimeMillis() / 1000 + 10;
+
+		final RequestSeriesStorage.Series series1 = storage.getSeries("request1", start, end);
+		assertEquals("size", 1, series1.size());
+		assertEquals("value", 100, series1.getValues()[0], 0.01);
+		final RequestSeriesStorage.Series series2 = storage.getSeries("request2", start, end);
+		assertEquals("value", 200, series2.getValues()[0], 0.01);
+
+		// relecture du dictionnaire par une autre instance, comme après un redémarrage
+		final RequestSeriesStorage storage2 = new RequestSeriesStorage(TEST_APPLICATION,
+				"testflush", 60);
+		storage2.addValue("request3", 300);
+		storage2.addValue("request1", 150);
+		storage2.flush();
+		// dans la même seconde, la dernière valeur écrite l'emporte
+		assertEquals("value", 150, storage2.getSeries("request1", start, end).getValues()[0],
+				0.01);
+		assertEquals("size", 1, storage2.getSeries("request3", start, end).size());
+		assertEquals("size", 1, storage2.getSeries("request2", start, end).size());
+		assertEquals("size", 0, storage2.getSeries("unknown", start, end).size());
+
+		storage2.removeRequest("request1");
+		assertTrue("lastValue", Double.isNaN(storage2.getLastValue("request1")));
+		assertTrue("diskUsage", RequestSeriesStorage.deleteObsoleteFiles(TEST_APPLICATION) > 0);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testTruncatedFile() throws IOException {
+		final RequestSeriesStorage storage = new RequestSeriesStorage(TEST_APPLICATION,
+				"testtruncated", 60);
+		final long start = System.currentTimeMillis() / 1000 - 10;
+		storage.addValue("request1", 100);
+		storage.flush();
+		final File file = new File(Parameters.getStorageDirectory(TEST_APPLICATION),
+				"testtruncatedRequests_"
+						+ new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date())
+						+ RequestSeriesStorage.FILE_EXTENSION);
+		final long length = file.length();
+		// dernier enregistrement coupé, comme après un arrêt brutal pendant l'écriture
+		storage.addValue("request2", 200);
+		storage.flush();
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(randomAccessFile.length() - 3);
+		} finally {
+			randomAccessFile.close();
+		}
+		final long end = System.currentTimeMillis() / 1000 + 10;
+		assertEquals("size", 1, storage.getSeries("request1", start, end).size());
+		assertEquals("size", 0, storage.getSeries("request2", start, end).size());
+
+		// après un redémarrage, l'enregistrement incomplet est supprimé avant d'écrire les suivants
+		final RequestSeriesStorage storage2 = new RequestSeriesStorage(TEST_APPLICATION,
+				"testtruncated", 60);
+		storage2.addValue("request3", 300);
+		storage2.flush();
+		assertTrue("length", file.length() > length);
+		assertEquals("value", 100, storage2.getSeries("request1", start, end).getValues()[0],
+				0.01);
+		assertEquals("value", 300, storage2.getSeries("request3", start, end).getValues()[0],
+				0.01);
+		storage2.addValue("request2", 250);
+		storage2.flush();
+		assertEquals("value", 250, storage2.getSeries("request2", start, end).getValues()[0],
+				0.01);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testImportSeries() throws IOException {
+		final RequestSeriesStorage storage = new RequestSeriesStorage(TEST_APPLICATION,
+				"testimport", 60);
+		final long now = System.currentTimeMillis() / 1000;
+		final long twoDaysAgo = now - 2 * 24 * 60 * 60;
+		storage.importSeries("request", new long[] { twoDaysAgo, twoDaysAgo + 60, now },
+				new double[] { 10, Double.NaN, 30 });
+		final RequestSeriesStorage.Series series = storage.getSeries("request", twoDaysAgo,
+				now);
+		assertEquals("size", 2, series.size());
+		assertEquals("time", twoDaysAgo, series.getTimes()[0]);
+		assertEquals("value", 30, series.getValues()[1], 0.01);
+
+		final Plottable average = series.toPlottable(60, false);
+		assertEquals("average", 10, average.getValue(twoDaysAgo), 0.01);
+		assertTrue("gap", Double.isNaN(average.getValue(twoDaysAgo + 3600)));
+		final Plottable max = storage.getSeries("request", now - 3600, now).toPlottable(
+				storage.getBucketSeconds(3600), true);
+		assertEquals("max", 30, max.getValue(now), 0.01);
+		assertEquals("bucket", 60, storage.getBucketSeconds(3600));
+		assertEquals("bucket", 60 * 60, storage.getBucketSeconds(7 * 24 * 60 * 60));
+		assertEquals("bucket", 6 * 60 * 60, storage.getBucketSeconds(30 * 24 * 60 * 60));
+		assertEquals("bucket", 48 * 60 * 60, storage.getBucketSeconds(365 * 24 * 60 * 60));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCompactFile() throws IOException {
+		final RequestSeriesStorage storage = new RequestSeriesStorage(TEST_APPLICATION,
+				"testcompact", 60);
+		// des valeurs d'il y a 10 jours, dans une même heure
+		final long hour = 60 * 60;
+		final long time = (System.currentTimeMillis() / 1000 - 10 * 24 * hour) / hour * hour;
+		storage.importSeries("request1", new long[] { time, time + 60, time + 120 },
+				new double[] { 10, 20, 30 });
+		storage.importSeries("request2", new long[] { time }, new double[] { 100 });
+		final File file = new File(Parameters.getStorageDirectory(TEST_APPLICATION),
+				"testcompactRequests_"
+						+ new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date(
+								time * 1000)) + RequestSeriesStorage.FILE_EXTENSION);
+		assertTrue("file", file.exists());
+		assertEquals("size", 3, storage.getSeries("request1", time, time + hour).size());
+
+		RequestSeriesStorage.compactFile(file, (int) hour);
+		final RequestSeriesStorage.Series series1 = storage.getSeries("request1", time, time
+				+ hour);
+		assertEquals("size", 1, series1.size());
+		assertEquals("average", 20, series1.getValues()[0], 0.01);
+		assertEquals("max", 30, series1.toPlottable(hour, true).getValue(time), 0.01);
+		assertEquals("value", 100, storage.getSeries("request2", time, time + hour)
+				.getValues()[0], 0.01);
+		assertEquals("size", 0, storage.getSeries("unknown", time, time + hour).size());
+
+		// un import après la consolidation est relu, puis consolidé avec le reste
+		storage.importSeries("request3", new long[] { time }, new double[] { 300 });
+		assertEquals("value", 300, storage.getSeries("request3", time, time + hour)
+				.getValues()[0], 0.01);
+		RequestSeriesStorage.compactFile(file, (int) (6 * hour));
+		assertEquals("value", 300, storage.getSeries("request3", time - 6 * hour, time + hour)
+				.getValues()[0], 0.01);
+		assertEquals("average", 20, storage.getSeries("request1", time - 6 * hour, time + hour)
+				.getValues()[0], 0.01);
+
+		// la consolidation des fichiers des jours passés est faite avec la purge des fichiers obsolètes
+		assertTrue("diskUsage", RequestSeriesStorage.deleteObsoleteFiles(TEST_APPLICATION) > 0);
+		assertEquals("bucket", 0, RequestSeriesStorage.getCompactionBucketSeconds(1));
+		assertEquals("bucket", hour, RequestSeriesStorage.getCompactionBucketSeconds(2));
+		assertEquals("bucket", 6 * hour, RequestSeriesStorage.getCompactionBucketSeconds(10));
+		assertEquals("bucket", 24 * hour, RequestSeriesStorage.getCompactionBucketSeconds(100));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testConsolidatedJRobin() throws IOException {
+		final RequestSeriesStorage storage = new RequestSeriesStorage(TEST_APPLICATION,
+				"testjrobin", 60);
+		// un fichier rrd existant pour la requête est migré puis supprimé
+		final JRobin rrdJRobin = JRobin.createInstance(TEST_APPLICATION, "testjrobinRequest",
+				"request name");
+		rrdJRobin.addValue(50);
+		final File rrdFile = new File(Parameters.getStorageDirectory(TEST_APPLICATION),
+				"testjrobinRequest.rrd");
+		assertTrue("rrd file", rrdFile.exists());
+		final JRobin jrobin = JRobin.createConsolidatedInstance(TEST_APPLICATION,
+				"testjrobinRequest", "request name", storage);
+		assertTrue("rrd file deleted", !rrdFile.exists());
+		jrobin.addValue(100);
+		storage.flush();
+		assertEquals("lastValue", 100, jrobin.getLastValue(), 0.01);
+		final Range range = Period.JOUR.getRange();
+		assertNotNull("graph", jrobin.graph(range, 500, 200));
+		assertNotNull("graph", jrobin.graph(Period.MOIS.getRange(), 80, 80));
+		assertTrue("deleteFile", jrobin.deleteFile());
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RrdNioSyncScheduler.
+ * @author Emeric Vernat
+ */
+public class TestRrdNioSyncScheduler {
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test. */
+	@Test
+	public void testGetQuota() {
+		assertEquals("quota", 0, RrdNioSyncScheduler.getQuota(0, 300000));
+		assertEquals("quota", 1, RrdNioSyncScheduler.getQuota(1, 300000));
+		assertEquals("quota", 2, RrdNioSyncScheduler.getQuota(301, 300000));
+		assertEquals("quota", 10, RrdNioSyncScheduler.getQuota(10, 0));
+		assertEquals("quota", RrdNioSyncScheduler.MAX_SYNCS_PER_TICK,
+				RrdNioSyncScheduler.getQuota(1000000, 1000));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testTick() throws IOException {
+		final RrdNioSyncScheduler scheduler = RrdNioSyncScheduler.getInstance();
+		final long syncCount = scheduler.getSyncCount();
+		final JRobin jrobin = JRobin.createInstance("test", "testSync", null);
+		jrobin.addValue(1);
+		assertTrue("dirtyCount", scheduler.getDirtyCount() > 0);
+		// une période nulle synchronise tous les fichiers modifiés, dans la limite par seconde
+		while (scheduler.getDirtyCount() > 0) {
+			scheduler.tick(0);
+		}
+		assertTrue("syncCount", scheduler.getSyncCount() > syncCount);
+		assertTrue("meanSyncMillis", scheduler.getMeanSyncMillis() >= 0);
+		assertTrue("maxSyncMillis", scheduler.getMaxSyncMillis() >= 0);
+		assertTrue("lastSyncMillis", scheduler.getLastSyncMillis() >= 0);
+		assertTrue("toString", scheduler.toString().length() > 0);
+		// rien à synchroniser
+		scheduler.tick(0);
+		assertEquals("dirtyCount", 0, scheduler.getDirtyCount());
+		jrobin.deleteFile();
+	}
+
+	/** Test. */
+	@Test
+	public void testStartAndStop() {
+		final RrdNioSyncScheduler scheduler = RrdNioSyncScheduler.getInstance();
+		// déjà démarré par initBackendFactory
+		scheduler.start();
+		scheduler.stop();
+		scheduler.stop();
+		scheduler.start();
+		assertTrue("toString", scheduler.toString().length() > 0);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RrdOffHeapStorage.
+ * @author Emeric Vernat
+ */
+public class TestRrdOffHeapStorage {
+	private static final String TEST_APPLICATION = "test offheap";
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		Utils.setProperty(Parameter.MEMORY_RRD_STORAGE, "true");
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** After.
+	 * @throws IOException e */
+	@After
+	public void tearDown() throws IOException {
+		JRobin.stop();
+		Utils.setProperty(Parameter.MEMORY_RRD_STORAGE, null);
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testMemoryStorage() throws IOException {
+		final File storageDir = Parameters.getStorageDirectory(TEST_APPLICATION);
+		final File rrdFile = new File(storageDir, "usedMemory.rrd");
+		if (rrdFile.exists() && !rrdFile.delete()) {
+			fail("delete");
+		}
+		final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, "usedMemory", null);
+		jrobin.addValue(100);
+		assertEquals("lastValue", 100, jrobin.getLastValue(), 0.01);
+		assertNotNull("graph", jrobin.graph(Period.JOUR.getRange(), 200, 50));
+		// aucun fichier rrd sur disque
+		assertFalse("rrd file", rrdFile.exists());
+
+		final RrdOffHeapStorage storage = new RrdOffHeapStorage();
+		assertTrue("toString", storage.toString().length() > 0);
+		// l'arrêt sauvegarde les données dans l'archive
+		JRobin.stop();
+		final File snapshotFile = new File(storageDir, RrdOffHeapStorage.SNAPSHOT_FILENAME);
+		assertTrue("snapshot", snapshotFile.exists());
+
+		// et un nouveau stockage relit l'archive, comme au redémarrage
+		assertTrue("restored", storage.getFileNames(storageDir).contains(rrdFile.getName()));
+		assertTrue("exists", storage.exists(rrdFile.getPath()));
+		assertTrue("delete", storage.delete(rrdFile.getPath()));
+		assertFalse("exists", storage.exists(rrdFile.getPath()));
+		storage.saveSnapshots();
+		assertEquals("fileCount", 0, new RrdOffHeapStorage().getFileNames(storageDir)
+				.size());
+		assertTrue("obsolete", JRobin.deleteObsoleteJRobinFiles(TEST_APPLICATION) >= 0);
+		assertTrue("deleteFile", jrobin.deleteFile());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testSnapshotAfterWrite() throws IOException {
+		final File storageDir = Parameters.getStorageDirectory(TEST_APPLICATION);
+		final File rrdFile = new File(storageDir, "snapshotAfterWrite.rrd");
+		final File snapshotFile = new File(storageDir, RrdOffHeapStorage.SNAPSHOT_FILENAME);
+		final RrdOffHeapStorage storage = new RrdOffHeapStorage();
+		final RrdOffHeapBackend backend = (RrdOffHeapBackend) storage.open(rrdFile.getPath());
+		backend.setLength(8);
+		backend.write(0, new byte[] { 1, 2, 3, 4 });
+		storage.saveSnapshots();
+		assertTrue("snapshot", snapshotFile.exists());
+		// rien n'est modifié depuis la sauvegarde précédente
+		assertTrue("delete", snapshotFile.delete());
+		storage.saveSnapshots();
+		assertFalse("snapshot", snapshotFile.exists());
+		// une écriture après une sauvegarde marque de nouveau le répertoire
+		backend.write(4, new byte[] { 5, 6, 7, 8 });
+		storage.saveSnapshots();
+		assertTrue("snapshot", snapshotFile.exists());
+		final RrdOffHeapStorage restoredStorage = new RrdOffHeapStorage();
+		final RrdOffHeapBackend restoredBackend = (RrdOffHeapBackend) restoredStorage
+				.open(rrdFile.getPath());
+		final byte[] bytes = new byte[8];
+		restoredBackend.read(0, bytes);
+		assertEquals("restored", 8, bytes[7]);
+		assertTrue("delete", restoredStorage.delete(rrdFile.getPath()));
+		restoredStorage.saveSnapshots();
+	}
+
+	/** Test. */
+	@Test
+	public void testSnapshotSeconds() {
+		assertEquals("default", 600, RrdOffHeapStorage.getSnapshotSeconds());
+		Utils.setProperty(Parameter.MEMORY_RRD_SNAPSHOT_SECONDS, "60");
+		assertEquals("snapshotSeconds", 60, RrdOffHeapStorage.getSnapshotSeconds());
+		Utils.setProperty(Parameter.MEMORY_RRD_SNAPSHOT_SECONDS, "0");
+		try {
+			RrdOffHeapStorage.getSnapshotSeconds();
+			fail("IllegalStateException");
+		} catch (final IllegalStateException e) {
+			assertNotNull("e", e);
+		}
+	}
+}
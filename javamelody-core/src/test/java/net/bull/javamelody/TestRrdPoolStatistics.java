@@ -0,0 +1,131 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Timer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.bull.javamelody.RrdPoolStatistics.Histogram;
+import net.bull.javamelody.RrdPoolStatistics.Operation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RrdPoolStatistics.
+ * @author Emeric Vernat
+ */
+public class TestRrdPoolStatistics {
+	private static final String TEST_APPLICATION = "test";
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+		RrdPoolStatistics.getInstance().reset();
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test. */
+	@Test
+	public void testHistogram() {
+		final Histogram histogram = new Histogram();
+		assertEquals("mean", 0, histogram.getMeanMillis(), 0.01);
+		histogram.record(500000);
+		histogram.record(3000000);
+		histogram.record(5000000000L);
+		assertEquals("count", 3, histogram.getCount());
+		assertEquals("max", 5000, histogram.getMaxMillis(), 0.01);
+		final long[] counts = histogram.getCounts();
+		assertEquals("length", RrdPoolStatistics.HISTOGRAM_BOUNDS_MILLIS.length + 1, counts.length);
+		assertEquals("< 1 ms", 1, counts[0]);
+		assertEquals("< 5 ms", 1, counts[2]);
+		assertEquals(">= 2000 ms", 1, counts[counts.length - 1]);
+		assertTrue("toString", histogram.toString().contains(">=2000 ms: 1"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testStatistics() throws IOException {
+		final RrdPoolStatistics statistics = RrdPoolStatistics.getInstance();
+		final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, "cpu", null);
+		jrobin.getLastValue();
+		jrobin.getLastValue();
+		jrobin.graph(Period.JOUR.getRange(), 80, 80);
+		// le pool de JRobin ferme le fichier à chaque libération
+		assertTrue("opens", statistics.getOpenCount() >= 2);
+		assertTrue("reopens", statistics.getReopenCount() >= 1);
+		assertTrue("requests", statistics.getHistogram(Operation.REQUEST).getCount() >= 2);
+		assertEquals("fetches", 2, statistics.getHistogram(Operation.FETCH).getCount());
+		assertEquals("releases", statistics.getHistogram(Operation.REQUEST).getCount(),
+				statistics.getHistogram(Operation.RELEASE).getCount());
+		assertTrue("capacity", statistics.getPoolCapacity() > 0);
+		assertTrue("openFiles", statistics.getOpenFileCount() >= 0);
+		assertEquals("capacityHits", 0, statistics.getCapacityHitCount());
+		assertEquals("latencies", Operation.values().length, statistics.getLatencies().length);
+		assertTrue("toString", statistics.toString().length() > 0);
+		statistics.reset();
+		assertEquals("opens", 0, statistics.getOpenCount());
+		assertEquals("requests", 0, statistics.getHistogram(Operation.REQUEST).getCount());
+		// les fichiers déjà ouverts sont aussi oubliés
+		jrobin.getLastValue();
+		assertEquals("reopens", 0, statistics.getReopenCount());
+	}
+
+	/** Test.
+	 * @throws JMException e */
+	@Test
+	public void testMBean() throws JMException {
+		final RrdPoolStatistics statistics = RrdPoolStatistics.getInstance();
+		final MBeanServer mbeanServer = MBeans.getPlatformMBeanServer();
+		final ObjectName name = RrdPoolStatistics.getObjectName(TEST_APPLICATION);
+		statistics.registerMBean(TEST_APPLICATION);
+		// un deuxième enregistrement, pour une autre application partageant les statistiques,
+		// n'enregistre pas une deuxième fois les mêmes statistiques
+		statistics.registerMBean("other application");
+		assertTrue("registered", mbeanServer.isRegistered(name));
+		assertFalse("registered",
+				mbeanServer.isRegistered(RrdPoolStatistics.getObjectName("other application")));
+		assertEquals("OpenCount", 0L, mbeanServer.getAttribute(name, "OpenCount"));
+		assertEquals("Latencies", Operation.values().length,
+				((String[]) mbeanServer.getAttribute(name, "Latencies")).length);
+		// elles restent enregistrées jusqu'à l'arrêt de la dernière application
+		statistics.unregisterMBean();
+		assertTrue("registered", mbeanServer.isRegistered(name));
+		statistics.unregisterMBean();
+		assertFalse("registered", mbeanServer.isRegistered(name));
+	}
+}
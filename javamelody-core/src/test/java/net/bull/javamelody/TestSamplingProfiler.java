@@ -18,9 +18,15 @@
  */
 package net.bull.javamelody;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.bull.javamelody.SamplingProfiler.SampledStack;
 
 import org.junit.Test;
 
@@ -52,4 +58,91 @@ public class TestSamplingProfiler {
 		samplingProfiler.clear();
 		assertTrue(samplingProfiler.getHotspots(NB_ROWS).isEmpty());
 	}
+
+	/**
+	 * Test.
+	 * @throws InterruptedException e
+	 */
+	@Test
+	public void testHotspotStacks() throws InterruptedException {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler();
+		assertTrue(samplingProfiler.getHotspotStacks(NB_ROWS).isEmpty());
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					// thread occupé pour être échantillonné
+					Math.sqrt(Math.random());
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		try {
+			for (int i = 0; i < 10; i++) {
+				samplingProfiler.update();
+				Thread.sleep(10);
+			}
+		} finally {
+			thread.interrupt();
+		}
+		final List<SampledStack> stacks = samplingProfiler.getHotspotStacks(NB_ROWS);
+		assertFalse("stacks", stacks.isEmpty());
+		for (final SampledStack stack : stacks) {
+			final String[] frames = stack.getFrames();
+			assertTrue("frames", frames.length >= 1);
+			// la pile d'appels se termine par la méthode du hotspot, hors packages exclus
+			assertFalse("hotspot", frames[frames.length - 1].startsWith("java."));
+		}
+		samplingProfiler.clear();
+		assertTrue(samplingProfiler.getHotspotStacks(NB_ROWS).isEmpty());
+	}
+
+	/**
+	 * Test.
+	 * @throws InterruptedException e
+	 */
+	@Test
+	public void testDeepHotspotStack() throws InterruptedException {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler();
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				recurse(200);
+			}
+
+			private void recurse(int depth) {
+				if (depth > 0) {
+					recurse(depth - 1);
+					return;
+				}
+				while (!isInterrupted()) {
+					// thread occupé en bas d'une pile d'appels profonde pour être échantillonné
+					Math.sqrt(Math.random());
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		try {
+			for (int i = 0; i < 10; i++) {
+				samplingProfiler.update();
+				Thread.sleep(10);
+			}
+		} finally {
+			thread.interrupt();
+		}
+		boolean deepStackFound = false;
+		for (final SampledStack stack : samplingProfiler.getHotspotStacks(NB_ROWS)) {
+			final String[] frames = stack.getFrames();
+			if (Arrays.asList(frames).contains(SamplingProfiler.ELIDED_FRAMES)) {
+				deepStackFound = true;
+				assertEquals("frames", 50, frames.length);
+				// la racine de la pile d'appels est gardée, seul le milieu est retiré
+				assertTrue("root", frames[0].endsWith(".run"));
+				assertTrue("hotspot", frames[frames.length - 1].endsWith(".recurse"));
+			}
+		}
+		assertTrue("deep stack", deepStackFound);
+	}
 }
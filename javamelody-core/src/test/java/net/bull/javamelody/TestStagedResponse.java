@@ -0,0 +1,127 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.bull.javamelody.BinaryTransport.RequestHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe StagedResponse.
+ * @author Emeric Vernat
+ */
+public class TestStagedResponse {
+	private static final String COUNTER_NAME = "test staged response";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private static byte[] createResponse() throws IOException {
+		final Counter counter = new Counter(COUNTER_NAME, null);
+		counter.addRequest("test1", 100, 0, false, 1000);
+		counter.addRequest("test2", 200, 0, false, 1000);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(new ArrayList<Counter>(Arrays.asList(counter)),
+				output);
+		return output.toByteArray();
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testMerge() throws IOException, ClassNotFoundException {
+		final StagedResponse stagedResponse = StagedResponse.stage(new ByteArrayInputStream(
+				createResponse()));
+		try {
+			assertTrue("exists", stagedResponse.exists());
+			// les requêtes ne sont pas gardées par la lecture de vérification
+			final Counter checkedCounter = (Counter) ((List<?>) stagedResponse.getResult()).get(0);
+			assertEquals("checked", 0, checkedCounter.getRequestsCount());
+
+			final Counter collectorCounter = new Counter(COUNTER_NAME, null);
+			final RequestHandler requestHandler = new RequestHandler() {
+				@Override
+				public boolean requestRead(Counter counter, CounterRequest request) {
+					collectorCounter.addRequestHits(request);
+					return true;
+				}
+			};
+			final Counter counter = (Counter) ((List<?>) stagedResponse.merge(requestHandler))
+					.get(0);
+			assertEquals("name", COUNTER_NAME, counter.getName());
+			assertEquals("not kept", 0, counter.getRequestsCount());
+			assertEquals("merged", 2, collectorCounter.getRequestsCount());
+			assertEquals("hits", 1, collectorCounter.getCounterRequestByName("test2").getHits());
+		} finally {
+			stagedResponse.delete();
+		}
+		assertFalse("deleted", stagedResponse.exists());
+	}
+
+	/** Test.
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testTruncatedResponse() throws ClassNotFoundException {
+		final File tmpDirectory = Parameters.TEMPORARY_DIRECTORY;
+		final int stagingFilesBefore = countStagingFiles(tmpDirectory);
+		try {
+			final byte[] bytes = createResponse();
+			final byte[] truncatedBytes = new byte[bytes.length / 2];
+			System.arraycopy(bytes, 0, truncatedBytes, 0, truncatedBytes.length);
+			StagedResponse.stage(new ByteArrayInputStream(truncatedBytes));
+			fail("truncated");
+		} catch (final IOException e) {
+			assertNotNull("e", e);
+		}
+		// une réponse incomplète n'est pas gardée, elle ne sera donc pas fusionnée
+		assertEquals("staging files", stagingFilesBefore, countStagingFiles(tmpDirectory));
+	}
+
+	private static int countStagingFiles(File directory) {
+		int count = 0;
+		final String[] fileNames = directory.list();
+		if (fileNames != null) {
+			for (final String fileName : fileNames) {
+				if (fileName.endsWith(".staging")) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe StorageManifest.
+ * @author Emeric Vernat
+ */
+public class TestStorageManifest {
+	private static final String TEST_APPLICATION = "test storage manifest";
+
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testManifest() throws IOException {
+		final File storageDir = Parameters.getStorageDirectory(TEST_APPLICATION);
+		if (!storageDir.exists() && !storageDir.mkdirs()) {
+			fail("mkdir");
+		}
+		final File file = new File(storageDir, "manifest-test.rrd");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[100]);
+		} finally {
+			out.close();
+		}
+		final StorageManifest storageManifest = StorageManifest.getInstance(TEST_APPLICATION);
+		assertTrue("toString", storageManifest.toString().length() > 0);
+		// le fichier créé hors du manifeste doit être trouvé par la réconciliation
+		assertTrue("entries", containsEntry(storageManifest, file.getName()));
+		assertTrue("diskUsage", storageManifest.getDiskUsage() >= 100);
+
+		storageManifest.fileTouched(file, 12345);
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.JROBIN)) {
+			if (entry.getName().equals(file.getName())) {
+				assertEquals("lastUpdate", 12345, entry.getLastUpdate());
+				assertEquals("size", 100, entry.getSize());
+				assertTrue("toString", entry.toString().length() > 0);
+			}
+		}
+		storageManifest.save();
+		assertTrue("manifest file",
+				new File(storageDir, StorageManifest.MANIFEST_FILENAME).exists());
+
+		if (!file.delete()) {
+			fail("delete");
+		}
+		storageManifest.fileDeleted(file);
+		assertTrue("entries", !containsEntry(storageManifest, file.getName()));
+		storageManifest.save();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testSaveBeforeLoad() throws IOException {
+		// autre répertoire, pour une autre instance du manifeste qui n'est pas encore chargée
+		Utils.setProperty(Parameter.STORAGE_DIRECTORY, "javamelody-manifest-test");
+		final File storageDir = Parameters.getStorageDirectory(TEST_APPLICATION);
+		if (!storageDir.exists() && !storageDir.mkdirs()) {
+			fail("mkdir");
+		}
+		final File file1 = new File(storageDir, "manifest-test1.rrd");
+		final File file2 = new File(storageDir, "manifest-test2.rrd");
+		for (final File file : new File[] { file1, file2 }) {
+			final FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(new byte[100]);
+			} finally {
+				out.close();
+			}
+		}
+		// manifeste écrit par une exécution précédente
+		final FileOutputStream out = new FileOutputStream(new File(storageDir,
+				StorageManifest.MANIFEST_FILENAME));
+		try {
+			out.write(("1000\t100\t" + file1.getName() + "\n1000\t100\t" + file2.getName() + '\n')
+					.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		final StorageManifest storageManifest = StorageManifest.getInstance(TEST_APPLICATION);
+		// écriture d'un fichier et enregistrement avant que le manifeste existant ne soit chargé
+		storageManifest.fileTouched(file1, 5000);
+		storageManifest.save();
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.JROBIN)) {
+			if (entry.getName().equals(file1.getName())) {
+				// l'entrée en mémoire n'est pas remplacée par celle, plus ancienne, du manifeste
+				assertEquals("lastUpdate", 5000, entry.getLastUpdate());
+			} else if (entry.getName().equals(file2.getName())) {
+				assertEquals("lastUpdate", 1000, entry.getLastUpdate());
+			}
+		}
+		// l'entrée de l'autre fichier n'est pas perdue dans le manifeste enregistré
+		assertTrue("entries", containsEntry(storageManifest, file2.getName()));
+		final String manifest = new String(readFile(new File(storageDir,
+				StorageManifest.MANIFEST_FILENAME)), "UTF-8");
+		assertTrue("manifest", manifest.contains("5000\t100\t" + file1.getName()));
+		assertTrue("manifest", manifest.contains("1000\t100\t" + file2.getName()));
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		final byte[] bytes = new byte[(int) file.length()];
+		final DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return bytes;
+	}
+
+	private static boolean containsEntry(StorageManifest storageManifest, String fileName) {
+		for (final StorageManifest.Entry entry : storageManifest
+				.getEntries(StorageManifest.Kind.JROBIN)) {
+			if (entry.getName().equals(fileName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
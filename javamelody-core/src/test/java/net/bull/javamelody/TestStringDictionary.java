@@ -0,0 +1,120 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe StringDictionary.
+ * @author Emeric Vernat
+ */
+public class TestStringDictionary {
+	private static final String REQUEST = "select id, name from test_string_dictionary where id = ?";
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test. */
+	@Test
+	public void testIntern() {
+		final StringDictionary stringDictionary = StringDictionary.getInstance();
+		assertNull("null", StringDictionary.intern(null));
+		final String string1 = new String("test intern");
+		final String string2 = new String("test intern");
+		assertNotSame("string", string1, string2);
+		final long hitCount = stringDictionary.getHitCount();
+		final long savedBytes = stringDictionary.getSavedBytes();
+		assertSame("intern", string1, StringDictionary.intern(string1));
+		assertSame("intern", string1, StringDictionary.intern(string2));
+		assertSame("intern", string1, StringDictionary.intern(string1));
+		assertEquals("hitCount", hitCount + 1, stringDictionary.getHitCount());
+		assertTrue("savedBytes", stringDictionary.getSavedBytes() > savedBytes);
+		assertTrue("lookupCount", stringDictionary.getLookupCount() >= 3);
+		assertTrue("size", stringDictionary.getSize() > 0);
+		assertNotNull("toString", stringDictionary.toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testCounterRequestAndError() {
+		final CounterRequest request1 = new CounterRequest(new String(REQUEST), "sql");
+		final CounterRequest request2 = new CounterRequest(new String(REQUEST), "sql");
+		assertSame("name", request1.getName(), request2.getName());
+		assertSame("id", request1.getId(), request2.getId());
+		final CounterError error1 = new CounterError(new String(REQUEST), new String(REQUEST));
+		final CounterError error2 = new CounterError(new String(REQUEST), new String(REQUEST));
+		assertSame("message", error1.getMessage(), error2.getMessage());
+		assertSame("stackTrace", error1.getStackTrace(), error2.getStackTrace());
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testDeserialization() throws IOException, ClassNotFoundException {
+		final Counter counter = new Counter("sql", null);
+		counter.addRequest(new String(REQUEST), 100, 50, false, 1000);
+		final String name = counter.getRequests().get(0).getName();
+		final TransportFormat[] transportFormats = { TransportFormat.SERIALIZED,
+				TransportFormat.XML, TransportFormat.BINARY, };
+		for (final TransportFormat transportFormat : transportFormats) {
+			final Counter counter2 = (Counter) read(transportFormat, write(transportFormat, counter));
+			final CounterRequest request = counter2.getRequests().get(0);
+			assertSame(transportFormat.toString(), name, request.getName());
+			assertEquals(transportFormat.toString(), 100, counter2.getCounterRequestByName(name)
+					.getDurationsSum());
+			assertEquals(transportFormat.toString(), 1, counter2.getRequestsCount());
+		}
+		final CounterError error = new CounterError(new String(REQUEST), null);
+		for (final TransportFormat transportFormat : transportFormats) {
+			final CounterError error2 = (CounterError) read(transportFormat,
+					write(transportFormat, error));
+			assertSame(transportFormat.toString(), error.getMessage(), error2.getMessage());
+			assertEquals(transportFormat.toString(), error.getTime(), error2.getTime());
+		}
+	}
+
+	private static byte[] write(TransportFormat transportFormat, Serializable serializable)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		transportFormat.writeSerializableTo(serializable, out);
+		return out.toByteArray();
+	}
+
+	private static Serializable read(TransportFormat transportFormat, byte[] bytes)
+			throws IOException, ClassNotFoundException {
+		return transportFormat.readSerializableFrom(new ByteArrayInputStream(bytes));
+	}
+}
@@ -29,6 +29,10 @@ import static org.junit.Assert.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 import org.junit.Before;
@@ -87,6 +91,20 @@ public class TestTransportFormat {
 		assertTrue("flux vide", output.size() > 0);
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteJsonTimeSeries() throws IOException {
+		final JRobinTimeSeries timeSeries = new JRobinTimeSeries("cpu", "cpu", 0, 60,
+				new double[] { 1, Double.NaN }, new double[] { 2, Double.NaN });
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.JSON.writeSerializableTo(timeSeries, output);
+		final String json = output.toString("UTF-8");
+		// NaN n'existe pas en json
+		assertFalse("NaN", json.contains("NaN"));
+		assertTrue("null", json.contains("null"));
+	}
+
 	/** Test.
 	 * @throws IOException e
 	 * @throws ClassNotFoundException e */
@@ -118,6 +136,171 @@ public class TestTransportFormat {
 		assertEquals("counter", counter.toString(), after.toString());
 	}
 
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testReadBinary() throws IOException, ClassNotFoundException {
+		final Counter counter = createCounter();
+		final Counter errorCounter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		errorCounter.addRequestForSystemError("error1", 100, 10, "stack-trace");
+		errorCounter.addErrors(Collections.singletonList(new CounterError("message",
+				"stack-trace")));
+		final ArrayList<Object> list = new ArrayList<Object>();
+		list.add(counter);
+		list.add(errorCounter);
+		list.add(counter);
+		list.add(new JavaInformations(null, false));
+		list.add(null);
+		list.add("stack-trace");
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(list, output);
+		final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+		final List<?> after = (List<?>) TransportFormat.BINARY.readSerializableFrom(input);
+		assertEquals("size", list.size(), after.size());
+		final Counter counterAfter = (Counter) after.get(0);
+		assertEquals("counter", counter.toString(), counterAfter.toString());
+		assertSame("counter reference", counterAfter, after.get(2));
+		for (final CounterRequest request : counter.getRequests()) {
+			final CounterRequest requestAfter = counterAfter.getCounterRequestByName(request
+					.getName());
+			assertEquals("id", request.getId(), requestAfter.getId());
+			assertEquals("hits", request.getHits(), requestAfter.getHits());
+			assertEquals("durationsSum", request.getDurationsSum(),
+					requestAfter.getDurationsSum());
+			assertEquals("maximum", request.getMaximum(), requestAfter.getMaximum());
+			assertEquals("cpuTimeSum", request.getCpuTimeSum(), requestAfter.getCpuTimeSum());
+			assertEquals("systemErrors", request.getSystemErrorPercentage(),
+					requestAfter.getSystemErrorPercentage(), 0.01);
+			assertEquals("stackTrace", request.getStackTrace(), requestAfter.getStackTrace());
+			assertEquals("percentile", request.getDurationPercentile(95),
+					requestAfter.getDurationPercentile(95));
+		}
+		final Counter errorCounterAfter = (Counter) after.get(1);
+		assertEquals("errors", errorCounter.getErrorsCount(),
+				errorCounterAfter.getErrorsCount());
+		assertEquals("stackTrace", "stack-trace",
+				errorCounterAfter.getCounterRequestByName("error1").getStackTrace());
+		final CounterError error = errorCounter.getErrors().get(0);
+		final CounterError errorAfter = errorCounterAfter.getErrors().get(0);
+		assertEquals("time", error.getTime(), errorAfter.getTime());
+		assertEquals("message", error.getMessage(), errorAfter.getMessage());
+		assertEquals("stackTrace", error.getStackTrace(), errorAfter.getStackTrace());
+		assertTrue("javaInformations", after.get(3) instanceof JavaInformations);
+		assertNull("null", after.get(4));
+		assertEquals("string", "stack-trace", after.get(5));
+
+		final ByteArrayOutputStream output2 = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(null, output2);
+		final ByteArrayInputStream input2 = new ByteArrayInputStream(output2.toByteArray());
+		assertNull("null", TransportFormat.BINARY.readSerializableFrom(input2));
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testReadBinaryContexts() throws IOException, ClassNotFoundException {
+		final Counter counter = createCounter();
+		final Counter sqlCounter = new Counter("sql", null);
+		final CounterRequestContext context = new CounterRequestContext(counter, null, "test1",
+				"test1 GET", "user", -1);
+		final CounterRequestContext childContext = new CounterRequestContext(sqlCounter,
+				context, "select 1", "select 1", null, -1);
+		childContext.addChildRequest(sqlCounter, "select 1", "sql1", 10, false, -1);
+		final ArrayList<CounterRequestContext> contexts = new ArrayList<CounterRequestContext>();
+		contexts.add(context);
+		contexts.add(new CounterRequestContext(counter, null, "test2", "test2 GET", null, -1));
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(contexts, output);
+		final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+		final List<?> after = (List<?>) TransportFormat.BINARY.readSerializableFrom(input);
+		final CounterRequestContext contextAfter = (CounterRequestContext) after.get(0);
+		assertEquals("context", context.toString(), contextAfter.toString());
+		assertEquals("childRequests", context.getChildRequestsExecutionsByRequestId(),
+				contextAfter.getChildRequestsExecutionsByRequestId());
+		final CounterRequestContext childContextAfter = contextAfter.getChildContexts().get(0);
+		assertSame("parentContext", contextAfter, childContextAfter.getParentContext());
+		assertEquals("childContext", "select 1", childContextAfter.getRequestName());
+		assertEquals("startTime", childContext.getDuration(0), childContextAfter.getDuration(0));
+		assertSame("parentCounter", contextAfter.getParentCounter(),
+				((CounterRequestContext) after.get(1)).getParentCounter());
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testReadBinaryTruncated() throws IOException, ClassNotFoundException {
+		final Counter counter = createCounter();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(
+				new ArrayList<Counter>(Arrays.asList(counter, counter)), output);
+		final byte[] bytes = output.toByteArray();
+		final List<?> after = (List<?>) BinaryTransport.read(new ByteArrayInputStream(bytes));
+		// les requêtes d'un noeud sont gardées dans le counter lu, fusionné ensuite en une fois
+		final Counter counterAfter = (Counter) after.get(0);
+		assertEquals("name", counter.getName(), counterAfter.getName());
+		assertEquals("requests", counter.getRequestsCount(), counterAfter.getRequestsCount());
+		assertSame("counter reference", counterAfter, after.get(1));
+
+		// réponse incomplète : rien n'est retourné, donc rien n'est fusionné
+		final byte[] truncatedBytes = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncatedBytes, 0, truncatedBytes.length);
+		IOException result = null;
+		try {
+			BinaryTransport.read(new ByteArrayInputStream(truncatedBytes));
+		} catch (final IOException e) {
+			result = e;
+		}
+		assertNotNull("truncated", result);
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws ClassNotFoundException e */
+	@Test
+	public void testReadBinaryWithRequestHandler() throws IOException, ClassNotFoundException {
+		final Counter counter = createCounter();
+		final Counter collectorCounter = createCounter();
+		collectorCounter.clear();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransportFormat.BINARY.writeSerializableTo(
+				new ArrayList<Counter>(Arrays.asList(counter, counter)), output);
+		final BinaryTransport.RequestHandler requestHandler = new BinaryTransport.RequestHandler() {
+			@Override
+			public boolean requestRead(Counter readCounter, CounterRequest request) {
+				// la requête test1 est gardée dans le compteur lu, les autres sont fusionnées
+				if ("test1".equals(request.getName())) {
+					return false;
+				}
+				collectorCounter.addRequestHits(request);
+				return true;
+			}
+		};
+		final List<?> after = (List<?>) BinaryTransport.read(
+				new ByteArrayInputStream(output.toByteArray()), requestHandler);
+		final Counter counterAfter = (Counter) after.get(0);
+		assertEquals("kept", 1, counterAfter.getRequestsCount());
+		assertSame("counter reference", counterAfter, after.get(1));
+		assertEquals("merged", counter.getRequestsCount() - 1, collectorCounter.getRequestsCount());
+		assertEquals("hits", 1, collectorCounter.getCounterRequestByName("test3").getHits());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReadBinaryBadStream() throws IOException {
+		Exception result = null;
+		try {
+			TransportFormat.BINARY.readSerializableFrom(new ByteArrayInputStream(new byte[] { 1,
+					2, 3, 4, 5 }));
+		} catch (final Exception e) {
+			result = e;
+		}
+		assertTrue("readBinary", result instanceof IOException);
+	}
+
 	/** Test. */
 	@Test
 	public void testReadJson() {
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2008-2012 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Java Melody is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Java Melody is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Java Melody.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Benchmark des formats de transport (taille et temps d'écriture et de lecture)
+ * sur le flux d'une collecte : compteurs réels ou synthétiques et JavaInformations.
+ * <br/>Usage : java net.bull.javamelody.TransportFormatBenchmark [répertoire de stockage]
+ * <br/>Sans répertoire ou s'il ne contient pas de fichiers .ser.gz, un compteur sql synthétique est utilisé.
+ * @author Emeric Vernat
+ */
+public final class TransportFormatBenchmark {
+	private static final int ITERATIONS = 20;
+
+	private TransportFormatBenchmark() {
+		super();
+	}
+
+	/**
+	 * Lance le benchmark.
+	 * @param args Répertoire de stockage optionnel
+	 * @throws Exception e
+	 */
+	public static void main(String[] args) throws Exception { // NOPMD
+		Utils.initialize();
+		final ArrayList<Serializable> collect = new ArrayList<Serializable>();
+		if (args.length > 0) {
+			final File[] files = new File(args[0]).listFiles();
+			if (files != null) {
+				for (final File file : files) {
+					if (file.getName().endsWith(".ser.gz")) {
+						collect.add(readCounter(file));
+					}
+				}
+			}
+		}
+		if (collect.isEmpty()) {
+			collect.add(createSyntheticCounter());
+		}
+		collect.add(new JavaInformations(null, true));
+		final TransportFormat[] transportFormats = { TransportFormat.SERIALIZED,
+				TransportFormat.XML, TransportFormat.BINARY, };
+		for (final TransportFormat transportFormat : transportFormats) {
+			run(transportFormat, collect);
+		}
+	}
+
+	private static void run(TransportFormat transportFormat, Serializable collect)
+			throws Exception { // NOPMD
+		// échauffement
+		byte[] bytes = write(transportFormat, collect);
+		transportFormat.readSerializableFrom(new ByteArrayInputStream(bytes));
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			bytes = write(transportFormat, collect);
+		}
+		final long writeTime = System.nanoTime() - start;
+		final long start2 = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			transportFormat.readSerializableFrom(new ByteArrayInputStream(bytes));
+		}
+		final long readTime = System.nanoTime() - start2;
+		final byte[] compressed = write(CompressionCodec.GZIP, bytes);
+		System.out.println(transportFormat + ": " + bytes.length / 1024 + " KB ("
+				+ compressed.length / 1024 + " KB gzip), write " + writeTime / 1000000 / ITERATIONS
+				+ " ms, read " + readTime / 1000000 / ITERATIONS + " ms");
+	}
+
+	private static byte[] write(TransportFormat transportFormat, Serializable serializable)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		transportFormat.writeSerializableTo(serializable, out);
+		return out.toByteArray();
+	}
+
+	private static byte[] write(CompressionCodec codec, byte[] bytes) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+		final OutputStream output = codec.createOutputStream(out, 512);
+		try {
+			output.write(bytes);
+		} finally {
+			output.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static Counter readCounter(File file) throws IOException, ClassNotFoundException {
+		final ObjectInputStream input = new ObjectInputStream(
+				CompressionCodec.createDetectingInputStream(new FileInputStream(file)));
+		try {
+			return (Counter) input.readObject();
+		} finally {
+			input.close();
+		}
+	}
+
+	private static Counter createSyntheticCounter() {
+		final Counter counter = new Counter("sql", null);
+		for (int i = 0; i < 5000; i++) {
+			final String request = "select id, name, description from table" + i % 100
+					+ " t inner join other o on o.id = t.other_id where t.id = " + i;
+			counter.addRequest(request, i % 300, -1, i % 97 == 0, -1);
+		}
+		return counter;
+	}
+}